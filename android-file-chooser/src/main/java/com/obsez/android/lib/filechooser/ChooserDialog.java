@@ -39,15 +39,14 @@ import com.obsez.android.lib.filechooser.internals.FileUtil;
 import com.obsez.android.lib.filechooser.internals.RegexFileFilter;
 import com.obsez.android.lib.filechooser.permissions.PermissionsUtil;
 import com.obsez.android.lib.filechooser.tool.DirAdapter;
+import com.obsez.android.lib.filechooser.tool.DirLoader;
 import com.obsez.android.lib.filechooser.tool.RootFile;
 
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -697,16 +696,22 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
 
     private Set<String> roots = null;
 
+    /**
+     * Build the navigation entries and start listing the directory itself.
+     * The listing arrives through {@link #onDirEntries}.
+     */
     private void listDirs() {
         _entries.clear();
+        _headerCount = 0;
+        if (_dirTask != null) {
+            _dirTask.cancel();
+            _dirTask = null;
+        }
 
         if (_currentDir == null) {
             _currentDir = new File(FileUtil.getStoragePath(_context, false));
         }
 
-        // Get files
-        File[] files = _currentDir.listFiles(_fileFilter);
-
         // Add the ".." entry
         LinkedHashMap<String, String> storagePaths = FileUtil.getStoragePaths(_context);
         Set<String> storageKeys = storagePaths.keySet();
@@ -728,28 +733,16 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
             displayPath = true;
         }
 
-        if (files == null || !withinVolume) {
+        _headerCount = _entries.size();
+
+        if (!withinVolume) {
             if (_alertDialog != null && _alertDialog.isShowing() && _displayPath) {
                 displayPath(null);
             }
             return;
         }
 
-        List<File> dirList = new LinkedList<>();
-        List<File> fileList = new LinkedList<>();
-
-        for (File f : files) {
-            if (f.isDirectory()) {
-                dirList.add(f);
-            } else {
-                fileList.add(f);
-            }
-        }
-
-        sortByName(dirList);
-        sortByName(fileList);
-        _entries.addAll(dirList);
-        _entries.addAll(fileList);
+        _dirTask = DirLoader.load(_currentDir, _fileFilter, this::onDirEntries);
 
         // #45: setup dialog title too
         if (_alertDialog != null && !_disableTitle) {
@@ -783,12 +776,28 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
         }
     }
 
-    private void sortByName(List<File> list) {
-        Collections.sort(list, (f1, f2) -> f1.getName().toLowerCase().compareTo(f2.getName().toLowerCase()));
+    private void onDirEntries(List<File> files, boolean complete) {
+        while (_entries.size() > _headerCount) {
+            _entries.remove(_entries.size() - 1);
+        }
+        _entries.addAll(files);
+        _adapter.setEntries(_entries);
+
+        // Restore the scroll position once the row it points at has arrived
+        if (_pendingScrollTo >= 0 && (_pendingScrollTo < _entries.size() || complete)) {
+            final int position = Math.min(_pendingScrollTo, _entries.size() - 1);
+            _pendingScrollTo = -1;
+            _list.setSelection(position);
+            _list.post(() -> _list.setSelection(position));
+        }
+        if (complete) {
+            _dirTask = null;
+        }
     }
 
     void createNewDirectory(String name) {
         if (FileUtil.createNewDirectory(name, _currentDir)) {
+            DirLoader.invalidate(_currentDir);
             refreshDirs();
             return;
         }
@@ -860,6 +869,7 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
                 case CHOOSE_MODE_DELETE:
                     try {
                         FileUtil.deleteFileRecursively(file);
+                        DirLoader.invalidate(_currentDir);
                     } catch (IOException e) {
                         e.printStackTrace();
                         Toast.makeText(_context, e.getMessage(), Toast.LENGTH_LONG).show();
@@ -873,11 +883,8 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
                     return;
             }
         }
+        _pendingScrollTo = scrollTo;
         refreshDirs();
-        if (scrollTo != -1) {
-            _list.setSelection(scrollTo);
-            _list.post(() -> _list.setSelection(scrollTo));
-        }
     }
 
     @Override
@@ -922,6 +929,9 @@ public class ChooserDialog implements AdapterView.OnItemClickListener, DialogInt
     }
 
     List<File> _entries = new ArrayList<>();
+    private int _headerCount;
+    private DirLoader.Task _dirTask;
+    private int _pendingScrollTo = -1;
     DirAdapter _adapter;
     File _currentDir;
     Context _context;
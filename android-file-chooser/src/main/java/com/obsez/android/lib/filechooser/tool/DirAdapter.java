@@ -27,6 +27,7 @@ import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Stack;
 
@@ -114,10 +115,7 @@ public class DirAdapter extends ArrayAdapter<File> {
         } else {
             Drawable d = null;
             if (_resolveFileType) {
-                d = UiUtil.resolveFileTypeIcon(getContext(), Uri.fromFile(file));
-                if (d != null) {
-                    d = new WrappedDrawable(d, 24, 24);
-                }
+                d = fileTypeIcon(file);
             }
             if (d == null) {
                 d = _defaultFileIcon;
@@ -243,6 +241,24 @@ public class DirAdapter extends ArrayAdapter<File> {
         return _indexStack;
     }
 
+    /**
+     * Resolving an icon queries the package manager, so do it once per extension
+     */
+    private Drawable fileTypeIcon(File file) {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        final String ext = dot < 0 ? "" : name.substring(dot + 1).toLowerCase();
+        if (_fileTypeIcons.containsKey(ext)) {
+            return _fileTypeIcons.get(ext);
+        }
+        Drawable d = UiUtil.resolveFileTypeIcon(getContext(), Uri.fromFile(file));
+        if (d != null) {
+            d = new WrappedDrawable(d, 24, 24);
+        }
+        _fileTypeIcons.put(ext, d);
+        return d;
+    }
+
     private SimpleDateFormat _formatter;
     private Drawable _defaultFolderIcon = null;
     private Drawable _defaultFileIcon = null;
@@ -251,5 +267,6 @@ public class DirAdapter extends ArrayAdapter<File> {
     private SparseArrayCompat<File> _selected = new SparseArrayCompat<File>();
     private GetView _getView = null;
     private Stack<Integer> _indexStack = new Stack<>();
+    private final HashMap<String, Drawable> _fileTypeIcons = new HashMap<>();
 }
 
@@ -0,0 +1,205 @@
+package com.obsez.android.lib.filechooser.tool;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lists directories off the UI thread.
+ * <p>
+ * Each entry's attributes are read once (one stat per entry through
+ * {@link Files#newDirectoryStream} on O+) into a {@link FileEntry}, with a
+ * {@link NaturalOrder} key computed up front so sorting never re-lowercases names.
+ * The first page is delivered as soon as it is read and the rest follows
+ * in larger batches. Complete, unfiltered listings are cached per directory
+ * and reused while the directory's mtime is unchanged.
+ */
+public final class DirLoader {
+
+    @FunctionalInterface
+    public interface Callback {
+        /**
+         * Called on the UI thread with the sorted, filtered entries read so far
+         */
+        void onEntries(@NonNull List<File> entries, boolean complete);
+    }
+
+    /**
+     * Handle for a running load; results stop arriving once cancelled
+     */
+    public static final class Task {
+        private volatile boolean _cancelled;
+
+        public void cancel() {
+            _cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return _cancelled;
+        }
+    }
+
+    private static final int FIRST_PAGE = 100;
+    private static final int PAGE = 1000;
+    private static final int MAX_CACHED = 32;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+    private static final LruCache<String, Snapshot> CACHE = new LruCache<>(MAX_CACHED);
+
+    // Folders first, then in natural name order
+    private static final Comparator<FileEntry> ORDER = (a, b) -> {
+        if (a.isDirectory() != b.isDirectory()) return a.isDirectory() ? -1 : 1;
+        return a._sortKey.compareTo(b._sortKey);
+    };
+
+    private static final class Snapshot {
+        final long modified;
+        final List<FileEntry> entries;
+
+        Snapshot(long modified, List<FileEntry> entries) {
+            this.modified = modified;
+            this.entries = entries;
+        }
+    }
+
+    private DirLoader() {
+    }
+
+    @NonNull
+    public static Task load(@NonNull File dir, @Nullable FileFilter filter, @NonNull Callback callback) {
+        final Task task = new Task();
+        EXECUTOR.execute(() -> {
+            if (!task._cancelled) read(dir, filter, task, callback);
+        });
+        return task;
+    }
+
+    /**
+     * Drop the cached listing, e.g. after creating or deleting a child
+     */
+    public static void invalidate(@Nullable File dir) {
+        if (dir == null) return;
+        synchronized (CACHE) {
+            CACHE.remove(dir.getAbsolutePath());
+        }
+    }
+
+    private static void read(File dir, FileFilter filter, Task task, Callback callback) {
+        final String key = dir.getAbsolutePath();
+        final long modified = dir.lastModified();
+
+        final Snapshot cached;
+        synchronized (CACHE) {
+            cached = CACHE.get(key);
+        }
+        if (cached != null && modified != 0L && cached.modified == modified) {
+            deliver(task, callback, filter(cached.entries, filter), true);
+            return;
+        }
+
+        final List<FileEntry> entries = new ArrayList<>();
+        final Runnable onPage = new Runnable() {
+            int nextPage = FIRST_PAGE;
+
+            @Override
+            public void run() {
+                if (entries.size() < nextPage) return;
+                nextPage = entries.size() + PAGE;
+                final List<FileEntry> sorted = new ArrayList<>(entries);
+                Collections.sort(sorted, ORDER);
+                deliver(task, callback, filter(sorted, filter), false);
+            }
+        };
+
+        boolean ok;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            ok = readStream(dir, entries, task, onPage);
+        } else {
+            ok = readLegacy(dir, entries, task, onPage);
+        }
+        if (task._cancelled) return;
+
+        Collections.sort(entries, ORDER);
+        if (ok) {
+            synchronized (CACHE) {
+                CACHE.put(key, new Snapshot(modified, Collections.unmodifiableList(entries)));
+            }
+        }
+        deliver(task, callback, filter(entries, filter), true);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    private static boolean readStream(File dir, List<FileEntry> entries, Task task, Runnable onPage) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+            for (Path path : stream) {
+                if (task._cancelled) return false;
+                final String name = path.getFileName().toString();
+                FileEntry entry;
+                try {
+                    final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    entry = new FileEntry(dir, name, attrs.isDirectory(), attrs.size(),
+                        attrs.lastModifiedTime().toMillis(), NaturalOrder.keyOf(name));
+                } catch (IOException | SecurityException e) {
+                    // Broken links and the like still show up, as plain files
+                    entry = new FileEntry(dir, name, false, 0L, 0L, NaturalOrder.keyOf(name));
+                }
+                entries.add(entry);
+                onPage.run();
+            }
+            return true;
+        } catch (IOException | SecurityException | DirectoryIteratorException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static boolean readLegacy(File dir, List<FileEntry> entries, Task task, Runnable onPage) {
+        final String[] names = dir.list();
+        if (names == null) return false;
+        for (String name : names) {
+            if (task._cancelled) return false;
+            final File file = new File(dir, name);
+            entries.add(new FileEntry(dir, name, file.isDirectory(), file.length(), file.lastModified(),
+                NaturalOrder.keyOf(name)));
+            onPage.run();
+        }
+        return true;
+    }
+
+    private static List<File> filter(List<FileEntry> entries, @Nullable FileFilter filter) {
+        final List<File> result = new ArrayList<>(entries.size());
+        for (FileEntry entry : entries) {
+            if (filter == null || filter.accept(entry)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private static void deliver(Task task, Callback callback, List<File> entries, boolean complete) {
+        MAIN.post(() -> {
+            if (!task._cancelled) callback.onEntries(entries, complete);
+        });
+    }
+}
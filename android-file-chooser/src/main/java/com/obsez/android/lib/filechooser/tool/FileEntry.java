@@ -0,0 +1,52 @@
+package com.obsez.android.lib.filechooser.tool;
+
+import java.io.File;
+
+/**
+ * A directory entry whose attributes were read once by {@link DirLoader}.
+ * <p>
+ * Rows and filters ask for isDirectory/length/lastModified/isHidden many
+ * times; answering from fields keeps those calls off the filesystem.
+ */
+public final class FileEntry extends File {
+    private final boolean _isDirectory;
+    private final long _length;
+    private final long _lastModified;
+    private final boolean _hidden;
+    final NaturalOrder.Key _sortKey;
+
+    FileEntry(File parent, String name, boolean isDirectory, long length, long lastModified,
+        NaturalOrder.Key sortKey) {
+        super(parent, name);
+        _isDirectory = isDirectory;
+        _length = isDirectory ? 0L : length;
+        _lastModified = lastModified;
+        _hidden = name.startsWith(".");
+        _sortKey = sortKey;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return _isDirectory;
+    }
+
+    @Override
+    public boolean isFile() {
+        return !_isDirectory;
+    }
+
+    @Override
+    public long length() {
+        return _length;
+    }
+
+    @Override
+    public long lastModified() {
+        return _lastModified;
+    }
+
+    @Override
+    public boolean isHidden() {
+        return _hidden;
+    }
+}
@@ -0,0 +1,136 @@
+package com.obsez.android.lib.filechooser.tool;
+
+import androidx.annotation.NonNull;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Natural ("Episode 2" before "Episode 10"), locale-aware name order.
+ * <p>
+ * Every run of digits is rewritten as its length followed by the digits
+ * without leading zeros, so numbers compare by value, and the result goes
+ * through a case-insensitive {@link Collator} once. Sorting then only
+ * compares the resulting keys instead of re-lowercasing names on every
+ * comparison.
+ */
+public final class NaturalOrder {
+
+    /**
+     * Extracts the name to sort an item by
+     */
+    public interface Naming<T> {
+        String nameOf(T item);
+    }
+
+    /**
+     * Precomputed sort key for one name
+     */
+    public static final class Key implements Comparable<Key> {
+        private final CollationKey _key;
+        private final String _name;
+
+        Key(CollationKey key, String name) {
+            _key = key;
+            _name = name;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        @Override
+        public int compareTo(@NonNull Key other) {
+            final int result = _key.compareTo(other._key);
+            // Names equal apart from case or leading zeros still get a stable order
+            return result != 0 ? result : _name.compareTo(other._name);
+        }
+    }
+
+    // Collators aren't thread-safe; each thread keeps its own
+    private static final ThreadLocal<Collator> COLLATOR = new ThreadLocal<Collator>() {
+        @Override
+        protected Collator initialValue() {
+            final Collator collator = Collator.getInstance();
+            collator.setStrength(Collator.SECONDARY);
+            return collator;
+        }
+    };
+
+    private static final int MAX_DIGITS = 99;
+
+    private NaturalOrder() {
+    }
+
+    @NonNull
+    public static Key keyOf(@NonNull String name) {
+        return new Key(COLLATOR.get().getCollationKey(expandNumbers(name)), name);
+    }
+
+    /**
+     * Sort in place, computing each item's key once
+     */
+    public static <T> void sort(@NonNull List<T> items, @NonNull Naming<? super T> naming) {
+        final int size = items.size();
+        if (size < 2) return;
+
+        final Keyed[] keyed = new Keyed[size];
+        for (int i = 0; i < size; i++) {
+            final T item = items.get(i);
+            final String name = naming.nameOf(item);
+            keyed[i] = new Keyed(keyOf(name != null ? name : ""), item);
+        }
+        Arrays.sort(keyed);
+        for (int i = 0; i < size; i++) {
+            @SuppressWarnings("unchecked") final T item = (T) keyed[i].item;
+            items.set(i, item);
+        }
+    }
+
+    /**
+     * "S01E2" becomes "S011E012": each digit run is prefixed with its
+     * two-digit length, so shorter numbers sort first
+     */
+    static String expandNumbers(String name) {
+        StringBuilder out = null;
+        final int length = name.length();
+        int i = 0;
+        while (i < length) {
+            final char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                if (out != null) out.append(c);
+                i++;
+                continue;
+            }
+            if (out == null) {
+                out = new StringBuilder(length + 8);
+                out.append(name, 0, i);
+            }
+            int start = i;
+            while (i < length && name.charAt(i) >= '0' && name.charAt(i) <= '9') i++;
+            final int end = i;
+            while (start < end - 1 && name.charAt(start) == '0') start++;
+            final int digits = Math.min(end - start, MAX_DIGITS);
+            out.append((char) ('0' + digits / 10)).append((char) ('0' + digits % 10));
+            out.append(name, start, end);
+        }
+        return out != null ? out.toString() : name;
+    }
+
+    private static final class Keyed implements Comparable<Keyed> {
+        final Key key;
+        final Object item;
+
+        Keyed(Key key, Object item) {
+            this.key = key;
+            this.item = item;
+        }
+
+        @Override
+        public int compareTo(@NonNull Keyed other) {
+            return key.compareTo(other.key);
+        }
+    }
+}
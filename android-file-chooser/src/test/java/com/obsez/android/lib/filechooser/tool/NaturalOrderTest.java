@@ -0,0 +1,103 @@
+package com.obsez.android.lib.filechooser.tool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Ordering checks for NaturalOrder, including a large synthetic directory
+ */
+public class NaturalOrderTest {
+
+    private static List<String> sorted(String... names) {
+        List<String> list = new ArrayList<>(Arrays.asList(names));
+        NaturalOrder.sort(list, name -> name);
+        return list;
+    }
+
+    @Test
+    public void numbersSortByValue() {
+        assertEquals(
+            Arrays.asList("Episode 1.mkv", "Episode 2.mkv", "Episode 10.mkv"),
+            sorted("Episode 10.mkv", "Episode 2.mkv", "Episode 1.mkv")
+        );
+        assertEquals(
+            Arrays.asList("Show.S01E02.mkv", "Show.S01E003.mkv", "Show.S01E10.mkv", "Show.S02E01.mkv"),
+            sorted("Show.S02E01.mkv", "Show.S01E10.mkv", "Show.S01E003.mkv", "Show.S01E02.mkv")
+        );
+    }
+
+    @Test
+    public void caseAndAccentsFoldTogether() {
+        assertEquals(Arrays.asList("a", "abc", "B"), sorted("B", "abc", "a"));
+        assertEquals(
+            Arrays.asList("episode 2", "Épisode 3", "Episode 10"),
+            sorted("Episode 10", "Épisode 3", "episode 2")
+        );
+    }
+
+    @Test
+    public void equalKeysKeepAStableOrder() {
+        assertEquals(Arrays.asList("007", "7"), sorted("7", "007"));
+        assertEquals(Arrays.asList("007", "7"), sorted("007", "7"));
+        assertEquals(0, NaturalOrder.keyOf("x1").compareTo(NaturalOrder.keyOf("x1")));
+        assertTrue(NaturalOrder.keyOf("x2").compareTo(NaturalOrder.keyOf("x10")) < 0);
+    }
+
+    @Test
+    public void searchingByKeyFindsTheExactName() {
+        // Names the natural order ranks together, as DirectoryIndex.findNext searches them
+        List<String> names = sorted("ep2", "ep1", "EP1", "ep01", "Ep001", "ep 1");
+        List<NaturalOrder.Key> keys = new ArrayList<>();
+        for (String name : names) {
+            keys.add(NaturalOrder.keyOf(name));
+        }
+        for (String name : names) {
+            int index = Collections.binarySearch(keys, NaturalOrder.keyOf(name));
+            assertTrue(name, index >= 0);
+            assertEquals(name, names.get(index));
+        }
+    }
+
+    @Test
+    public void largeDirectoryIsOrderedAndIndependentOfInputOrder() {
+        List<String> names = syntheticDirectory(5_000);
+
+        List<String> first = new ArrayList<>(names);
+        NaturalOrder.sort(first, name -> name);
+        for (int i = 1; i < first.size(); i++) {
+            assertTrue(first.get(i - 1) + " > " + first.get(i),
+                NaturalOrder.keyOf(first.get(i - 1)).compareTo(NaturalOrder.keyOf(first.get(i))) <= 0);
+        }
+
+        List<String> shuffled = new ArrayList<>(names);
+        Collections.shuffle(shuffled, new Random(7));
+        NaturalOrder.sort(shuffled, name -> name);
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(0, NaturalOrder.keyOf(first.get(i)).compareTo(NaturalOrder.keyOf(shuffled.get(i))));
+        }
+    }
+
+    private static List<String> syntheticDirectory(int size) {
+        Random random = new Random(42);
+        String[] shows = {"The Show", "Another.Show", "Café Stories", "show_with_underscores", "ZZ Top Live"};
+        String[] tags = {"1080p.WEB-DL", "720p.HDTV", "2160p.BluRay.x265", "480p"};
+        String[] extensions = {"mkv", "mp4", "srt", "ass"};
+        List<String> names = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String show = shows[random.nextInt(shows.length)];
+            int season = 1 + random.nextInt(29);
+            int episode = 1 + random.nextInt(399);
+            names.add(show + ".S" + season + "E" + episode + "." + tags[random.nextInt(tags.length)]
+                    + "." + extensions[random.nextInt(extensions.length)]);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,343 @@
+package com.brouken.player;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.util.LruCache;
+import android.webkit.MimeTypeMap;
+
+import androidx.annotation.Nullable;
+import androidx.documentfile.provider.DocumentFile;
+
+import com.obsez.android.lib.filechooser.tool.NaturalOrder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * In-memory listing of a directory's children.
+ *
+ * SAF directories are read with a single DocumentsContract children query
+ * instead of one ContentResolver call per DocumentFile getter, which matters
+ * a lot on network-share providers. Indexes are cached per directory URI and
+ * dropped when the provider reports a change (or after {@link #MAX_AGE_MS} for
+ * providers that never notify).
+ */
+class DirectoryIndex {
+
+    private static final long MAX_AGE_MS = 5 * 60 * 1000;
+    private static final int MAX_CACHED = 16;
+
+    private static final String[] PROJECTION = new String[] {
+            DocumentsContract.Document.COLUMN_DOCUMENT_ID,
+            DocumentsContract.Document.COLUMN_DISPLAY_NAME,
+            DocumentsContract.Document.COLUMN_MIME_TYPE,
+            DocumentsContract.Document.COLUMN_SIZE
+    };
+
+    private static final LruCache<String, DirectoryIndex> cache = new LruCache<String, DirectoryIndex>(MAX_CACHED) {
+        @Override
+        protected void entryRemoved(boolean evicted, String key, DirectoryIndex oldValue, DirectoryIndex newValue) {
+            oldValue.unregister();
+        }
+    };
+
+    static class Entry {
+        final Uri uri;
+        final String name;
+        final String mimeType;
+        final long size;
+        final boolean isDirectory;
+        final String lowerName;
+        final NaturalOrder.Key sortKey;
+
+        Entry(Uri uri, String name, String mimeType, long size, boolean isDirectory) {
+            this.uri = uri;
+            this.name = name;
+            this.mimeType = mimeType;
+            this.size = size;
+            this.isDirectory = isDirectory;
+            this.lowerName = name.toLowerCase(Locale.ROOT);
+            this.sortKey = NaturalOrder.keyOf(name);
+        }
+
+        boolean isVideo() {
+            return !isDirectory && mimeType != null && mimeType.startsWith("video/");
+        }
+
+        boolean isSubtitle() {
+            return !isDirectory && SubtitleUtils.isSubtitleName(lowerName);
+        }
+    }
+
+    private final List<Entry> entries;
+    private final long createdAt;
+    private final ContentResolver contentResolver;
+    private File sourceDir;
+    private long sourceModified;
+    private ContentObserver observer;
+    private volatile boolean stale;
+
+    private DirectoryIndex(List<Entry> entries, ContentResolver contentResolver) {
+        this.entries = entries;
+        this.contentResolver = contentResolver;
+        this.createdAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Get the index for a directory, reading it only if not cached or changed
+     */
+    @Nullable
+    static DirectoryIndex get(Context context, DocumentFile dir) {
+        if (dir == null)
+            return null;
+
+        final Uri dirUri = dir.getUri();
+        final String key = dirUri.toString();
+
+        synchronized (cache) {
+            DirectoryIndex index = cache.get(key);
+            if (index != null && index.isValid()) {
+                return index;
+            }
+        }
+
+        DirectoryIndex index;
+        if (ContentResolver.SCHEME_FILE.equals(dirUri.getScheme())) {
+            index = readFileDirectory(new File(dirUri.getPath()));
+        } else {
+            index = readDocumentDirectory(context.getApplicationContext().getContentResolver(), dirUri);
+        }
+
+        if (index != null) {
+            synchronized (cache) {
+                cache.put(key, index);
+            }
+        }
+        return index;
+    }
+
+    static void invalidateAll() {
+        synchronized (cache) {
+            cache.evictAll();
+        }
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Sidecar subtitle for a video: the only subtitle next to the only video,
+     * or a subtitle named after the video
+     */
+    @Nullable
+    Entry findSubtitle(String videoName) {
+        final String videoBaseName = getFileBaseName(videoName);
+        final String prefix = videoBaseName + '.';
+        Entry single = null;
+        int subtitles = 0;
+        int videos = 0;
+
+        for (Entry entry : entries) {
+            if (entry.name.startsWith("."))
+                continue;
+            if (entry.isSubtitle()) {
+                subtitles++;
+                single = entry;
+            }
+            if (entry.isVideo())
+                videos++;
+        }
+
+        if (videos == 1 && subtitles == 1) {
+            return single;
+        }
+
+        for (Entry entry : entries) {
+            if (entry.isSubtitle() && !entry.name.startsWith(".") && entry.name.startsWith(prefix)) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Next video after the given name in natural order ("Episode 2" before "Episode 10")
+     */
+    @Nullable
+    Entry findNext(String videoName) {
+        // Entries are sorted by key, so the current video is found by binary search. Keys
+        // only compare equal for the same name: "ep01" and "ep1" are told apart by the name
+        final NaturalOrder.Key key = NaturalOrder.keyOf(videoName);
+        int low = 0;
+        int high = entries.size() - 1;
+        int position = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int result = entries.get(mid).sortKey.compareTo(key);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                position = mid;
+                break;
+            }
+        }
+        if (position < 0 || !entries.get(position).name.equals(videoName))
+            return null;
+
+        for (int i = position + 1; i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+            if (entry.isVideo()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Up to count other videos closest to the given name in natural order,
+     * the following ones first (the rest of a season before what was watched)
+     */
+    List<Entry> findNeighbours(String videoName, int count) {
+        final List<Entry> videos = new ArrayList<>();
+        int position = -1;
+        for (Entry entry : entries) {
+            if (entry.isVideo()) {
+                if (entry.name.equals(videoName)) {
+                    position = videos.size();
+                }
+                videos.add(entry);
+            }
+        }
+        final List<Entry> neighbours = new ArrayList<>();
+        if (position < 0)
+            return neighbours;
+
+        for (int i = position + 1; i < videos.size() && neighbours.size() < count; i++) {
+            neighbours.add(videos.get(i));
+        }
+        for (int i = position - 1; i >= 0 && neighbours.size() < count; i--) {
+            neighbours.add(videos.get(i));
+        }
+        return neighbours;
+    }
+
+    private boolean isValid() {
+        if (sourceDir != null) {
+            // Plain directories report changes through their own mtime
+            return sourceDir.lastModified() == sourceModified;
+        }
+        return !stale && SystemClock.elapsedRealtime() - createdAt < MAX_AGE_MS;
+    }
+
+    private void observe(Uri childrenUri) {
+        observer = new ContentObserver(new Handler(Looper.getMainLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                stale = true;
+            }
+        };
+        try {
+            contentResolver.registerContentObserver(childrenUri, true, observer);
+        } catch (Exception e) {
+            // Some providers refuse observers; the max age still applies
+            observer = null;
+        }
+    }
+
+    private void unregister() {
+        if (observer != null && contentResolver != null) {
+            contentResolver.unregisterContentObserver(observer);
+            observer = null;
+        }
+    }
+
+    @Nullable
+    private static DirectoryIndex readDocumentDirectory(ContentResolver contentResolver, Uri dirUri) {
+        final Uri childrenUri;
+        try {
+            childrenUri = DocumentsContract.buildChildDocumentsUriUsingTree(dirUri,
+                    DocumentsContract.getDocumentId(dirUri));
+        } catch (IllegalArgumentException e) {
+            Utils.log(e.toString());
+            return null;
+        }
+
+        final List<Entry> entries = new ArrayList<>();
+        try (Cursor cursor = contentResolver.query(childrenUri, PROJECTION, null, null, null)) {
+            if (cursor == null)
+                return null;
+            while (cursor.moveToNext()) {
+                final String documentId = cursor.getString(0);
+                final String name = cursor.getString(1);
+                final String mimeType = cursor.getString(2);
+                final long size = cursor.isNull(3) ? 0 : cursor.getLong(3);
+                if (documentId == null || name == null)
+                    continue;
+                final Uri uri = DocumentsContract.buildDocumentUriUsingTree(dirUri, documentId);
+                final boolean isDirectory = DocumentsContract.Document.MIME_TYPE_DIR.equals(mimeType);
+                entries.add(new Entry(uri, name, mimeType, size, isDirectory));
+            }
+        } catch (Exception e) {
+            Utils.log(e.toString());
+            return null;
+        }
+
+        sort(entries);
+        final DirectoryIndex index = new DirectoryIndex(Collections.unmodifiableList(entries), contentResolver);
+        index.observe(childrenUri);
+        return index;
+    }
+
+    @Nullable
+    private static DirectoryIndex readFileDirectory(File dir) {
+        final long modified = dir.lastModified();
+        final File[] files = dir.listFiles();
+        if (files == null)
+            return null;
+
+        final MimeTypeMap mimeTypeMap = MimeTypeMap.getSingleton();
+        final List<Entry> entries = new ArrayList<>(files.length);
+        for (File file : files) {
+            final String name = file.getName();
+            final boolean isDirectory = file.isDirectory();
+            String mimeType = null;
+            if (!isDirectory) {
+                final int dot = name.lastIndexOf('.');
+                if (dot >= 0) {
+                    mimeType = mimeTypeMap.getMimeTypeFromExtension(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+                }
+            }
+            entries.add(new Entry(Uri.fromFile(file), name, mimeType, isDirectory ? 0 : file.length(), isDirectory));
+        }
+
+        sort(entries);
+        final DirectoryIndex index = new DirectoryIndex(Collections.unmodifiableList(entries), null);
+        index.sourceDir = dir;
+        index.sourceModified = modified;
+        return index;
+    }
+
+    private static void sort(List<Entry> entries) {
+        Collections.sort(entries, (a, b) -> a.sortKey.compareTo(b.sortKey));
+    }
+
+    private static String getFileBaseName(String name) {
+        if (name.indexOf(".") > 0)
+            return name.substring(0, name.lastIndexOf("."));
+        return name;
+    }
+}
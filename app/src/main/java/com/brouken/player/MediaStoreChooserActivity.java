@@ -3,25 +3,39 @@ package com.brouken.player;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.MediaStore;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
-import java.util.Collections;
-import java.util.HashMap;
+import com.obsez.android.lib.filechooser.tool.NaturalOrder;
+
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class MediaStoreChooserActivity extends Activity {
 
@@ -31,10 +45,24 @@ public class MediaStoreChooserActivity extends Activity {
 
     final int REQUEST_PERMISSION_STORAGE = 0;
 
+    private static final String[] BUCKET_PROJECTION = new String[] {
+            MediaStore.MediaColumns.BUCKET_ID, MediaStore.MediaColumns.BUCKET_DISPLAY_NAME
+    };
+    private static final String[] FILE_PROJECTION = new String[] {
+            MediaStore.MediaColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME
+    };
+    private static final long RELOAD_DELAY_MS = 500;
+
     Integer bucketId;
     boolean subtitles;
     String title;
 
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private ContentObserver observer;
+    private AlertDialog bucketDialog;
+    private MediaCursorAdapter filesAdapter;
+
     @RequiresApi(api = Build.VERSION_CODES.R)
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -76,7 +104,9 @@ public class MediaStoreChooserActivity extends Activity {
     @RequiresApi(api = Build.VERSION_CODES.R)
     private void start() {
         if (bucketId == null) {
-            Utils.scanMediaStorage(this);
+            if (bucketDialog == null) {
+                Utils.scanMediaStorage(this);
+            }
             showBuckets();
         } else {
             showFiles(bucketId);
@@ -97,54 +127,88 @@ public class MediaStoreChooserActivity extends Activity {
         }
     }
 
-    @RequiresApi(api = Build.VERSION_CODES.Q)
-    HashMap<Integer, String> query(String projectionId, String projectionName, String selection) {
-        Uri collection = MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL);
-        if (subtitles) {
-            collection = MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL);
-        }
-        HashMap<Integer, String> hashMap = new HashMap<>();
-        try (Cursor cursor = getContentResolver().query(collection, new String[] { projectionId, projectionName }, selection, null, null)) {
-            if (cursor != null && cursor.moveToFirst()) {
-                int columnId = cursor.getColumnIndex(projectionId);
-                int columnName = cursor.getColumnIndex(projectionName);
-
-                do {
-                    int id = cursor.getInt(columnId);
-                    String name = cursor.getString(columnName);
-                    if (name == null) {
-                        continue;
-                    }
-                    if (!hashMap.containsKey(id)) {
-                        hashMap.put(id, name);
-                    }
-                } while (cursor.moveToNext());
+    @Override
+    protected void onDestroy() {
+        if (observer != null) {
+            getContentResolver().unregisterContentObserver(observer);
+            observer = null;
+        }
+        handler.removeCallbacksAndMessages(null);
+        executor.shutdownNow();
+        if (filesAdapter != null) {
+            final Cursor cursor = filesAdapter.swapCursor(null, null);
+            if (cursor != null) {
+                cursor.close();
             }
+        }
+        super.onDestroy();
+    }
+
+    Uri getCollection() {
+        if (subtitles) {
+            return MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL);
+        }
+        return MediaStore.Video.Media.getContentUri(MediaStore.VOLUME_EXTERNAL);
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    @Nullable
+    Cursor query(String[] projection, String selection, String sortColumn) {
+        final Bundle queryArgs = new Bundle();
+        if (!selection.isEmpty()) {
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+        }
+        queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortColumn + " COLLATE NOCASE ASC");
+        try {
+            return getContentResolver().query(getCollection(), projection, queryArgs, null);
         } catch (Exception x) {
             x.printStackTrace();
+            return null;
         }
-        // Sort map by value
-        List<Map.Entry<Integer, String>> list = new LinkedList<>(hashMap.entrySet());
-        Collections.sort(list, (o1, o2) -> o1.getValue().compareToIgnoreCase(o2.getValue()));
-        HashMap<Integer, String> sortedMap = new LinkedHashMap<>();
-        for (Map.Entry<Integer, String> map : list) {
-            sortedMap.put(map.getKey(), map.getValue());
+    }
+
+    /**
+     * Reload the shown list whenever MediaStore reports a change
+     */
+    void observe(Runnable reload) {
+        observer = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // Scans report changes in bursts; reload once they settle
+                handler.removeCallbacks(reload);
+                handler.postDelayed(reload, RELOAD_DELAY_MS);
+            }
+        };
+        getContentResolver().registerContentObserver(getCollection(), true, observer);
+    }
+
+    void runInBackground(Runnable runnable) {
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException e) {
+            // Activity already destroyed
         }
-        return sortedMap;
     }
 
     @RequiresApi(api = Build.VERSION_CODES.R)
     void showBuckets() {
-        String selection = "";
-        if (subtitles) {
-            selection += MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_SUBTITLE;
+        if (bucketDialog != null) {
+            // Coming back from a bucket; the observer has kept the list current
+            bucketDialog.show();
+            return;
         }
+        runInBackground(() -> {
+            final List<Map.Entry<Integer, String>> buckets = loadBuckets();
+            handler.post(() -> {
+                if (!isFinishing()) {
+                    showBuckets(buckets);
+                }
+            });
+        });
+    }
 
-        HashMap<Integer, String> buckets = query(MediaStore.MediaColumns.BUCKET_ID, MediaStore.MediaColumns.BUCKET_DISPLAY_NAME, selection);
-
-        Integer[] bucketIds = buckets.keySet().toArray(new Integer[0]);
-        String[] bucketDisplayNames = buckets.values().toArray(new String[0]);
-
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    void showBuckets(List<Map.Entry<Integer, String>> buckets) {
         AlertDialog.Builder alertDialogBuilder;
         if (buckets.size() == 0) {
             alertDialogBuilder = new AlertDialog.Builder(this);
@@ -152,16 +216,68 @@ public class MediaStoreChooserActivity extends Activity {
         } else {
             alertDialogBuilder = new AlertDialog.Builder(this, R.style.MediaStoreChooserDialog);
             alertDialogBuilder.setTitle(getString(R.string.choose_file));
-            alertDialogBuilder.setItems(bucketDisplayNames, (dialogInterface, i) -> {
+            final List<Integer> bucketIds = new ArrayList<>();
+            final ArrayAdapter<String> adapter = new ArrayAdapter<>(alertDialogBuilder.getContext(),
+                    android.R.layout.select_dialog_item, android.R.id.text1);
+            setBuckets(adapter, bucketIds, buckets);
+            alertDialogBuilder.setAdapter(adapter, (dialogInterface, i) -> {
                 Intent intent = new Intent(MediaStoreChooserActivity.this, MediaStoreChooserActivity.class);
                 intent.putExtra(SUBTITLES, subtitles);
-                intent.putExtra(BUCKET_ID, bucketIds[i]);
-                intent.putExtra(TITLE, bucketDisplayNames[i]);
+                intent.putExtra(BUCKET_ID, bucketIds.get(i));
+                intent.putExtra(TITLE, adapter.getItem(i));
                 startActivityForResult(intent, 0);
             });
+            observe(() -> runInBackground(() -> {
+                final List<Map.Entry<Integer, String>> updated = loadBuckets();
+                handler.post(() -> setBuckets(adapter, bucketIds, updated));
+            }));
         }
         alertDialogBuilder.setOnCancelListener(dialogInterface -> finish());
-        alertDialogBuilder.show();
+        final AlertDialog dialog = alertDialogBuilder.show();
+        if (buckets.size() > 0) {
+            bucketDialog = dialog;
+        }
+    }
+
+    private static void setBuckets(ArrayAdapter<String> adapter, List<Integer> bucketIds,
+                                   List<Map.Entry<Integer, String>> buckets) {
+        bucketIds.clear();
+        adapter.setNotifyOnChange(false);
+        adapter.clear();
+        for (Map.Entry<Integer, String> bucket : buckets) {
+            bucketIds.add(bucket.getKey());
+            adapter.add(bucket.getValue());
+        }
+        adapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Distinct buckets; there are few of them, so they are read in full and
+     * put in natural order
+     */
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    List<Map.Entry<Integer, String>> loadBuckets() {
+        String selection = "";
+        if (subtitles) {
+            selection += MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_SUBTITLE;
+        }
+
+        final LinkedHashMap<Integer, String> buckets = new LinkedHashMap<>();
+        try (Cursor cursor = query(BUCKET_PROJECTION, selection, MediaStore.MediaColumns.BUCKET_DISPLAY_NAME)) {
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    final String name = cursor.getString(1);
+                    if (name != null) {
+                        buckets.putIfAbsent(cursor.getInt(0), name);
+                    }
+                }
+            }
+        } catch (Exception x) {
+            x.printStackTrace();
+        }
+        final List<Map.Entry<Integer, String>> list = new ArrayList<>(buckets.entrySet());
+        NaturalOrder.sort(list, Map.Entry::getValue);
+        return list;
     }
 
     @RequiresApi(api = Build.VERSION_CODES.R)
@@ -171,28 +287,140 @@ public class MediaStoreChooserActivity extends Activity {
         if (subtitles) {
             selection += " AND " + MediaStore.Files.FileColumns.MEDIA_TYPE + "=" + MediaStore.Files.FileColumns.MEDIA_TYPE_SUBTITLE;
         }
-
-        HashMap<Integer, String> files = query(MediaStore.MediaColumns._ID, MediaStore.MediaColumns.DISPLAY_NAME, selection);
-
-        Integer[] ids = files.keySet().toArray(new Integer[0]);
-        String[] displayNames = files.values().toArray(new String[0]);
+        final String fileSelection = selection;
 
         AlertDialog.Builder alertDialogBuilder = new AlertDialog.Builder(this, R.style.MediaStoreChooserDialog);
         if (title != null) {
             alertDialogBuilder.setTitle(title);
         }
-        alertDialogBuilder.setItems(displayNames, (dialogInterface, i) -> {
+        if (filesAdapter == null) {
+            filesAdapter = new MediaCursorAdapter(alertDialogBuilder.getContext());
+        }
+        alertDialogBuilder.setAdapter(filesAdapter, (dialogInterface, i) -> {
+            final long id = filesAdapter.getItemId(i);
             Uri contentUri;
             if (subtitles) {
-                contentUri = MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL, ids[i]);
+                contentUri = MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL, id);
             } else {
-                contentUri = ContentUris.withAppendedId(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, ids[i]);
+                contentUri = ContentUris.withAppendedId(MediaStore.Video.Media.EXTERNAL_CONTENT_URI, id);
             }
             Intent data = new Intent("RESULT", contentUri);
             setResult(RESULT_OK, data);
             finish();
         });
         alertDialogBuilder.setOnCancelListener(dialogInterface -> finish());
+        // Shown right away; rows appear once the query returns
         alertDialogBuilder.show();
+
+        final Runnable load = () -> runInBackground(() -> loadFiles(fileSelection));
+        if (observer == null) {
+            observe(load);
+        }
+        load.run();
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.R)
+    private void loadFiles(String selection) {
+        final Cursor cursor = query(FILE_PROJECTION, selection, MediaStore.MediaColumns.DISPLAY_NAME);
+        if (cursor == null) {
+            return;
+        }
+        final int[] order = naturalOrder(cursor);
+        handler.post(() -> {
+            if (isDestroyed()) {
+                cursor.close();
+                return;
+            }
+            final Cursor old = filesAdapter.swapCursor(cursor, order);
+            if (old != null) {
+                old.close();
+            }
+        });
+    }
+
+    /**
+     * Row order fixing up the SQL collation for numbers ("Episode 2" before
+     * "Episode 10"); reads every name once, on the background thread
+     */
+    @Nullable
+    private static int[] naturalOrder(Cursor cursor) {
+        final int count = cursor.getCount();
+        if (count < 2) {
+            return null;
+        }
+        final List<Integer> rows = new ArrayList<>(count);
+        final String[] names = new String[count];
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            rows.add(i);
+            names[i] = cursor.getString(1);
+        }
+        NaturalOrder.sort(rows, row -> names[row]);
+        final int[] order = new int[rows.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = rows.get(i);
+        }
+        return order;
+    }
+
+    /**
+     * Rows read straight from the cursor as they are shown, so only the
+     * cursor's current window is held in memory
+     */
+    static class MediaCursorAdapter extends BaseAdapter {
+        private final LayoutInflater inflater;
+        private Cursor cursor;
+        private int[] order;
+
+        MediaCursorAdapter(Context context) {
+            inflater = LayoutInflater.from(context);
+        }
+
+        /**
+         * Replace the cursor, returning the old one for the caller to close
+         */
+        @Nullable
+        Cursor swapCursor(@Nullable Cursor cursor, @Nullable int[] order) {
+            final Cursor old = this.cursor;
+            this.cursor = cursor;
+            this.order = order;
+            notifyDataSetChanged();
+            return old;
+        }
+
+        private boolean moveTo(int position) {
+            if (cursor == null || cursor.isClosed()) {
+                return false;
+            }
+            final int row = order != null && position < order.length ? order[position] : position;
+            return cursor.moveToPosition(row);
+        }
+
+        @Override
+        public int getCount() {
+            return cursor == null || cursor.isClosed() ? 0 : cursor.getCount();
+        }
+
+        @Override
+        public String getItem(int position) {
+            return moveTo(position) ? cursor.getString(1) : null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return moveTo(position) ? cursor.getLong(0) : -1;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final TextView view = (TextView) (convertView != null ? convertView
+                    : inflater.inflate(android.R.layout.select_dialog_item, parent, false));
+            view.setText(getItem(position));
+            return view;
+        }
     }
 }
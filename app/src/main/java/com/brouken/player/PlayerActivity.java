@@ -32,6 +32,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.provider.DocumentsContract;
 import android.provider.Settings;
 import android.text.TextUtils;
@@ -114,22 +115,29 @@ import java.util.Objects;
 import androidx.media3.common.Metadata;
 import java.util.concurrent.TimeUnit;
 import android.os.Handler;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import com.brouken.player.tmdb.SkipManager;
+import com.brouken.player.chapters.ChapterIndex;
+import com.brouken.player.chapters.ChapterSegment;
+import com.brouken.player.detect.LocalSkipDetector;
 
-import com.brouken.player.tmdb.CinemetaClient;
+import com.brouken.player.tmdb.IdResolutionCache;
 import com.brouken.player.tmdb.IntroDBClient;
-import com.brouken.player.tmdb.JikanClient;
+import com.brouken.player.tmdb.IntroDBOutbox;
 import com.brouken.player.tmdb.JumpScareManager;
+import com.brouken.player.tmdb.NextEpisodePrefetcher;
+import com.brouken.player.tmdb.RequestScheduler;
 import com.brouken.player.utils.RemoteServer;
 import com.brouken.player.utils.DebugLogger;
+import com.brouken.player.utils.MediaScope;
 import com.brouken.player.utils.ChapterScanner;
 import com.brouken.player.utils.NameFixer;
 import com.brouken.player.trakt.TraktScrobbleManager;
+import com.brouken.player.trakt.TraktScrobbleOutbox;
 import com.brouken.player.ui.subtitle.SubtitleHub;
 import com.brouken.player.stremio.SubtitleTrack;
 import com.brouken.player.stremio.SubtitleSource;
+import com.brouken.player.stremio.SubtitleDownloadCache;
 import kotlin.Pair;
 
 public class PlayerActivity extends Activity {
@@ -170,6 +178,7 @@ public class PlayerActivity extends Activity {
     public static final int REQUEST_SETTINGS = 100;
     private static final int REQUEST_SYSTEM_CAPTIONS = 200;
     public static final int CONTROLLER_TIMEOUT = 3500;
+    private static final long TRAKT_RESUME_WINDOW_MS = 60_000;
     private static final String ACTION_MEDIA_CONTROL = "media_control";
     private static final String EXTRA_CONTROL_TYPE = "control_type";
     private static final int REQUEST_PLAY = 1;
@@ -204,7 +213,7 @@ public class PlayerActivity extends Activity {
     private Uri nextUri;
     private static boolean isTvBox;
     public static boolean locked = false;
-    private Thread nextUriThread;
+    private boolean nextPrefetchStarted;
     public Thread frameRateSwitchThread;
 
     public static boolean restoreControllerTimeout = false;
@@ -244,9 +253,15 @@ public class PlayerActivity extends Activity {
     private List<Pair<Double, Double>> currentSkipSegments;
     private boolean hasSkippedIntro = false;
     private boolean hasChapterSkip = false;
+    // Segments guessed from fades in this episode alone; offered, never auto-skipped
+    private boolean skipSegmentsSuggested = false;
     private Handler skipHandler = new Handler();
     private Runnable skipRunnable;
-    private ExecutorService bgExecutor = Executors.newSingleThreadExecutor();
+    // Background work for the current media, cancelled when it changes
+    private final MediaScope mediaScope = new MediaScope();
+    // Held here because IntroDBOutbox only keeps it weakly
+    private final Runnable onIntroDbSubmitted = () -> runOnUiThread(() ->
+            Toast.makeText(PlayerActivity.this, "Skip data → IntroDB submitted", Toast.LENGTH_SHORT).show());
     private String currentImdbId = null;
     private Integer currentMalId = null;
     private String currentUiStyle = null; // Track UI style to detect changes
@@ -262,6 +277,8 @@ public class PlayerActivity extends Activity {
     
     // Trakt Scrobbling
     private TraktScrobbleManager traktScrobbler;
+    private long traktSessionStart;
+    private boolean traktResumeApplied;
     
     // Ultimate Subtitle Hub
     private SubtitleHub subtitleHub;
@@ -278,7 +295,8 @@ public class PlayerActivity extends Activity {
 
         // AutoSkip Init
         DebugLogger.INSTANCE.init(getApplicationContext());
-        skipManager = new SkipManager();
+        IntroDBOutbox.getInstance(this).setApiKeyProvider(Prefs.introDbApiKeyProvider(this));
+        skipManager = new SkipManager(IntroDBOutbox.getInstance(this));
         
         // Jump Scare Manager - DISABLED/HIDDEN
         // jumpScareManager = new JumpScareManager(this);
@@ -322,6 +340,11 @@ public class PlayerActivity extends Activity {
                 return mPrefs.introDbApiKey != null && !mPrefs.introDbApiKey.isEmpty();
             }
             
+            @Override
+            public int getPendingSubmissions() {
+                return IntroDBOutbox.getInstance(PlayerActivity.this).pendingCount();
+            }
+            
             @Override
             public void markStart() {
                 if (player != null) {
@@ -392,6 +415,7 @@ public class PlayerActivity extends Activity {
         skipRunnable = new Runnable() {
             @Override
             public void run() {
+                maybePrefetchNext();
                 try {
                     if (player != null && player.isPlaying() && currentSkipSegments != null && mPrefs.introSkipEnabled) {
                         long posMs = player.getCurrentPosition(); // Already in milliseconds
@@ -406,7 +430,7 @@ public class PlayerActivity extends Activity {
                             // Trigger if we are at or past the start (start precision)
                             if (posMs >= startMs && posMs < endMs) {
                                 inSegment = true;
-                                if ("auto".equals(mPrefs.introSkipMode)) {
+                                if ("auto".equals(mPrefs.introSkipMode) && !skipSegmentsSuggested) {
                                     // Auto mode: skip immediately with millisecond precision
                                     if (!hasSkippedIntro) {
                                         player.seekTo(endMs); // Exact millisecond seek
@@ -1206,6 +1230,8 @@ public class PlayerActivity extends Activity {
         }
         playerView.setCustomErrorMessage(null);
         releasePlayer(false);
+        mediaScope.cancel();
+        LocalSkipDetector.getInstance(this).cancel();
     }
 
     @SuppressLint("GestureBackNavigation")
@@ -1636,6 +1662,9 @@ public class PlayerActivity extends Activity {
     }
 
     public void initializePlayer() {
+        // Lookups still running for the previous file must not touch this one
+        mediaScope.begin();
+
         boolean isNetworkUri = Utils.isSupportedNetworkUri(mPrefs.mediaUri);
         haveMedia = mPrefs.mediaUri != null;
 
@@ -1874,17 +1903,12 @@ public class PlayerActivity extends Activity {
             ((DoubleTapPlayerView)playerView).setDoubleTapEnabled(true);
 
             if (!apiAccess) {
-                if (nextUriThread != null) {
-                    nextUriThread.interrupt();
-                }
                 nextUri = null;
-                nextUriThread = new Thread(() -> {
+                nextPrefetchStarted = false;
+                mediaScope.launch(RequestScheduler.Priority.BACKGROUND, "FindNext", session -> {
                     Uri uri = findNext();
-                    if (!Thread.currentThread().isInterrupted()) {
-                        nextUri = uri;
-                    }
+                    session.post(() -> nextUri = uri);
                 });
-                nextUriThread.start();
             }
 
             player.setHandleAudioBecomingNoisy(!isTvBox);
@@ -2200,15 +2224,10 @@ public class PlayerActivity extends Activity {
         @Override
         public void onMetadata(Metadata metadata) {
             if (metadata != null) {
-                java.util.List<Pair<Double, Double>> chapters = ChapterScanner.scanForIntro(metadata);
-                if (!chapters.isEmpty()) {
-                    currentSkipSegments = chapters;
-                    hasChapterSkip = true;
+                java.util.List<ChapterSegment> chapters = ChapterScanner.scan(metadata);
+                if (!ChapterSegment.toSkipSegments(chapters).isEmpty()) {
                     DebugLogger.INSTANCE.log("SkipData", "Chapter markers found intro! Overriding any API data.");
-                    runOnUiThread(() -> {
-                        Utils.showToast(PlayerActivity.this, 
-                            "Intro found in Chapters (" + chapters.size() + ")");
-                    });
+                    runOnUiThread(() -> applyChapterSkipData(chapters));
                 }
             }
         }
@@ -2641,17 +2660,17 @@ public class PlayerActivity extends Activity {
             }
 
             if (video != null) {
-                DocumentFile subtitle = null;
+                Uri subtitle = null;
                 if (mPrefs.scopeUri != null) {
-                    subtitle = SubtitleUtils.findSubtitle(video);
+                    subtitle = SubtitleUtils.findSubtitle(this, video);
                 } else if (ContentResolver.SCHEME_FILE.equals(scheme)) {
                     File parentRaw = videoRaw.getParentFile();
                     DocumentFile dir = DocumentFile.fromFile(parentRaw);
-                    subtitle = SubtitleUtils.findSubtitle(video, dir);
+                    subtitle = SubtitleUtils.findSubtitle(this, video, dir);
                 }
 
                 if (subtitle != null) {
-                    handleSubtitles(subtitle.getUri());
+                    handleSubtitles(subtitle);
                 }
             }
         }
@@ -2659,6 +2678,28 @@ public class PlayerActivity extends Activity {
 
     Uri findNext() {
         // TODO: Unify with searchSubtitles()
+        DocumentFile[] located = locateVideo();
+        if (located != null) {
+            return SubtitleUtils.findNext(this, located[0], located[1]);
+        }
+        return null;
+    }
+
+    /**
+     * Other episodes next to the current one, for comparing their audio
+     */
+    List<Uri> findSeasonSiblings(int count) {
+        DocumentFile[] located = locateVideo();
+        if (located != null) {
+            return SubtitleUtils.findSiblings(this, located[0], located[1], count);
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * The current video and its directory, or null without access to it
+     */
+    private DocumentFile[] locateVideo() {
         if (mPrefs.scopeUri != null || isTvBox) {
             DocumentFile video = null;
             File videoRaw = null;
@@ -2680,16 +2721,12 @@ public class PlayerActivity extends Activity {
             }
 
             if (video != null) {
-                DocumentFile next;
                 if (!isTvBox) {
-                    next = SubtitleUtils.findNext(video);
+                    DocumentFile dir = video.getParentFile();
+                    return dir != null ? new DocumentFile[] { video, dir } : null;
                 } else {
                     File parentRaw = videoRaw.getParentFile();
-                    DocumentFile dir = DocumentFile.fromFile(parentRaw);
-                    next = SubtitleUtils.findNext(video, dir);
-                }
-                if (next != null) {
-                    return next.getUri();
+                    return new DocumentFile[] { video, DocumentFile.fromFile(parentRaw) };
                 }
             }
         }
@@ -3228,10 +3265,20 @@ public class PlayerActivity extends Activity {
     }
     
     /**
-     * Apply a remote subtitle URL to the player
+     * Apply a remote subtitle to the player, served from the local subtitle store
      */
     private void applyRemoteSubtitle(SubtitleTrack track) {
         if (player == null || track.getUrl() == null) return;
+
+        // Served from the cache when already downloaded; the lookup runs on the cache's IO scope
+        SubtitleDownloadCache.getInstance(this).get(track, uri -> runOnUiThread(() -> {
+            // Fall back to streaming the addon URL if the download failed
+            applyRemoteSubtitle(track, uri != null ? uri : Uri.parse(track.getUrl()));
+        }));
+    }
+
+    private void applyRemoteSubtitle(SubtitleTrack track, Uri subtitleUri) {
+        if (player == null) return;
         
         // Build subtitle configuration
         String mimeType = track.getMimeType();
@@ -3250,7 +3297,7 @@ public class PlayerActivity extends Activity {
         }
         
         MediaItem.SubtitleConfiguration subConfig = new MediaItem.SubtitleConfiguration.Builder(
-                Uri.parse(track.getUrl()))
+                subtitleUri)
                 .setMimeType(mimeType)
                 .setLanguage(track.getLanguageCode())
                 .setLabel(track.getLanguage() + (track.getAddonName() != null ? " (" + track.getAddonName() + ")" : ""))
@@ -3344,7 +3391,7 @@ public class PlayerActivity extends Activity {
         final String mediaTitle = title;
         DebugLogger.INSTANCE.log("JumpScareInit", "Media title: '" + mediaTitle + "'");
 
-        bgExecutor.execute(() -> {
+        mediaScope.launch(RequestScheduler.Priority.CURRENT, "JumpScare", session -> {
             try {
                 DebugLogger.INSTANCE.log("JumpScareInit", "Background thread started - parsing title...");
                 
@@ -3372,7 +3419,7 @@ public class PlayerActivity extends Activity {
                 DebugLogger.INSTANCE.log("JumpScareInit", "  Player Ready: " + (player != null));
                 DebugLogger.INSTANCE.log("JumpScareInit", "");
                 
-                runOnUiThread(() -> {
+                session.post(() -> {
                     DebugLogger.INSTANCE.log("JumpScareInit", "Calling jumpScareManager.initialize() on UI thread...");
                     jumpScareManager.initialize(showName, year, imdbIdForJump, mPrefs.jumpScareSkipEnabled);
                     
@@ -3396,11 +3443,64 @@ public class PlayerActivity extends Activity {
         // Reset skip state for new media
         hasSkippedIntro = false;
         hasChapterSkip = false;
+        skipSegmentsSuggested = false;
         currentSkipSegments = null;
         if (buttonSkipIntro != null) {
             buttonSkipIntro.setVisibility(View.GONE);
         }
 
+        // Resolved while the previous episode was playing; applied now so the button is there on the first frame
+        final Uri mediaUri = mPrefs.mediaUri;
+        final NextEpisodePrefetcher.Prefetched prefetched = NextEpisodePrefetcher.getInstance(this).take(mediaUri);
+        if (prefetched != null) {
+            applyPrefetchedSkipData(prefetched);
+        }
+
+        // Named container chapters need no network and win over every provider
+        if (mediaUri != null && !Utils.isSupportedNetworkUri(mediaUri)) {
+            final double duration = player != null && player.getDuration() != C.TIME_UNSET
+                    ? player.getDuration() / 1000.0 : 0;
+            mediaScope.launch(RequestScheduler.Priority.CURRENT, "Chapters", session -> {
+                List<ChapterSegment> chapters;
+                try {
+                    chapters = ChapterIndex.getInstance(PlayerActivity.this).segments(mediaUri, duration);
+                } catch (Exception e) {
+                    // A malformed file must not cost the remote lookup
+                    DebugLogger.INSTANCE.log("SkipData", "Chapter read failed: " + e);
+                    chapters = Collections.emptyList();
+                }
+                final List<ChapterSegment> found = chapters;
+                if (!ChapterSegment.toSkipSegments(found).isEmpty()) {
+                    session.post(() -> applyChapterSkipData(found));
+                } else if (prefetched == null) {
+                    session.post(this::fetchRemoteSkipData);
+                }
+            });
+            return;
+        }
+        if (prefetched == null) {
+            fetchRemoteSkipData();
+        }
+    }
+
+    private void applyChapterSkipData(List<ChapterSegment> chapters) {
+        if (hasChapterSkip) {
+            return;
+        }
+        currentSkipSegments = ChapterSegment.toSkipSegments(chapters);
+        hasChapterSkip = true;
+        skipSegmentsSuggested = false;
+        StringBuilder found = new StringBuilder();
+        for (ChapterSegment chapter : chapters) {
+            if (chapter.getType().getSkippable()) {
+                found.append(found.length() > 0 ? ", " : "").append(chapter.getType().getLabel());
+            }
+        }
+        Utils.showToast(PlayerActivity.this, "Found in Chapters: " + found);
+        DebugLogger.INSTANCE.log("SkipData", "Chapter markers found " + chapters + ", skipping remote lookup");
+    }
+
+    private void fetchRemoteSkipData() {
         // Get media title from various sources
         String title = null;
         if (apiTitle != null && !apiTitle.isEmpty()) {
@@ -3417,7 +3517,11 @@ public class PlayerActivity extends Activity {
         final String mediaTitle = title;
         DebugLogger.INSTANCE.log("SkipData", "Fetching skip data for: " + mediaTitle);
 
-        bgExecutor.execute(() -> {
+        // Read on the UI thread; the lookup only writes back through session.post
+        final String knownImdbId = currentImdbId;
+        final Integer knownMalId = currentMalId;
+
+        mediaScope.launch(RequestScheduler.Priority.CURRENT, "SkipData", session -> {
             try {
                 // Use Ultimate NameCleaner to parse and sanitize the filename
                 com.brouken.player.utils.NameCleaner.CleanResult cleanResult = 
@@ -3431,15 +3535,24 @@ public class PlayerActivity extends Activity {
                 DebugLogger.INSTANCE.log("SkipData", "Cleaned show name: '" + showName + "' S" + season + "E" + episode);
 
                 // ID Resolution: Use Cinemeta (Stremio ID provider) for IMDB IDs
-                String resolvedImdbId = currentImdbId;
-                Integer resolvedMalId = currentMalId;
+                String resolvedImdbId = knownImdbId;
+                Integer resolvedMalId = knownMalId;
+
+                // Jikan doesn't depend on Cinemeta, so resolve the MAL ID side by side
+                Future<Integer> malLookup = null;
+                if (resolvedMalId == null) {
+                    DebugLogger.INSTANCE.log("SkipData", "Using Jikan API to resolve MAL ID for: " + showName);
+                    malLookup = mediaScope.submit(RequestScheduler.Priority.CURRENT, "Jikan", () ->
+                            IdResolutionCache.getInstance(PlayerActivity.this)
+                                    .resolveMalId(showName, cleanResult.getYear()));
+                }
                 
                 // Priority 1: Cinemeta (Unified Stremio Metadata)
                 if (resolvedImdbId == null && mPrefs.cinemataUrl != null && !mPrefs.cinemataUrl.isEmpty()) {
                     DebugLogger.INSTANCE.log("SkipData", "Using Cinemeta to resolve IMDB ID for: " + showName + " (Year: " + cleanResult.getYear() + ")");
-                    CinemetaClient cinemataClient = new CinemetaClient();
-                    // Pass verified year for accurate scoring matching
-                    String cinemataImdb = cinemataClient.searchImdbId(mPrefs.cinemataUrl, "series", showName, cleanResult.getYear());
+                    // Pass verified year for accurate scoring matching; cached per show across episodes
+                    String cinemataImdb = IdResolutionCache.getInstance(PlayerActivity.this)
+                            .resolveImdbId(mPrefs.cinemataUrl, "series", showName, cleanResult.getYear());
                     
                     if (cinemataImdb != null && !cinemataImdb.isEmpty()) {
                         resolvedImdbId = cinemataImdb;
@@ -3448,7 +3561,7 @@ public class PlayerActivity extends Activity {
                         // Update Trakt scrobbler with resolved IMDB ID
                         final String finalImdbId = resolvedImdbId;
                         final String finalTitle = showName;
-                        runOnUiThread(() -> updateTraktImdbId(finalImdbId, finalTitle));
+                        session.post(() -> updateTraktImdbId(finalImdbId, finalTitle));
                     } else {
                         DebugLogger.INSTANCE.log("SkipData", "Cinemeta returned no results for: " + showName);
                     }
@@ -3457,10 +3570,8 @@ public class PlayerActivity extends Activity {
                 }
                 
                 // Priority 3: Jikan API for MAL ID (for AniSkip - anime only, no API key needed)
-                if (resolvedMalId == null) {
-                    DebugLogger.INSTANCE.log("SkipData", "Using Jikan API to resolve MAL ID for: " + showName);
-                    JikanClient jikanClient = new JikanClient();
-                    Integer malId = jikanClient.searchMalId(showName, cleanResult.getYear());
+                if (malLookup != null) {
+                    Integer malId = malLookup.get();
                     if (malId != null) {
                         resolvedMalId = malId;
                         DebugLogger.INSTANCE.log("SkipData", "Jikan resolved MAL ID: " + resolvedMalId);
@@ -3474,7 +3585,7 @@ public class PlayerActivity extends Activity {
                 // DEBUG: Show IMDB ID status to user
                 final String debugImdb = resolvedImdbId;
                 final String debugShow = showName;
-                runOnUiThread(() -> {
+                session.post(() -> {
                     if (debugImdb != null && !debugImdb.isEmpty()) {
                         Toast.makeText(PlayerActivity.this, 
                             "🔍 IMDB: " + debugImdb + " (S" + season + "E" + episode + ")", 
@@ -3487,10 +3598,14 @@ public class PlayerActivity extends Activity {
                 });
                 
                 // Store resolved IDs for submission use
-                currentImdbId = resolvedImdbId;
-                currentMalId = resolvedMalId;
-                currentSeason = season;
-                currentEpisode = episode;
+                final String storedImdbId = resolvedImdbId;
+                final Integer storedMalId = resolvedMalId;
+                session.post(() -> {
+                    currentImdbId = storedImdbId;
+                    currentMalId = storedMalId;
+                    currentSeason = season;
+                    currentEpisode = episode;
+                });
                 
                 // Jump Scare Manager - DISABLED/HIDDEN (removed all init code and logs)
                 
@@ -3502,15 +3617,6 @@ public class PlayerActivity extends Activity {
                 final String finalShowName = showName;
                 final String episodeName = "Episode " + episode; // Simple episode name for AnimeSkip
                 
-                // Callback for when data is auto-submitted to IntroDB
-                Runnable onAutoSubmit = () -> {
-                    runOnUiThread(() -> {
-                        Toast.makeText(PlayerActivity.this, 
-                            "Skip data → IntroDB submitted", 
-                            Toast.LENGTH_SHORT).show();
-                    });
-                };
-                
                 // 5-tier fallback: AnimeSkip → SkipDB → IntroHater → AniSkip → IntroDB
                 List<Pair<Double, Double>> segments = skipManager.getSkipTimes(
                     resolvedMalId, 
@@ -3521,17 +3627,17 @@ public class PlayerActivity extends Activity {
                     episodeName,             // for AnimeSkip
                     mPrefs.introHaterApiKey, // for IntroHater
                     mPrefs.introDbApiKey,    // for IntroDB submit
-                    onAutoSubmit
+                    onIntroDbSubmitted
                 );
 
                 if (segments != null && !segments.isEmpty()) {
-                    if (hasChapterSkip) {
-                        DebugLogger.INSTANCE.log("SkipData", "Ignoring API results because Chapter data was found (High Priority)");
-                        return;
-                    }
-                    currentSkipSegments = segments;
                     final int segCount = segments.size();
-                    runOnUiThread(() -> {
+                    session.post(() -> {
+                        if (hasChapterSkip) {
+                            DebugLogger.INSTANCE.log("SkipData", "Ignoring API results because Chapter data was found (High Priority)");
+                            return;
+                        }
+                        currentSkipSegments = segments;
                         Toast.makeText(PlayerActivity.this, 
                             "Intro data found (" + segCount + " segment" + (segCount > 1 ? "s" : "") + ")", 
                             Toast.LENGTH_SHORT).show();
@@ -3539,17 +3645,115 @@ public class PlayerActivity extends Activity {
                     DebugLogger.INSTANCE.log("SkipData", "Found " + segCount + " skip segments: " + segments);
                 } else {
                     DebugLogger.INSTANCE.log("SkipData", "No skip data from API for S" + finalSeason + "E" + finalEpisode);
+                    detectSkipDataLocally(session);
                 }
 
             } catch (Exception e) {
+                if (!session.isActive()) {
+                    // Cancelled because the media changed
+                    return;
+                }
                 e.printStackTrace();
                 DebugLogger.INSTANCE.log("SkipData", "Error: " + e.getClass().getSimpleName() + " - " + e.getMessage());
             }
         });
     }
 
+    /**
+     * Fall back to finding the opening and credits in the audio of this and neighbouring episodes,
+     * or to suggesting recap and credits boundaries from this episode alone
+     */
+    private void detectSkipDataLocally(MediaScope.Session session) {
+        final Uri mediaUri = mPrefs.mediaUri;
+        if (mediaUri == null || Utils.isSupportedNetworkUri(mediaUri)) {
+            return;
+        }
+
+        LocalSkipDetector detector = LocalSkipDetector.getInstance(this);
+        LocalSkipDetector.Detected cached = detector.cached(mediaUri);
+        if (cached != null) {
+            DebugLogger.INSTANCE.log("SkipData", "Detected earlier from audio: " + cached.segments());
+            if (!cached.segments().isEmpty()) {
+                session.post(() -> applyDetectedSkipData(cached));
+            }
+            return;
+        }
+
+        List<Uri> siblings = findSeasonSiblings(LocalSkipDetector.SIBLINGS);
+        if (siblings.isEmpty()) {
+            DebugLogger.INSTANCE.log("SkipData", "No other episodes to compare audio with, looking for fades");
+        } else {
+            DebugLogger.INSTANCE.log("SkipData", "Detecting intro from audio against " + siblings.size() + " episodes");
+        }
+        detector.detect(mediaUri, siblings, detected -> session.post(() -> applyDetectedSkipData(detected)));
+    }
+
+    private void applyDetectedSkipData(LocalSkipDetector.Detected detected) {
+        if (hasChapterSkip || currentSkipSegments != null) {
+            return;
+        }
+        List<Pair<Double, Double>> segments = detected.segments();
+        currentSkipSegments = segments;
+        skipSegmentsSuggested = detected.getSuggested();
+        String found = detected.getSuggested() ? "Possible recap/credits found (" : "Intro found in audio (";
+        Toast.makeText(PlayerActivity.this,
+            found + segments.size() + " segment" + (segments.size() > 1 ? "s" : "") + ")",
+            Toast.LENGTH_SHORT).show();
+        DebugLogger.INSTANCE.log("SkipData", "Found " + segments.size() + (detected.getSuggested() ? " suggested" : "")
+                + " skip segments in audio: " + segments);
+    }
+
+    private void applyPrefetchedSkipData(NextEpisodePrefetcher.Prefetched prefetched) {
+        DebugLogger.INSTANCE.log("SkipData", "Using prefetched data for " + prefetched.getShowName()
+                + " S" + prefetched.getSeason() + "E" + prefetched.getEpisode());
+
+        currentImdbId = prefetched.getImdbId();
+        currentMalId = prefetched.getMalId();
+        currentSeason = prefetched.getSeason();
+        currentEpisode = prefetched.getEpisode();
+        if (prefetched.getImdbId() != null) {
+            updateTraktImdbId(prefetched.getImdbId(), prefetched.getShowName());
+        }
+        // Held back by the prefetch until the episode was actually opened
+        if (mPrefs.introDbApiKey != null && !mPrefs.introDbApiKey.isEmpty()) {
+            IntroDBOutbox outbox = IntroDBOutbox.getInstance(this);
+            for (SkipManager.IntroDbSubmission submission : prefetched.getIntroDbSubmissions()) {
+                submission.enqueue(outbox, onIntroDbSubmitted);
+            }
+        }
+
+        List<Pair<Double, Double>> segments = prefetched.getSegments();
+        if (segments != null && !hasChapterSkip) {
+            // Set before the first skipRunnable tick so the button is there on the first frame
+            currentSkipSegments = segments;
+            DebugLogger.INSTANCE.log("SkipData", "Found " + segments.size() + " prefetched skip segments: " + segments);
+        } else if (segments == null) {
+            mediaScope.launch(RequestScheduler.Priority.BACKGROUND, "LocalSkip", this::detectSkipDataLocally);
+        }
+    }
+
+    /**
+     * Resolve the next episode's skip data once playback passes the threshold
+     */
+    private void maybePrefetchNext() {
+        if (nextPrefetchStarted || nextUri == null || player == null || !mPrefs.introSkipEnabled) {
+            return;
+        }
+        if (!NextEpisodePrefetcher.shouldStart(player.getCurrentPosition(), player.getDuration(), currentSkipSegments)) {
+            return;
+        }
+        nextPrefetchStarted = true;
+
+        String nextTitle = nextUri.getLastPathSegment();
+        if (nextTitle == null || nextTitle.isEmpty()) {
+            return;
+        }
+        NextEpisodePrefetcher.getInstance(this).prefetch(nextUri, nextTitle,
+                mPrefs.cinemataUrl, mPrefs.introHaterApiKey);
+    }
+
     private void showDebugLogs() {
-        bgExecutor.execute(() -> {
+        new Thread(() -> {
             try {
                 java.io.File logDir = getExternalFilesDir(null);
                 java.io.File logFile = new java.io.File(logDir, "debug_log.txt");
@@ -3592,7 +3796,7 @@ public class PlayerActivity extends Activity {
                     Toast.makeText(this, "Error reading logs: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                 });
             }
-        });
+        }).start();
     }
 
     /**
@@ -3788,18 +3992,25 @@ public class PlayerActivity extends Activity {
         
         Toast.makeText(this, "Submitting...", Toast.LENGTH_SHORT).show();
         
-        bgExecutor.execute(() -> {
+        final String imdbId = currentImdbId;
+        final int season = currentSeason;
+        final int episode = currentEpisode;
+        mediaScope.launch(RequestScheduler.Priority.CURRENT, "IntroDBSubmit", session -> {
             IntroDBClient client = new IntroDBClient();
             IntroDBClient.SubmissionResult result = client.submit(
                 mPrefs.introDbApiKey,
-                currentImdbId,
-                currentSeason,
-                currentEpisode,
+                imdbId,
+                season,
+                episode,
                 startSec,
                 endSec
             );
+            if (result.getSuccess()) {
+                // Auto-submission won't send this segment again
+                IntroDBOutbox.getInstance(this).recordSubmitted(imdbId, season, episode, startSec, endSec);
+            }
             
-            runOnUiThread(() -> {
+            session.post(() -> {
                 Toast.makeText(this, result.getMessage(), Toast.LENGTH_LONG).show();
                 if (result.getSuccess()) {
                     // Reset markers
@@ -3860,7 +4071,8 @@ public class PlayerActivity extends Activity {
         DebugLogger.INSTANCE.log("Trakt", "  Clean title: " + title);
         DebugLogger.INSTANCE.log("Trakt", "  Season: " + season + ", Episode: " + episode);
         
-        // Create scrobbler
+        // Create scrobbler; the outbox reads the tokens when it sends
+        TraktScrobbleOutbox.getInstance(this).setCredentialStore(Prefs.traktCredentialStore(this));
         traktScrobbler = new TraktScrobbleManager(
             this,
             mPrefs.traktAccessToken,
@@ -3880,11 +4092,17 @@ public class PlayerActivity extends Activity {
         DebugLogger.INSTANCE.log("Trakt", "Scrobbler initialized for: " + title + " S" + season + "E" + episode);
         Toast.makeText(this, "Trakt: " + title, Toast.LENGTH_SHORT).show();
         
+        // Resume from another device: local mirror first, then again if a background sync finds news
+        traktSessionStart = SystemClock.elapsedRealtime();
+        traktResumeApplied = false;
+        applyTraktResume();
+        traktScrobbler.syncWatchState(() -> runOnUiThread(this::applyTraktResume));
+        
         // If IMDB ID is null, fetch it asynchronously via Cinemeta
         // This is needed when intro skip is disabled
         if (currentImdbId == null && traktScrobbler != null) {
             DebugLogger.INSTANCE.log("Trakt", "IMDB ID is null - fetching via Cinemeta for Trakt...");
-            fetchTraktImdbIdAsync(title, season, episode);
+            fetchTraktImdbIdAsync(title, cleanResult.getYear());
         }
     }
     
@@ -3892,27 +4110,27 @@ public class PlayerActivity extends Activity {
      * Fetch IMDB ID for Trakt asynchronously via Cinemeta
      * This runs independently of intro skip to ensure Trakt always works
      */
-    private void fetchTraktImdbIdAsync(final String showName, final int season, final int episode) {
+    private void fetchTraktImdbIdAsync(final String showName, final Integer year) {
         if (mPrefs.cinemataUrl == null || mPrefs.cinemataUrl.isEmpty()) {
             DebugLogger.INSTANCE.log("Trakt", "No Cinemeta URL configured - cannot resolve IMDB ID");
             return;
         }
         
-        bgExecutor.execute(() -> {
+        mediaScope.launch(RequestScheduler.Priority.CURRENT, "TraktImdb", session -> {
             try {
                 DebugLogger.INSTANCE.log("Trakt", "╔══════════════════════════════════════════════════════════════════╗");
                 DebugLogger.INSTANCE.log("Trakt", "║  FETCHING IMDB ID FOR TRAKT (via Cinemeta)                       ║");
                 DebugLogger.INSTANCE.log("Trakt", "╚══════════════════════════════════════════════════════════════════╝");
                 DebugLogger.INSTANCE.log("Trakt", "  Show: " + showName);
                 
-                CinemetaClient cinemataClient = new CinemetaClient();
-                String imdbId = cinemataClient.searchImdbId(mPrefs.cinemataUrl, "series", showName, null);
+                String imdbId = IdResolutionCache.getInstance(PlayerActivity.this)
+                        .resolveImdbId(mPrefs.cinemataUrl, "series", showName, year);
                 
                 if (imdbId != null && !imdbId.isEmpty()) {
                     DebugLogger.INSTANCE.log("Trakt", "  ✓ Cinemeta resolved IMDB: " + imdbId);
                     
                     // Update on UI thread
-                    runOnUiThread(() -> {
+                    session.post(() -> {
                         updateTraktImdbId(imdbId, showName);
                     });
                 } else {
@@ -4019,11 +4237,30 @@ public class PlayerActivity extends Activity {
         
         if (traktScrobbler != null) {
             traktScrobbler.updateImdbId(imdbId, cleanedTitle);
+            applyTraktResume();
         } else {
             DebugLogger.INSTANCE.log("Trakt", "  traktScrobbler is null, will use IMDB ID on next init");
         }
     }
     
+    /**
+     * Seek to Trakt's resume point if another device got further
+     * Only right after playback starts, so a late sync never jumps mid-viewing
+     */
+    private void applyTraktResume() {
+        if (traktScrobbler == null || player == null || traktResumeApplied)
+            return;
+        if (SystemClock.elapsedRealtime() - traktSessionStart > TRAKT_RESUME_WINDOW_MS)
+            return;
+
+        final long resumeAt = traktScrobbler.remoteResumePosition(player.getCurrentPosition(), player.getDuration());
+        if (resumeAt > 0) {
+            traktResumeApplied = true;
+            player.seekTo(resumeAt);
+            Toast.makeText(this, "Resumed from Trakt", Toast.LENGTH_SHORT).show();
+        }
+    }
+    
     /**
      * Release Trakt scrobbler resources
      */
@@ -9,6 +9,9 @@ import android.preference.PreferenceManager;
 import androidx.media3.exoplayer.DefaultRenderersFactory;
 import androidx.media3.ui.AspectRatioFrameLayout;
 
+import com.brouken.player.tmdb.IntroDBOutbox;
+import com.brouken.player.trakt.TraktScrobbleOutbox;
+
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
@@ -360,6 +363,48 @@ class Prefs {
         saveTraktTokens("", "", 0);
     }
 
+    /**
+     * The IntroDB API key as the settings hold it whenever the submission outbox asks
+     */
+    static IntroDBOutbox.ApiKeyProvider introDbApiKeyProvider(Context context) {
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+        return () -> preferences.getString(PREF_KEY_INTRODB_API_KEY, "");
+    }
+
+    /**
+     * The Trakt sign-in as the settings hold it whenever the scrobble outbox asks
+     */
+    static TraktScrobbleOutbox.CredentialStore traktCredentialStore(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(appContext);
+        return new TraktScrobbleOutbox.CredentialStore() {
+            @Override
+            public TraktScrobbleOutbox.Credentials credentials() {
+                String accessToken = preferences.getString(PREF_KEY_TRAKT_ACCESS_TOKEN, "");
+                String clientId = preferences.getString(PREF_KEY_TRAKT_CLIENT_ID, "");
+                if (accessToken == null || accessToken.isEmpty() || clientId == null || clientId.isEmpty()) {
+                    return null;
+                }
+                return new TraktScrobbleOutbox.Credentials(accessToken, clientId);
+            }
+
+            @Override
+            public String refreshToken() {
+                return preferences.getString(PREF_KEY_TRAKT_REFRESH_TOKEN, "");
+            }
+
+            @Override
+            public String clientSecret() {
+                return preferences.getString(PREF_KEY_TRAKT_CLIENT_SECRET, "");
+            }
+
+            @Override
+            public void saveTokens(String accessToken, String refreshToken, long expiry) {
+                new Prefs(appContext).saveTraktTokens(accessToken, refreshToken, expiry);
+            }
+        };
+    }
+
     /**
      * Check if connected to Trakt
      */
@@ -11,7 +11,6 @@ import androidx.media3.common.MimeTypes;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 class SubtitleUtils {
@@ -161,76 +160,56 @@ class SubtitleUtils {
         return name;
     }
 
-    public static DocumentFile findSubtitle(DocumentFile video) {
+    public static Uri findSubtitle(Context context, DocumentFile video) {
         DocumentFile dir = video.getParentFile();
-        return findSubtitle(video, dir);
+        return findSubtitle(context, video, dir);
     }
 
-    public static DocumentFile findSubtitle(DocumentFile video, DocumentFile dir) {
-        String videoName = getFileBaseName(video.getName());
-        int videoFiles = 0;
+    public static Uri findSubtitle(Context context, DocumentFile video, DocumentFile dir) {
+        final String videoName = video.getName();
+        if (videoName == null)
+            return null;
 
-        if (dir == null || !dir.isDirectory())
+        final DirectoryIndex index = DirectoryIndex.get(context, dir);
+        if (index == null)
             return null;
 
-        List<DocumentFile> candidates = new ArrayList<>();
+        final DirectoryIndex.Entry subtitle = index.findSubtitle(videoName);
+        return subtitle != null ? subtitle.uri : null;
+    }
 
-        for (DocumentFile file : dir.listFiles()) {
-            final String fileName = file.getName();
-            if (fileName != null && fileName.startsWith("."))
-                continue;
-            if (isSubtitleFile(file))
-                candidates.add(file);
-            if (isVideoFile(file))
-                videoFiles++;
-        }
+    public static Uri findNext(Context context, DocumentFile video) {
+        DocumentFile dir = video.getParentFile();
+        return findNext(context, video, dir);
+    }
 
-        if (videoFiles == 1 && candidates.size() == 1) {
-            return candidates.get(0);
-        }
+    public static Uri findNext(Context context, DocumentFile video, DocumentFile dir) {
+        final String videoName = video.getName();
+        if (videoName == null)
+            return null;
 
-        if (candidates.size() >= 1) {
-            for (DocumentFile candidate : candidates) {
-                if (candidate.getName().startsWith(videoName + '.')) {
-                    return candidate;
-                }
-            }
-        }
+        final DirectoryIndex index = DirectoryIndex.get(context, dir);
+        if (index == null)
+            return null;
 
-        return null;
+        final DirectoryIndex.Entry next = index.findNext(videoName);
+        return next != null ? next.uri : null;
     }
 
-    public static DocumentFile findNext(DocumentFile video) {
-        DocumentFile dir = video.getParentFile();
-        return findNext(video, dir);
-    }
+    public static List<Uri> findSiblings(Context context, DocumentFile video, DocumentFile dir, int count) {
+        final List<Uri> siblings = new ArrayList<>();
+        final String videoName = video.getName();
+        if (videoName == null)
+            return siblings;
 
-    public static DocumentFile findNext(DocumentFile video, DocumentFile dir) {
-        if (dir == null) {
-            return null;
-        }
+        final DirectoryIndex index = DirectoryIndex.get(context, dir);
+        if (index == null)
+            return siblings;
 
-        try {
-            DocumentFile[] list = dir.listFiles();
-            Arrays.sort(list, (a, b) -> a.getName().compareToIgnoreCase(b.getName()));
-
-            final String videoName = video.getName();
-            boolean matchFound = false;
-
-            for (DocumentFile file : list) {
-                if (file.getName().equals(videoName)) {
-                    matchFound = true;
-                } else if (matchFound) {
-                    if (isVideoFile(file)) {
-                        return file;
-                    }
-                }
-            }
-        } catch (NullPointerException e) {
-            e.printStackTrace();
+        for (DirectoryIndex.Entry entry : index.findNeighbours(videoName, count)) {
+            siblings.add(entry.uri);
         }
-
-        return null;
+        return siblings;
     }
 
     public static boolean isVideoFile(DocumentFile file) {
@@ -240,7 +219,10 @@ class SubtitleUtils {
     public static boolean isSubtitleFile(DocumentFile file) {
         if (!file.isFile())
             return false;
-        final String name = file.getName().toLowerCase();
+        return isSubtitleName(file.getName().toLowerCase());
+    }
+
+    public static boolean isSubtitleName(String name) {
         // Text-based subtitles
         return name.endsWith(".srt") || name.endsWith(".ssa") || name.endsWith(".ass")
                 || name.endsWith(".vtt") || name.endsWith(".ttml") || name.endsWith(".dfxp")
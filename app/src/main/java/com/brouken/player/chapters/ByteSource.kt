@@ -0,0 +1,30 @@
+package com.brouken.player.chapters
+
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Random access to a media file for the chapter readers
+ */
+internal interface ByteSource {
+    val size: Long
+
+    /**
+     * Up to [length] bytes at [position]; fewer at the end of the file
+     */
+    fun read(position: Long, length: Int): ByteArray
+}
+
+internal class ChannelSource(private val channel: FileChannel) : ByteSource {
+
+    override val size: Long = channel.size()
+
+    override fun read(position: Long, length: Int): ByteArray {
+        if (position >= size || length <= 0) return ByteArray(0)
+        val buffer = ByteBuffer.allocate(minOf(length.toLong(), size - position).toInt())
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) break
+        }
+        return buffer.array().copyOf(buffer.position())
+    }
+}
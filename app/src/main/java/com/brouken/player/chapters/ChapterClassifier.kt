@@ -0,0 +1,153 @@
+package com.brouken.player.chapters
+
+import com.brouken.player.chapters.ChapterSegment.Type
+import java.text.Normalizer
+import java.util.Locale
+
+/**
+ * Recognises recap, avant, opening, ending and preview chapters by their titles
+ *
+ * Titles are matched against names used by release groups and broadcasters
+ * in the common subtitle languages. Titles and names are compared without
+ * case or accents, short Latin names like "OP" and "ED" only as whole words
+ * ("OP2" included), and when several names match the longest wins, so
+ * "Opening Credits" is an opening and "Ending Theme" an ending.
+ */
+object ChapterClassifier {
+
+    // Declared before the names, which are normalised with them
+    private val ACCENTS = Regex("\\p{Mn}+")
+    private val SEPARATORS = Regex("[\\s_.\\-]+")
+    private val NON_WORD = Regex("[^\\p{L}\\p{N}]+")
+    private val TRAILING_NUMBER = Regex("\\d+$")
+
+    private val NAMES: Map<Type, List<String>> = mapOf(
+        Type.RECAP to listOf(
+            "recap", "previously", "summary",
+            "résumé", "rappel", "précédemment",
+            "zusammenfassung", "rückblick", "was bisher geschah",
+            "resumen", "anteriormente", "recapitulación", "recapitulação",
+            "riassunto", "nella puntata precedente",
+            "ранее", "в предыдущих сериях", "краткое содержание",
+            "前回", "あらすじ", "前情提要", "前情回顾",
+            "이전 줄거리", "지난 이야기"
+        ),
+        Type.AVANT to listOf(
+            "avant", "cold open", "prologue", "prolog", "prólogo",
+            "пролог",
+            "アバン", "プロローグ", "序章",
+            "프롤로그"
+        ),
+        Type.OPENING to listOf(
+            "opening", "op", "ncop", "intro", "theme", "opening credits", "opening theme",
+            "opening song", "theme song", "title sequence", "main title",
+            "générique de début", "générique d'ouverture", "ouverture",
+            "vorspann", "titelsequenz",
+            "apertura", "entrada", "abertura",
+            "sigla iniziale", "sigla di apertura",
+            "опенинг", "заставка", "начальная заставка",
+            "オープニング", "片头", "片頭",
+            "오프닝"
+        ),
+        Type.ENDING to listOf(
+            "ending", "ed", "nced", "credits", "end credits", "closing credits", "end theme",
+            "ending theme", "ending song", "outro",
+            "générique de fin", "crédits",
+            "abspann",
+            "créditos", "cierre", "encerramento",
+            "sigla finale", "sigla di chiusura", "titoli di coda",
+            "эндинг", "титры", "финальные титры",
+            "エンディング", "スタッフロール", "片尾", "片尾曲",
+            "엔딩", "크레딧"
+        ),
+        Type.PREVIEW to listOf(
+            "preview", "next episode", "next time", "next ep",
+            "bande-annonce", "prochain épisode", "prochainement",
+            "vorschau", "nächste folge",
+            "avance", "próximo episodio", "próximo episódio", "prévia",
+            "anteprima", "prossimo episodio",
+            "превью", "анонс", "в следующей серии",
+            "予告", "次回予告", "次回", "预告", "下集预告",
+            "예고", "다음 이야기"
+        )
+    )
+
+    /** Names this short and Latin only match whole words */
+    private const val WORD_ONLY_LENGTH = 4
+
+    // Normalised once, longest first so the first hit is the best one
+    private val names: List<Pair<String, Type>> = NAMES.entries
+        .flatMap { (type, names) -> names.map { normalize(it) to type } }
+        .sortedByDescending { it.first.length }
+
+    /**
+     * Type of a chapter named [title], or null if it is ordinary content
+     */
+    @JvmStatic
+    fun classify(title: String): Type? {
+        val text = normalize(title)
+        if (text.isEmpty()) return null
+        val words = text.split(NON_WORD).map { it.replace(TRAILING_NUMBER, "") }.toSet()
+        for ((name, type) in names) {
+            val matched = if (name.length < WORD_ONLY_LENGTH && name.all { it in 'a'..'z' }) {
+                name in words
+            } else {
+                containsAtWordStart(text, name)
+            }
+            if (matched) return type
+        }
+        return null
+    }
+
+    /**
+     * Type from the first of a chapter's titles that has one
+     */
+    @JvmStatic
+    fun classify(titles: List<String>): Type? = titles.firstNotNullOfOrNull { classify(it) }
+
+    /**
+     * Recognised chapters of an episode, with open ends closed by the next chapter or [duration]
+     *
+     * @param duration in seconds; zero or less if unknown
+     */
+    @JvmStatic
+    fun segments(chapters: List<Chapter>, duration: Double): List<ChapterSegment> {
+        val sorted = chapters.sortedBy { it.start }
+        val result = ArrayList<ChapterSegment>()
+        for ((index, chapter) in sorted.withIndex()) {
+            val type = classify(chapter.titles) ?: continue
+            var end = chapter.end ?: sorted.getOrNull(index + 1)?.start ?: duration
+            if (duration > 0) end = minOf(end, duration)
+            if (end <= chapter.start) continue
+            result.add(ChapterSegment(type, chapter.start, end, chapter.titles.firstOrNull().orEmpty()))
+        }
+        return result
+    }
+
+    private fun normalize(text: String): String {
+        return Normalizer.normalize(text.lowercase(Locale.ROOT), Normalizer.Form.NFD)
+            .replace(ACCENTS, "")
+            .replace(SEPARATORS, " ")
+            .trim()
+    }
+
+    /**
+     * Whether [name] starts a word of [text]; scripts without spaces match anywhere
+     */
+    private fun containsAtWordStart(text: String, name: String): Boolean {
+        var from = 0
+        while (true) {
+            val index = text.indexOf(name, from)
+            if (index < 0) return false
+            if (index == 0 || !text[index - 1].isLetterOrDigit() || !name[0].isLatinOrCyrillic()) return true
+            from = index + 1
+        }
+    }
+
+    private fun Char.isLatinOrCyrillic(): Boolean {
+        val block = Character.UnicodeBlock.of(this)
+        return block == Character.UnicodeBlock.BASIC_LATIN ||
+                block == Character.UnicodeBlock.LATIN_1_SUPPLEMENT ||
+                block == Character.UnicodeBlock.CYRILLIC
+    }
+}
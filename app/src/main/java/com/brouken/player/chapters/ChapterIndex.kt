@@ -0,0 +1,91 @@
+package com.brouken.player.chapters
+
+import android.content.Context
+import android.net.Uri
+import com.brouken.player.utils.DebugLogger
+import java.io.FileInputStream
+import java.io.IOException
+
+/**
+ * Chapters of local Matroska and MP4 files, recognised as skip segments
+ *
+ * The player's extractors drop container chapters (Matroska) or don't
+ * expose them (MP4), so the container headers are read here, next to
+ * playback. It needs no network and no IDs, which is why chapters are
+ * preferred over every remote provider when they name what they hold.
+ */
+class ChapterIndex private constructor(private val context: Context) {
+
+    companion object {
+        private const val TAG = "ChapterIndex"
+        private const val MAX_CACHED = 32
+
+        @Volatile
+        private var instance: ChapterIndex? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): ChapterIndex {
+            return instance ?: synchronized(this) {
+                instance ?: ChapterIndex(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    // Uri -> chapters as stored, least recently used first
+    private val cache = object : LinkedHashMap<String, List<Chapter>>(MAX_CACHED, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, List<Chapter>>): Boolean {
+            return size > MAX_CACHED
+        }
+    }
+
+    /**
+     * Recognised chapters of [uri]; empty if it has none or can't be read
+     *
+     * Reads the file; call off the main thread.
+     *
+     * @param duration in seconds, closes a last chapter without an end; zero or less if unknown
+     */
+    fun segments(uri: Uri, duration: Double): List<ChapterSegment> {
+        val chapters = chapters(uri)
+        val segments = ChapterClassifier.segments(chapters, duration)
+        if (chapters.isNotEmpty()) {
+            DebugLogger.log(TAG, "${uri.lastPathSegment}: ${chapters.size} chapters, recognised " +
+                    segments.joinToString { "${it.type.label} ${it.start}-${it.end}" })
+        }
+        return segments
+    }
+
+    private fun chapters(uri: Uri): List<Chapter> {
+        val key = uri.toString()
+        synchronized(cache) {
+            cache[key]?.let { return it }
+        }
+        val chapters = read(uri)
+        synchronized(cache) {
+            cache[key] = chapters
+        }
+        return chapters
+    }
+
+    private fun read(uri: Uri): List<Chapter> {
+        val startedAt = System.currentTimeMillis()
+        try {
+            context.contentResolver.openFileDescriptor(uri, "r")?.use { descriptor ->
+                FileInputStream(descriptor.fileDescriptor).channel.use { channel ->
+                    val source = ChannelSource(channel)
+                    val chapters = MatroskaChapters.read(source) ?: Mp4Chapters.read(source) ?: emptyList()
+                    DebugLogger.log(TAG, "Read ${chapters.size} chapters of ${uri.lastPathSegment} " +
+                            "in ${System.currentTimeMillis() - startedAt}ms")
+                    return chapters
+                }
+            }
+        } catch (e: IOException) {
+            DebugLogger.log(TAG, "Cannot read ${uri.lastPathSegment}: ${e.message}")
+        } catch (e: SecurityException) {
+            DebugLogger.log(TAG, "No access to ${uri.lastPathSegment}: ${e.message}")
+        } catch (e: IllegalArgumentException) {
+            DebugLogger.log(TAG, "Cannot open ${uri.lastPathSegment}: ${e.message}")
+        }
+        return emptyList()
+    }
+}
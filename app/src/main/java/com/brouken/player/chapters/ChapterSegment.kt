@@ -0,0 +1,46 @@
+package com.brouken.player.chapters
+
+/**
+ * A chapter as stored in the container, in seconds
+ *
+ * @property titles every name the chapter has, one per language
+ * @property end null when the container only marks where chapters start
+ */
+data class Chapter(val titles: List<String>, val start: Double, val end: Double?)
+
+/**
+ * A chapter that [ChapterClassifier] recognised, in seconds
+ */
+data class ChapterSegment(val type: Type, val start: Double, val end: Double, val title: String) {
+
+    enum class Type(val label: String, val skippable: Boolean) {
+        RECAP("Recap", true),
+        // The cold open before the opening is part of the story
+        AVANT("Avant", false),
+        OPENING("Opening", true),
+        ENDING("Ending", true),
+        PREVIEW("Preview", true)
+    }
+
+    companion object {
+        /** Skippable chapters closer than this are skipped in one go, e.g. ending and preview */
+        private const val MERGE_GAP_SECONDS = 1.0
+
+        /**
+         * Skippable segments as the skip pipeline takes them, touching ones merged
+         */
+        @JvmStatic
+        fun toSkipSegments(segments: List<ChapterSegment>): List<Pair<Double, Double>> {
+            val result = ArrayList<Pair<Double, Double>>()
+            for (segment in segments.filter { it.type.skippable }.sortedBy { it.start }) {
+                val last = result.lastOrNull()
+                if (last != null && segment.start - last.second <= MERGE_GAP_SECONDS) {
+                    result[result.size - 1] = last.first to maxOf(last.second, segment.end)
+                } else {
+                    result.add(segment.start to segment.end)
+                }
+            }
+            return result
+        }
+    }
+}
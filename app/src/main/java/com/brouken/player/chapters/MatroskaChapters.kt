@@ -0,0 +1,222 @@
+package com.brouken.player.chapters
+
+/**
+ * Reads the chapters of a Matroska / WebM file
+ *
+ * Only the element headers before the first cluster are walked; the
+ * Chapters element is found there or through the SeekHead, and is the only
+ * element read whole. Chapters of the default edition are returned, without
+ * hidden or disabled ones and without ones that play from another file.
+ */
+internal object MatroskaChapters {
+
+    private const val EBML = 0x1A45DFA3L
+    private const val SEGMENT = 0x18538067L
+    private const val SEEK_HEAD = 0x114D9B74L
+    private const val SEEK = 0x4DBBL
+    private const val SEEK_ID = 0x53ABL
+    private const val SEEK_POSITION = 0x53ACL
+    private const val CHAPTERS = 0x1043A770L
+    private const val CLUSTER = 0x1F43B675L
+
+    private const val EDITION_ENTRY = 0x45B9L
+    private const val EDITION_FLAG_HIDDEN = 0x45BDL
+    private const val EDITION_FLAG_DEFAULT = 0x45DBL
+    private const val CHAPTER_ATOM = 0xB6L
+    private const val CHAPTER_TIME_START = 0x91L
+    private const val CHAPTER_TIME_END = 0x92L
+    private const val CHAPTER_FLAG_HIDDEN = 0x98L
+    private const val CHAPTER_FLAG_ENABLED = 0x4598L
+    private const val CHAPTER_SEGMENT_UID = 0x6E67L
+    private const val CHAPTER_DISPLAY = 0x80L
+    private const val CHAP_STRING = 0x85L
+
+    /** Longest ID (4) plus longest size (8) */
+    private const val MAX_HEADER = 12
+    private const val MAX_CHAPTERS_SIZE = 1 shl 20
+    /** Top level elements looked at before the first cluster */
+    private const val MAX_TOP_LEVEL = 64
+
+    /**
+     * @param dataStart position of the payload; [size] is -1 if unknown
+     */
+    private class Element(val id: Long, val dataStart: Long, val size: Long) {
+        val end: Long get() = dataStart + size
+    }
+
+    /**
+     * @return null if [source] isn't Matroska, empty if it has no chapters
+     */
+    fun read(source: ByteSource): List<Chapter>? {
+        val ebml = header(source, 0)
+        if (ebml == null || ebml.id != EBML || ebml.size < 0) return null
+        val segment = header(source, ebml.end)
+        if (segment == null || segment.id != SEGMENT) return null
+
+        val segmentEnd = if (segment.size < 0) source.size else minOf(source.size, segment.end)
+        var position = segment.dataStart
+        var chaptersAt = -1L
+        for (i in 0 until MAX_TOP_LEVEL) {
+            if (position >= segmentEnd) break
+            val element = header(source, position) ?: break
+            when (element.id) {
+                CHAPTERS -> return chapters(source, element)
+                SEEK_HEAD -> seekPosition(source, element, CHAPTERS)?.let { chaptersAt = segment.dataStart + it }
+                CLUSTER -> break
+            }
+            if (element.size < 0) break
+            position = element.end
+        }
+
+        // Muxers that write chapters last point to them from the SeekHead
+        if (chaptersAt >= 0) {
+            val element = header(source, chaptersAt)
+            if (element != null && element.id == CHAPTERS) return chapters(source, element)
+        }
+        return emptyList()
+    }
+
+    // ========================================================================
+    // ELEMENTS
+    // ========================================================================
+
+    private fun header(source: ByteSource, position: Long): Element? {
+        val bytes = source.read(position, MAX_HEADER)
+        return header(bytes, 0, bytes.size)?.let { Element(it.id, position + it.dataStart, it.size) }
+    }
+
+    /**
+     * Header at [offset] of [data], with [Element.dataStart] relative to [data]
+     */
+    private fun header(data: ByteArray, offset: Int, limit: Int): Element? {
+        if (offset >= limit) return null
+        val idLength = vintLength(data[offset])
+        if (idLength > 4 || offset + idLength >= limit) return null
+        var id = 0L
+        for (i in 0 until idLength) id = (id shl 8) or (data[offset + i].toLong() and 0xFF)
+
+        val sizeOffset = offset + idLength
+        val sizeLength = vintLength(data[sizeOffset])
+        if (sizeLength > 8 || sizeOffset + sizeLength > limit) return null
+        // The length marker isn't part of the value
+        var size = (data[sizeOffset].toLong() and 0xFF) and (0xFFL shr sizeLength)
+        var allOnes = size == (0xFFL shr sizeLength)
+        for (i in 1 until sizeLength) {
+            val b = data[sizeOffset + i].toLong() and 0xFF
+            size = (size shl 8) or b
+            allOnes = allOnes && b == 0xFFL
+        }
+        return Element(id, (sizeOffset + sizeLength).toLong(), if (allOnes) -1 else size)
+    }
+
+    private fun vintLength(first: Byte): Int {
+        val leading = Integer.numberOfLeadingZeros(first.toInt() and 0xFF) - 24
+        return leading + 1
+    }
+
+    /**
+     * Children of the element whose payload is [from, to) of [data]
+     */
+    private fun children(data: ByteArray, from: Int, to: Int): List<Element> {
+        val result = ArrayList<Element>()
+        var offset = from
+        while (offset < to) {
+            val element = header(data, offset, to) ?: break
+            if (element.size < 0 || element.end > to) break
+            result.add(element)
+            offset = element.end.toInt()
+        }
+        return result
+    }
+
+    private fun unsigned(data: ByteArray, element: Element): Long {
+        var value = 0L
+        for (i in 0 until minOf(element.size.toInt(), 8)) {
+            value = (value shl 8) or (data[element.dataStart.toInt() + i].toLong() and 0xFF)
+        }
+        return value
+    }
+
+    private fun payload(source: ByteSource, element: Element, maxSize: Int): ByteArray? {
+        if (element.size < 0 || element.size > maxSize) return null
+        val data = source.read(element.dataStart, element.size.toInt())
+        return if (data.size.toLong() == element.size) data else null
+    }
+
+    // ========================================================================
+    // SEEK HEAD
+    // ========================================================================
+
+    /**
+     * Position of the element [id] relative to the segment, as the SeekHead lists it
+     */
+    private fun seekPosition(source: ByteSource, seekHead: Element, id: Long): Long? {
+        val data = payload(source, seekHead, MAX_CHAPTERS_SIZE) ?: return null
+        for (seek in children(data, 0, data.size)) {
+            if (seek.id != SEEK) continue
+            var seekId = -1L
+            var seekPosition = -1L
+            for (child in children(data, seek.dataStart.toInt(), seek.end.toInt())) {
+                when (child.id) {
+                    SEEK_ID -> seekId = unsigned(data, child)
+                    SEEK_POSITION -> seekPosition = unsigned(data, child)
+                }
+            }
+            if (seekId == id && seekPosition >= 0) return seekPosition
+        }
+        return null
+    }
+
+    // ========================================================================
+    // CHAPTERS
+    // ========================================================================
+
+    private fun chapters(source: ByteSource, element: Element): List<Chapter> {
+        val data = payload(source, element, MAX_CHAPTERS_SIZE) ?: return emptyList()
+        val editions = children(data, 0, data.size).filter { it.id == EDITION_ENTRY }
+
+        var chosen: Element? = null
+        for (edition in editions) {
+            val flags = children(data, edition.dataStart.toInt(), edition.end.toInt())
+            if (flags.any { it.id == EDITION_FLAG_HIDDEN && unsigned(data, it) != 0L }) continue
+            if (chosen == null) chosen = edition
+            if (flags.any { it.id == EDITION_FLAG_DEFAULT && unsigned(data, it) != 0L }) {
+                chosen = edition
+                break
+            }
+        }
+        val edition = chosen ?: return emptyList()
+
+        val result = ArrayList<Chapter>()
+        for (atom in children(data, edition.dataStart.toInt(), edition.end.toInt())) {
+            if (atom.id == CHAPTER_ATOM) atom(data, atom)?.let { result.add(it) }
+        }
+        return result
+    }
+
+    private fun atom(data: ByteArray, atom: Element): Chapter? {
+        var start = -1L
+        var end = -1L
+        val titles = ArrayList<String>()
+        for (child in children(data, atom.dataStart.toInt(), atom.end.toInt())) {
+            when (child.id) {
+                CHAPTER_TIME_START -> start = unsigned(data, child)
+                CHAPTER_TIME_END -> end = unsigned(data, child)
+                CHAPTER_FLAG_HIDDEN -> if (unsigned(data, child) != 0L) return null
+                CHAPTER_FLAG_ENABLED -> if (unsigned(data, child) == 0L) return null
+                // Plays a part of another file; its times aren't this file's
+                CHAPTER_SEGMENT_UID -> if (child.size > 0) return null
+                CHAPTER_DISPLAY -> {
+                    for (display in children(data, child.dataStart.toInt(), child.end.toInt())) {
+                        if (display.id == CHAP_STRING) {
+                            titles.add(String(data, display.dataStart.toInt(), display.size.toInt(), Charsets.UTF_8).trimEnd('\u0000'))
+                        }
+                    }
+                }
+            }
+        }
+        if (start < 0) return null
+        // Times are in nanoseconds, whatever the segment's timestamp scale
+        return Chapter(titles, start / 1e9, if (end > start) end / 1e9 else null)
+    }
+}
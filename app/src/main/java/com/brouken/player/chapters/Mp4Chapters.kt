@@ -0,0 +1,262 @@
+package com.brouken.player.chapters
+
+/**
+ * Reads the chapters of an MP4 / QuickTime file
+ *
+ * Both kinds in use are understood: the Nero `chpl` list in the movie's user
+ * data, and the QuickTime chapter track, a text track that another track
+ * references through `tref/chap`, with one sample per chapter title. Only
+ * the `moov` box and the title samples are read.
+ */
+internal object Mp4Chapters {
+
+    private const val MAX_MOOV_SIZE = 32 shl 20
+    /** Top level boxes looked at before giving up on finding `moov` */
+    private const val MAX_TOP_LEVEL = 32
+    private const val MAX_CHAPTERS = 500
+    private const val MAX_TITLE_BYTES = 1024
+    /** `chpl` times are in 100 ns units */
+    private const val CHPL_TIMESCALE = 10_000_000.0
+
+    private class Box(val type: String, val start: Int, val end: Int)
+
+    /**
+     * @return null if [source] isn't MP4, empty if it has no chapters
+     */
+    fun read(source: ByteSource): List<Chapter>? {
+        val head = source.read(0, 8)
+        if (head.size < 8 || String(head, 4, 4, Charsets.ISO_8859_1) !in setOf("ftyp", "moov", "mdat", "free", "wide")) {
+            return null
+        }
+
+        val moov = findMoov(source) ?: return emptyList()
+        val udta = children(moov, 0, moov.size).firstOrNull { it.type == "udta" }
+        val chpl = udta?.let { children(moov, it.start, it.end).firstOrNull { box -> box.type == "chpl" } }
+        if (chpl != null) {
+            val chapters = nero(moov, chpl)
+            if (chapters.isNotEmpty()) return chapters
+        }
+        return chapterTrack(source, moov)
+    }
+
+    // ========================================================================
+    // BOXES
+    // ========================================================================
+
+    private fun findMoov(source: ByteSource): ByteArray? {
+        var position = 0L
+        for (i in 0 until MAX_TOP_LEVEL) {
+            val header = source.read(position, 16)
+            if (header.size < 8) return null
+            var size = u32(header, 0)
+            var headerSize = 8
+            if (size == 1L) {
+                if (header.size < 16) return null
+                size = u64(header, 8)
+                headerSize = 16
+            } else if (size == 0L) {
+                size = source.size - position
+            }
+            if (size < headerSize) return null
+            if (String(header, 4, 4, Charsets.ISO_8859_1) == "moov") {
+                if (size - headerSize > MAX_MOOV_SIZE) return null
+                return source.read(position + headerSize, (size - headerSize).toInt())
+            }
+            position += size
+        }
+        return null
+    }
+
+    /**
+     * Boxes in [from, to) of [data], with payload bounds
+     */
+    private fun children(data: ByteArray, from: Int, to: Int): List<Box> {
+        val result = ArrayList<Box>()
+        var offset = from
+        while (offset + 8 <= to) {
+            var size = u32(data, offset)
+            var headerSize = 8
+            if (size == 1L) {
+                if (offset + 16 > to) break
+                size = u64(data, offset + 8)
+                headerSize = 16
+            } else if (size == 0L) {
+                size = (to - offset).toLong()
+            }
+            if (size < headerSize || offset + size > to) break
+            result.add(Box(String(data, offset + 4, 4, Charsets.ISO_8859_1), offset + headerSize, (offset + size).toInt()))
+            offset += size.toInt()
+        }
+        return result
+    }
+
+    private fun child(data: ByteArray, parent: Box?, type: String): Box? {
+        if (parent == null) return null
+        return children(data, parent.start, parent.end).firstOrNull { it.type == type }
+    }
+
+    // ========================================================================
+    // NERO CHAPTERS
+    // ========================================================================
+
+    private fun nero(data: ByteArray, chpl: Box): List<Chapter> {
+        var offset = chpl.start
+        if (offset + 5 > chpl.end) return emptyList()
+        val version = data[offset].toInt()
+        offset += 4
+        if (version != 0) offset += 4
+        if (offset >= chpl.end) return emptyList()
+        val count = data[offset++].toInt() and 0xFF
+
+        val starts = ArrayList<Pair<String, Double>>()
+        for (i in 0 until count) {
+            if (offset + 9 > chpl.end) break
+            val start = u64(data, offset) / CHPL_TIMESCALE
+            val length = data[offset + 8].toInt() and 0xFF
+            offset += 9
+            if (offset + length > chpl.end) break
+            starts.add(String(data, offset, length, Charsets.UTF_8) to start)
+            offset += length
+        }
+        // Each chapter runs to the next; the classifier closes the last one
+        return starts.map { (title, start) -> Chapter(listOf(title), start, null) }
+    }
+
+    // ========================================================================
+    // CHAPTER TRACK
+    // ========================================================================
+
+    private fun chapterTrack(source: ByteSource, moov: ByteArray): List<Chapter> {
+        val traks = children(moov, 0, moov.size).filter { it.type == "trak" }
+        val chapterIds = HashSet<Long>()
+        for (trak in traks) {
+            val chap = child(moov, child(moov, trak, "tref"), "chap") ?: continue
+            for (offset in chap.start until chap.end - 3 step 4) chapterIds.add(u32(moov, offset))
+        }
+        if (chapterIds.isEmpty()) return emptyList()
+
+        val trak = traks.firstOrNull { trackId(moov, it) in chapterIds } ?: return emptyList()
+        val mdia = child(moov, trak, "mdia")
+        val timescale = timescale(moov, child(moov, mdia, "mdhd") ?: return emptyList())
+        if (timescale <= 0) return emptyList()
+        val stbl = child(moov, child(moov, mdia, "minf"), "stbl") ?: return emptyList()
+
+        val durations = stts(moov, child(moov, stbl, "stts") ?: return emptyList())
+        val sizes = stsz(moov, child(moov, stbl, "stsz") ?: return emptyList())
+        val offsets = sampleOffsets(moov, stbl, sizes) ?: return emptyList()
+
+        val result = ArrayList<Chapter>()
+        var time = 0L
+        for (i in 0 until minOf(sizes.size, durations.size, offsets.size, MAX_CHAPTERS)) {
+            val sample = source.read(offsets[i], minOf(sizes[i], MAX_TITLE_BYTES))
+            val title = text(sample)
+            val start = time.toDouble() / timescale
+            time += durations[i]
+            if (title != null) result.add(Chapter(listOf(title), start, time.toDouble() / timescale))
+        }
+        return result
+    }
+
+    private fun trackId(data: ByteArray, trak: Box): Long {
+        val tkhd = child(data, trak, "tkhd") ?: return -1
+        if (tkhd.end - tkhd.start < 24) return -1
+        val version = data[tkhd.start].toInt()
+        // Version and flags, then creation and modification times
+        return u32(data, tkhd.start + if (version == 1) 20 else 12)
+    }
+
+    private fun timescale(data: ByteArray, mdhd: Box): Long {
+        if (mdhd.end - mdhd.start < 24) return -1
+        val version = data[mdhd.start].toInt()
+        return u32(data, mdhd.start + if (version == 1) 20 else 12)
+    }
+
+    /**
+     * Duration of every sample, in the track's timescale
+     */
+    private fun stts(data: ByteArray, stts: Box): LongArray {
+        val entries = u32(data, stts.start + 4).toInt()
+        val result = ArrayList<Long>()
+        for (e in 0 until entries) {
+            val offset = stts.start + 8 + e * 8
+            if (offset + 8 > stts.end) break
+            val count = u32(data, offset)
+            val delta = u32(data, offset + 4)
+            for (i in 0 until minOf(count, MAX_CHAPTERS.toLong())) result.add(delta)
+            if (result.size >= MAX_CHAPTERS) break
+        }
+        return result.toLongArray()
+    }
+
+    private fun stsz(data: ByteArray, stsz: Box): IntArray {
+        val fixed = u32(data, stsz.start + 4).toInt()
+        val count = minOf(u32(data, stsz.start + 8), MAX_CHAPTERS.toLong()).toInt()
+        if (fixed != 0) return IntArray(count) { fixed }
+        return IntArray(count) { i ->
+            val offset = stsz.start + 12 + i * 4
+            if (offset + 4 <= stsz.end) u32(data, offset).toInt() else 0
+        }
+    }
+
+    /**
+     * File position of every sample, from the chunk offsets and samples per chunk
+     */
+    private fun sampleOffsets(data: ByteArray, stbl: Box, sizes: IntArray): LongArray? {
+        val stco = child(data, stbl, "stco")
+        val co64 = child(data, stbl, "co64")
+        val chunkBox = stco ?: co64 ?: return null
+        // A chapter track has a chunk per sample at most
+        val chunkCount = minOf(u32(data, chunkBox.start + 4), MAX_CHAPTERS.toLong()).toInt()
+        val chunks = LongArray(chunkCount) { i ->
+            if (stco != null) u32(data, stco.start + 8 + i * 4) else u64(data, chunkBox.start + 8 + i * 8)
+        }
+
+        val stsc = child(data, stbl, "stsc") ?: return null
+        val entries = minOf(u32(data, stsc.start + 4), ((stsc.end - stsc.start - 8) / 12).toLong()).toInt()
+        if (entries <= 0) return null
+        val firstChunks = IntArray(entries) { u32(data, stsc.start + 8 + it * 12).toInt() }
+        val perChunk = IntArray(entries) { u32(data, stsc.start + 12 + it * 12).toInt() }
+
+        val result = LongArray(sizes.size)
+        var sample = 0
+        var entry = 0
+        for (chunk in 0 until chunkCount) {
+            // Chunk numbers are 1-based
+            while (entry + 1 < entries && firstChunks[entry + 1] <= chunk + 1) entry++
+            var offset = chunks[chunk]
+            for (i in 0 until perChunk[entry]) {
+                if (sample >= sizes.size) return result
+                result[sample] = offset
+                offset += sizes[sample]
+                sample++
+            }
+        }
+        return result.copyOf(sample)
+    }
+
+    /**
+     * Title in a text sample: a 16-bit length, then UTF-8 or UTF-16 with a byte order mark
+     */
+    private fun text(sample: ByteArray): String? {
+        if (sample.size < 2) return null
+        val length = minOf((sample[0].toInt() and 0xFF) shl 8 or (sample[1].toInt() and 0xFF), sample.size - 2)
+        if (length <= 0) return null
+        val b0 = sample[2].toInt() and 0xFF
+        val b1 = if (length > 1) sample[3].toInt() and 0xFF else 0
+        return when {
+            b0 == 0xFE && b1 == 0xFF -> String(sample, 4, length - 2, Charsets.UTF_16BE)
+            b0 == 0xFF && b1 == 0xFE -> String(sample, 4, length - 2, Charsets.UTF_16LE)
+            else -> String(sample, 2, length, Charsets.UTF_8)
+        }
+    }
+
+    private fun u32(data: ByteArray, offset: Int): Long {
+        if (offset < 0 || offset + 4 > data.size) return 0
+        return ((data[offset].toLong() and 0xFF) shl 24) or
+                ((data[offset + 1].toLong() and 0xFF) shl 16) or
+                ((data[offset + 2].toLong() and 0xFF) shl 8) or
+                (data[offset + 3].toLong() and 0xFF)
+    }
+
+    private fun u64(data: ByteArray, offset: Int): Long = (u32(data, offset) shl 32) or u32(data, offset + 4)
+}
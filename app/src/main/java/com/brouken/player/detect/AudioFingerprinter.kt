@@ -0,0 +1,242 @@
+package com.brouken.player.detect
+
+import java.nio.ShortBuffer
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.ln
+import kotlin.math.roundToInt
+import kotlin.math.sin
+
+/**
+ * Streaming audio fingerprint of interleaved 16-bit PCM
+ *
+ * Input is downmixed to mono and resampled to [SAMPLE_RATE]; every [HOP]
+ * samples a Hann-windowed FFT frame is reduced to one 32-bit code:
+ *
+ * - bits 0-11: chroma bin i louder than bin i+1 (melody and harmony)
+ * - bits 12-23: chroma bin i louder than in the previous frame (movement)
+ * - bits 24-30: spectral band b louder than band b+1 (timbre)
+ * - bit 31: frame louder than the previous one
+ *
+ * All comparisons are between bins of the same signal, so the codes survive
+ * different gain, EQ and lossy encodes of the same music. Silent frames get
+ * [SILENT]. Buffers are allocated once; [feed] allocates nothing except when
+ * the code array grows.
+ */
+class AudioFingerprinter(private val inputRate: Int, private val channels: Int) {
+
+    companion object {
+        const val SAMPLE_RATE = 8000
+        const val FRAME = 2048
+        const val HOP = 1024
+        /** Seconds between two codes */
+        const val FRAME_SECONDS = HOP.toDouble() / SAMPLE_RATE
+        /** Code of a frame too quiet to fingerprint; never matches anything */
+        const val SILENT = 0
+
+        private const val CHROMA_MIN_HZ = 110.0
+        private const val CHROMA_MAX_HZ = 2000.0
+        private const val BAND_MIN_HZ = 200.0
+        private const val BAND_MAX_HZ = 3600.0
+        private const val BANDS = 8
+        // Mean square of a frame (in 16-bit units) below which it counts as silence
+        private const val SILENCE_POWER = 40.0 * 40.0
+
+        private val WINDOW = FloatArray(FRAME) { (0.5 - 0.5 * cos(2 * PI * it / (FRAME - 1))).toFloat() }
+        private val COS = FloatArray(FRAME / 2) { cos(-2 * PI * it / FRAME).toFloat() }
+        private val SIN = FloatArray(FRAME / 2) { sin(-2 * PI * it / FRAME).toFloat() }
+        private val BIT_REVERSE = IntArray(FRAME).also { table ->
+            val bits = Integer.numberOfTrailingZeros(FRAME)
+            for (i in 0 until FRAME) table[i] = Integer.reverse(i) ushr (32 - bits)
+        }
+
+        // FFT bin -> pitch class, or -1 outside the chroma range
+        private val PITCH_CLASS = IntArray(FRAME / 2) { bin ->
+            val hz = bin.toDouble() * SAMPLE_RATE / FRAME
+            if (hz < CHROMA_MIN_HZ || hz > CHROMA_MAX_HZ) -1
+            else Math.floorMod((12 * ln(hz / 440.0) / ln(2.0)).roundToInt() + 9, 12)
+        }
+
+        // FFT bin -> log-spaced band, or -1 outside the band range
+        private val BAND = IntArray(FRAME / 2) { bin ->
+            val hz = bin.toDouble() * SAMPLE_RATE / FRAME
+            if (hz < BAND_MIN_HZ || hz >= BAND_MAX_HZ) -1
+            else (BANDS * ln(hz / BAND_MIN_HZ) / ln(BAND_MAX_HZ / BAND_MIN_HZ)).toInt().coerceAtMost(BANDS - 1)
+        }
+    }
+
+    // Resampler: box-averages input samples into each output sample
+    private val step = inputRate.toDouble() / SAMPLE_RATE
+    private var phase = 0.0
+    private var accumulator = 0.0
+    private var accumulated = 0
+    private var channel = 0
+    private var frameSum = 0.0
+
+    // Last FRAME resampled samples; HOP new ones trigger a frame
+    private val ring = FloatArray(FRAME)
+    private var ringPosition = 0
+    private var sinceLastFrame = 0
+    private var filled = 0
+
+    private val real = FloatArray(FRAME)
+    private val imaginary = FloatArray(FRAME)
+    private val chroma = DoubleArray(12)
+    private val previousChroma = DoubleArray(12)
+    private val bands = DoubleArray(BANDS)
+    private var previousPower = 0.0
+
+    private var codes = IntArray(1024)
+    private var count = 0
+
+    /** Number of codes so far */
+    val size: Int get() = count
+
+    /**
+     * Feed interleaved samples between the buffer's position and limit
+     */
+    fun feed(samples: ShortBuffer) {
+        for (i in samples.position() until samples.limit()) {
+            push(samples.get(i))
+        }
+    }
+
+    fun feed(samples: ShortArray, offset: Int = 0, length: Int = samples.size - offset) {
+        for (i in offset until offset + length) {
+            push(samples[i])
+        }
+    }
+
+    /**
+     * The codes computed so far
+     */
+    fun fingerprint(): IntArray = codes.copyOf(count)
+
+    // ========================================================================
+    // STREAMING
+    // ========================================================================
+
+    private fun push(sample: Short) {
+        frameSum += sample
+        if (++channel < channels) return
+        channel = 0
+        accumulator += frameSum / channels
+        accumulated++
+        frameSum = 0.0
+
+        phase += 1.0
+        if (phase < step) return
+        val value = (accumulator / accumulated).toFloat()
+        accumulator = 0.0
+        accumulated = 0
+        // More than once only when the input rate is below SAMPLE_RATE
+        while (phase >= step) {
+            phase -= step
+            pushResampled(value)
+        }
+    }
+
+    private fun pushResampled(sample: Float) {
+        ring[ringPosition] = sample
+        ringPosition = (ringPosition + 1) % FRAME
+        if (filled < FRAME) filled++
+        if (++sinceLastFrame >= HOP && filled == FRAME) {
+            sinceLastFrame = 0
+            computeFrame()
+        }
+    }
+
+    // ========================================================================
+    // FRAME
+    // ========================================================================
+
+    private fun computeFrame() {
+        // Oldest sample first, windowed, in bit-reversed order for the FFT
+        var power = 0.0
+        for (i in 0 until FRAME) {
+            val sample = ring[(ringPosition + i) % FRAME]
+            power += sample * sample
+            real[BIT_REVERSE[i]] = sample * WINDOW[i]
+            imaginary[BIT_REVERSE[i]] = 0f
+        }
+        power /= FRAME
+
+        if (power < SILENCE_POWER) {
+            chroma.fill(0.0)
+            previousChroma.fill(0.0)
+            previousPower = power
+            append(SILENT)
+            return
+        }
+
+        fft()
+
+        chroma.fill(0.0)
+        bands.fill(0.0)
+        for (bin in 1 until FRAME / 2) {
+            val re = real[bin].toDouble()
+            val im = imaginary[bin].toDouble()
+            val magnitude = re * re + im * im
+            val pitchClass = PITCH_CLASS[bin]
+            if (pitchClass >= 0) chroma[pitchClass] += magnitude
+            val band = BAND[bin]
+            if (band >= 0) bands[band] += magnitude
+        }
+
+        var code = 0
+        for (i in 0 until 12) {
+            if (chroma[i] > chroma[(i + 1) % 12]) code = code or (1 shl i)
+        }
+        // Normalised so a louder copy still rises and falls the same way
+        var chromaSum = 0.0
+        for (i in 0 until 12) chromaSum += chroma[i]
+        if (chromaSum > 0) {
+            for (i in 0 until 12) chroma[i] /= chromaSum
+        }
+        for (i in 0 until 12) {
+            if (chroma[i] > previousChroma[i]) code = code or (1 shl (12 + i))
+            previousChroma[i] = chroma[i]
+        }
+        for (b in 0 until BANDS - 1) {
+            if (bands[b] > bands[b + 1]) code = code or (1 shl (24 + b))
+        }
+        if (power > previousPower) code = code or (1 shl 31)
+        previousPower = power
+
+        // SILENT is reserved
+        append(if (code == SILENT) 1 else code)
+    }
+
+    /**
+     * In-place iterative radix-2 FFT over [real]/[imaginary], input already bit-reversed
+     */
+    private fun fft() {
+        var size = 2
+        while (size <= FRAME) {
+            val half = size / 2
+            val tableStep = FRAME / size
+            var start = 0
+            while (start < FRAME) {
+                for (k in 0 until half) {
+                    val wr = COS[k * tableStep]
+                    val wi = SIN[k * tableStep]
+                    val even = start + k
+                    val odd = even + half
+                    val tr = wr * real[odd] - wi * imaginary[odd]
+                    val ti = wr * imaginary[odd] + wi * real[odd]
+                    real[odd] = real[even] - tr
+                    imaginary[odd] = imaginary[even] - ti
+                    real[even] += tr
+                    imaginary[even] += ti
+                }
+                start += size
+            }
+            size *= 2
+        }
+    }
+
+    private fun append(code: Int) {
+        if (count == codes.size) codes = codes.copyOf(count * 2)
+        codes[count++] = code
+    }
+}
@@ -0,0 +1,178 @@
+package com.brouken.player.detect
+
+/**
+ * Suggests where a recap ends and the credits start, from one episode alone
+ *
+ * Scene changes that matter are faded through black and silence. Black and
+ * static frames are found without decoding, from their compressed size: an
+ * encoder spends next to nothing on a frame with no detail or no change, so
+ * frames far below the episode's typical size are still ([FrameSizes]).
+ * Where a silent gap ([SilenceDetector]) meets still frames, there is a
+ * boundary. Credits are the boundary after which the picture stays mostly
+ * still, as text over black rolls; the recap ends at the first boundary of
+ * the episode.
+ */
+object BoundaryDetector {
+
+    /** A frame is still below this fraction of the typical size of its kind */
+    private const val STILL_FRACTION = 0.15
+    private const val MIN_STILL_SECONDS = 0.3
+    /** Still frames and silence this far apart still make one boundary */
+    private const val JOIN_SECONDS = 0.5
+
+    /** The recap ends this far into the episode */
+    private const val MIN_RECAP_SECONDS = 20.0
+    private const val MAX_RECAP_SECONDS = 180.0
+
+    /** Frames counted as credits, compared with the typical size; text compresses well too */
+    private const val CREDITS_FRACTION = 0.4
+    /** Part of the [CREDITS_PROBE_SECONDS] after a boundary that must look like credits */
+    private const val MIN_CREDITS_SHARE = 0.6
+    private const val CREDITS_PROBE_SECONDS = 30.0
+    /** Credits are at least this long */
+    private const val MIN_CREDITS_SECONDS = 20.0
+
+    /**
+     * A stretch in seconds from the start of the episode
+     */
+    data class Run(val start: Double, val end: Double)
+
+    /**
+     * Suggested boundaries in seconds; null where none was found
+     */
+    data class Boundaries(val recapEnd: Double?, val creditsStart: Double?)
+
+    /**
+     * Compressed sizes of the video frames in a stretch of the episode, in decode order
+     */
+    class FrameSizes {
+        internal var count = 0
+        internal var times = LongArray(1024)
+        internal var sizes = IntArray(1024)
+        internal var sync = BooleanArray(1024)
+
+        fun add(timeUs: Long, size: Int, isSync: Boolean) {
+            if (count == times.size) {
+                times = times.copyOf(count * 2)
+                sizes = sizes.copyOf(count * 2)
+                sync = sync.copyOf(count * 2)
+            }
+            times[count] = timeUs
+            sizes[count] = size
+            sync[count] = isSync
+            count++
+        }
+
+        /**
+         * Median size of sync or of other frames; they differ by an order of magnitude
+         */
+        internal fun median(ofSync: Boolean): Int {
+            val picked = IntArray(count)
+            var n = 0
+            for (i in 0 until count) {
+                if (sync[i] == ofSync) picked[n++] = sizes[i]
+            }
+            if (n == 0) return 0
+            picked.sort(0, n)
+            return picked[n / 2]
+        }
+    }
+
+    /**
+     * A stretch of the episode analysed on its own
+     */
+    class Window(val silences: List<Run>, val frames: FrameSizes)
+
+    /**
+     * @param opening the start of the episode; its frames also set the typical frame size
+     * @param credits the end of the episode
+     * @param duration of the episode, in seconds
+     */
+    @JvmStatic
+    fun detect(opening: Window, credits: Window, duration: Double): Boundaries {
+        val typicalSync = opening.frames.median(true)
+        val typical = opening.frames.median(false)
+        if (typical <= 0) return Boundaries(null, null)
+
+        val recapEnd = boundaries(opening, typicalSync, typical)
+            .firstOrNull { it.end in MIN_RECAP_SECONDS..MAX_RECAP_SECONDS }
+            ?.end
+
+        val creditsStart = boundaries(credits, typicalSync, typical)
+            .firstOrNull {
+                duration - it.start >= MIN_CREDITS_SECONDS &&
+                        creditsShare(credits.frames, it.end, typical) >= MIN_CREDITS_SHARE
+            }
+            ?.start
+
+        return Boundaries(recapEnd, creditsStart)
+    }
+
+    // ========================================================================
+    // ANALYSIS
+    // ========================================================================
+
+    /**
+     * Silent gaps that coincide with still frames, spanning both
+     */
+    internal fun boundaries(window: Window, typicalSync: Int, typical: Int): List<Run> {
+        val still = stillRuns(window.frames, typicalSync, typical)
+        val result = ArrayList<Run>()
+        for (gap in window.silences) {
+            val overlapping = still.filter {
+                it.start <= gap.end + JOIN_SECONDS && it.end >= gap.start - JOIN_SECONDS
+            }
+            if (overlapping.isEmpty()) continue
+            result.add(Run(
+                minOf(gap.start, overlapping.first().start),
+                maxOf(gap.end, overlapping.last().end)
+            ))
+        }
+        return result
+    }
+
+    /**
+     * Runs of frames much smaller than typical for their kind
+     */
+    internal fun stillRuns(frames: FrameSizes, typicalSync: Int, typical: Int): List<Run> {
+        // Frames arrive in decode order; B-frames make times jitter but not by more than a few frames
+        val result = ArrayList<Run>()
+        var runStart = -1L
+        var lastStill = -1L
+        for (i in 0 until frames.count) {
+            val reference = if (frames.sync[i] && typicalSync > 0) typicalSync else typical
+            val time = frames.times[i]
+            if (frames.sizes[i] < reference * STILL_FRACTION) {
+                if (runStart < 0) runStart = time
+                lastStill = maxOf(lastStill, time)
+            } else if (runStart >= 0) {
+                addRun(result, runStart, lastStill)
+                runStart = -1
+                lastStill = -1
+            }
+        }
+        if (runStart >= 0) addRun(result, runStart, lastStill)
+        return result
+    }
+
+    private fun addRun(result: MutableList<Run>, startUs: Long, endUs: Long) {
+        val run = Run(startUs / 1_000_000.0, endUs / 1_000_000.0)
+        if (run.end - run.start >= MIN_STILL_SECONDS) result.add(run)
+    }
+
+    /**
+     * Share of the frames in the probe after [from] that are small enough to be credits
+     */
+    private fun creditsShare(frames: FrameSizes, from: Double, typical: Int): Double {
+        val startUs = (from * 1_000_000).toLong()
+        val endUs = ((from + CREDITS_PROBE_SECONDS) * 1_000_000).toLong()
+        var total = 0
+        var small = 0
+        for (i in 0 until frames.count) {
+            if (frames.times[i] < startUs || frames.times[i] >= endUs || frames.sync[i]) continue
+            total++
+            if (frames.sizes[i] < typical * CREDITS_FRACTION) small++
+        }
+        return if (total == 0) 0.0 else small.toDouble() / total
+    }
+}
@@ -0,0 +1,161 @@
+package com.brouken.player.detect
+
+import android.content.Context
+import android.media.MediaCodec
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import android.net.Uri
+import com.brouken.player.utils.DebugLogger
+import java.io.IOException
+import java.nio.ByteOrder
+
+/**
+ * Decodes the start and end of an episode's audio into fingerprints
+ *
+ * Only the windows where an opening or credits can be are decoded, through
+ * the platform extractor and decoder, and the PCM is streamed straight into
+ * an [AudioFingerprinter] buffer by buffer, so nothing of the audio is kept.
+ * Silent gaps are picked up in the same pass, for [BoundaryDetector].
+ */
+internal class EpisodeFingerprinter(private val context: Context) {
+
+    companion object {
+        private const val TAG = "EpisodeFingerprinter"
+        private const val TIMEOUT_US = 10_000L
+
+        /** Openings are looked for in the first 10 minutes, at most 40% of the runtime */
+        private const val OPENING_WINDOW_US = 10 * 60 * 1_000_000L
+        private const val OPENING_FRACTION = 0.4
+        /** Credits in the last 5 minutes, at most 25% of the runtime */
+        private const val CREDITS_WINDOW_US = 5 * 60 * 1_000_000L
+        private const val CREDITS_FRACTION = 0.25
+    }
+
+    /**
+     * Codes and silent gaps of both windows; [creditsStart] is where the credits window begins, in seconds
+     */
+    class Fingerprint(
+        val opening: IntArray,
+        val credits: IntArray,
+        val creditsStart: Double,
+        val duration: Double,
+        val openingSilences: List<BoundaryDetector.Run>,
+        val creditsSilences: List<BoundaryDetector.Run>
+    ) {
+        val openingEnd: Double get() = opening.size * AudioFingerprinter.FRAME_SECONDS
+    }
+
+    private class Decoded(val codes: IntArray, val silences: List<BoundaryDetector.Run>)
+
+    fun interface Cancellation {
+        fun isCancelled(): Boolean
+    }
+
+    /**
+     * @return null if the file has no decodable audio or decoding was cancelled
+     */
+    fun fingerprint(uri: Uri, cancellation: Cancellation): Fingerprint? {
+        val extractor = MediaExtractor()
+        try {
+            extractor.setDataSource(context, uri, null)
+            val track = (0 until extractor.trackCount).firstOrNull {
+                extractor.getTrackFormat(it).getString(MediaFormat.KEY_MIME)?.startsWith("audio/") == true
+            } ?: return null
+            extractor.selectTrack(track)
+            val format = extractor.getTrackFormat(track)
+            if (!format.containsKey(MediaFormat.KEY_DURATION)) return null
+            val durationUs = format.getLong(MediaFormat.KEY_DURATION)
+
+            val openingEnd = minOf(OPENING_WINDOW_US, (durationUs * OPENING_FRACTION).toLong())
+            val creditsStart = durationUs - minOf(CREDITS_WINDOW_US, (durationUs * CREDITS_FRACTION).toLong())
+
+            val opening = decode(extractor, format, 0, openingEnd, cancellation) ?: return null
+            extractor.seekTo(creditsStart, MediaExtractor.SEEK_TO_PREVIOUS_SYNC)
+            val credits = decode(extractor, format, creditsStart, durationUs, cancellation) ?: return null
+
+            DebugLogger.log(TAG, "Fingerprinted ${uri.lastPathSegment}: ${opening.codes.size} + ${credits.codes.size} frames")
+            return Fingerprint(
+                opening.codes, credits.codes,
+                creditsStart / 1_000_000.0, durationUs / 1_000_000.0,
+                opening.silences, credits.silences
+            )
+        } catch (e: IOException) {
+            DebugLogger.log(TAG, "Cannot read ${uri.lastPathSegment}: ${e.message}")
+            return null
+        } catch (e: IllegalStateException) {
+            // Codec errors surface as IllegalStateException (MediaCodec.CodecException)
+            DebugLogger.log(TAG, "Cannot decode ${uri.lastPathSegment}: ${e.message}")
+            return null
+        } finally {
+            extractor.release()
+        }
+    }
+
+    /**
+     * Decode [startUs, endUs) of the selected track into codes and silent gaps
+     */
+    private fun decode(
+        extractor: MediaExtractor,
+        format: MediaFormat,
+        startUs: Long,
+        endUs: Long,
+        cancellation: Cancellation
+    ): Decoded? {
+        val mime = format.getString(MediaFormat.KEY_MIME) ?: return null
+        val codec = MediaCodec.createDecoderByType(mime)
+        try {
+            codec.configure(format, null, null, 0)
+            codec.start()
+
+            val info = MediaCodec.BufferInfo()
+            var fingerprinter: AudioFingerprinter? = null
+            var silence: SilenceDetector? = null
+            var rate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+            var channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+            var inputDone = false
+
+            while (true) {
+                if (cancellation.isCancelled()) return null
+
+                if (!inputDone) {
+                    val inputIndex = codec.dequeueInputBuffer(TIMEOUT_US)
+                    if (inputIndex >= 0) {
+                        val input = codec.getInputBuffer(inputIndex)!!
+                        val size = extractor.readSampleData(input, 0)
+                        if (size < 0 || extractor.sampleTime >= endUs) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM)
+                            inputDone = true
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.sampleTime, 0)
+                            extractor.advance()
+                        }
+                    }
+                }
+
+                val outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US)
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    // The decoder's actual output, e.g. HE-AAC doubling the rate
+                    val output = codec.outputFormat
+                    rate = output.getInteger(MediaFormat.KEY_SAMPLE_RATE)
+                    channels = output.getInteger(MediaFormat.KEY_CHANNEL_COUNT)
+                } else if (outputIndex >= 0) {
+                    // Decoding starts at the sync sample before startUs; skip up to it
+                    if (info.size > 0 && info.presentationTimeUs >= startUs) {
+                        val output = codec.getOutputBuffer(outputIndex)!!
+                        output.position(info.offset)
+                        output.limit(info.offset + info.size)
+                        val pcm = output.order(ByteOrder.nativeOrder()).asShortBuffer()
+                        (fingerprinter ?: AudioFingerprinter(rate, channels).also { fingerprinter = it }).feed(pcm)
+                        (silence ?: SilenceDetector(rate, channels, startUs / 1_000_000.0).also { silence = it }).feed(pcm)
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false)
+                    if (info.flags and MediaCodec.BUFFER_FLAG_END_OF_STREAM != 0) break
+                }
+            }
+            return Decoded(fingerprinter?.fingerprint() ?: IntArray(0), silence?.gaps() ?: emptyList())
+        } finally {
+            // Valid in any state, unlike stop()
+            codec.release()
+        }
+    }
+}
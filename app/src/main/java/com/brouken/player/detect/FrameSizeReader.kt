@@ -0,0 +1,79 @@
+package com.brouken.player.detect
+
+import android.content.Context
+import android.media.MediaExtractor
+import android.media.MediaFormat
+import android.net.Uri
+import android.os.Build
+import com.brouken.player.utils.DebugLogger
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * Reads the compressed size of every video frame in parts of an episode
+ *
+ * Nothing is decoded: the extractor walks the container's samples and only
+ * their size and sync flag are kept, so a window of several minutes takes a
+ * fraction of a second on most files.
+ */
+internal class FrameSizeReader(private val context: Context) {
+
+    companion object {
+        private const val TAG = "FrameSizeReader"
+        /** Before API 28 samples have to be copied out to learn their size */
+        private const val DEFAULT_SAMPLE_BUFFER = 4 * 1024 * 1024
+    }
+
+    /**
+     * Frames of each range, in microseconds; null if the file has no readable video
+     */
+    fun read(uri: Uri, ranges: List<LongRange>, cancellation: EpisodeFingerprinter.Cancellation): List<BoundaryDetector.FrameSizes>? {
+        val extractor = MediaExtractor()
+        try {
+            extractor.setDataSource(context, uri, null)
+            val track = (0 until extractor.trackCount).firstOrNull {
+                extractor.getTrackFormat(it).getString(MediaFormat.KEY_MIME)?.startsWith("video/") == true
+            } ?: return null
+            extractor.selectTrack(track)
+            val format = extractor.getTrackFormat(track)
+
+            var buffer: ByteBuffer? = null
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+                val size = if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                    format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE)
+                } else {
+                    DEFAULT_SAMPLE_BUFFER
+                }
+                buffer = ByteBuffer.allocateDirect(size)
+            }
+
+            val result = ArrayList<BoundaryDetector.FrameSizes>(ranges.size)
+            for (range in ranges) {
+                val frames = BoundaryDetector.FrameSizes()
+                extractor.seekTo(range.first, MediaExtractor.SEEK_TO_PREVIOUS_SYNC)
+                while (true) {
+                    if (cancellation.isCancelled()) return null
+                    val time = extractor.sampleTime
+                    if (time < 0 || time > range.last) break
+                    val size = if (buffer == null) extractor.sampleSize else extractor.readSampleData(buffer, 0).toLong()
+                    if (size < 0) break
+                    if (time >= range.first) {
+                        frames.add(time, size.toInt(), extractor.sampleFlags and MediaExtractor.SAMPLE_FLAG_SYNC != 0)
+                    }
+                    extractor.advance()
+                }
+                result.add(frames)
+            }
+            return result
+        } catch (e: IOException) {
+            DebugLogger.log(TAG, "Cannot read ${uri.lastPathSegment}: ${e.message}")
+            return null
+        } catch (e: IllegalArgumentException) {
+            // A sample larger than the buffer
+            DebugLogger.log(TAG, "Cannot read frames of ${uri.lastPathSegment}: ${e.message}")
+            return null
+        } finally {
+            extractor.release()
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package com.brouken.player.detect
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.net.Uri
+import android.os.Process
+import com.brouken.player.utils.DebugLogger
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.concurrent.Executors
+
+/**
+ * Finds openings and credits offline, from the audio of neighbouring episodes
+ *
+ * Used when no skip database knows the show. The episode and a few of its
+ * neighbours are fingerprinted ([EpisodeFingerprinter]) on one background
+ * priority thread, and the audio they share at the start and end is taken
+ * as the opening and credits ([SegmentMatcher]). Fingerprints are kept on
+ * disk, so every later episode of the season only needs its own decoded;
+ * results for all episodes involved are cached, so the neighbours have their
+ * skip data before they are opened.
+ *
+ * When no neighbour shares audio with the episode, or it has none on disk,
+ * the recap end and credits start are suggested from the episode alone
+ * ([BoundaryDetector]); those are marked [Detected.suggested].
+ */
+class LocalSkipDetector private constructor(private val context: Context) {
+
+    companion object {
+        private const val TAG = "LocalSkipDetector"
+        private const val PREFS_NAME = "jasp_local_skip"
+        private const val KEY_RESULTS = "results"
+        private const val FINGERPRINT_DIR = "fingerprints"
+        private const val FINGERPRINT_VERSION = 2
+
+        /** Neighbouring episodes compared with the one being played */
+        const val SIBLINGS = 3
+
+        private const val MAX_RESULTS = 500
+        private const val MAX_FINGERPRINTS = 60
+        // A miss is retried after a while, when more of the season may be on disk
+        private const val MISS_TTL_MS = 7L * 24 * 60 * 60 * 1000
+        /** Credits ending this close to the end run to the end */
+        private const val END_SNAP_SECONDS = 3.0
+
+        private val json = Json {
+            ignoreUnknownKeys = true
+        }
+
+        @Volatile
+        private var instance: LocalSkipDetector? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): LocalSkipDetector {
+            return instance ?: synchronized(this) {
+                instance ?: LocalSkipDetector(context.applicationContext).also { instance = it }
+            }
+        }
+
+        private fun keyOf(uri: Uri): String = uri.toString()
+    }
+
+    fun interface Callback {
+        fun onDetected(detected: Detected)
+    }
+
+    /**
+     * Recap, opening and credits of one episode, in seconds; null where none was found
+     *
+     * @property suggested found from fades in this episode alone rather than shared audio
+     */
+    @Serializable
+    data class Detected(
+        val recap: List<Double>? = null,
+        val opening: List<Double>? = null,
+        val credits: List<Double>? = null,
+        val suggested: Boolean = false,
+        val detectedAt: Long
+    ) {
+        fun segments(): List<Pair<Double, Double>> {
+            return listOfNotNull(recap, opening, credits).map { it[0] to it[1] }
+        }
+    }
+
+    private val prefs: SharedPreferences =
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+
+    private val fingerprinter = EpisodeFingerprinter(context)
+    private val frameSizeReader = FrameSizeReader(context)
+    private val fingerprintDir = File(context.cacheDir, FINGERPRINT_DIR)
+    private val executor = Executors.newSingleThreadExecutor { runnable ->
+        Thread({
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+            runnable.run()
+        }, TAG)
+    }
+
+    private val lock = Any()
+    // Uri -> result, oldest first
+    private val results = LinkedHashMap<String, Detected>()
+    private val inFlight = HashSet<String>()
+    @Volatile
+    private var generation = 0
+
+    init {
+        load()
+    }
+
+    /**
+     * Result for [uri] found earlier: null if it was never analysed, without segments if nothing was found
+     */
+    fun cached(uri: Uri): Detected? {
+        synchronized(lock) {
+            val detected = results[keyOf(uri)] ?: return null
+            if (detected.segments().isEmpty() && System.currentTimeMillis() - detected.detectedAt > MISS_TTL_MS) {
+                return null
+            }
+            return detected
+        }
+    }
+
+    /**
+     * Analyse [uri] against [siblings] in the background; with no siblings only boundaries are suggested
+     *
+     * @param callback run on the detector thread, only if something was found
+     * @return false if [uri] is already being analysed
+     */
+    fun detect(uri: Uri, siblings: List<Uri>, callback: Callback): Boolean {
+        val key = keyOf(uri)
+        synchronized(lock) {
+            if (!inFlight.add(key)) return false
+        }
+        val started = generation
+        executor.execute {
+            try {
+                val detected = analyse(uri, siblings.take(SIBLINGS)) { generation != started }
+                if (detected != null && detected.segments().isNotEmpty()) {
+                    callback.onDetected(detected)
+                }
+            } catch (e: Exception) {
+                DebugLogger.e(TAG, "Detection failed for ${uri.lastPathSegment}: ${e.message}", e)
+            } finally {
+                synchronized(lock) { inFlight.remove(key) }
+            }
+        }
+        return true
+    }
+
+    /**
+     * Stop decoding; fingerprints finished so far are kept
+     */
+    fun cancel() {
+        generation++
+    }
+
+    // ========================================================================
+    // DETECTION
+    // ========================================================================
+
+    private fun analyse(
+        uri: Uri,
+        siblings: List<Uri>,
+        cancellation: EpisodeFingerprinter.Cancellation
+    ): Detected? {
+        val startedAt = System.currentTimeMillis()
+        val episodes = ArrayList<Pair<Uri, EpisodeFingerprinter.Fingerprint>>()
+        for (episode in listOf(uri) + siblings) {
+            if (cancellation.isCancelled()) return null
+            val fingerprint = loadFingerprint(episode) ?: fingerprinter.fingerprint(episode, cancellation)?.also {
+                saveFingerprint(episode, it)
+            }
+            if (fingerprint != null) {
+                episodes.add(episode to fingerprint)
+            } else if (episode == uri) {
+                return null
+            }
+        }
+        if (episodes.size < 2) {
+            DebugLogger.log(TAG, "No episodes to compare with for ${uri.lastPathSegment}")
+            return suggest(uri, episodes[0].second, cancellation)
+        }
+
+        // Every episode here with a match gets its result, so the neighbours are ready when opened
+        var target: Detected? = null
+        for ((episode, fingerprint) in episodes) {
+            val others = episodes.filter { it.first != episode }.map { it.second }
+            val opening = SegmentMatcher.findShared(fingerprint.opening, others.map { it.opening })
+            val credits = SegmentMatcher.findShared(fingerprint.credits, others.map { it.credits })?.let {
+                val end = fingerprint.creditsStart + it.end
+                listOf(
+                    fingerprint.creditsStart + it.start,
+                    if (fingerprint.duration - end < END_SNAP_SECONDS) fingerprint.duration else end
+                )
+            }
+            val detected = Detected(
+                opening = opening?.let { listOf(it.start, it.end) },
+                credits = credits,
+                detectedAt = System.currentTimeMillis()
+            )
+            DebugLogger.log(TAG, "${episode.lastPathSegment}: opening=${detected.opening}, credits=${detected.credits}")
+            if (episode == uri) {
+                target = detected
+            } else if (detected.segments().isNotEmpty()) {
+                // A neighbour without a match gets its own suggestions when opened
+                store(episode, detected)
+            }
+        }
+
+        DebugLogger.log(TAG, "Analysed ${episodes.size} episodes in ${System.currentTimeMillis() - startedAt}ms")
+        if (target == null || target.segments().isEmpty()) {
+            return suggest(uri, episodes[0].second, cancellation)
+        }
+        store(uri, target)
+        return target
+    }
+
+    /**
+     * Recap end and credits start from fades to black and silence in the episode itself
+     */
+    private fun suggest(
+        uri: Uri,
+        fingerprint: EpisodeFingerprinter.Fingerprint,
+        cancellation: EpisodeFingerprinter.Cancellation
+    ): Detected? {
+        val startedAt = System.currentTimeMillis()
+        val openingEndUs = (fingerprint.openingEnd * 1_000_000).toLong()
+        val creditsStartUs = (fingerprint.creditsStart * 1_000_000).toLong()
+        val durationUs = (fingerprint.duration * 1_000_000).toLong()
+        val frames = frameSizeReader.read(uri, listOf(0..openingEndUs, creditsStartUs..durationUs), cancellation)
+        if (frames == null) {
+            if (cancellation.isCancelled()) return null
+            // Audio only; nothing to suggest from
+            return Detected(detectedAt = System.currentTimeMillis()).also { store(uri, it) }
+        }
+
+        val boundaries = BoundaryDetector.detect(
+            BoundaryDetector.Window(fingerprint.openingSilences, frames[0]),
+            BoundaryDetector.Window(fingerprint.creditsSilences, frames[1]),
+            fingerprint.duration
+        )
+        val detected = Detected(
+            recap = boundaries.recapEnd?.let { listOf(0.0, it) },
+            credits = boundaries.creditsStart?.let { listOf(it, fingerprint.duration) },
+            suggested = true,
+            detectedAt = System.currentTimeMillis()
+        )
+        store(uri, detected)
+        DebugLogger.log(TAG, "${uri.lastPathSegment}: suggested recap=${detected.recap}, credits=${detected.credits}" +
+                " in ${System.currentTimeMillis() - startedAt}ms")
+        return detected
+    }
+
+    // ========================================================================
+    // PERSISTENCE
+    // ========================================================================
+
+    private fun store(uri: Uri, detected: Detected) {
+        synchronized(lock) {
+            val key = keyOf(uri)
+            results.remove(key)
+            results[key] = detected
+            val iterator = results.entries.iterator()
+            while (results.size > MAX_RESULTS && iterator.hasNext()) {
+                iterator.next()
+                iterator.remove()
+            }
+            try {
+                prefs.edit().putString(KEY_RESULTS, json.encodeToString(results.toMap())).apply()
+            } catch (e: Exception) {
+                DebugLogger.e(TAG, "Failed to save results: ${e.message}", e)
+            }
+        }
+    }
+
+    private fun load() {
+        try {
+            prefs.getString(KEY_RESULTS, null)?.let {
+                results.putAll(json.decodeFromString<Map<String, Detected>>(it).entries
+                    .sortedBy { entry -> entry.value.detectedAt }
+                    .associate { entry -> entry.key to entry.value })
+            }
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to load results: ${e.message}", e)
+        }
+    }
+
+    private fun fingerprintFile(uri: Uri): File {
+        val digest = MessageDigest.getInstance("SHA-1").digest(keyOf(uri).toByteArray())
+        return File(fingerprintDir, digest.joinToString("") { "%02x".format(it) })
+    }
+
+    private fun loadFingerprint(uri: Uri): EpisodeFingerprinter.Fingerprint? {
+        val file = fingerprintFile(uri)
+        if (!file.exists()) return null
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != FINGERPRINT_VERSION) return null
+                val creditsStart = input.readDouble()
+                val duration = input.readDouble()
+                val opening = IntArray(input.readInt()) { input.readInt() }
+                val credits = IntArray(input.readInt()) { input.readInt() }
+                val openingSilences = List(input.readInt()) { BoundaryDetector.Run(input.readDouble(), input.readDouble()) }
+                val creditsSilences = List(input.readInt()) { BoundaryDetector.Run(input.readDouble(), input.readDouble()) }
+                EpisodeFingerprinter.Fingerprint(opening, credits, creditsStart, duration, openingSilences, creditsSilences)
+            }.also { file.setLastModified(System.currentTimeMillis()) }
+        } catch (e: IOException) {
+            DebugLogger.log(TAG, "Discarding unreadable fingerprint ${file.name}: ${e.message}")
+            file.delete()
+            null
+        }
+    }
+
+    private fun saveFingerprint(uri: Uri, fingerprint: EpisodeFingerprinter.Fingerprint) {
+        try {
+            fingerprintDir.mkdirs()
+            DataOutputStream(BufferedOutputStream(FileOutputStream(fingerprintFile(uri)))).use { output ->
+                output.writeInt(FINGERPRINT_VERSION)
+                output.writeDouble(fingerprint.creditsStart)
+                output.writeDouble(fingerprint.duration)
+                output.writeInt(fingerprint.opening.size)
+                fingerprint.opening.forEach { output.writeInt(it) }
+                output.writeInt(fingerprint.credits.size)
+                fingerprint.credits.forEach { output.writeInt(it) }
+                for (silences in listOf(fingerprint.openingSilences, fingerprint.creditsSilences)) {
+                    output.writeInt(silences.size)
+                    silences.forEach {
+                        output.writeDouble(it.start)
+                        output.writeDouble(it.end)
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            DebugLogger.log(TAG, "Failed to save fingerprint: ${e.message}")
+            return
+        }
+
+        // Least recently used go first
+        val files = fingerprintDir.listFiles() ?: return
+        if (files.size > MAX_FINGERPRINTS) {
+            files.sortedBy { it.lastModified() }.take(files.size - MAX_FINGERPRINTS).forEach { it.delete() }
+        }
+    }
+}
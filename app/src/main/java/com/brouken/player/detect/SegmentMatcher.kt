@@ -0,0 +1,213 @@
+package com.brouken.player.detect
+
+/**
+ * Finds audio shared between episodes of a season, i.e. the opening and credits
+ *
+ * Works on [AudioFingerprinter] codes. A pair of episodes is aligned by
+ * letting frames with equal codes vote for their time offset; the best
+ * offsets are then walked frame by frame, and the longest run where the codes
+ * stay within a few bits of each other is the shared segment.
+ */
+object SegmentMatcher {
+
+    /** Bits two codes may differ in and still count as the same audio */
+    private const val MAX_BIT_ERRORS = 10
+    /** Frames in the sliding window that decides whether a stretch matches */
+    private const val WINDOW = 16
+    /** Frames checked at each end of a run when trimming it */
+    private const val EDGE = 4
+    /** Fraction of a window's frames that must match */
+    private const val MIN_WINDOW_MATCH = 0.5
+    private const val MIN_SEGMENT_SECONDS = 15.0
+    private const val MAX_SEGMENT_SECONDS = 240.0
+    /** Offsets tried per episode pair, best voted first */
+    private const val CANDIDATE_OFFSETS = 3
+    /** Votes an offset needs before it is walked */
+    private const val MIN_VOTES = 8
+    // Chroma order and band bits; the frame-to-frame bits are too fragile to vote with
+    private const val VOTE_MASK = 0x7F000FFF
+
+    /**
+     * A stretch of [a] (in frames) that also occurs in [b] at [offset] frames later
+     */
+    data class Alignment(val start: Int, val end: Int, val offset: Int) {
+        val length: Int get() = end - start
+    }
+
+    /**
+     * A shared segment in seconds from the start of the fingerprint
+     */
+    data class Segment(val start: Double, val end: Double)
+
+    /**
+     * Longest stretch of [a] that also plays in [b], or null if none is long enough
+     */
+    @JvmStatic
+    fun align(a: IntArray, b: IntArray): Alignment? {
+        val minFrames = (MIN_SEGMENT_SECONDS / AudioFingerprinter.FRAME_SECONDS).toInt()
+        if (a.size < minFrames || b.size < minFrames) return null
+
+        var best: Alignment? = null
+        for (offset in candidateOffsets(a, b)) {
+            val run = longestRun(a, b, offset) ?: continue
+            if (run.length >= minFrames && (best == null || run.length > best.length)) {
+                best = run
+            }
+        }
+        return best
+    }
+
+    /**
+     * The segment of [target] shared with most of [others]
+     *
+     * Each other episode is aligned with the target; start and end are the
+     * medians over the episodes that matched, so one episode with a longer
+     * recap or a different cold open doesn't stretch the result.
+     */
+    @JvmStatic
+    fun findShared(target: IntArray, others: List<IntArray>): Segment? {
+        val alignments = others.mapNotNull { align(target, it) }
+        if (alignments.isEmpty()) return null
+
+        val maxFrames = (MAX_SEGMENT_SECONDS / AudioFingerprinter.FRAME_SECONDS).toInt()
+        val starts = alignments.map { it.start }.sorted()
+        val ends = alignments.map { it.end }.sorted()
+        val start = starts[starts.size / 2]
+        val end = ends[ends.size / 2]
+        if (end - start <= 0 || end - start > maxFrames) return null
+
+        return Segment(
+            start * AudioFingerprinter.FRAME_SECONDS,
+            end * AudioFingerprinter.FRAME_SECONDS
+        )
+    }
+
+    // ========================================================================
+    // ALIGNMENT
+    // ========================================================================
+
+    /**
+     * Offsets (b index - a index) with the most equal codes, strongest first
+     */
+    private fun candidateOffsets(a: IntArray, b: IntArray): List<Int> {
+        // (masked code, index) pairs of b, sorted, so each code of a is a binary search
+        val keys = LongArray(b.size)
+        var keyCount = 0
+        for (j in b.indices) {
+            if (b[j] == AudioFingerprinter.SILENT) continue
+            keys[keyCount++] = ((b[j] and VOTE_MASK).toLong() shl 32) or j.toLong()
+        }
+        keys.sort(0, keyCount)
+
+        val votes = IntArray(a.size + b.size)
+        for (i in a.indices) {
+            if (a[i] == AudioFingerprinter.SILENT) continue
+            val key = (a[i] and VOTE_MASK).toLong()
+            var k = lowerBound(keys, keyCount, key shl 32)
+            while (k < keyCount && keys[k] ushr 32 == key) {
+                val j = (keys[k] and 0xFFFFFFFFL).toInt()
+                votes[j - i + a.size - 1]++
+                k++
+            }
+        }
+
+        // Frame boundaries of two encodes rarely line up, so neighbours count too
+        val result = ArrayList<Int>(CANDIDATE_OFFSETS)
+        val smoothed = IntArray(votes.size)
+        for (v in votes.indices) {
+            smoothed[v] = votes[v] + (if (v > 0) votes[v - 1] else 0) + (if (v + 1 < votes.size) votes[v + 1] else 0)
+        }
+        repeat(CANDIDATE_OFFSETS) {
+            var bestIndex = -1
+            for (v in smoothed.indices) {
+                if (smoothed[v] >= MIN_VOTES && (bestIndex < 0 || smoothed[v] > smoothed[bestIndex])) bestIndex = v
+            }
+            if (bestIndex < 0) return result
+            result.add(bestIndex - a.size + 1)
+            // Suppress the neighbourhood so the next candidate is a different alignment
+            for (v in maxOf(0, bestIndex - WINDOW)..minOf(smoothed.size - 1, bestIndex + WINDOW)) smoothed[v] = 0
+        }
+        return result
+    }
+
+    /**
+     * Longest stretch where a[i] and b[i + offset] match for most of a window
+     */
+    private fun longestRun(a: IntArray, b: IntArray, offset: Int): Alignment? {
+        val first = maxOf(0, -offset)
+        val last = minOf(a.size, b.size - offset)
+        if (last - first < WINDOW) return null
+
+        val needed = (WINDOW * MIN_WINDOW_MATCH).toInt()
+        var inWindow = 0
+        var runStart = -1
+        var bestStart = 0
+        var bestEnd = 0
+
+        for (i in first until last) {
+            if (matches(a[i], b[i + offset])) inWindow++
+            if (i - WINDOW >= first && matches(a[i - WINDOW], b[i - WINDOW + offset])) inWindow--
+            if (i - first + 1 < WINDOW) continue
+
+            // The window covers frames i - WINDOW + 1 .. i
+            if (inWindow >= needed) {
+                if (runStart < 0) runStart = i - WINDOW + 1
+            } else if (runStart >= 0) {
+                val end = trimEnd(a, b, offset, runStart, i)
+                if (end - runStart > bestEnd - bestStart) {
+                    bestStart = runStart
+                    bestEnd = end
+                }
+                runStart = -1
+            }
+        }
+        if (runStart >= 0) {
+            val end = trimEnd(a, b, offset, runStart, last)
+            if (end - runStart > bestEnd - bestStart) {
+                bestStart = runStart
+                bestEnd = end
+            }
+        }
+        if (bestEnd <= bestStart) return null
+
+        // The window lags behind the audio; pull the start onto the first solidly matching frames
+        while (bestStart < bestEnd - EDGE && solidMatches(a, b, offset, bestStart) < EDGE - 1) bestStart++
+        return Alignment(bestStart, bestEnd, offset)
+    }
+
+    /**
+     * End of a run: one past the last solidly matching frames before [limit]
+     */
+    private fun trimEnd(a: IntArray, b: IntArray, offset: Int, start: Int, limit: Int): Int {
+        var end = limit
+        while (end > start + EDGE && solidMatches(a, b, offset, end - EDGE) < EDGE - 1) end--
+        return end
+    }
+
+    /**
+     * Matching frames among the [EDGE] starting at [from]; stray matches
+     * next to a run are common, several in a row are not
+     */
+    private fun solidMatches(a: IntArray, b: IntArray, offset: Int, from: Int): Int {
+        var count = 0
+        for (i in from until from + EDGE) {
+            if (matches(a[i], b[i + offset])) count++
+        }
+        return count
+    }
+
+    private fun matches(x: Int, y: Int): Boolean {
+        if (x == AudioFingerprinter.SILENT || y == AudioFingerprinter.SILENT) return false
+        return Integer.bitCount(x xor y) <= MAX_BIT_ERRORS
+    }
+
+    private fun lowerBound(keys: LongArray, count: Int, value: Long): Int {
+        var low = 0
+        var high = count
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (keys[mid] < value) low = mid + 1 else high = mid
+        }
+        return low
+    }
+}
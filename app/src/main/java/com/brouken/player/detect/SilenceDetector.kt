@@ -0,0 +1,82 @@
+package com.brouken.player.detect
+
+import java.nio.ShortBuffer
+
+/**
+ * Streaming detection of silent gaps in interleaved 16-bit PCM
+ *
+ * Levels are measured over [BLOCK_SECONDS] blocks at the input rate; runs of
+ * blocks below [SILENCE_RMS] lasting at least [MIN_GAP_SECONDS] are gaps.
+ * Nothing is allocated per sample.
+ */
+class SilenceDetector(inputRate: Int, private val channels: Int, private val offsetSeconds: Double = 0.0) {
+
+    companion object {
+        const val BLOCK_SECONDS = 0.02
+        /** About -40 dBFS; room tone under dialogue stays above it */
+        private const val SILENCE_RMS = 328.0
+        const val MIN_GAP_SECONDS = 0.3
+    }
+
+    private val blockFrames = maxOf(1, (inputRate * BLOCK_SECONDS).toInt())
+    private val minGapBlocks = (MIN_GAP_SECONDS / BLOCK_SECONDS).toInt()
+
+    private var channel = 0
+    private var frameSum = 0.0
+    private var squares = 0.0
+    private var framesInBlock = 0
+    private var block = 0
+    private var silentSince = -1
+
+    private val gaps = ArrayList<BoundaryDetector.Run>()
+
+    fun feed(samples: ShortBuffer) {
+        for (i in samples.position() until samples.limit()) {
+            push(samples.get(i))
+        }
+    }
+
+    fun feed(samples: ShortArray, offset: Int = 0, length: Int = samples.size - offset) {
+        for (i in offset until offset + length) {
+            push(samples[i])
+        }
+    }
+
+    /**
+     * Gaps found so far, in seconds, including one still running
+     */
+    fun gaps(): List<BoundaryDetector.Run> {
+        if (silentSince >= 0 && block - silentSince >= minGapBlocks) {
+            return gaps + run(silentSince, block)
+        }
+        return ArrayList(gaps)
+    }
+
+    private fun push(sample: Short) {
+        frameSum += sample
+        if (++channel < channels) return
+        channel = 0
+        val mono = frameSum / channels
+        frameSum = 0.0
+        squares += mono * mono
+        if (++framesInBlock < blockFrames) return
+
+        val silent = Math.sqrt(squares / framesInBlock) < SILENCE_RMS
+        squares = 0.0
+        framesInBlock = 0
+        if (silent) {
+            if (silentSince < 0) silentSince = block
+        } else if (silentSince >= 0) {
+            if (block - silentSince >= minGapBlocks) gaps.add(run(silentSince, block))
+            silentSince = -1
+        }
+        block++
+    }
+
+    private fun run(fromBlock: Int, toBlock: Int): BoundaryDetector.Run {
+        return BoundaryDetector.Run(
+            offsetSeconds + fromBlock * BLOCK_SECONDS,
+            offsetSeconds + toBlock * BLOCK_SECONDS
+        )
+    }
+}
@@ -0,0 +1,105 @@
+package com.brouken.player.stremio
+
+import java.text.Normalizer
+import java.util.BitSet
+
+/**
+ * Inverted index over catalog addons
+ *
+ * Name, description, resource and type words map to the addons that contain
+ * them. A query term matches any indexed word it is a prefix of; every suffix
+ * of name words is indexed too, so "subtitles" still finds "OpenSubtitles".
+ * Results keep catalog order, with addons whose name matches listed first.
+ */
+internal class AddonCatalogIndex(val addons: List<CatalogAddon>) {
+
+    companion object {
+        private const val MIN_SUFFIX_LENGTH = 3
+        private val COMBINING_MARKS = Regex("\\p{Mn}+")
+
+        /**
+         * Lowercase, accent-folded words of [text]
+         */
+        fun tokenize(text: String): List<String> {
+            var lower = text.lowercase()
+            if (!lower.all { it.code < 0x80 }) {
+                lower = COMBINING_MARKS.replace(Normalizer.normalize(lower, Normalizer.Form.NFD), "")
+            }
+            return lower.split(Regex("[^\\p{L}\\p{N}]+")).filter { it.isNotEmpty() }
+        }
+    }
+
+    // Sorted dictionary with parallel postings, for prefix range lookups
+    private val terms: Array<String>
+    private val postings: Array<BitSet>
+    private val nameTerms: Array<Set<String>>
+
+    init {
+        val map = HashMap<String, BitSet>()
+        fun add(term: String, doc: Int) {
+            map.getOrPut(term) { BitSet(addons.size) }.set(doc)
+        }
+
+        nameTerms = Array(addons.size) { doc ->
+            val addon = addons[doc]
+            val names = tokenize(addon.name)
+            for (word in names) {
+                add(word, doc)
+                for (start in 1..word.length - MIN_SUFFIX_LENGTH) add(word.substring(start), doc)
+            }
+            addon.description?.let { description -> tokenize(description).forEach { add(it, doc) } }
+            addon.resources.forEach { resource -> tokenize(resource).forEach { add(it, doc) } }
+            addon.types.forEach { type -> tokenize(type).forEach { add(it, doc) } }
+            names.toHashSet()
+        }
+
+        terms = map.keys.sorted().toTypedArray()
+        postings = Array(terms.size) { map.getValue(terms[it]) }
+    }
+
+    /**
+     * Addons matching every word of [query], or all addons for a blank query
+     */
+    fun search(query: String): List<CatalogAddon> {
+        val queryTerms = tokenize(query)
+        if (queryTerms.isEmpty()) return addons
+
+        var matches: BitSet? = null
+        for (term in queryTerms) {
+            val termMatches = prefixMatches(term)
+            if (matches == null) matches = termMatches else matches.and(termMatches)
+            if (matches.isEmpty) return emptyList()
+        }
+
+        val nameHits = ArrayList<CatalogAddon>()
+        val otherHits = ArrayList<CatalogAddon>()
+        var doc = matches!!.nextSetBit(0)
+        while (doc >= 0) {
+            val names = nameTerms[doc]
+            val inName = queryTerms.all { term -> names.any { it.contains(term) } }
+            (if (inName) nameHits else otherHits).add(addons[doc])
+            doc = matches.nextSetBit(doc + 1)
+        }
+        return nameHits + otherHits
+    }
+
+    private fun prefixMatches(prefix: String): BitSet {
+        val result = BitSet(addons.size)
+        var i = lowerBound(prefix)
+        while (i < terms.size && terms[i].startsWith(prefix)) {
+            result.or(postings[i])
+            i++
+        }
+        return result
+    }
+
+    private fun lowerBound(key: String): Int {
+        var low = 0
+        var high = terms.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (terms[mid] < key) low = mid + 1 else high = mid
+        }
+        return low
+    }
+}
@@ -0,0 +1,87 @@
+package com.brouken.player.stremio
+
+import com.brouken.player.utils.DebugLogger
+
+/**
+ * Decides which addons to query for a search, in what order and with what
+ * deadline, from the stats kept in [SubtitleAddonStore]
+ *
+ * - Addons whose circuit is open (repeated failures) are skipped until the
+ *   cooldown expires
+ * - Each addon's deadline follows its own p90 latency instead of a fixed value
+ * - Addons that are both slow and rarely picked are only queried when the
+ *   fast ones return nothing
+ */
+class AddonScheduler(private val store: SubtitleAddonStore) {
+
+    companion object {
+        private const val TAG = "AddonScheduler"
+        const val DEFAULT_TIMEOUT_MS = 8000L
+        private const val MIN_TIMEOUT_MS = 2500L
+        private const val MAX_TIMEOUT_MS = 12_000L
+        private const val TIMEOUT_HEADROOM_MS = 1000L
+        private const val MIN_SAMPLES = 5
+        private const val SLOW_P50_MS = 3000L
+        private const val LOW_HIT_RATE = 0.05
+    }
+
+    data class Plan(
+        val primary: List<SubtitleAddon>,
+        val fallback: List<SubtitleAddon>,
+        val skipped: List<SubtitleAddon>
+    )
+
+    /**
+     * Split enabled addons into a primary tier, a fallback tier and skipped addons
+     */
+    fun plan(addons: List<SubtitleAddon>): Plan {
+        val now = System.currentTimeMillis()
+        val primary = mutableListOf<SubtitleAddon>()
+        val fallback = mutableListOf<SubtitleAddon>()
+        val skipped = mutableListOf<SubtitleAddon>()
+
+        for (addon in addons) {
+            val stats = store.statsFor(addon.id)
+            when {
+                stats.circuitOpenUntil.get() > now -> skipped.add(addon)
+                isSlowAndLowYield(stats) -> fallback.add(addon)
+                else -> primary.add(addon)
+            }
+        }
+
+        // Never leave the first tier empty just because everything looks slow
+        if (primary.isEmpty() && fallback.isNotEmpty()) {
+            primary.addAll(fallback)
+            fallback.clear()
+        }
+
+        // Best yield first, then fastest; manual priority breaks ties
+        primary.sortWith(compareByDescending<SubtitleAddon> { store.statsFor(it.id).hitRate() }
+            .thenBy { store.statsFor(it.id).latencyPercentile(50) ?: DEFAULT_TIMEOUT_MS }
+            .thenBy { it.priority })
+
+        if (skipped.isNotEmpty() || fallback.isNotEmpty()) {
+            DebugLogger.log(TAG, "Plan: ${primary.size} primary, ${fallback.size} fallback, " +
+                    "${skipped.size} skipped (${skipped.joinToString { it.displayName }})")
+        }
+
+        return Plan(primary, fallback, skipped)
+    }
+
+    /**
+     * Deadline for one addon: p90 latency plus headroom, within sane bounds
+     */
+    fun timeoutFor(addon: SubtitleAddon): Long {
+        val stats = store.statsFor(addon.id)
+        if (stats.sampleSize() < MIN_SAMPLES) return DEFAULT_TIMEOUT_MS
+        val p90 = stats.latencyPercentile(90) ?: return DEFAULT_TIMEOUT_MS
+        return (p90 * 3 / 2 + TIMEOUT_HEADROOM_MS).coerceIn(MIN_TIMEOUT_MS, MAX_TIMEOUT_MS)
+    }
+
+    private fun isSlowAndLowYield(stats: SubtitleAddonStore.AddonStats): Boolean {
+        if (stats.sampleSize() < MIN_SAMPLES) return false
+        val p50 = stats.latencyPercentile(50) ?: return false
+        val unreliable = stats.errorRate() > 0.5
+        return (p50 > SLOW_P50_MS || unreliable) && stats.hitRate() < LOW_HIT_RATE
+    }
+}
@@ -1,30 +1,65 @@
 package com.brouken.player.stremio
 
 import android.net.Uri
+import android.system.Os
 import com.brouken.player.utils.DebugLogger
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.withContext
+import okhttp3.OkHttpClient
+import okhttp3.Request
 import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
 import java.io.RandomAccessFile
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.util.concurrent.TimeUnit
 
 /**
  * Calculates the OpenSubtitles hash for video files
- * 
+ *
  * The OpenSubtitles hash is a 64-bit checksum:
  * - File size (8 bytes)
  * - Sum of first 64KB as little-endian longs
  * - Sum of last 64KB as little-endian longs
- * 
+ *
  * This hash is used for matching subtitles to specific video files
  * with very high accuracy.
+ *
+ * Local files and content URIs are read with positional reads; HTTP(S)
+ * streams are hashed from two concurrent Range requests. Results are
+ * cached by (uri, size, mtime/ETag).
  */
 object OpenSubtitlesHasher {
-    
+
     private const val TAG = "OpenSubtitlesHasher"
     private const val CHUNK_SIZE = 65536L // 64 KB
-    
+    private const val MAX_CACHE_ENTRIES = 64
+
+    /**
+     * Hash together with the file size it was computed for
+     */
+    data class VideoHash(val hash: String, val size: Long)
+
+    private data class CacheEntry(val size: Long, val validator: String?, val hash: String)
+
+    private val cache = object : LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CacheEntry>?): Boolean {
+            return size > MAX_CACHE_ENTRIES
+        }
+    }
+
+    private val httpClient by lazy {
+        OkHttpClient.Builder()
+            .connectTimeout(10, TimeUnit.SECONDS)
+            .readTimeout(15, TimeUnit.SECONDS)
+            .build()
+    }
+
     /**
      * Calculate hash for a local file
      */
@@ -35,139 +70,233 @@ object OpenSubtitlesHasher {
                     IllegalArgumentException("File does not exist: ${file.absolutePath}")
                 )
             }
-            
+
             val size = file.length()
-            if (size < CHUNK_SIZE * 2) {
-                return@withContext Result.failure(
-                    IllegalArgumentException("File too small for hash (min 128KB)")
-                )
+            val key = Uri.fromFile(file).toString()
+            cachedHash(key, size, file.lastModified().toString())?.let {
+                return@withContext Result.success(it)
             }
-            
-            var hash = size
-            
-            RandomAccessFile(file, "r").use { raf ->
-                // Read first 64KB
-                val headBuffer = ByteArray(CHUNK_SIZE.toInt())
-                raf.seek(0)
-                raf.readFully(headBuffer)
-                hash += checksumBytes(headBuffer)
-                
-                // Read last 64KB
-                val tailBuffer = ByteArray(CHUNK_SIZE.toInt())
-                raf.seek(size - CHUNK_SIZE)
-                raf.readFully(tailBuffer)
-                hash += checksumBytes(tailBuffer)
+
+            val hashString = RandomAccessFile(file, "r").use { raf ->
+                hashChannel(raf.channel, size)
             }
-            
-            val hashString = String.format("%016x", hash)
+
+            storeHash(key, size, file.lastModified().toString(), hashString)
             DebugLogger.log(TAG, "Hash computed: $hashString for ${file.name}")
             Result.success(hashString)
-            
+
         } catch (e: Exception) {
             DebugLogger.e(TAG, "Failed to compute hash: ${e.message}", e)
             Result.failure(e)
         }
     }
-    
+
     /**
      * Calculate hash for a file path string
      */
     suspend fun computeHash(filePath: String): Result<String> {
         return computeHash(File(filePath))
     }
-    
+
     /**
-     * Calculate hash for a content URI (if accessible)
-     * Returns null if URI is not a local file
+     * Calculate hash for a file, content or HTTP(S) URI
+     * Returns null if the scheme can't be hashed
      */
     suspend fun computeHashFromUri(
         uri: Uri,
         contentResolver: android.content.ContentResolver
-    ): Result<String>? = withContext(Dispatchers.IO) {
+    ): Result<String>? {
+        return computeVideoHash(uri, contentResolver)?.map { it.hash }
+    }
+
+    /**
+     * Calculate hash and size for a file, content or HTTP(S) URI
+     * Returns null if the scheme can't be hashed
+     */
+    suspend fun computeVideoHash(
+        uri: Uri,
+        contentResolver: android.content.ContentResolver
+    ): Result<VideoHash>? = withContext(Dispatchers.IO) {
         try {
-            // Check if it's a file URI
-            if (uri.scheme == "file") {
-                val path = uri.path ?: return@withContext null
-                return@withContext computeHash(File(path))
-            }
-            
-            // For content URIs, try to get the file descriptor
-            if (uri.scheme == "content") {
-                val pfd = contentResolver.openFileDescriptor(uri, "r")
-                    ?: return@withContext null
-                
-                pfd.use { descriptor ->
-                    val size = descriptor.statSize
-                    if (size < CHUNK_SIZE * 2) {
-                        return@withContext Result.failure(
-                            IllegalArgumentException("File too small for hash")
-                        )
-                    }
-                    
-                    var hash = size
-                    
-                    val inputStream = android.os.ParcelFileDescriptor.AutoCloseInputStream(
-                        contentResolver.openFileDescriptor(uri, "r")
-                    )
-                    
-                    inputStream.use { stream ->
-                        // Read first 64KB
-                        val headBuffer = ByteArray(CHUNK_SIZE.toInt())
-                        var bytesRead = 0
-                        while (bytesRead < CHUNK_SIZE.toInt()) {
-                            val read = stream.read(headBuffer, bytesRead, CHUNK_SIZE.toInt() - bytesRead)
-                            if (read == -1) break
-                            bytesRead += read
-                        }
-                        hash += checksumBytes(headBuffer)
-                    }
-                    
-                    // For content URIs, we can't easily seek to the end
-                    // So we skip the tail hash (less accurate but still useful)
-                    DebugLogger.log(TAG, "Warning: Content URI hash is partial (head only)")
-                    
-                    val hashString = String.format("%016x", hash)
-                    return@withContext Result.success(hashString)
+            when (uri.scheme) {
+                "file" -> {
+                    val file = File(uri.path ?: return@withContext null)
+                    computeHash(file).map { VideoHash(it, file.length()) }
                 }
+                "content" -> Result.success(hashContentUri(uri, contentResolver))
+                "http", "https" -> Result.success(hashHttpUri(uri))
+                else -> null
             }
-            
-            null
         } catch (e: Exception) {
             DebugLogger.e(TAG, "Failed to compute hash from URI: ${e.message}", e)
             Result.failure(e)
         }
     }
-    
+
     /**
      * Check if we can compute hash for a given URI
      */
     fun canComputeHash(uri: Uri): Boolean {
-        return uri.scheme == "file" || uri.scheme == "content"
+        return uri.scheme in listOf("file", "content", "http", "https")
     }
-    
+
     /**
-     * Check if URI is a remote stream (cannot compute hash)
+     * Check if URI is a remote stream
      */
     fun isRemoteStream(uri: Uri): Boolean {
         return uri.scheme in listOf("http", "https", "rtsp", "rtmp")
     }
-    
+
     // ========================================================================
     // PRIVATE HELPERS
     // ========================================================================
-    
+
+    /**
+     * Hash a content URI through a single seekable descriptor
+     */
+    private fun hashContentUri(uri: Uri, contentResolver: android.content.ContentResolver): VideoHash {
+        val pfd = contentResolver.openFileDescriptor(uri, "r")
+            ?: throw IOException("Cannot open $uri")
+
+        pfd.use { descriptor ->
+            val stat = Os.fstat(descriptor.fileDescriptor)
+            val size = stat.st_size
+            val mtime = stat.st_mtime.toString()
+
+            cachedHash(uri.toString(), size, mtime)?.let { return VideoHash(it, size) }
+
+            // Don't close the stream: the descriptor is owned by pfd
+            val hash = hashChannel(FileInputStream(descriptor.fileDescriptor).channel, size)
+            storeHash(uri.toString(), size, mtime, hash)
+            DebugLogger.log(TAG, "Hash computed: $hash for content URI")
+            return VideoHash(hash, size)
+        }
+    }
+
+    /**
+     * Hash an HTTP(S) stream from two concurrent Range requests
+     */
+    private suspend fun hashHttpUri(uri: Uri): VideoHash = coroutineScope {
+        val url = uri.toString()
+
+        // Revalidate a previous result with a cheap HEAD before re-downloading 128KB
+        synchronized(cache) { cache[url] }?.let { entry ->
+            val head = Request.Builder().url(url).head().build()
+            httpClient.newCall(head).execute().use { response ->
+                val size = response.header("Content-Length")?.toLongOrNull()
+                val validator = response.header("ETag") ?: response.header("Last-Modified")
+                if (response.isSuccessful && size == entry.size && validator == entry.validator) {
+                    return@coroutineScope VideoHash(entry.hash, entry.size)
+                }
+            }
+        }
+
+        val head = async(Dispatchers.IO) { rangeRequest(url, "bytes=0-${CHUNK_SIZE - 1}") }
+        val tail = async(Dispatchers.IO) { rangeRequest(url, "bytes=-$CHUNK_SIZE") }
+        val headChunk = head.await()
+        val tailChunk = tail.await()
+
+        val size = headChunk.totalSize
+        if (size != tailChunk.totalSize) {
+            throw IOException("Stream changed between range requests")
+        }
+        if (size < CHUNK_SIZE * 2) {
+            throw IllegalArgumentException("File too small for hash (min 128KB)")
+        }
+
+        val hash = String.format("%016x", size + checksumBytes(headChunk.data) + checksumBytes(tailChunk.data))
+        storeHash(url, size, headChunk.validator, hash)
+        DebugLogger.log(TAG, "Hash computed: $hash for remote stream")
+        VideoHash(hash, size)
+    }
+
+    private class RangeChunk(val data: ByteArray, val totalSize: Long, val validator: String?)
+
+    private fun rangeRequest(url: String, range: String): RangeChunk {
+        val request = Request.Builder()
+            .url(url)
+            .header("Range", range)
+            .header("Accept-Encoding", "identity")
+            .build()
+
+        httpClient.newCall(request).execute().use { response ->
+            if (response.code != 206) {
+                throw IOException("Server does not support range requests (HTTP ${response.code})")
+            }
+
+            // Content-Range: bytes 0-65535/123456789
+            val totalSize = response.header("Content-Range")
+                ?.substringAfterLast('/')
+                ?.toLongOrNull()
+                ?: throw IOException("Missing Content-Range total size")
+
+            val body = response.body ?: throw IOException("Empty response body")
+            val data = readFully(body.byteStream(), CHUNK_SIZE.toInt())
+            val validator = response.header("ETag") ?: response.header("Last-Modified")
+            return RangeChunk(data, totalSize, validator)
+        }
+    }
+
+    private fun readFully(stream: InputStream, length: Int): ByteArray {
+        val buffer = ByteArray(length)
+        var bytesRead = 0
+        while (bytesRead < length) {
+            val read = stream.read(buffer, bytesRead, length - bytesRead)
+            if (read == -1) throw IOException("Unexpected end of stream")
+            bytesRead += read
+        }
+        return buffer
+    }
+
+    /**
+     * Hash head and tail of a seekable channel using positional reads
+     */
+    private fun hashChannel(channel: FileChannel, size: Long): String {
+        if (size < CHUNK_SIZE * 2) {
+            throw IllegalArgumentException("File too small for hash (min 128KB)")
+        }
+
+        val buffer = ByteBuffer.allocate(CHUNK_SIZE.toInt())
+        var hash = size
+
+        readAt(channel, buffer, 0)
+        hash += checksumBytes(buffer.array())
+
+        readAt(channel, buffer, size - CHUNK_SIZE)
+        hash += checksumBytes(buffer.array())
+
+        return String.format("%016x", hash)
+    }
+
+    private fun readAt(channel: FileChannel, buffer: ByteBuffer, position: Long) {
+        buffer.clear()
+        while (buffer.hasRemaining()) {
+            val read = channel.read(buffer, position + buffer.position())
+            if (read == -1) throw IOException("Unexpected end of file")
+        }
+    }
+
+    private fun cachedHash(key: String, size: Long, validator: String?): String? {
+        val entry = synchronized(cache) { cache[key] } ?: return null
+        return if (entry.size == size && entry.validator == validator) entry.hash else null
+    }
+
+    private fun storeHash(key: String, size: Long, validator: String?, hash: String) {
+        synchronized(cache) { cache[key] = CacheEntry(size, validator, hash) }
+    }
+
     /**
      * Calculate checksum by treating buffer as array of little-endian longs
      */
     private fun checksumBytes(buffer: ByteArray): Long {
         val byteBuffer = ByteBuffer.wrap(buffer)
         byteBuffer.order(ByteOrder.LITTLE_ENDIAN)
-        
+
         var checksum = 0L
         while (byteBuffer.remaining() >= 8) {
             checksum += byteBuffer.long
         }
-        
+
         return checksum
     }
 }
@@ -1,13 +1,14 @@
 package com.brouken.player.stremio
 
 import android.content.Context
-import android.net.Uri
 import com.brouken.player.utils.DebugLogger
 import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.serialization.json.Json
 import okhttp3.*
-import okhttp3.MediaType.Companion.toMediaType
 import java.io.IOException
+import kotlin.coroutines.resumeWithException
 import java.util.concurrent.TimeUnit
 
 /**
@@ -19,25 +20,58 @@ class StremioAddonClient(private val context: Context) {
         private const val TAG = "StremioAddonClient"
         private const val CONNECT_TIMEOUT = 10L
         private const val READ_TIMEOUT = 15L
+        private const val QUERY_TIMEOUT_MS = 10_000L
+        private const val MAX_REQUESTS = 16
+        private const val MAX_REQUESTS_PER_HOST = 4
+        private const val MAX_CONCURRENT_PER_ADDON = 2
         
         private val json = Json {
             ignoreUnknownKeys = true
             isLenient = true
             coerceInputValues = true
         }
+        
+        // Shared by all instances so connections are pooled and bounded app-wide
+        private val sharedHttpClient = OkHttpClient.Builder()
+            .connectTimeout(CONNECT_TIMEOUT, TimeUnit.SECONDS)
+            .readTimeout(READ_TIMEOUT, TimeUnit.SECONDS)
+            .dispatcher(Dispatcher().apply {
+                maxRequests = MAX_REQUESTS
+                maxRequestsPerHost = MAX_REQUESTS_PER_HOST
+            })
+            .addInterceptor { chain ->
+                val request = chain.request().newBuilder()
+                    .header("User-Agent", "JASP/1.0 (Android; Stremio Subtitle Client)")
+                    .header("Accept", "application/json")
+                    .build()
+                chain.proceed(request)
+            }
+            .build()
+        
+        private val permits = java.util.concurrent.ConcurrentHashMap<String, Semaphore>()
+        
+        private fun addonPermits(addonId: String): Semaphore =
+            permits.getOrPut(addonId) { Semaphore(MAX_CONCURRENT_PER_ADDON) }
+        
+        // Stale-while-revalidate refreshes outlive the search that triggered them
+        private val backgroundScope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+        
+        // Keys with a background refresh running, so concurrent searches start only one
+        private val revalidating = java.util.concurrent.ConcurrentHashMap.newKeySet<SubtitleQueryCache.Key>()
     }
     
-    private val httpClient = OkHttpClient.Builder()
-        .connectTimeout(CONNECT_TIMEOUT, TimeUnit.SECONDS)
-        .readTimeout(READ_TIMEOUT, TimeUnit.SECONDS)
-        .addInterceptor { chain ->
-            val request = chain.request().newBuilder()
-                .header("User-Agent", "JASP/1.0 (Android; Stremio Subtitle Client)")
-                .header("Accept", "application/json")
-                .build()
-            chain.proceed(request)
-        }
-        .build()
+    /**
+     * Subtitles an addon answered with
+     *
+     * [fromNetwork] is false when they came from [SubtitleQueryCache], so
+     * callers can leave the addon's latency and health stats alone.
+     */
+    data class QueryResult(
+        val subtitles: List<StremioSubtitle>,
+        val fromNetwork: Boolean
+    )
+    
+    private val httpClient = sharedHttpClient
     
     /**
      * Fetch and parse addon manifest
@@ -51,18 +85,18 @@ class StremioAddonClient(private val context: Context) {
                 .get()
                 .build()
             
-            val response = httpClient.newCall(request).execute()
-            
-            if (!response.isSuccessful) {
-                return@withContext Result.failure(
-                    IOException("HTTP ${response.code}: ${response.message}")
+            val body = httpClient.newCall(request).execute().use { response ->
+                if (!response.isSuccessful) {
+                    return@withContext Result.failure(
+                        IOException("HTTP ${response.code}: ${response.message}")
+                    )
+                }
+                
+                response.body?.string() ?: return@withContext Result.failure(
+                    IOException("Empty response body")
                 )
             }
             
-            val body = response.body?.string() ?: return@withContext Result.failure(
-                IOException("Empty response body")
-            )
-            
             val manifest = json.decodeFromString<StremioManifest>(body)
             
             // Validate that addon supports subtitles
@@ -83,10 +117,47 @@ class StremioAddonClient(private val context: Context) {
     
     /**
      * Query an addon for subtitles
+     *
+     * Answers from [SubtitleQueryCache] when possible. Stale entries are
+     * returned immediately and refreshed in the background.
      */
     suspend fun querySubtitles(
         addon: SubtitleAddon,
-        params: SubtitleQueryParams
+        params: SubtitleQueryParams,
+        timeoutMs: Long = QUERY_TIMEOUT_MS
+    ): Result<QueryResult> {
+        val key = SubtitleQueryCache.Key(addon.id, params)
+        
+        SubtitleQueryCache.get(key)?.let { cached ->
+            if (!cached.isFresh) {
+                if (revalidating.add(key)) {
+                    DebugLogger.log(TAG, "[CACHE STALE] ${addon.displayName} - revalidating")
+                    backgroundScope.launch {
+                        try {
+                            fetchSubtitles(addon, params, timeoutMs)
+                        } finally {
+                            revalidating.remove(key)
+                        }
+                    }
+                } else {
+                    DebugLogger.log(TAG, "[CACHE STALE] ${addon.displayName} - already revalidating")
+                }
+            } else {
+                DebugLogger.log(TAG, "[CACHE HIT] ${addon.displayName} (${cached.subtitles.size} subtitles)")
+            }
+            return Result.success(QueryResult(cached.subtitles, fromNetwork = false))
+        }
+        
+        return fetchSubtitles(addon, params, timeoutMs).map { QueryResult(it, fromNetwork = true) }
+    }
+    
+    /**
+     * Query an addon over the network and store the result in the cache
+     */
+    private suspend fun fetchSubtitles(
+        addon: SubtitleAddon,
+        params: SubtitleQueryParams,
+        timeoutMs: Long
     ): Result<List<StremioSubtitle>> = withContext(Dispatchers.IO) {
         try {
             // Build the API URL
@@ -100,65 +171,36 @@ class StremioAddonClient(private val context: Context) {
                 .get()
                 .build()
             
-            val response = httpClient.newCall(request).execute()
-            
-            if (!response.isSuccessful) {
-                DebugLogger.e(TAG, "Query failed: HTTP ${response.code}")
-                return@withContext Result.failure(
-                    IOException("HTTP ${response.code}: ${response.message}")
-                )
+            val call = httpClient.newCall(request)
+            call.timeout().timeout(timeoutMs, TimeUnit.MILLISECONDS)
+            
+            // Cap parallel queries per addon so a slow one can't hog the connection pool
+            val subtitles = addonPermits(addon.id).withPermit {
+                // Cancellable so per-addon deadlines abort the socket instead of waiting on it
+                call.await().use { response ->
+                    if (!response.isSuccessful) {
+                        DebugLogger.e(TAG, "Query failed: HTTP ${response.code}")
+                        throw IOException("HTTP ${response.code}: ${response.message}")
+                    }
+                    
+                    val body = response.body?.string() ?: throw IOException("Empty response body")
+                    json.decodeFromString<StremioSubtitleResponse>(body).subtitles
+                }
             }
             
-            val body = response.body?.string() ?: return@withContext Result.failure(
-                IOException("Empty response body")
-            )
-            
-            val subtitleResponse = json.decodeFromString<StremioSubtitleResponse>(body)
+            SubtitleQueryCache.put(SubtitleQueryCache.Key(addon.id, params), subtitles)
             
-            DebugLogger.log(TAG, "Found ${subtitleResponse.subtitles.size} subtitles from ${addon.displayName}")
-            Result.success(subtitleResponse.subtitles)
+            DebugLogger.log(TAG, "Found ${subtitles.size} subtitles from ${addon.displayName}")
+            Result.success(subtitles)
             
+        } catch (e: CancellationException) {
+            throw e
         } catch (e: Exception) {
             DebugLogger.e(TAG, "Query failed for ${addon.displayName}: ${e.message}", e)
             Result.failure(e)
         }
     }
     
-    /**
-     * Query multiple addons in parallel
-     */
-    suspend fun queryAllAddons(
-        addons: List<SubtitleAddon>,
-        params: SubtitleQueryParams
-    ): List<SubtitleTrack> = coroutineScope {
-        val results = mutableListOf<SubtitleTrack>()
-        
-        // Query all enabled addons in parallel
-        val deferreds = addons
-            .filter { it.isEnabled }
-            .sortedBy { it.priority }
-            .map { addon ->
-                async {
-                    querySubtitles(addon, params).getOrNull()?.map { stremioSub ->
-                        convertToSubtitleTrack(stremioSub, addon)
-                    } ?: emptyList()
-                }
-            }
-        
-        // Collect all results
-        deferreds.forEach { deferred ->
-            results.addAll(deferred.await())
-        }
-        
-        // Deduplicate by URL
-        val deduplicated = results
-            .distinctBy { it.url }
-            .sortedByDescending { it.matchScore }
-        
-        DebugLogger.log(TAG, "Total subtitles from all addons: ${deduplicated.size}")
-        deduplicated
-    }
-    
     /**
      * Test connection to an addon
      */
@@ -180,140 +222,23 @@ class StremioAddonClient(private val context: Context) {
             "$cleanBaseUrl/subtitles/${params.type}/$idPath.json"
         }
     }
-    
-    /**
-     * Convert Stremio API response to our SubtitleTrack model
-     */
-    private fun convertToSubtitleTrack(
-        stremioSub: StremioSubtitle,
-        addon: SubtitleAddon
-    ): SubtitleTrack {
-        // Parse language code
-        val langCode = stremioSub.lang.take(3).lowercase()
-        val langName = getLanguageName(langCode)
-        
-        // Detect SDH/HI from various indicators
-        val isSDH = stremioSub.SubHearingImpaired == true ||
-                    stremioSub.id.contains("sdh", ignoreCase = true) ||
-                    stremioSub.MovieReleaseName?.contains("SDH", ignoreCase = true) == true
-        
-        // Calculate match score
-        val score = calculateMatchScore(stremioSub)
-        
-        // Detect mime type from URL
-        val mimeType = getMimeTypeFromUrl(stremioSub.url)
-        
-        return SubtitleTrack(
-            id = stremioSub.id,
-            language = langName,
-            languageCode = langCode,
-            source = SubtitleSource.ONLINE,
-            addonName = addon.displayName,
-            addonId = addon.id,
-            url = stremioSub.url,
-            mimeType = mimeType,
-            matchScore = score,
-            isHashMatch = stremioSub.Score != null && stremioSub.Score > 0.9f,
-            isSDH = isSDH,
-            isHI = stremioSub.SubHearingImpaired == true,
-            downloadCount = stremioSub.SubDownloadsCnt,
-            rating = stremioSub.SubRating,
-            encoding = stremioSub.SubEncoding ?: "UTF-8"
-        )
-    }
-    
-    /**
-     * Calculate a match confidence score
-     */
-    private fun calculateMatchScore(sub: StremioSubtitle): Int {
-        var score = 50 // Base score
-        
-        // Hash match is highest confidence
-        if (sub.Score != null && sub.Score > 0.9f) {
-            score = 99
-        } else if (sub.Score != null) {
-            score = (sub.Score * 100).toInt().coerceIn(0, 100)
-        }
-        
-        // Boost for high download count
-        sub.SubDownloadsCnt?.let { downloads ->
-            when {
-                downloads > 100000 -> score = minOf(score + 10, 99)
-                downloads > 10000 -> score = minOf(score + 5, 99)
-                downloads > 1000 -> score = minOf(score + 2, 99)
-            }
-        }
-        
-        // Boost for high rating
-        sub.SubRating?.let { rating ->
-            if (rating > 8.0f) score = minOf(score + 5, 99)
-        }
-        
-        return score
-    }
-    
-    /**
-     * Get human-readable language name from ISO code
-     */
-    private fun getLanguageName(code: String): String {
-        return when (code) {
-            "eng", "en" -> "English"
-            "spa", "es" -> "Spanish"
-            "fra", "fr" -> "French"
-            "deu", "de" -> "German"
-            "ita", "it" -> "Italian"
-            "por", "pt" -> "Portuguese"
-            "rus", "ru" -> "Russian"
-            "jpn", "ja" -> "Japanese"
-            "kor", "ko" -> "Korean"
-            "zho", "zh" -> "Chinese"
-            "ara", "ar" -> "Arabic"
-            "hin", "hi" -> "Hindi"
-            "tur", "tr" -> "Turkish"
-            "pol", "pl" -> "Polish"
-            "nld", "nl" -> "Dutch"
-            "swe", "sv" -> "Swedish"
-            "nor", "no" -> "Norwegian"
-            "dan", "da" -> "Danish"
-            "fin", "fi" -> "Finnish"
-            "heb", "he" -> "Hebrew"
-            "tha", "th" -> "Thai"
-            "vie", "vi" -> "Vietnamese"
-            "ind", "id" -> "Indonesian"
-            "msa", "ms" -> "Malay"
-            "hun", "hu" -> "Hungarian"
-            "ces", "cs" -> "Czech"
-            "ron", "ro" -> "Romanian"
-            "ell", "el" -> "Greek"
-            "bul", "bg" -> "Bulgarian"
-            "ukr", "uk" -> "Ukrainian"
-            "hrv", "hr" -> "Croatian"
-            "srp", "sr" -> "Serbian"
-            "slv", "sl" -> "Slovenian"
-            "cat", "ca" -> "Catalan"
-            "eus", "eu" -> "Basque"
-            else -> code.uppercase()
+}
+
+/**
+ * Execute a call, cancelling it if the calling coroutine is cancelled
+ *
+ * A response that arrives after cancellation is closed rather than leaked.
+ */
+@OptIn(ExperimentalCoroutinesApi::class)
+private suspend fun Call.await(): Response = suspendCancellableCoroutine { continuation ->
+    continuation.invokeOnCancellation { cancel() }
+    enqueue(object : Callback {
+        override fun onResponse(call: Call, response: Response) {
+            continuation.resume(response) { response.close() }
         }
-    }
-    
-    /**
-     * Detect MIME type from URL extension
-     */
-    private fun getMimeTypeFromUrl(url: String): String {
-        val extension = Uri.parse(url).lastPathSegment
-            ?.substringAfterLast('.', "")
-            ?.lowercase() ?: ""
         
-        return when (extension) {
-            "srt" -> "application/x-subrip"
-            "vtt", "webvtt" -> "text/vtt"
-            "ass" -> "text/x-ssa"
-            "ssa" -> "text/x-ssa"
-            "ttml", "xml" -> "application/ttml+xml"
-            "dfxp" -> "application/ttml+xml"
-            "smi", "sami" -> "application/x-sami"
-            "sub" -> "text/x-microdvd"
-            else -> "application/x-subrip" // Default to SRT
+        override fun onFailure(call: Call, e: IOException) {
+            if (!continuation.isCancelled) continuation.resumeWithException(e)
         }
-    }
+    })
 }
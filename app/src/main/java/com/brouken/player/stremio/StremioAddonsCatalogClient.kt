@@ -1,73 +1,79 @@
 package com.brouken.player.stremio
 
+import android.content.Context
 import com.brouken.player.utils.DebugLogger
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.encodeToString
 import kotlinx.serialization.json.Json
 import okhttp3.OkHttpClient
 import okhttp3.Request
+import java.io.File
 import java.util.concurrent.TimeUnit
 
 /**
  * Client for fetching the live addon catalog from stremio-addons.net
  * Filters for subtitle addons and supports text search
+ *
+ * The subtitle addons are kept on disk together with the response's
+ * ETag/Last-Modified, so the catalog opens instantly after a restart and
+ * revalidation is usually a 304. Searches go through [AddonCatalogIndex].
  */
-class StremioAddonsCatalogClient {
+class StremioAddonsCatalogClient(context: Context) {
     
     companion object {
         private const val TAG = "StremioAddonsCatalog"
         private const val CATALOG_URL = "https://stremio-addons.net/api/addon_catalog/all/stremio-addons.net.json"
+        private const val CATALOG_FILE = "addon_catalog.json"
+        private const val CACHE_DURATION_MS = 5 * 60 * 1000L // Revalidate after 5 minutes
         
         private val json = Json { 
             ignoreUnknownKeys = true 
             coerceInputValues = true
         }
+        
+        private val client = OkHttpClient.Builder()
+            .connectTimeout(15, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .build()
+        
+        // Shared by every screen that opens the catalog
+        @Volatile
+        private var loaded: LoadedCatalog? = null
+        
+        private val loadLock = Mutex()
     }
     
-    private val client = OkHttpClient.Builder()
-        .connectTimeout(15, TimeUnit.SECONDS)
-        .readTimeout(30, TimeUnit.SECONDS)
-        .build()
+    private class LoadedCatalog(val stored: StoredCatalog, val index: AddonCatalogIndex)
+    
+    @Serializable
+    private data class StoredCatalog(
+        val fetchedAt: Long,
+        val etag: String? = null,
+        val lastModified: String? = null,
+        val addons: List<CatalogAddon>
+    )
     
-    // Cache for the full catalog
-    private var cachedCatalog: List<CatalogAddon>? = null
-    private var lastFetchTime: Long = 0
-    private val CACHE_DURATION_MS = 5 * 60 * 1000L // 5 minutes
+    private val catalogFile = File(context.applicationContext.cacheDir, CATALOG_FILE)
     
     /**
      * Fetch subtitle addons from the catalog, with optional search filter
+     *
+     * Uses the stored catalog when there is one, even if it is due for
+     * revalidation; call [refreshCatalog] to bring it up to date.
      */
     suspend fun searchSubtitleAddons(
         query: String = ""
     ): Result<List<CatalogAddon>> = withContext(Dispatchers.IO) {
         try {
-            // Use cache if valid
-            val now = System.currentTimeMillis()
-            val catalog = if (cachedCatalog != null && now - lastFetchTime < CACHE_DURATION_MS) {
-                DebugLogger.log(TAG, "Using cached catalog")
-                cachedCatalog!!
-            } else {
-                DebugLogger.log(TAG, "Fetching catalog from $CATALOG_URL")
-                val freshCatalog = fetchCatalog()
-                cachedCatalog = freshCatalog
-                lastFetchTime = now
-                freshCatalog
+            val catalog = loaded ?: loadLock.withLock {
+                loaded ?: readStored()?.also { loaded = it } ?: revalidate()
             }
             
-            // Filter for subtitle addons
-            val subtitleAddons = catalog.filter { isSubtitleAddon(it) }
-            
-            // Apply search filter if provided
-            val filtered = if (query.isBlank()) {
-                subtitleAddons
-            } else {
-                val lowerQuery = query.lowercase()
-                subtitleAddons.filter { addon ->
-                    addon.name.lowercase().contains(lowerQuery) ||
-                    addon.description?.lowercase()?.contains(lowerQuery) == true
-                }
-            }
+            val filtered = catalog.index.search(query)
             
             DebugLogger.log(TAG, "Found ${filtered.size} subtitle addons matching '$query'")
             Result.success(filtered)
@@ -78,29 +84,104 @@ class StremioAddonsCatalogClient {
         }
     }
     
+    /**
+     * Revalidate the catalog if it is older than the cache duration
+     *
+     * Returns true if the addon list changed.
+     */
+    suspend fun refreshCatalog(): Result<Boolean> = withContext(Dispatchers.IO) {
+        try {
+            loadLock.withLock {
+                val current = loaded ?: readStored()?.also { loaded = it }
+                if (current != null && System.currentTimeMillis() - current.stored.fetchedAt < CACHE_DURATION_MS) {
+                    return@withLock Result.success(false)
+                }
+                val updated = revalidate()
+                Result.success(updated.stored.addons != current?.stored?.addons)
+            }
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to refresh catalog: ${e.message}", e)
+            Result.failure(e)
+        }
+    }
+    
     /**
      * Clear the cache to force a fresh fetch
      */
     fun clearCache() {
-        cachedCatalog = null
-        lastFetchTime = 0
+        loaded = null
+        catalogFile.delete()
     }
     
-    private fun fetchCatalog(): List<CatalogAddon> {
-        val request = Request.Builder()
+    private fun readStored(): LoadedCatalog? {
+        if (!catalogFile.isFile) return null
+        return try {
+            val stored = json.decodeFromString<StoredCatalog>(catalogFile.readText())
+            DebugLogger.log(TAG, "Loaded ${stored.addons.size} addons from disk")
+            LoadedCatalog(stored, AddonCatalogIndex(stored.addons))
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Discarding unreadable catalog: ${e.message}", e)
+            catalogFile.delete()
+            null
+        }
+    }
+    
+    /**
+     * Conditional GET against the stored validators; must hold [loadLock]
+     */
+    private fun revalidate(): LoadedCatalog {
+        val current = loaded
+        val builder = Request.Builder()
             .url(CATALOG_URL)
             .header("Accept", "application/json")
-            .build()
+        current?.stored?.etag?.let { builder.header("If-None-Match", it) }
+        current?.stored?.lastModified?.let { builder.header("If-Modified-Since", it) }
         
-        val response = client.newCall(request).execute()
+        DebugLogger.log(TAG, "Fetching catalog from $CATALOG_URL")
         
-        if (!response.isSuccessful) {
-            throw Exception("HTTP ${response.code}: ${response.message}")
+        val stored = client.newCall(builder.build()).execute().use { response ->
+            if (response.code == 304 && current != null) {
+                DebugLogger.log(TAG, "Catalog not modified")
+                current.stored.copy(fetchedAt = System.currentTimeMillis())
+            } else {
+                if (!response.isSuccessful) {
+                    throw Exception("HTTP ${response.code}: ${response.message}")
+                }
+                
+                val body = response.body?.string() 
+                    ?: throw Exception("Empty response")
+                
+                StoredCatalog(
+                    fetchedAt = System.currentTimeMillis(),
+                    etag = response.header("ETag"),
+                    lastModified = response.header("Last-Modified"),
+                    addons = parseCatalog(body).filter { isSubtitleAddon(it) }
+                )
+            }
         }
         
-        val body = response.body?.string() 
-            ?: throw Exception("Empty response")
-        
+        val updated = if (current != null && stored.addons == current.stored.addons) {
+            LoadedCatalog(stored, current.index)
+        } else {
+            LoadedCatalog(stored, AddonCatalogIndex(stored.addons))
+        }
+        loaded = updated
+        writeStored(stored)
+        return updated
+    }
+    
+    private fun writeStored(stored: StoredCatalog) {
+        val tmp = File(catalogFile.path + ".tmp")
+        try {
+            tmp.writeText(json.encodeToString(stored))
+            if (!tmp.renameTo(catalogFile)) tmp.delete()
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to store catalog: ${e.message}", e)
+            tmp.delete()
+        }
+    }
+    
+    private fun parseCatalog(body: String): List<CatalogAddon> {
         val catalogResponse = json.decodeFromString<CatalogResponse>(body)
         
         // Map to our simpler CatalogAddon model
@@ -130,6 +211,7 @@ class StremioAddonsCatalogClient {
 /**
  * Simplified addon model for UI display
  */
+@Serializable
 data class CatalogAddon(
     val name: String,
     val description: String?,
@@ -4,6 +4,13 @@ import android.content.Context
 import android.net.Uri
 import com.brouken.player.utils.DebugLogger
 import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.FlowCollector
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.lastOrNull
+import java.io.IOException
 
 /**
  * Main coordinator for fetching subtitles from Stremio addons
@@ -15,7 +22,14 @@ class StremioSubtitleFetcher(private val context: Context) {
         private const val TAG = "StremioSubtitleFetcher"
     }
     
+    private data class AddonAnswer(
+        val addon: SubtitleAddon,
+        val result: Result<StremioAddonClient.QueryResult>,
+        val latencyMs: Long
+    )
+    
     private val addonManager = SubtitleAddonManager(context)
+    private val scheduler = AddonScheduler(SubtitleAddonStore.getInstance(context))
     private val client = StremioAddonClient(context)
     
     // Callback for progress updates
@@ -28,7 +42,7 @@ class StremioSubtitleFetcher(private val context: Context) {
     var onError: ((String) -> Unit)? = null
     
     /**
-     * Fetch subtitles for a video
+     * Fetch subtitles for a video, waiting for every addon
      */
     suspend fun fetchSubtitles(
         videoUri: Uri,
@@ -36,126 +50,182 @@ class StremioSubtitleFetcher(private val context: Context) {
         imdbId: String? = null,
         seasonNumber: Int? = null,
         episodeNumber: Int? = null
-    ): List<SubtitleTrack> = withContext(Dispatchers.IO) {
+    ): List<SubtitleTrack> {
+        val last = fetchSubtitlesFlow(videoUri, title, imdbId, seasonNumber, episodeNumber).lastOrNull()
+        return last?.tracks ?: emptyList()
+    }
+    
+    /**
+     * Fetch subtitles for a video as a stream of batches
+     *
+     * Each addon is queried in parallel with its own deadline. Every batch
+     * carries the merged, ranked list so far, so the first results can be
+     * shown as soon as the fastest addon answers.
+     */
+    fun fetchSubtitlesFlow(
+        videoUri: Uri,
+        title: String?,
+        imdbId: String? = null,
+        seasonNumber: Int? = null,
+        episodeNumber: Int? = null
+    ): Flow<SubtitleBatch> = flow {
         
         val enabledAddons = addonManager.getEnabledAddons()
         
         if (enabledAddons.isEmpty()) {
             DebugLogger.log(TAG, "No subtitle addons configured")
             onError?.invoke("No subtitle addons configured. Add addons in settings.")
-            return@withContext emptyList()
+            return@flow
         }
         
         onProgressUpdate?.invoke("Preparing to fetch subtitles...")
         
+        val params = buildQueryParams(videoUri, title, imdbId, seasonNumber, episodeNumber)
+            ?: return@flow
+        
+        val plan = scheduler.plan(enabledAddons)
+        if (plan.primary.isEmpty()) {
+            onError?.invoke("All subtitle addons are failing. Try again in a minute.")
+            return@flow
+        }
+        
+        // Query the primary tier in parallel
+        onProgressUpdate?.invoke("Searching ${plan.primary.size} addon(s)...")
+        
+        val merger = SubtitleResultMerger()
+        val errors = mutableListOf<String>()
+        
+        queryAddons(plan.primary, params, merger, errors, 0, plan.primary.size)
+        
+        // Slow, low-yield addons only get asked when the fast ones found nothing
+        if (merger.size == 0 && plan.fallback.isNotEmpty()) {
+            onProgressUpdate?.invoke("Trying ${plan.fallback.size} more addon(s)...")
+            val total = plan.primary.size + plan.fallback.size
+            queryAddons(plan.fallback, params, merger, errors, plan.primary.size, total)
+        }
+        
+        DebugLogger.log(TAG, "Found ${merger.size} unique subtitles")
+        
+        if (merger.size == 0 && errors.isNotEmpty()) {
+            onError?.invoke("Search failed: ${errors.first()}")
+        } else if (merger.size == 0) {
+            onError?.invoke("No subtitles found for this video")
+        } else {
+            onProgressUpdate?.invoke("Found ${merger.size} subtitles!")
+            onSubtitlesFound?.invoke(merger.snapshot())
+        }
+    }.flowOn(Dispatchers.IO)
+    
+    /**
+     * Query addons in parallel, each with its own deadline, emitting a batch per answer
+     */
+    private suspend fun FlowCollector<SubtitleBatch>.queryAddons(
+        addons: List<SubtitleAddon>,
+        params: SubtitleQueryParams,
+        merger: SubtitleResultMerger,
+        errors: MutableList<String>,
+        completedBefore: Int,
+        total: Int
+    ) = coroutineScope {
+        val answers = Channel<AddonAnswer>(Channel.UNLIMITED)
+        
+        addons.forEach { addon ->
+            launch {
+                onProgressUpdate?.invoke("Querying ${addon.displayName}...")
+                
+                val deadlineMs = scheduler.timeoutFor(addon)
+                val startTime = System.currentTimeMillis()
+                val result = withTimeoutOrNull(deadlineMs) {
+                    client.querySubtitles(addon, params, deadlineMs)
+                } ?: Result.failure(IOException("Timed out after ${deadlineMs}ms"))
+                
+                answers.send(AddonAnswer(addon, result, System.currentTimeMillis() - startTime))
+            }
+        }
+        
+        // Merge in arrival order on this coroutine, so no locking is needed
+        for (n in 1..addons.size) {
+            val (addon, result, latencyMs) = answers.receive()
+            val completed = completedBefore + n
+            
+            val batch = result.fold(
+                onSuccess = { answer ->
+                    // Cache hits say nothing about the addon's latency or health
+                    if (answer.fromNetwork) addonManager.recordUsage(addon.id, latencyMs)
+                    val added = merger.addAll(answer.subtitles.map { convertToTrack(it, addon) })
+                    SubtitleBatch(addon.displayName, added, merger.snapshot(), completed, total)
+                },
+                onFailure = { error ->
+                    addonManager.recordError(addon.id, error.message ?: "Unknown error", latencyMs)
+                    errors.add("${addon.displayName}: ${error.message}")
+                    SubtitleBatch(addon.displayName, emptyList(), merger.snapshot(), completed, total,
+                        error = error.message)
+                }
+            )
+            
+            if (merger.size > 0) {
+                onProgressUpdate?.invoke("Found ${merger.size} subtitles ($completed/$total addons)")
+            }
+            emit(batch)
+        }
+    }
+    
+    /**
+     * Resolve IMDB ID, file hash and filename into addon query params
+     */
+    private suspend fun buildQueryParams(
+        videoUri: Uri,
+        title: String?,
+        imdbId: String?,
+        seasonNumber: Int?,
+        episodeNumber: Int?
+    ): SubtitleQueryParams? {
         // Determine media type
         val type = if (seasonNumber != null && episodeNumber != null) "series" else "movie"
         
         // Try to extract IMDB ID from title if not provided
         val extractedImdbId = imdbId ?: extractImdbIdFromTitle(title)
         
-        // Try to compute video hash for local files
+        // Compute the video hash for local files, content URIs and HTTP(S) streams
         var videoHash: String? = null
         var videoSize: Long? = null
         
-        if (!OpenSubtitlesHasher.isRemoteStream(videoUri)) {
+        if (OpenSubtitlesHasher.canComputeHash(videoUri)) {
             onProgressUpdate?.invoke("Computing video hash...")
             
-            val hashResult = if (videoUri.scheme == "file") {
-                val path = videoUri.path
-                if (path != null) {
-                    val file = java.io.File(path)
-                    videoSize = file.length()
-                    OpenSubtitlesHasher.computeHash(file)
-                } else null
-            } else {
-                OpenSubtitlesHasher.computeHashFromUri(videoUri, context.contentResolver)
+            OpenSubtitlesHasher.computeVideoHash(videoUri, context.contentResolver)?.getOrNull()?.let {
+                videoHash = it.hash
+                videoSize = it.size
             }
             
-            videoHash = hashResult?.getOrNull()
-            
             if (videoHash != null) {
                 DebugLogger.log(TAG, "Video hash: $videoHash")
             }
         } else {
-            DebugLogger.log(TAG, "Remote stream - skipping hash calculation")
+            DebugLogger.log(TAG, "Unsupported scheme - skipping hash calculation")
         }
         
         // Extract filename
         val filename = extractFilename(videoUri, title)
         
-        // Build query params
-        val params = SubtitleQueryParams(
-            type = type,
-            imdbId = extractedImdbId,
-            videoHash = videoHash,
-            videoSize = videoSize,
-            filename = filename,
-            seasonNumber = seasonNumber,
-            episodeNumber = episodeNumber
-        )
-        
         DebugLogger.log(TAG, "Query params: type=$type, imdb=$extractedImdbId, hash=$videoHash")
         
         // Check if we have enough info to query
         if (extractedImdbId == null && videoHash == null) {
             DebugLogger.log(TAG, "Insufficient info for subtitle search")
             onError?.invoke("Could not identify video. Try naming file with IMDB ID (e.g., tt1234567)")
-            return@withContext emptyList()
-        }
-        
-        // Query all addons in parallel
-        onProgressUpdate?.invoke("Searching ${enabledAddons.size} addon(s)...")
-        
-        val results = mutableListOf<SubtitleTrack>()
-        val errors = mutableListOf<String>()
-        
-        coroutineScope {
-            val deferreds = enabledAddons.map { addon ->
-                async {
-                    onProgressUpdate?.invoke("Querying ${addon.displayName}...")
-                    
-                    val result = client.querySubtitles(addon, params)
-                    
-                    result.fold(
-                        onSuccess = { subs ->
-                            val tracks = subs.map { convertToTrack(it, addon) }
-                            addonManager.recordUsage(addon.id)
-                            tracks
-                        },
-                        onFailure = { error ->
-                            addonManager.recordError(addon.id, error.message ?: "Unknown error")
-                            errors.add("${addon.displayName}: ${error.message}")
-                            emptyList()
-                        }
-                    )
-                }
-            }
-            
-            deferreds.forEach { deferred ->
-                results.addAll(deferred.await())
-            }
+            return null
         }
         
-        // Deduplicate and sort
-        val deduplicated = results
-            .distinctBy { it.url }
-            .sortedWith(compareByDescending<SubtitleTrack> { it.isHashMatch }
-                .thenByDescending { it.matchScore }
-                .thenByDescending { it.downloadCount ?: 0 })
-        
-        DebugLogger.log(TAG, "Found ${deduplicated.size} unique subtitles")
-        
-        if (deduplicated.isEmpty() && errors.isNotEmpty()) {
-            onError?.invoke("Search failed: ${errors.first()}")
-        } else if (deduplicated.isEmpty()) {
-            onError?.invoke("No subtitles found for this video")
-        } else {
-            onProgressUpdate?.invoke("Found ${deduplicated.size} subtitles!")
-            onSubtitlesFound?.invoke(deduplicated)
-        }
-        
-        deduplicated
+        return SubtitleQueryParams(
+            type = type,
+            imdbId = extractedImdbId,
+            videoHash = videoHash,
+            videoSize = videoSize,
+            filename = filename,
+            seasonNumber = seasonNumber,
+            episodeNumber = episodeNumber
+        )
     }
     
     /**
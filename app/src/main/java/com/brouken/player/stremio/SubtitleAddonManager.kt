@@ -1,12 +1,9 @@
 package com.brouken.player.stremio
 
 import android.content.Context
-import android.content.SharedPreferences
 import com.brouken.player.utils.DebugLogger
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
-import kotlinx.serialization.encodeToString
-import kotlinx.serialization.json.Json
 import java.util.UUID
 
 /**
@@ -17,8 +14,6 @@ class SubtitleAddonManager(private val context: Context) {
     
     companion object {
         private const val TAG = "SubtitleAddonManager"
-        private const val PREFS_NAME = "jasp_subtitle_addons"
-        private const val KEY_ADDONS = "addons_list"
         
         // Pre-configured popular addon manifests (scraped from stremio-addons.net)
         val POPULAR_ADDONS = listOf(
@@ -113,11 +108,6 @@ class SubtitleAddonManager(private val context: Context) {
                 logoUrl = "https://i.ibb.co/p1PRCyW/icon.png"
             )
         )
-        
-        private val json = Json {
-            ignoreUnknownKeys = true
-            prettyPrint = true
-        }
     }
     
     data class PopularAddon(
@@ -127,22 +117,16 @@ class SubtitleAddonManager(private val context: Context) {
         val logoUrl: String? = null
     )
     
-    private val prefs: SharedPreferences by lazy {
-        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
-    }
+    // Shared with every other manager instance in the process
+    private val store = SubtitleAddonStore.getInstance(context)
     
     private val client = StremioAddonClient(context)
     
-    private var cachedAddons: MutableList<SubtitleAddon>? = null
-    
     /**
      * Get all configured addons
      */
     fun getAddons(): List<SubtitleAddon> {
-        if (cachedAddons == null) {
-            loadAddons()
-        }
-        return cachedAddons ?: emptyList()
+        return store.getAddons()
     }
     
     /**
@@ -186,7 +170,7 @@ class SubtitleAddonManager(private val context: Context) {
                 .trimEnd('/')
             
             // Create addon entry
-            val addon = SubtitleAddon(
+            var addon = SubtitleAddon(
                 id = UUID.randomUUID().toString(),
                 manifestUrl = normalizedUrl,
                 baseUrl = baseUrl,
@@ -195,16 +179,28 @@ class SubtitleAddonManager(private val context: Context) {
                 version = manifest.version,
                 logoUrl = logoUrl,
                 isEnabled = true,
-                priority = getAddons().size, // Add at end
+                priority = 0,
                 supportsHash = true, // Assume true unless proven otherwise
                 supportsImdb = true,
                 supportedTypes = manifest.types
             )
             
-            // Add to list and save
-            val addons = getAddons().toMutableList()
-            addons.add(addon)
-            saveAddons(addons)
+            // Add at end; re-check for duplicates in case another add raced us
+            var duplicate = false
+            store.updateConfig { addons ->
+                duplicate = addons.any { it.manifestUrl == normalizedUrl }
+                if (duplicate) {
+                    addons
+                } else {
+                    addon = addon.copy(priority = addons.size)
+                    addons + addon
+                }
+            }
+            if (duplicate) {
+                return@withContext Result.failure(
+                    IllegalArgumentException("Addon already exists")
+                )
+            }
             
             DebugLogger.log(TAG, "Addon added: ${addon.displayName}")
             Result.success(addon)
@@ -226,15 +222,16 @@ class SubtitleAddonManager(private val context: Context) {
      * Remove an addon by ID
      */
     fun removeAddon(addonId: String): Boolean {
-        val addons = getAddons().toMutableList()
-        val removed = addons.removeAll { it.id == addonId }
+        var removed = false
+        store.updateConfig { addons ->
+            removed = addons.any { it.id == addonId }
+            // Recalculate priorities
+            addons.filter { it.id != addonId }
+                .mapIndexed { index, addon -> addon.copy(priority = index) }
+        }
         
         if (removed) {
-            // Recalculate priorities
-            addons.forEachIndexed { index, addon ->
-                addons[index] = addon.copy(priority = index)
-            }
-            saveAddons(addons)
+            SubtitleQueryCache.invalidate(addonId)
             DebugLogger.log(TAG, "Addon removed: $addonId")
         }
         
@@ -245,60 +242,55 @@ class SubtitleAddonManager(private val context: Context) {
      * Update addon enabled state
      */
     fun setEnabled(addonId: String, enabled: Boolean) {
-        val addons = getAddons().toMutableList()
-        val index = addons.indexOfFirst { it.id == addonId }
-        
-        if (index >= 0) {
-            addons[index] = addons[index].copy(isEnabled = enabled)
-            saveAddons(addons)
-        }
+        updateAddon(addonId) { it.copy(isEnabled = enabled) }
+        // Answers cached before the addon was turned off are not served once it is back
+        SubtitleQueryCache.invalidate(addonId)
     }
     
     /**
      * Update addon display name
      */
     fun updateDisplayName(addonId: String, newName: String) {
-        val addons = getAddons().toMutableList()
-        val index = addons.indexOfFirst { it.id == addonId }
-        
-        if (index >= 0) {
-            addons[index] = addons[index].copy(displayName = newName)
-            saveAddons(addons)
-        }
+        updateAddon(addonId) { it.copy(displayName = newName) }
+        SubtitleQueryCache.invalidate(addonId)
     }
     
     /**
      * Reorder addons (for drag-and-drop)
      */
     fun reorderAddons(orderedIds: List<String>) {
-        val currentAddons = getAddons().associateBy { it.id }
-        val reordered = orderedIds.mapIndexedNotNull { index, id ->
-            currentAddons[id]?.copy(priority = index)
-        }
-        
-        // Add any addons not in the ordered list at the end
-        val remaining = getAddons()
-            .filter { it.id !in orderedIds }
-            .mapIndexed { index, addon ->
-                addon.copy(priority = reordered.size + index)
+        store.updateConfig { addons ->
+            val currentAddons = addons.associateBy { it.id }
+            val reordered = orderedIds.mapIndexedNotNull { index, id ->
+                currentAddons[id]?.copy(priority = index)
             }
-        
-        saveAddons(reordered + remaining)
+            
+            // Add any addons not in the ordered list at the end
+            val remaining = addons
+                .filter { it.id !in orderedIds }
+                .mapIndexed { index, addon ->
+                    addon.copy(priority = reordered.size + index)
+                }
+            
+            reordered + remaining
+        }
     }
     
     /**
      * Move addon up in priority
      */
     fun moveUp(addonId: String) {
-        val addons = getAddons().sortedBy { it.priority }.toMutableList()
-        val index = addons.indexOfFirst { it.id == addonId }
-        
-        if (index > 0) {
-            // Swap with previous
-            val temp = addons[index - 1]
-            addons[index - 1] = addons[index].copy(priority = index - 1)
-            addons[index] = temp.copy(priority = index)
-            saveAddons(addons)
+        store.updateConfig { current ->
+            val addons = current.sortedBy { it.priority }.toMutableList()
+            val index = addons.indexOfFirst { it.id == addonId }
+            
+            if (index > 0) {
+                // Swap with previous
+                val temp = addons[index - 1]
+                addons[index - 1] = addons[index].copy(priority = index - 1)
+                addons[index] = temp.copy(priority = index)
+            }
+            addons
         }
     }
     
@@ -306,50 +298,39 @@ class SubtitleAddonManager(private val context: Context) {
      * Move addon down in priority
      */
     fun moveDown(addonId: String) {
-        val addons = getAddons().sortedBy { it.priority }.toMutableList()
-        val index = addons.indexOfFirst { it.id == addonId }
-        
-        if (index >= 0 && index < addons.size - 1) {
-            // Swap with next
-            val temp = addons[index + 1]
-            addons[index + 1] = addons[index].copy(priority = index + 1)
-            addons[index] = temp.copy(priority = index)
-            saveAddons(addons)
+        store.updateConfig { current ->
+            val addons = current.sortedBy { it.priority }.toMutableList()
+            val index = addons.indexOfFirst { it.id == addonId }
+            
+            if (index >= 0 && index < addons.size - 1) {
+                // Swap with next
+                val temp = addons[index + 1]
+                addons[index + 1] = addons[index].copy(priority = index + 1)
+                addons[index] = temp.copy(priority = index)
+            }
+            addons
         }
     }
     
     /**
-     * Record last usage time
+     * Record a successful query (in-memory, flushed in batches)
      */
-    fun recordUsage(addonId: String) {
-        val addons = getAddons().toMutableList()
-        val index = addons.indexOfFirst { it.id == addonId }
-        
-        if (index >= 0) {
-            addons[index] = addons[index].copy(
-                lastUsed = System.currentTimeMillis(),
-                lastError = null,
-                errorCount = 0
-            )
-            saveAddons(addons)
-        }
+    fun recordUsage(addonId: String, latencyMs: Long? = null) {
+        store.recordSuccess(addonId, latencyMs)
     }
     
     /**
-     * Record an error
+     * Record that a subtitle from this addon was chosen
      */
-    fun recordError(addonId: String, error: String) {
-        val addons = getAddons().toMutableList()
-        val index = addons.indexOfFirst { it.id == addonId }
-        
-        if (index >= 0) {
-            val current = addons[index]
-            addons[index] = current.copy(
-                lastError = error,
-                errorCount = current.errorCount + 1
-            )
-            saveAddons(addons)
-        }
+    fun recordSelection(addonId: String) {
+        store.recordSelection(addonId)
+    }
+    
+    /**
+     * Record an error (in-memory, flushed in batches)
+     */
+    fun recordError(addonId: String, error: String, latencyMs: Long? = null) {
+        store.recordError(addonId, error, latencyMs)
     }
     
     /**
@@ -366,32 +347,17 @@ class SubtitleAddonManager(private val context: Context) {
      * Clear all addons
      */
     fun clearAll() {
-        saveAddons(emptyList())
+        store.updateConfig { emptyList() }
+        SubtitleQueryCache.clear()
     }
     
     // ========================================================================
     // PRIVATE HELPERS
     // ========================================================================
     
-    private fun loadAddons() {
-        try {
-            val jsonString = prefs.getString(KEY_ADDONS, "[]") ?: "[]"
-            cachedAddons = json.decodeFromString<List<SubtitleAddon>>(jsonString).toMutableList()
-            DebugLogger.log(TAG, "Loaded ${cachedAddons?.size ?: 0} addons")
-        } catch (e: Exception) {
-            DebugLogger.e(TAG, "Failed to load addons: ${e.message}", e)
-            cachedAddons = mutableListOf()
-        }
-    }
-    
-    private fun saveAddons(addons: List<SubtitleAddon>) {
-        try {
-            val jsonString = json.encodeToString(addons)
-            prefs.edit().putString(KEY_ADDONS, jsonString).apply()
-            cachedAddons = addons.toMutableList()
-            DebugLogger.log(TAG, "Saved ${addons.size} addons")
-        } catch (e: Exception) {
-            DebugLogger.e(TAG, "Failed to save addons: ${e.message}", e)
+    private fun updateAddon(addonId: String, transform: (SubtitleAddon) -> SubtitleAddon) {
+        store.updateConfig { addons ->
+            addons.map { if (it.id == addonId) transform(it) else it }
         }
     }
     
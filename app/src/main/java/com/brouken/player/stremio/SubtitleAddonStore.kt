@@ -0,0 +1,338 @@
+package com.brouken.player.stremio
+
+import android.content.Context
+import android.content.SharedPreferences
+import com.brouken.player.utils.DebugLogger
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Process-wide state behind [SubtitleAddonManager]
+ *
+ * Addon configuration (URL, name, enabled, priority) changes rarely and is
+ * replaced as an immutable snapshot under one lock; a single writer
+ * coroutine persists the latest snapshot, so concurrent edits can't
+ * overwrite each other. Usage stats (last used, errors, latency) change on
+ * every search and live in atomic counters that are flushed to disk in one
+ * debounced batch.
+ */
+class SubtitleAddonStore private constructor(context: Context) {
+
+    companion object {
+        private const val TAG = "SubtitleAddonStore"
+        private const val PREFS_NAME = "jasp_subtitle_addons"
+        private const val KEY_ADDONS = "addons_list"
+        private const val KEY_STATS = "addon_stats"
+        private const val STATS_FLUSH_DELAY_MS = 2000L
+        private const val LATENCY_SMOOTHING = 0.3
+        private const val SAMPLE_WINDOW = 20
+        private const val CIRCUIT_THRESHOLD = 3
+        private const val CIRCUIT_BASE_MS = 60_000L
+        private const val CIRCUIT_MAX_MS = 30 * 60_000L
+
+        private val json = Json {
+            ignoreUnknownKeys = true
+        }
+
+        @Volatile
+        private var instance: SubtitleAddonStore? = null
+
+        fun getInstance(context: Context): SubtitleAddonStore {
+            return instance ?: synchronized(this) {
+                instance ?: SubtitleAddonStore(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    /**
+     * Live counters for one addon
+     */
+    class AddonStats {
+        val lastUsed = AtomicLong(0)
+        val successCount = AtomicInteger(0)
+        val errorCount = AtomicInteger(0)          // Consecutive failures, reset on success
+        val totalErrors = AtomicInteger(0)
+        val selectionCount = AtomicInteger(0)      // Times one of its subtitles was picked
+        val latencyMs = AtomicLong(0)              // Smoothed query latency
+        val circuitOpenUntil = AtomicLong(0)       // Skip the addon until this time
+        @Volatile var lastError: String? = null
+
+        // Rolling window of recent queries
+        private val sampleLatency = LongArray(SAMPLE_WINDOW)
+        private val sampleOk = BooleanArray(SAMPLE_WINDOW)
+        private var sampleCount = 0
+        private var sampleNext = 0
+
+        @Synchronized
+        fun addSample(latencyMs: Long, ok: Boolean) {
+            sampleLatency[sampleNext] = latencyMs
+            sampleOk[sampleNext] = ok
+            sampleNext = (sampleNext + 1) % SAMPLE_WINDOW
+            if (sampleCount < SAMPLE_WINDOW) sampleCount++
+        }
+
+        @Synchronized
+        fun sampleSize(): Int = sampleCount
+
+        /**
+         * Latency percentile (0-100) over the window, or null without history
+         */
+        @Synchronized
+        fun latencyPercentile(percentile: Int): Long? {
+            if (sampleCount == 0) return null
+            val sorted = sampleLatency.copyOf(sampleCount).apply { sort() }
+            val index = ((percentile / 100.0) * (sampleCount - 1)).toInt()
+            return sorted[index]
+        }
+
+        @Synchronized
+        fun errorRate(): Double {
+            if (sampleCount == 0) return 0.0
+            var errors = 0
+            for (i in 0 until sampleCount) if (!sampleOk[i]) errors++
+            return errors.toDouble() / sampleCount
+        }
+
+        /**
+         * Share of successful queries that produced the subtitle the user picked
+         */
+        fun hitRate(): Double {
+            val queries = successCount.get()
+            return if (queries == 0) 0.0 else selectionCount.get().toDouble() / queries
+        }
+
+        @Synchronized
+        internal fun samples(): List<Long> {
+            // Oldest first; failures stored as negative latencies
+            val start = if (sampleCount < SAMPLE_WINDOW) 0 else sampleNext
+            return (0 until sampleCount).map { i ->
+                val index = (start + i) % SAMPLE_WINDOW
+                if (sampleOk[index]) sampleLatency[index] else -sampleLatency[index] - 1
+            }
+        }
+    }
+
+    @Serializable
+    private data class StoredStats(
+        val lastUsed: Long = 0,
+        val successCount: Int = 0,
+        val errorCount: Int = 0,
+        val totalErrors: Int = 0,
+        val selectionCount: Int = 0,
+        val latencyMs: Long = 0,
+        val circuitOpenUntil: Long = 0,
+        val lastError: String? = null,
+        val samples: List<Long> = emptyList()
+    )
+
+    private val prefs: SharedPreferences =
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    private val configLock = Any()
+
+    @Volatile
+    private var config: List<SubtitleAddon> = emptyList()
+
+    // Conflated: only the newest snapshot needs to reach disk
+    private val configWrites = Channel<List<SubtitleAddon>>(Channel.CONFLATED)
+
+    private val stats = ConcurrentHashMap<String, AddonStats>()
+    private val statsFlushPending = AtomicBoolean(false)
+
+    init {
+        load()
+        scope.launch {
+            for (snapshot in configWrites) {
+                persistConfig(snapshot)
+            }
+        }
+    }
+
+    // ========================================================================
+    // CONFIGURATION
+    // ========================================================================
+
+    /**
+     * Current configuration, with stats merged in for display
+     */
+    fun getAddons(): List<SubtitleAddon> {
+        return config.map { addon ->
+            val s = stats[addon.id] ?: return@map addon
+            addon.copy(
+                lastUsed = s.lastUsed.get().takeIf { it > 0 },
+                lastError = s.lastError,
+                errorCount = s.errorCount.get()
+            )
+        }
+    }
+
+    /**
+     * Atomically replace the configuration with [transform] of the current one
+     *
+     * The transform runs under the config lock and must not block.
+     */
+    fun updateConfig(transform: (List<SubtitleAddon>) -> List<SubtitleAddon>): List<SubtitleAddon> {
+        val updated = synchronized(configLock) {
+            transform(config).also { config = it }
+        }
+        configWrites.trySend(updated)
+
+        // Drop counters for removed addons
+        val ids = updated.mapTo(HashSet()) { it.id }
+        if (stats.keys.retainAll(ids)) scheduleStatsFlush()
+
+        return updated
+    }
+
+    // ========================================================================
+    // STATS
+    // ========================================================================
+
+    fun statsFor(addonId: String): AddonStats = stats.getOrPut(addonId) { AddonStats() }
+
+    fun recordSuccess(addonId: String, latencyMs: Long? = null) {
+        val s = statsFor(addonId)
+        s.lastUsed.set(System.currentTimeMillis())
+        s.successCount.incrementAndGet()
+        s.errorCount.set(0)
+        s.circuitOpenUntil.set(0)
+        s.lastError = null
+        latencyMs?.let { sample ->
+            updateLatency(s, sample)
+            s.addSample(sample, ok = true)
+        }
+        scheduleStatsFlush()
+    }
+
+    fun recordError(addonId: String, error: String, latencyMs: Long? = null) {
+        val s = statsFor(addonId)
+        val failures = s.errorCount.incrementAndGet()
+        s.totalErrors.incrementAndGet()
+        s.lastError = error
+        latencyMs?.let { sample -> s.addSample(sample, ok = false) }
+
+        // Back off exponentially once an addon keeps failing
+        if (failures >= CIRCUIT_THRESHOLD) {
+            val cooldown = (CIRCUIT_BASE_MS shl (failures - CIRCUIT_THRESHOLD).coerceAtMost(5))
+                .coerceAtMost(CIRCUIT_MAX_MS)
+            s.circuitOpenUntil.set(System.currentTimeMillis() + cooldown)
+            DebugLogger.log(TAG, "Circuit open for $addonId (${cooldown / 1000}s after $failures failures)")
+        }
+        scheduleStatsFlush()
+    }
+
+    /**
+     * Record that the user picked a subtitle this addon returned
+     */
+    fun recordSelection(addonId: String) {
+        statsFor(addonId).selectionCount.incrementAndGet()
+        scheduleStatsFlush()
+    }
+
+    private fun updateLatency(s: AddonStats, sample: Long) {
+        s.latencyMs.updateAndGet { previous ->
+            if (previous == 0L) sample
+            else (previous + LATENCY_SMOOTHING * (sample - previous)).toLong()
+        }
+    }
+
+    /**
+     * Coalesce all stat updates within the delay window into one write
+     */
+    private fun scheduleStatsFlush() {
+        if (!statsFlushPending.compareAndSet(false, true)) return
+        scope.launch {
+            delay(STATS_FLUSH_DELAY_MS)
+            // Cleared before the snapshot, so updates made while it is taken schedule another write
+            statsFlushPending.set(false)
+            flushStats()
+        }
+    }
+
+    private fun flushStats() {
+        try {
+            val snapshot = stats.mapValues { (_, s) ->
+                StoredStats(
+                    lastUsed = s.lastUsed.get(),
+                    successCount = s.successCount.get(),
+                    errorCount = s.errorCount.get(),
+                    totalErrors = s.totalErrors.get(),
+                    selectionCount = s.selectionCount.get(),
+                    latencyMs = s.latencyMs.get(),
+                    circuitOpenUntil = s.circuitOpenUntil.get(),
+                    lastError = s.lastError,
+                    samples = s.samples()
+                )
+            }
+            prefs.edit().putString(KEY_STATS, json.encodeToString(snapshot)).apply()
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to save addon stats: ${e.message}", e)
+        }
+    }
+
+    // ========================================================================
+    // PERSISTENCE
+    // ========================================================================
+
+    private fun load() {
+        try {
+            val jsonString = prefs.getString(KEY_ADDONS, "[]") ?: "[]"
+            val addons = json.decodeFromString<List<SubtitleAddon>>(jsonString)
+
+            val statsString = prefs.getString(KEY_STATS, null)
+            if (statsString != null) {
+                json.decodeFromString<Map<String, StoredStats>>(statsString).forEach { (id, stored) ->
+                    stats[id] = AddonStats().apply {
+                        lastUsed.set(stored.lastUsed)
+                        successCount.set(stored.successCount)
+                        errorCount.set(stored.errorCount)
+                        totalErrors.set(stored.totalErrors)
+                        selectionCount.set(stored.selectionCount)
+                        latencyMs.set(stored.latencyMs)
+                        circuitOpenUntil.set(stored.circuitOpenUntil)
+                        lastError = stored.lastError
+                        stored.samples.forEach { sample ->
+                            if (sample >= 0) addSample(sample, ok = true) else addSample(-sample - 1, ok = false)
+                        }
+                    }
+                }
+            } else {
+                // Migrate stats that used to be stored inside each addon
+                addons.forEach { addon ->
+                    stats[addon.id] = AddonStats().apply {
+                        lastUsed.set(addon.lastUsed ?: 0)
+                        errorCount.set(addon.errorCount)
+                        lastError = addon.lastError
+                    }
+                }
+            }
+
+            config = addons.map { it.withoutStats() }
+            DebugLogger.log(TAG, "Loaded ${config.size} addons")
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to load addons: ${e.message}", e)
+            config = emptyList()
+        }
+    }
+
+    private fun persistConfig(addons: List<SubtitleAddon>) {
+        try {
+            val jsonString = json.encodeToString(addons.map { it.withoutStats() })
+            prefs.edit().putString(KEY_ADDONS, jsonString).commit()
+            DebugLogger.log(TAG, "Saved ${addons.size} addons")
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to save addons: ${e.message}", e)
+        }
+    }
+
+    private fun SubtitleAddon.withoutStats() = copy(lastUsed = null, lastError = null, errorCount = 0)
+}
@@ -0,0 +1,311 @@
+package com.brouken.player.stremio
+
+import android.content.Context
+import android.net.Uri
+import com.brouken.player.utils.DebugLogger
+import com.sigpwned.chardet4j.Chardet
+import kotlinx.coroutines.*
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import java.io.BufferedInputStream
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.nio.charset.StandardCharsets
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.zip.GZIPInputStream
+import java.util.zip.ZipInputStream
+
+/**
+ * Local store for online subtitles
+ *
+ * Downloads addon subtitles in the background, unpacks gzip/zip payloads,
+ * converts them to UTF-8 and serves file:// URIs to the player. The top
+ * ranked results are prefetched as soon as a search finishes so switching
+ * between candidates doesn't have to wait for the network.
+ */
+class SubtitleDownloadCache private constructor(private val context: Context) {
+
+    companion object {
+        private const val TAG = "SubtitleDownloadCache"
+        private const val CACHE_DIR = "online_subtitles"
+        private const val PREFETCH_COUNT = 3
+        private const val MAX_SUBTITLE_BYTES = 5_000_000L
+        private const val MAX_CACHE_FILES = 100
+        private const val MAX_CACHE_BYTES = 30_000_000L
+        // Files written or served this recently are never evicted, e.g. prefetches about to be picked
+        private const val MIN_AGE_MS = 10 * 60 * 1000L
+
+        private val SUBTITLE_EXTENSIONS = setOf("srt", "vtt", "ass", "ssa", "ttml", "dfxp", "smi", "sub")
+
+        @Volatile
+        private var instance: SubtitleDownloadCache? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): SubtitleDownloadCache {
+            return instance ?: synchronized(this) {
+                instance ?: SubtitleDownloadCache(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    /**
+     * Callback for Java callers - invoked on a background thread
+     */
+    fun interface DownloadCallback {
+        fun onResult(uri: Uri?)
+    }
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    private val httpClient = OkHttpClient.Builder()
+        .connectTimeout(10, TimeUnit.SECONDS)
+        .readTimeout(20, TimeUnit.SECONDS)
+        .build()
+
+    // One download per URL, shared between prefetch and explicit selection
+    private val inFlight = ConcurrentHashMap<String, Deferred<File?>>()
+
+    private val cacheDir: File by lazy {
+        File(context.cacheDir, CACHE_DIR).apply { mkdirs() }
+    }
+
+    // The file last handed to the player, which it may read again at any time
+    @Volatile
+    private var activeFile: File? = null
+
+    /**
+     * Return the local URI if this track was already downloaded
+     *
+     * Touches the file system; call off the main thread, or use [get] with a callback.
+     */
+    fun getCachedUri(track: SubtitleTrack): Uri? {
+        val url = track.url ?: return null
+        val file = fileFor(url, track.mimeType)
+        return if (file.isFile && file.length() > 0) Uri.fromFile(file) else null
+    }
+
+    /**
+     * Get a local URI for the track, downloading it if needed
+     */
+    suspend fun get(track: SubtitleTrack): Uri? {
+        val url = track.url ?: return null
+        val file = fileFor(url, track.mimeType)
+        if (file.isFile && file.length() > 0) {
+            DebugLogger.log(TAG, "[CACHE HIT] ${track.language} from ${track.addonName}")
+            return Uri.fromFile(markActive(file))
+        }
+        return download(url, track.mimeType).await()?.let { Uri.fromFile(markActive(it)) }
+    }
+
+    /**
+     * Java-friendly variant of [get]
+     */
+    fun get(track: SubtitleTrack, callback: DownloadCallback) {
+        scope.launch {
+            val uri = try {
+                get(track)
+            } catch (e: Exception) {
+                DebugLogger.e(TAG, "Download failed: ${e.message}", e)
+                null
+            }
+            callback.onResult(uri)
+        }
+    }
+
+    /**
+     * Start background downloads for the best ranked online tracks
+     */
+    @JvmOverloads
+    fun prefetch(tracks: List<SubtitleTrack>, count: Int = PREFETCH_COUNT) {
+        val ranked = tracks
+            .filter { it.source == SubtitleSource.ONLINE && it.url != null }
+            .take(count)
+        if (ranked.isEmpty()) return
+
+        // The cache lookup stats files; keep it off the caller's thread
+        scope.launch {
+            val candidates = ranked.filter { getCachedUri(it) == null }
+            if (candidates.isEmpty()) return@launch
+
+            DebugLogger.log(TAG, "Prefetching ${candidates.size} subtitle(s)")
+            candidates.forEach { download(it.url!!, it.mimeType) }
+        }
+    }
+
+    /**
+     * Remove all downloaded subtitles
+     */
+    fun clear() {
+        cacheDir.listFiles()?.forEach { it.delete() }
+    }
+
+    // ========================================================================
+    // PRIVATE HELPERS
+    // ========================================================================
+
+    private fun download(url: String, mimeType: String?): Deferred<File?> {
+        inFlight[url]?.let { return it }
+
+        val deferred = scope.async(start = CoroutineStart.LAZY) {
+            try {
+                fetchToFile(url, fileFor(url, mimeType))
+            } catch (e: Exception) {
+                DebugLogger.e(TAG, "Failed to download $url: ${e.message}", e)
+                null
+            } finally {
+                inFlight.remove(url)
+            }
+        }
+
+        val existing = inFlight.putIfAbsent(url, deferred)
+        if (existing != null) {
+            deferred.cancel()
+            return existing
+        }
+        deferred.start()
+        return deferred
+    }
+
+    private fun fetchToFile(url: String, target: File): File? {
+        val request = Request.Builder().url(url).get().build()
+
+        httpClient.newCall(request).execute().use { response ->
+            if (!response.isSuccessful) {
+                throw IOException("HTTP ${response.code}: ${response.message}")
+            }
+            val body = response.body ?: throw IOException("Empty response body")
+            if (body.contentLength() > MAX_SUBTITLE_BYTES) {
+                throw IOException("Subtitle too large: ${body.contentLength()} bytes")
+            }
+
+            val tmp = File(target.parentFile, target.name + ".tmp")
+            try {
+                unpack(BufferedInputStream(body.byteStream())).use { input ->
+                    writeUtf8(input, tmp)
+                }
+            } catch (e: IOException) {
+                tmp.delete()
+                throw e
+            }
+
+            if (!tmp.renameTo(target)) {
+                tmp.delete()
+                throw IOException("Could not move subtitle into cache")
+            }
+        }
+
+        DebugLogger.log(TAG, "Cached ${target.name} (${target.length()} bytes)")
+        trim()
+        return target
+    }
+
+    /**
+     * Strip gzip/zip wrappers, detected by magic bytes rather than headers
+     * since addons rarely set Content-Encoding correctly
+     */
+    private fun unpack(input: BufferedInputStream): InputStream {
+        input.mark(4)
+        val b0 = input.read()
+        val b1 = input.read()
+        val b2 = input.read()
+        val b3 = input.read()
+        input.reset()
+
+        if (b0 == 0x1f && b1 == 0x8b) {
+            return BufferedInputStream(GZIPInputStream(input))
+        }
+
+        if (b0 == 'P'.code && b1 == 'K'.code && b2 == 3 && b3 == 4) {
+            val zip = ZipInputStream(input)
+            while (true) {
+                val entry = zip.nextEntry ?: break
+                if (entry.isDirectory) continue
+                val ext = entry.name.substringAfterLast('.', "").lowercase()
+                if (ext in SUBTITLE_EXTENSIONS) {
+                    return BufferedInputStream(zip)
+                }
+            }
+            zip.close()
+            throw IOException("No subtitle file in archive")
+        }
+
+        return input
+    }
+
+    private fun writeUtf8(input: InputStream, target: File) {
+        val reader = Chardet.decode(input, StandardCharsets.UTF_8)
+        var written = 0L
+        target.bufferedWriter(StandardCharsets.UTF_8).use { writer ->
+            val buffer = CharArray(8192)
+            while (true) {
+                val num = reader.read(buffer)
+                if (num == -1) break
+                writer.write(buffer, 0, num)
+                written += num
+                if (written > MAX_SUBTITLE_BYTES) {
+                    throw IOException("Subtitle too large")
+                }
+            }
+        }
+    }
+
+    private fun fileFor(url: String, mimeType: String?): File {
+        return File(cacheDir, sha1(url) + "." + extensionFor(url, mimeType))
+    }
+
+    private fun extensionFor(url: String, mimeType: String?): String {
+        return when (mimeType) {
+            "text/vtt" -> "vtt"
+            "text/x-ssa" -> "ass"
+            "application/ttml+xml" -> "ttml"
+            "application/x-sami" -> "smi"
+            "text/x-microdvd" -> "sub"
+            "application/x-subrip" -> "srt"
+            else -> {
+                val ext = Uri.parse(url).lastPathSegment
+                    ?.removeSuffix(".gz")
+                    ?.substringAfterLast('.', "")
+                    ?.lowercase()
+                if (ext != null && ext in SUBTITLE_EXTENSIONS) ext else "srt"
+            }
+        }
+    }
+
+    private fun sha1(value: String): String {
+        val digest = MessageDigest.getInstance("SHA-1").digest(value.toByteArray())
+        return digest.joinToString("") { "%02x".format(it) }
+    }
+
+    /**
+     * Remember [file] as the player's subtitle and bump it to most recently used
+     */
+    private fun markActive(file: File): File {
+        activeFile = file
+        file.setLastModified(System.currentTimeMillis())
+        return file
+    }
+
+    /**
+     * Keep the cache bounded, evicting least recently used files first
+     *
+     * The active file and files used within [MIN_AGE_MS] stay even over the limits.
+     */
+    private fun trim() {
+        val files = cacheDir.listFiles { f -> f.isFile && !f.name.endsWith(".tmp") }
+            ?.sortedByDescending { it.lastModified() }
+            ?: return
+
+        val recent = System.currentTimeMillis() - MIN_AGE_MS
+        val active = activeFile
+        var total = 0L
+        files.forEachIndexed { index, file ->
+            total += file.length()
+            if ((index >= MAX_CACHE_FILES || total > MAX_CACHE_BYTES) && file != active && file.lastModified() < recent) {
+                file.delete()
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.brouken.player.stremio
+
+import android.os.SystemClock
+
+/**
+ * Process-wide cache of addon subtitle query responses
+ *
+ * Keyed by addon ID plus the exact query params. Entries are fresh for
+ * [FRESH_MS]; after that they are still served for up to [STALE_MS] while
+ * the caller revalidates in the background.
+ */
+object SubtitleQueryCache {
+
+    private const val FRESH_MS = 30 * 60 * 1000L       // 30 minutes
+    private const val STALE_MS = 6 * 60 * 60 * 1000L   // 6 hours
+    private const val MAX_ENTRIES = 64
+
+    data class Key(val addonId: String, val params: SubtitleQueryParams)
+
+    class Entry(
+        val subtitles: List<StremioSubtitle>,
+        private val storedAt: Long
+    ) {
+        val isFresh: Boolean get() = SystemClock.elapsedRealtime() - storedAt < FRESH_MS
+        val isUsable: Boolean get() = SystemClock.elapsedRealtime() - storedAt < STALE_MS
+    }
+
+    // Access-ordered for LRU eviction
+    private val entries = object : LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Entry>?): Boolean {
+            return size > MAX_ENTRIES
+        }
+    }
+
+    /**
+     * Get a cached response, or null if missing or too old to serve
+     */
+    @Synchronized
+    fun get(key: Key): Entry? {
+        val entry = entries[key] ?: return null
+        if (!entry.isUsable) {
+            entries.remove(key)
+            return null
+        }
+        return entry
+    }
+
+    @Synchronized
+    fun put(key: Key, subtitles: List<StremioSubtitle>) {
+        entries[key] = Entry(subtitles, SystemClock.elapsedRealtime())
+    }
+
+    /**
+     * Drop all entries for an addon (e.g. after it was reconfigured)
+     */
+    @Synchronized
+    fun invalidate(addonId: String) {
+        entries.keys.removeAll { it.addonId == addonId }
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+}
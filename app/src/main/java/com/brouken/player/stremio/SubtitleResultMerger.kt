@@ -0,0 +1,58 @@
+package com.brouken.player.stremio
+
+/**
+ * One incremental update of an online subtitle search
+ */
+data class SubtitleBatch(
+    val addonName: String,
+    val added: List<SubtitleTrack>,   // New unique tracks from this addon
+    val tracks: List<SubtitleTrack>,  // All unique tracks so far, ranked
+    val completed: Int,               // Addons that have answered (or timed out)
+    val total: Int,
+    val error: String? = null
+) {
+    val isFinal: Boolean get() = completed >= total
+}
+
+/**
+ * Merges per-addon results into a single deduplicated, ranked list
+ * as they arrive, without re-sorting everything on each batch
+ */
+class SubtitleResultMerger(
+    private val comparator: Comparator<SubtitleTrack> = RANKING
+) {
+    companion object {
+        val RANKING: Comparator<SubtitleTrack> = compareByDescending<SubtitleTrack> { it.isHashMatch }
+            .thenByDescending { it.matchScore }
+            .thenByDescending { it.downloadCount ?: 0 }
+    }
+
+    private val seenUrls = HashSet<String>()
+    private val ranked = ArrayList<SubtitleTrack>()
+
+    /**
+     * Add tracks, returning the ones that were not already present
+     */
+    fun addAll(tracks: List<SubtitleTrack>): List<SubtitleTrack> {
+        val added = ArrayList<SubtitleTrack>(tracks.size)
+        for (track in tracks) {
+            val key = track.url ?: track.id
+            if (!seenUrls.add(key)) continue
+
+            // Insert after equal-ranked entries so earlier addons keep their order
+            var index = ranked.binarySearch(track, comparator)
+            if (index < 0) {
+                index = -(index + 1)
+            } else {
+                while (index < ranked.size && comparator.compare(ranked[index], track) == 0) index++
+            }
+            ranked.add(index, track)
+            added.add(track)
+        }
+        return added
+    }
+
+    fun snapshot(): List<SubtitleTrack> = ArrayList(ranked)
+
+    val size: Int get() = ranked.size
+}
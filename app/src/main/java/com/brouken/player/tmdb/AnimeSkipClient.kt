@@ -7,12 +7,17 @@ import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.RequestBody.Companion.toRequestBody
 import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
 /**
  * Anime Skip GraphQL API Client
  * Primary source for anime skip timestamps with 13 toggleable segment types.
- * 
+ *
+ * The first lookup for a show resolves show, episodes and timestamps in a
+ * single request; after that the show ID is cached per title and any number
+ * of episodes are fetched together in one aliased query.
+ *
  * API: https://api.anime-skip.com/graphql
  * Docs: https://anime-skip.com/docs/api
  */
@@ -23,6 +28,10 @@ class AnimeSkipClient {
         private const val API_URL = "https://api.anime-skip.com/graphql"
         private const val CLIENT_ID = "ZGfO0sMF3eCwLYf8yMSCJjlynwNGRXWE" // Shared client ID (rate limited)
         
+        private const val MAX_BATCH = 25
+        private const val EPISODE_CACHE_TTL_MS = 30 * 60 * 1000L
+        private const val MAX_CACHED_EPISODES = 500
+        
         // Timestamp Type UUIDs
         object TimestampTypes {
             const val BRANDING = "97e3629a-95e5-4b1a-9411-73a47c0d0e25"
@@ -39,11 +48,154 @@ class AnimeSkipClient {
             const val TRANSITIONS = "9f0c6532-ccae-4238-83ec-a2804fe5f7b0"
             const val TITLE_CARD = "67321535-a4ea-4f21-8bed-fb3c8286b510"
         }
+        
+        // ====================================================================
+        // QUERY DOCUMENTS
+        // Built once; names, IDs and passwords only ever travel as variables
+        // ====================================================================
+        
+        private val EPISODE_FIELDS = """
+            fragment EpisodeFields on Episode {
+                id
+                name
+                season
+                number
+                absoluteNumber
+                timestamps {
+                    at
+                    typeId
+                    type {
+                        name
+                    }
+                }
+            }
+        """.trimIndent()
+        
+        private val LOGIN_DOCUMENT = """
+            query Login(${'$'}usernameEmail: String!, ${'$'}passwordHash: String!) {
+                login(usernameEmail: ${'$'}usernameEmail, passwordHash: ${'$'}passwordHash) {
+                    authToken
+                    refreshToken
+                    account {
+                        username
+                        email
+                    }
+                }
+            }
+        """.trimIndent()
+        
+        private val REFRESH_DOCUMENT = """
+            query LoginRefresh(${'$'}refreshToken: String!) {
+                loginRefresh(refreshToken: ${'$'}refreshToken) {
+                    authToken
+                    refreshToken
+                    account {
+                        username
+                    }
+                }
+            }
+        """.trimIndent()
+        
+        private val SEARCH_SHOWS_DOCUMENT = """
+            query SearchShows(${'$'}search: String!, ${'$'}limit: Int!) {
+                searchShows(search: ${'$'}search, limit: ${'$'}limit) {
+                    id
+                    name
+                    originalName
+                }
+            }
+        """.trimIndent()
+        
+        // Show, its episodes and their timestamps in one round trip
+        private val SHOW_EPISODES_DOCUMENT = """
+            query ShowEpisodes(${'$'}search: String!) {
+                searchShows(search: ${'$'}search, limit: 1) {
+                    id
+                    name
+                    originalName
+                    episodes {
+                        ...EpisodeFields
+                    }
+                }
+            }
+        """.trimIndent() + "\n" + EPISODE_FIELDS
+        
+        // Aliased findEpisodeByName lookups, one document per batch size
+        private val episodeBatchDocuments = ConcurrentHashMap<Int, String>()
+        
+        private fun episodeBatchDocument(size: Int): String = episodeBatchDocuments.getOrPut(size) {
+            val params = (0 until size).joinToString(", ") { "${'$'}name$it: String!" }
+            val fields = (0 until size).joinToString("\n") {
+                "    e$it: findEpisodeByName(showId: ${'$'}showId, name: ${'$'}name$it) {\n        ...EpisodeFields\n    }"
+            }
+            "query Episodes(${'$'}showId: ID!, $params) {\n$fields\n}\n$EPISODE_FIELDS"
+        }
+        
+        // ====================================================================
+        // CACHES
+        // Shared by all instances; show IDs never change, timestamps do
+        // ====================================================================
+        
+        private data class ShowRef(val id: String, val name: String?)
+        
+        private class CachedEpisode(val result: EpisodeResult, val fetchedAt: Long)
+        
+        private val showIds = ConcurrentHashMap<String, ShowRef>()
+        
+        private val episodeCache = object : LinkedHashMap<String, CachedEpisode>(64, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CachedEpisode>?): Boolean {
+                return size > MAX_CACHED_EPISODES
+            }
+        }
+        
+        private val EPISODE_NUMBER = Regex("^(?:episode|ep|e)?\\s*0*(\\d+)$", RegexOption.IGNORE_CASE)
+        
+        private fun titleKey(showName: String) = showName.trim().lowercase()
+        
+        private fun episodeNumber(episodeName: String): String? =
+            EPISODE_NUMBER.find(episodeName.trim())?.groupValues?.get(1)
+        
+        /**
+         * Cache keys to look [episodeName] up under, most specific first
+         *
+         * "Episode 05", "ep 5" and "5" share a number. Season-relative numbers
+         * repeat across seasons, so they are keyed by season; absolute numbers
+         * only stand in for them in season one or when the season is unknown.
+         * Anything else is matched by title.
+         */
+        private fun episodeKeys(episodeName: String, season: Int?): List<String> {
+            val number = episodeNumber(episodeName) ?: return listOf("title|${episodeName.trim().lowercase()}")
+            return listOfNotNull(
+                "s${season ?: "?"}|#$number",
+                if (season == null || season == 1) "abs|#$number" else null
+            )
+        }
+        
+        private fun cachedEpisode(showId: String, episodeName: String, season: Int?): EpisodeResult? {
+            synchronized(episodeCache) {
+                for (key in episodeKeys(episodeName, season).map { "$showId|$it" }) {
+                    val entry = episodeCache[key] ?: continue
+                    if (System.currentTimeMillis() - entry.fetchedAt > EPISODE_CACHE_TTL_MS) {
+                        episodeCache.remove(key)
+                        continue
+                    }
+                    return entry.result
+                }
+                return null
+            }
+        }
+        
+        private fun cacheEpisode(showId: String, key: String, result: EpisodeResult, now: Long) {
+            synchronized(episodeCache) {
+                episodeCache["$showId|$key"] = CachedEpisode(result, now)
+            }
+        }
     }
     
     private val client = OkHttpClient.Builder()
         .connectTimeout(15, TimeUnit.SECONDS)
         .readTimeout(15, TimeUnit.SECONDS)
+        .addInterceptor(RequestScheduler.interceptor)
         .build()
     
     private val json = Json { ignoreUnknownKeys = true }
@@ -81,25 +233,15 @@ class AnimeSkipClient {
      * @param password Plain text password (will be MD5 hashed)
      */
     fun login(usernameOrEmail: String, password: String): LoginResult {
-        val passwordHash = md5(password)
-        
-        val query = """
-            query {
-                login(usernameEmail: "$usernameOrEmail", passwordHash: "$passwordHash") {
-                    authToken
-                    refreshToken
-                    account {
-                        username
-                        email
-                    }
-                }
-            }
-        """.trimIndent()
+        val variables = buildJsonObject {
+            put("usernameEmail", usernameOrEmail)
+            put("passwordHash", md5(password))
+        }
         
         DebugLogger.log(TAG, "Login attempt for: $usernameOrEmail")
         
         return try {
-            val response = executeQuery(query, requireAuth = false)
+            val response = executeQuery(LOGIN_DOCUMENT, variables, requireAuth = false)
             
             if (response != null) {
                 val loginData = response["login"] as? JsonObject
@@ -135,25 +277,15 @@ class AnimeSkipClient {
      * Refresh auth token using refresh token
      */
     fun refreshAuth(): Boolean {
-        if (refreshToken == null) {
+        val token = refreshToken
+        if (token == null) {
             DebugLogger.log(TAG, "Cannot refresh: No refresh token")
             return false
         }
         
-        val query = """
-            query {
-                loginRefresh(refreshToken: "$refreshToken") {
-                    authToken
-                    refreshToken
-                    account {
-                        username
-                    }
-                }
-            }
-        """.trimIndent()
-        
         return try {
-            val response = executeQuery(query, requireAuth = false)
+            val variables = buildJsonObject { put("refreshToken", token) }
+            val response = executeQuery(REFRESH_DOCUMENT, variables, requireAuth = false)
             val refreshData = response?.get("loginRefresh") as? JsonObject
             
             if (refreshData != null) {
@@ -175,27 +307,21 @@ class AnimeSkipClient {
      * Search for shows by name
      */
     fun searchShows(query: String, limit: Int = 10): List<Pair<String, String>> {
-        val gql = """
-            query {
-                searchShows(search: "${query.replace("\"", "\\\"")}", limit: $limit) {
-                    id
-                    name
-                    originalName
-                }
-            }
-        """.trimIndent()
-        
         DebugLogger.log(TAG, "Searching shows: '$query'")
         
         return try {
-            val response = executeQuery(gql, requireAuth = false)
+            val variables = buildJsonObject {
+                put("search", query)
+                put("limit", limit)
+            }
+            val response = executeQuery(SEARCH_SHOWS_DOCUMENT, variables, requireAuth = false)
             val shows = response?.get("searchShows") as? JsonArray ?: return emptyList()
             
             shows.mapNotNull { show ->
                 val obj = show as? JsonObject ?: return@mapNotNull null
                 val id = obj["id"]?.jsonPrimitive?.contentOrNull ?: return@mapNotNull null
-                val name = obj["name"]?.jsonPrimitive?.contentOrNull 
-                    ?: obj["originalName"]?.jsonPrimitive?.contentOrNull 
+                val name = obj["name"]?.jsonPrimitive?.contentOrNull
+                    ?: obj["originalName"]?.jsonPrimitive?.contentOrNull
                     ?: return@mapNotNull null
                 id to name
             }.also {
@@ -210,61 +336,10 @@ class AnimeSkipClient {
     /**
      * Find episode and get timestamps
      */
-    fun findEpisode(showId: String, episodeName: String): EpisodeResult? {
-        val gql = """
-            query {
-                findEpisodeByName(showId: "$showId", name: "${episodeName.replace("\"", "\\\"")}") {
-                    id
-                    name
-                    show {
-                        id
-                        name
-                    }
-                    timestamps {
-                        at
-                        typeId
-                        type {
-                            name
-                        }
-                    }
-                }
-            }
-        """.trimIndent()
-        
+    fun findEpisode(showId: String, episodeName: String, season: Int? = null): EpisodeResult? {
         DebugLogger.log(TAG, "Finding episode: showId=$showId, name='$episodeName'")
-        
         return try {
-            val response = executeQuery(gql, requireAuth = false)
-            val episode = response?.get("findEpisodeByName") as? JsonObject
-            
-            if (episode != null) {
-                val show = episode["show"] as? JsonObject
-                val timestampsArray = episode["timestamps"] as? JsonArray ?: JsonArray(emptyList())
-                
-                val timestamps = timestampsArray.mapNotNull { ts ->
-                    val obj = ts as? JsonObject ?: return@mapNotNull null
-                    val at = obj["at"]?.jsonPrimitive?.doubleOrNull ?: return@mapNotNull null
-                    val typeId = obj["typeId"]?.jsonPrimitive?.contentOrNull ?: return@mapNotNull null
-                    val typeName = (obj["type"] as? JsonObject)?.get("name")?.jsonPrimitive?.contentOrNull
-                    Timestamp(at, typeId, typeName)
-                }
-                
-                DebugLogger.log(TAG, "Found episode with ${timestamps.size} timestamps")
-                timestamps.forEach { 
-                    DebugLogger.log(TAG, "  - ${it.at}s: ${it.typeName ?: it.typeId}")
-                }
-                
-                EpisodeResult(
-                    showId = show?.get("id")?.jsonPrimitive?.contentOrNull,
-                    showName = show?.get("name")?.jsonPrimitive?.contentOrNull,
-                    episodeId = episode["id"]?.jsonPrimitive?.contentOrNull,
-                    episodeName = episode["name"]?.jsonPrimitive?.contentOrNull,
-                    timestamps = timestamps
-                )
-            } else {
-                DebugLogger.log(TAG, "Episode not found")
-                null
-            }
+            findEpisodes(ShowRef(showId, null), listOf(episodeName), season)[episodeName]
         } catch (e: Exception) {
             DebugLogger.log(TAG, "Find episode EXCEPTION: ${e.message}")
             null
@@ -273,30 +348,153 @@ class AnimeSkipClient {
     
     /**
      * Get timestamps for a show and episode
-     * This is the main entry point - searches for show then gets episode timestamps
+     * This is the main entry point - one request the first time a show is
+     * seen, none while its episodes are cached
      */
-    fun getTimestamps(showName: String, episodeName: String): EpisodeResult? {
+    fun getTimestamps(showName: String, episodeName: String, season: Int? = null): EpisodeResult? {
         DebugLogger.log(TAG, "╔═══════════════════════════════════════════════════════════════╗")
         DebugLogger.log(TAG, "║  ANIME SKIP TIMESTAMP FETCH                                   ║")
         DebugLogger.log(TAG, "╚═══════════════════════════════════════════════════════════════╝")
         DebugLogger.log(TAG, "  Show: '$showName'")
-        DebugLogger.log(TAG, "  Episode: '$episodeName'")
+        DebugLogger.log(TAG, "  Episode: '$episodeName' (season ${season ?: "unknown"})")
         
-        // Search for show
-        val shows = searchShows(showName, limit = 5)
-        if (shows.isEmpty()) {
-            DebugLogger.log(TAG, "  ✗ No shows found")
-            return null
+        return getTimestamps(showName, listOf(episodeName), season)[episodeName]
+    }
+    
+    /**
+     * Timestamps for several episodes of one show, e.g. a whole season,
+     * in as few requests as possible
+     *
+     * @param season the season episode numbers count in; null if unknown
+     * @return every requested episode name, mapped to null where nothing was found
+     */
+    fun getTimestamps(showName: String, episodeNames: List<String>, season: Int? = null): Map<String, EpisodeResult?> {
+        val results = LinkedHashMap<String, EpisodeResult?>()
+        episodeNames.forEach { results[it] = null }
+        
+        try {
+            var show = showIds[titleKey(showName)]
+            var pending = resolveFromCache(show, episodeNames, season, results)
+            if (pending.isEmpty()) {
+                DebugLogger.log(TAG, "  ✓ [CACHE HIT] ${episodeNames.size} episode(s) of '$showName'")
+                return results
+            }
+            
+            if (show == null) {
+                show = fetchShowWithEpisodes(showName)
+                if (show == null) {
+                    DebugLogger.log(TAG, "  ✗ No shows found")
+                    return results
+                }
+                DebugLogger.log(TAG, "  ✓ Matched show: '${show.name}' (ID: ${show.id})")
+                pending = resolveFromCache(show, pending, season, results)
+            }
+            
+            if (pending.isNotEmpty()) {
+                results.putAll(findEpisodes(show, pending, season))
+            }
+        } catch (e: Exception) {
+            DebugLogger.log(TAG, "Timestamp fetch EXCEPTION: ${e.message}")
         }
         
-        // Try first match
-        val (showId, matchedName) = shows.first()
-        DebugLogger.log(TAG, "  ✓ Matched show: '$matchedName' (ID: $showId)")
+        val found = results.values.count { it != null }
+        DebugLogger.log(TAG, "  Found $found of ${episodeNames.size} episode(s)")
+        return results
+    }
+    
+    /**
+     * Fill [results] from the episode cache; returns the names still missing
+     */
+    private fun resolveFromCache(
+        show: ShowRef?,
+        episodeNames: List<String>,
+        season: Int?,
+        results: MutableMap<String, EpisodeResult?>
+    ): List<String> {
+        if (show == null) return episodeNames
+        return episodeNames.filter { name ->
+            val cached = cachedEpisode(show.id, name, season)
+            if (cached != null) results[name] = cached
+            cached == null
+        }
+    }
+    
+    /**
+     * Search the show and pull every episode with its timestamps, caching
+     * the show ID and all episodes
+     */
+    private fun fetchShowWithEpisodes(showName: String): ShowRef? {
+        val variables = buildJsonObject { put("search", showName) }
+        val response = executeQuery(SHOW_EPISODES_DOCUMENT, variables, requireAuth = false) ?: return null
+        val showObj = (response["searchShows"] as? JsonArray)?.firstOrNull() as? JsonObject ?: return null
+        val id = showObj["id"]?.jsonPrimitive?.contentOrNull ?: return null
+        val name = showObj["name"]?.jsonPrimitive?.contentOrNull
+            ?: showObj["originalName"]?.jsonPrimitive?.contentOrNull
+        val show = ShowRef(id, name)
+        showIds[titleKey(showName)] = show
         
-        // Get episode timestamps
-        return findEpisode(showId, episodeName)
+        val now = System.currentTimeMillis()
+        val episodes = showObj["episodes"] as? JsonArray ?: JsonArray(emptyList())
+        for (element in episodes) {
+            val episodeObj = element as? JsonObject ?: continue
+            val result = parseEpisode(episodeObj, show)
+            val season = episodeObj["season"]?.jsonPrimitive?.contentOrNull?.trim()?.toIntOrNull()
+            episodeObj["absoluteNumber"]?.jsonPrimitive?.contentOrNull?.let { episodeNumber(it) }?.let {
+                cacheEpisode(id, "abs|#$it", result, now)
+            }
+            // Without a season a relative number is ambiguous; the absolute one covers it
+            val number = episodeObj["number"]?.jsonPrimitive?.contentOrNull?.let { episodeNumber(it) }
+            if (season != null && number != null) cacheEpisode(id, "s$season|#$number", result, now)
+            result.episodeName?.takeIf { episodeNumber(it) == null }?.let {
+                cacheEpisode(id, "title|${it.trim().lowercase()}", result, now)
+            }
+        }
+        DebugLogger.log(TAG, "  Cached ${episodes.size} episode(s) of '$name'")
+        return show
+    }
+    
+    /**
+     * findEpisodeByName for each name, [MAX_BATCH] aliases per request
+     */
+    private fun findEpisodes(show: ShowRef, episodeNames: List<String>, season: Int?): Map<String, EpisodeResult?> {
+        val results = LinkedHashMap<String, EpisodeResult?>()
+        val now = System.currentTimeMillis()
+        for (batch in episodeNames.distinct().chunked(MAX_BATCH)) {
+            val variables = buildJsonObject {
+                put("showId", show.id)
+                batch.forEachIndexed { i, name -> put("name$i", name) }
+            }
+            DebugLogger.log(TAG, "  Fetching ${batch.size} episode(s) for show ${show.id} in one request")
+            val response = executeQuery(episodeBatchDocument(batch.size), variables, requireAuth = false)
+            batch.forEachIndexed { i, name ->
+                val episodeObj = response?.get("e$i") as? JsonObject
+                val result = episodeObj?.let { parseEpisode(it, show) }
+                if (result != null) cacheEpisode(show.id, episodeKeys(name, season).first(), result, now)
+                results[name] = result
+            }
+        }
+        return results
     }
     
+    private fun parseEpisode(episode: JsonObject, show: ShowRef): EpisodeResult {
+        val timestampsArray = episode["timestamps"] as? JsonArray ?: JsonArray(emptyList())
+        val timestamps = timestampsArray.mapNotNull { ts ->
+            val obj = ts as? JsonObject ?: return@mapNotNull null
+            val at = obj["at"]?.jsonPrimitive?.doubleOrNull ?: return@mapNotNull null
+            val typeId = obj["typeId"]?.jsonPrimitive?.contentOrNull ?: return@mapNotNull null
+            val typeName = (obj["type"] as? JsonObject)?.get("name")?.jsonPrimitive?.contentOrNull
+            Timestamp(at, typeId, typeName)
+        }
+        return EpisodeResult(
+            showId = show.id,
+            showName = show.name,
+            episodeId = episode["id"]?.jsonPrimitive?.contentOrNull,
+            episodeName = episode["name"]?.jsonPrimitive?.contentOrNull,
+            timestamps = timestamps
+        )
+    }
+    
+    
     /**
      * Filter timestamps by user preferences
      */
@@ -347,10 +545,20 @@ class AnimeSkipClient {
     
     // === Private Helpers ===
     
-    private fun executeQuery(query: String, requireAuth: Boolean = false): JsonObject? {
-        val requestBody = JsonObject(mapOf(
-            "query" to JsonPrimitive(query)
-        )).toString()
+    /**
+     * POST a query document with its variables; an expired token is
+     * refreshed and the query re-sent at most once
+     */
+    private fun executeQuery(
+        document: String,
+        variables: JsonObject,
+        requireAuth: Boolean = false,
+        retryAfterRefresh: Boolean = true
+    ): JsonObject? {
+        val requestBody = buildJsonObject {
+            put("query", document)
+            put("variables", variables)
+        }.toString()
         
         val requestBuilder = Request.Builder()
             .url(API_URL)
@@ -365,29 +573,27 @@ class AnimeSkipClient {
         val request = requestBuilder.build()
         
         client.newCall(request).execute().use { response ->
-            val body = response.body?.string()
+            val body = response.body?.string() ?: return null
+            val jsonResponse = json.parseToJsonElement(body) as? JsonObject
+            val data = jsonResponse?.get("data") as? JsonObject
             
-            if (body != null) {
-                val jsonResponse = json.parseToJsonElement(body) as? JsonObject
+            // Check for errors
+            val errors = jsonResponse?.get("errors") as? JsonArray
+            if (errors != null && errors.isNotEmpty()) {
+                val errorMsg = (errors[0] as? JsonObject)?.get("message")?.jsonPrimitive?.contentOrNull
+                DebugLogger.log(TAG, "GraphQL Error: $errorMsg (${errors.size} total)")
                 
-                // Check for errors
-                val errors = jsonResponse?.get("errors") as? JsonArray
-                if (errors != null && errors.isNotEmpty()) {
-                    val errorMsg = (errors[0] as? JsonObject)?.get("message")?.jsonPrimitive?.contentOrNull
-                    DebugLogger.log(TAG, "GraphQL Error: $errorMsg")
-                    
-                    // Check for auth error
-                    if (errorMsg == "Invalid Token" && requireAuth) {
-                        if (refreshAuth()) {
-                            return executeQuery(query, requireAuth) // Retry with new token
-                        }
+                // Check for auth error
+                if (errorMsg == "Invalid Token" && requireAuth && retryAfterRefresh) {
+                    if (refreshAuth()) {
+                        return executeQuery(document, variables, requireAuth, retryAfterRefresh = false)
                     }
-                    return null
                 }
-                
-                return jsonResponse?.get("data") as? JsonObject
+                // A batch can fail for some aliases and still answer the rest
+                return data?.takeIf { it.values.any { value -> value !is JsonNull } }
             }
-            return null
+            
+            return data
         }
     }
     
@@ -9,6 +9,7 @@ import kotlinx.serialization.json.jsonPrimitive
 import kotlinx.serialization.json.contentOrNull
 import okhttp3.OkHttpClient
 import okhttp3.Request
+import java.io.IOException
 import java.net.URLEncoder
 import java.util.concurrent.TimeUnit
 
@@ -25,17 +26,15 @@ class CinemetaClient {
     private val client = OkHttpClient.Builder()
         .connectTimeout(10, TimeUnit.SECONDS)
         .readTimeout(10, TimeUnit.SECONDS)
+        .addInterceptor(RequestScheduler.interceptor)
         .build()
     private val json = Json { ignoreUnknownKeys = true }
     
     /**
-     * Search for a show/movie and return its IMDB ID
-     * 
-     * @param baseUrl Cinemeta addon URL (e.g., "https://v3-cinemeta.strem.io")
-     * @param type Content type ("movie" or "series")
-     * @param query Search query (show name)
-     * @return IMDB ID (e.g., "tt0903747") or null if not found
+     * Best search match and its score
      */
+    data class ImdbMatch(val imdbId: String, val score: Int)
+
     /**
      * Search for a show/movie and return its IMDB ID
      * 
@@ -47,80 +46,95 @@ class CinemetaClient {
      */
     fun searchImdbId(baseUrl: String, type: String, query: String, year: Int? = null): String? {
         return try {
-            val encodedQuery = URLEncoder.encode(query, "UTF-8")
-            val url = "${baseUrl.trimEnd('/')}/catalog/$type/top/search=$encodedQuery.json"
-            
-            val request = Request.Builder()
-                .url(url)
-                .header("User-Agent", "Just-Player/1.0")
-                .build()
+            searchImdbMatch(baseUrl, type, query, year)?.imdbId
+        } catch (e: Exception) {
+            e.printStackTrace()
+            null
+        }
+    }
+
+    /**
+     * Like [searchImdbId], but also reports the match score
+     *
+     * @return best match, or null if the search found nothing
+     * @throws IOException if the search itself failed, so callers can tell
+     *         "no such show" from "try again later"
+     */
+    @Throws(IOException::class)
+    fun searchImdbMatch(baseUrl: String, type: String, query: String, year: Int? = null): ImdbMatch? {
+        val encodedQuery = URLEncoder.encode(query, "UTF-8")
+        val url = "${baseUrl.trimEnd('/')}/catalog/$type/top/search=$encodedQuery.json"
+        
+        val request = Request.Builder()
+            .url(url)
+            .header("User-Agent", "Just-Player/1.0")
+            .build()
+        
+        client.newCall(request).execute().use { response ->
+            if (!response.isSuccessful) throw IOException("Cinemeta search failed: ${response.code}")
+            val body = response.body?.string() ?: throw IOException("Cinemeta search returned no body")
+            val element = try {
+                json.parseToJsonElement(body)
+            } catch (e: Exception) {
+                throw IOException("Cinemeta search returned invalid JSON", e)
+            }
             
-            client.newCall(request).execute().use { response ->
-                if (response.isSuccessful) {
-                    val body = response.body?.string() ?: return null
-                    val element = json.parseToJsonElement(body)
+            if (element is JsonObject) {
+                val metas = element["metas"] as? JsonArray
+                if (metas != null && metas.isNotEmpty()) {
                     
-                    if (element is JsonObject) {
-                        val metas = element["metas"] as? JsonArray
-                        if (metas != null && metas.isNotEmpty()) {
-                            
-                            var bestId: String? = null
-                            var bestScore = -1
-                            
-                            for (item in metas) {
-                                if (item !is JsonObject) continue
-                                
-                                val id = item["imdb_id"]?.jsonPrimitive?.contentOrNull
-                                    ?: item["id"]?.jsonPrimitive?.contentOrNull
-                                    ?: continue
-                                
-                                val title = item["name"]?.jsonPrimitive?.contentOrNull ?: ""
-                                val releaseInfo = item["releaseInfo"]?.jsonPrimitive?.contentOrNull ?: ""
-                                
-                                // Extract year from releaseInfo (e.g. "2008-2013" -> 2008, "2023" -> 2023)
-                                val metaYear = releaseInfo.take(4).toIntOrNull()
-                                
-                                var score = 0
-                                
-                                // 1. Year Match (High Priority)
-                                if (year != null && metaYear != null) {
-                                    if (metaYear == year) {
-                                        score += 100
-                                    } else if (kotlin.math.abs(metaYear - year) <= 1) {
-                                        score += 50
-                                    }
-                                }
-                                
-                                // 2. Title Match
-                                val normTitle = title.lowercase()
-                                val normQuery = query.lowercase()
-                                if (normTitle == normQuery) {
-                                    score += 30
-                                } else if (normTitle.contains(normQuery)) {
-                                    score += 10
-                                }
-                                
-                                // Default score for first result if no year provided
-                                if (year == null && score == 0) {
-                                    score = 1 // Basic score for existence
-                                }
-                                
-                                if (score > bestScore) {
-                                    bestScore = score
-                                    bestId = id
-                                }
+                    var bestId: String? = null
+                    var bestScore = -1
+                    
+                    for (item in metas) {
+                        if (item !is JsonObject) continue
+                        
+                        val id = item["imdb_id"]?.jsonPrimitive?.contentOrNull
+                            ?: item["id"]?.jsonPrimitive?.contentOrNull
+                            ?: continue
+                        
+                        val title = item["name"]?.jsonPrimitive?.contentOrNull ?: ""
+                        val releaseInfo = item["releaseInfo"]?.jsonPrimitive?.contentOrNull ?: ""
+                        
+                        // Extract year from releaseInfo (e.g. "2008-2013" -> 2008, "2023" -> 2023)
+                        val metaYear = releaseInfo.take(4).toIntOrNull()
+                        
+                        var score = 0
+                        
+                        // 1. Year Match (High Priority)
+                        if (year != null && metaYear != null) {
+                            if (metaYear == year) {
+                                score += 100
+                            } else if (kotlin.math.abs(metaYear - year) <= 1) {
+                                score += 50
                             }
-                            
-                            return bestId
+                        }
+                        
+                        // 2. Title Match
+                        val normTitle = title.lowercase()
+                        val normQuery = query.lowercase()
+                        if (normTitle == normQuery) {
+                            score += 30
+                        } else if (normTitle.contains(normQuery)) {
+                            score += 10
+                        }
+                        
+                        // Default score for first result if no year provided
+                        if (year == null && score == 0) {
+                            score = 1 // Basic score for existence
+                        }
+                        
+                        if (score > bestScore) {
+                            bestScore = score
+                            bestId = id
                         }
                     }
+                    
+                    return bestId?.let { ImdbMatch(it, bestScore) }
                 }
             }
-            null
-        } catch (e: Exception) {
-            e.printStackTrace()
-            null
         }
+        return null
     }
     
     /**
@@ -0,0 +1,196 @@
+package com.brouken.player.tmdb
+
+import android.content.Context
+import com.brouken.player.utils.DebugLogger
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.io.File
+import java.io.IOException
+import java.text.Normalizer
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Persistent cache of show name → IMDB/MAL ID resolutions
+ *
+ * Keyed by the NameCleaner show name (case, accents and punctuation folded)
+ * plus year, so every episode of a show after the first resolves without a
+ * Cinemeta or Jikan request. Matches are kept for [MATCH_TTL_MS], misses for
+ * [MISS_TTL_MS]; failed requests are not cached at all.
+ */
+class IdResolutionCache private constructor(context: Context) {
+
+    companion object {
+        private const val TAG = "IdResolutionCache"
+        private const val CACHE_FILE = "id_resolution_cache.json"
+        private const val MATCH_TTL_MS = 90L * 24 * 60 * 60 * 1000
+        private const val MISS_TTL_MS = 24L * 60 * 60 * 1000
+        private const val MAX_ENTRIES = 1000
+
+        private const val KIND_MAL = "mal"
+
+        private val NON_ALPHANUMERIC = Regex("[^\\p{L}\\p{N}]+")
+        private val COMBINING_MARKS = Regex("\\p{Mn}+")
+
+        private val json = Json {
+            ignoreUnknownKeys = true
+        }
+
+        @Volatile
+        private var instance: IdResolutionCache? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): IdResolutionCache {
+            return instance ?: synchronized(this) {
+                instance ?: IdResolutionCache(context.applicationContext).also { instance = it }
+            }
+        }
+
+        /**
+         * "The.Office (US)" and "the office us" share a key
+         */
+        internal fun normalize(showName: String): String {
+            val folded = COMBINING_MARKS.replace(Normalizer.normalize(showName.lowercase(), Normalizer.Form.NFD), "")
+            return NON_ALPHANUMERIC.replace(folded, " ").trim()
+        }
+
+        private fun keyFor(kind: String, showName: String, year: Int?): String {
+            return "$kind|${normalize(showName)}|${year ?: ""}"
+        }
+
+        private fun imdbKind(type: String) = "imdb:$type"
+    }
+
+    enum class Source { CINEMETA, JIKAN }
+
+    /**
+     * One resolution; [id] is null when the search found nothing
+     */
+    @Serializable
+    data class Resolution(
+        val id: String? = null,
+        val score: Int = 0,
+        val source: Source,
+        val resolvedAt: Long
+    ) {
+        fun isFresh(now: Long): Boolean {
+            val ttl = if (id != null) MATCH_TTL_MS else MISS_TTL_MS
+            return now - resolvedAt < ttl
+        }
+    }
+
+    private val file = File(context.filesDir, CACHE_FILE)
+    private val keyLocks = ConcurrentHashMap<String, Any>()
+
+    @Volatile
+    private var entries: Map<String, Resolution> = emptyMap()
+
+    @Volatile
+    private var loaded = false
+
+    /**
+     * IMDB ID for a show, from cache or Cinemeta
+     */
+    @JvmOverloads
+    fun resolveImdbId(cinemetaUrl: String, type: String, showName: String, year: Int? = null): String? {
+        val key = keyFor(imdbKind(type), showName, year)
+        return resolve(key) {
+            CinemetaClient().searchImdbMatch(cinemetaUrl, type, showName, year)?.let {
+                Resolution(it.imdbId, it.score, Source.CINEMETA, System.currentTimeMillis())
+            } ?: Resolution(null, 0, Source.CINEMETA, System.currentTimeMillis())
+        }
+    }
+
+    /**
+     * MAL ID for a show, from cache or Jikan
+     */
+    @JvmOverloads
+    fun resolveMalId(showName: String, year: Int? = null): Int? {
+        val key = keyFor(KIND_MAL, showName, year)
+        return resolve(key) {
+            JikanClient().searchMalMatch(showName, year)?.let {
+                Resolution(it.malId.toString(), it.score, Source.JIKAN, System.currentTimeMillis())
+            } ?: Resolution(null, 0, Source.JIKAN, System.currentTimeMillis())
+        }?.toIntOrNull()
+    }
+
+    fun clear() {
+        synchronized(this) {
+            entries = emptyMap()
+        }
+        persist()
+    }
+
+    private fun resolve(key: String, lookup: () -> Resolution): String? {
+        ensureLoaded()
+        cached(key)?.let { return it.id }
+
+        // One lookup per show even if skip data and Trakt ask at the same time
+        synchronized(keyLocks.getOrPut(key) { Any() }) {
+            cached(key)?.let { return it.id }
+            val resolution = try {
+                lookup()
+            } catch (e: IOException) {
+                DebugLogger.log(TAG, "Lookup failed for '$key', not caching: ${e.message}")
+                return null
+            }
+            put(key, resolution)
+            DebugLogger.log(TAG, "Resolved '$key' -> ${resolution.id} (score ${resolution.score}, ${resolution.source})")
+            return resolution.id
+        }
+    }
+
+    private fun cached(key: String): Resolution? {
+        val entry = entries[key] ?: return null
+        if (!entry.isFresh(System.currentTimeMillis())) return null
+        DebugLogger.log(TAG, "[CACHE HIT] '$key' -> ${entry.id} (${entry.source})")
+        return entry
+    }
+
+    private fun put(key: String, resolution: Resolution) {
+        synchronized(this) {
+            val updated = LinkedHashMap(entries)
+            updated.remove(key)
+            updated[key] = resolution
+            // Oldest insertions go first
+            val iterator = updated.entries.iterator()
+            while (updated.size > MAX_ENTRIES && iterator.hasNext()) {
+                iterator.next()
+                iterator.remove()
+            }
+            entries = updated
+        }
+        persist()
+    }
+
+    // ========================================================================
+    // PERSISTENCE
+    // ========================================================================
+
+    private fun ensureLoaded() {
+        if (loaded) return
+        synchronized(this) {
+            if (loaded) return
+            if (file.isFile) {
+                try {
+                    entries = json.decodeFromString<Map<String, Resolution>>(file.readText())
+                } catch (e: Exception) {
+                    DebugLogger.e(TAG, "Discarding unreadable cache: ${e.message}", e)
+                }
+            }
+            loaded = true
+        }
+    }
+
+    @Synchronized
+    private fun persist() {
+        val tmp = File(file.path + ".tmp")
+        try {
+            tmp.writeText(json.encodeToString(entries))
+            if (!tmp.renameTo(file)) tmp.delete()
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to save cache: ${e.message}", e)
+            tmp.delete()
+        }
+    }
+}
@@ -22,11 +22,15 @@ class IntroDBClient {
     private val client = OkHttpClient.Builder()
         .connectTimeout(10, TimeUnit.SECONDS)
         .readTimeout(10, TimeUnit.SECONDS)
+        .addInterceptor(RequestScheduler.interceptor)
         .build()
     private val json = Json { ignoreUnknownKeys = true }
     
     companion object {
         private const val API_URL = "https://api.introdb.app/submit"
+
+        const val NETWORK_ERROR = 0     // No HTTP response at all
+        const val INVALID = -1          // Rejected before sending
     }
     
     /**
@@ -61,7 +65,7 @@ class IntroDBClient {
         
         if (cleanApiKey.isEmpty()) {
             DebugLogger.log("IntroDB", "ERROR: API key is empty!")
-            return SubmissionResult(false, "API key is empty")
+            return SubmissionResult(false, "API key is empty", INVALID)
         }
         
         if (!cleanApiKey.startsWith("idb_")) {
@@ -73,7 +77,7 @@ class IntroDBClient {
             val duration = endSec - startSec
             if (duration < 5 || duration > 180) {
                 DebugLogger.log("IntroDB", "ERROR: duration ${duration}s must be 5-180 seconds")
-                return SubmissionResult(false, "Duration must be 5-180 seconds (got ${duration}s)")
+                return SubmissionResult(false, "Duration must be 5-180 seconds (got ${duration}s)", INVALID)
             }
             
             // Build JSON body
@@ -99,6 +103,7 @@ class IntroDBClient {
                 .header("Content-Type", "application/json")
                 .header("User-Agent", "Just-Player/1.0")
                 .post(requestBody)
+                .tag(RequestScheduler.Priority::class.java, RequestScheduler.Priority.BACKGROUND)
                 .build()
             client.newCall(request).execute().use { response ->
                 DebugLogger.log("IntroDB", "Response code: ${response.code}")
@@ -112,39 +117,40 @@ class IntroDBClient {
                             val ok = element["ok"]?.jsonPrimitive?.booleanOrNull ?: false
                             if (ok) {
                                 DebugLogger.log("IntroDB", " Submission successful")
-                                return SubmissionResult(true, "Submission successful")
+                                return SubmissionResult(true, "Submission successful", response.code)
                             }
                         }
                         DebugLogger.log("IntroDB", " Unexpected response format")
-                        SubmissionResult(false, "Unexpected response")
+                        SubmissionResult(false, "Unexpected response", response.code)
                     }
                     400 -> {
                         DebugLogger.log("IntroDB", " Bad request: $responseBody")
-                        SubmissionResult(false, "Invalid request: $responseBody")
+                        SubmissionResult(false, "Invalid request: $responseBody", response.code)
                     }
                     401 -> {
                         DebugLogger.log("IntroDB", " Unauthorized: Invalid API key")
-                        SubmissionResult(false, "Invalid API key")
+                        SubmissionResult(false, "Invalid API key", response.code)
                     }
                     429 -> {
                         DebugLogger.log("IntroDB", " Rate limited")
-                        SubmissionResult(false, "Rate limited (1/episode/10min)")
+                        SubmissionResult(false, "Rate limited (1/episode/10min)", response.code)
                     }
                     else -> {
                         DebugLogger.log("IntroDB", " Error ${response.code}")
-                        SubmissionResult(false, "Error ${response.code}")
+                        SubmissionResult(false, "Error ${response.code}", response.code)
                     }
                 }
             }
         } catch (e: Exception) {
             DebugLogger.log("IntroDB", " Error: ${e.javaClass.simpleName} - ${e.message}")
             e.printStackTrace()
-            SubmissionResult(false, "Network error: ${e.message}")
+            SubmissionResult(false, "Network error: ${e.message}", NETWORK_ERROR)
         }
     }
     
     data class SubmissionResult(
         val success: Boolean,
-        val message: String
+        val message: String,
+        val code: Int = NETWORK_ERROR    // HTTP status, or NETWORK_ERROR / INVALID
     )
 }
\ No newline at end of file
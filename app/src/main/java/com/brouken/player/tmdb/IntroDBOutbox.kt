@@ -0,0 +1,331 @@
+package com.brouken.player.tmdb
+
+import android.content.Context
+import android.content.SharedPreferences
+import com.brouken.player.utils.DebugLogger
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.lang.ref.WeakReference
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.math.roundToLong
+
+/**
+ * Persistent queue of IntroDB auto-submissions
+ *
+ * Skip data found through another provider is offered to IntroDB on every
+ * open, rewatches included. Each (imdb, season, episode, segment) is only
+ * ever sent once: segments already submitted or already queued are dropped,
+ * new ones are written to disk and sent one at a time by a single worker,
+ * backing off with jitter on failures and surviving restarts. The API key
+ * is asked of the [ApiKeyProvider] when sending.
+ */
+class IntroDBOutbox private constructor(context: Context) {
+
+    companion object {
+        private const val TAG = "IntroDBOutbox"
+        private const val PREFS_NAME = "jasp_introdb_outbox"
+        private const val KEY_PENDING = "pending"
+        private const val KEY_SUBMITTED = "submitted"
+        // The API key was once copied here; it is now read from the app settings
+        private const val LEGACY_KEY_API_KEY = "api_key"
+
+        private const val BASE_BACKOFF_MS = 30_000L
+        private const val MAX_BACKOFF_MS = 60 * 60 * 1000L
+        // IntroDB accepts one submission per episode every 10 minutes
+        private const val RATE_LIMIT_BACKOFF_MS = 10 * 60 * 1000L
+        private const val MAX_ATTEMPTS = 8
+        private const val MAX_PENDING = 100
+        private const val MAX_SUBMITTED = 5000
+        // Submitted segments are written in one batch per window, not per success
+        private const val SUBMITTED_FLUSH_DELAY_MS = 5000L
+
+        private val json = Json {
+            ignoreUnknownKeys = true
+        }
+
+        @Volatile
+        private var instance: IntroDBOutbox? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): IntroDBOutbox {
+            return instance ?: synchronized(this) {
+                instance ?: IntroDBOutbox(context.applicationContext).also { instance = it }
+            }
+        }
+
+        /**
+         * Segments are compared to the second; providers disagree on decimals
+         */
+        private fun keyOf(imdbId: String, season: Int, episode: Int, startSec: Double, endSec: Double): String {
+            return "$imdbId|$season|$episode|${startSec.roundToLong()}|${endSec.roundToLong()}"
+        }
+    }
+
+    @Serializable
+    data class Submission(
+        val id: Long,
+        val imdbId: String,
+        val season: Int,
+        val episode: Int,
+        val startSec: Double,
+        val endSec: Double,
+        val source: String,
+        val createdAt: Long,
+        val attempts: Int = 0,
+        val notBefore: Long = 0
+    ) {
+        val key: String
+            get() = keyOf(imdbId, season, episode, startSec, endSec)
+    }
+
+    /**
+     * The IntroDB API key as the settings hold it now; called on the worker thread
+     */
+    fun interface ApiKeyProvider {
+        fun apiKey(): String?
+    }
+
+    private val prefs: SharedPreferences =
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+
+    // Nothing is sent until the app hands over where the key is
+    @Volatile private var apiKeyProvider: ApiKeyProvider? = null
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val lock = Any()
+    private val pending = ArrayList<Submission>()
+    // Key -> submitted at, oldest first
+    private val submitted = LinkedHashMap<String, Long>()
+    // Weak, so a queued submission doesn't keep the screen that asked for it alive
+    private val callbacks = HashMap<Long, WeakReference<Runnable>>()
+    private val submittedFlushPending = AtomicBoolean(false)
+    private val wakeups = Channel<Unit>(Channel.CONFLATED)
+    private var nextId = 0L
+
+    init {
+        load()
+        scope.launch {
+            for (signal in wakeups) {
+                drain()
+            }
+        }
+        if (pending.isNotEmpty()) {
+            DebugLogger.log(TAG, "Replaying ${pending.size} pending submissions")
+            wakeups.trySend(Unit)
+        }
+    }
+
+    /**
+     * Set where the API key is read from, and send what is queued
+     */
+    fun setApiKeyProvider(provider: ApiKeyProvider) {
+        apiKeyProvider = provider
+        wakeups.trySend(Unit)
+    }
+
+    /**
+     * Queue a segment for submission unless it was already sent or queued
+     *
+     * @param onSubmitted run on the worker thread once IntroDB accepted it;
+     * only held weakly, so the caller keeps it for as long as it wants to hear back
+     * @return false if the segment was a duplicate
+     */
+    @JvmOverloads
+    fun enqueue(
+        imdbId: String,
+        season: Int,
+        episode: Int,
+        startSec: Double,
+        endSec: Double,
+        source: String,
+        onSubmitted: Runnable? = null
+    ): Boolean {
+        val key = keyOf(imdbId, season, episode, startSec, endSec)
+        synchronized(lock) {
+            if (submitted.containsKey(key) || pending.any { it.key == key }) {
+                DebugLogger.log(TAG, "Already submitted or queued: $key ($source)")
+                return false
+            }
+            val submission = Submission(
+                id = nextId++,
+                imdbId = imdbId,
+                season = season,
+                episode = episode,
+                startSec = startSec,
+                endSec = endSec,
+                source = source,
+                createdAt = System.currentTimeMillis()
+            )
+            pending.add(submission)
+            onSubmitted?.let { callbacks[submission.id] = WeakReference(it) }
+            // Bound the queue; the oldest entries are the least useful
+            while (pending.size > MAX_PENDING) {
+                callbacks.remove(pending.removeAt(0).id)
+            }
+            savePending()
+            DebugLogger.log(TAG, "Queued $key from $source (${pending.size} pending)")
+        }
+        wakeups.trySend(Unit)
+        return true
+    }
+
+    /**
+     * Note a segment that was submitted some other way, e.g. by hand
+     */
+    fun recordSubmitted(imdbId: String, season: Int, episode: Int, startSec: Double, endSec: Double) {
+        val key = keyOf(imdbId, season, episode, startSec, endSec)
+        synchronized(lock) {
+            markSubmitted(key)
+            pending.removeAll { it.key == key }
+            savePending()
+        }
+    }
+
+    /**
+     * Number of submissions waiting to be sent
+     */
+    fun pendingCount(): Int = synchronized(lock) { pending.size }
+
+    // ========================================================================
+    // QUEUE
+    // ========================================================================
+
+    private suspend fun drain() {
+        while (true) {
+            val next = synchronized(lock) { pending.minByOrNull { it.notBefore } } ?: return
+            // No key set; what is queued goes out once there is one
+            val apiKey = apiKeyProvider?.apiKey()
+            if (apiKey.isNullOrEmpty()) return
+
+            val wait = next.notBefore - System.currentTimeMillis()
+            if (wait > 0) {
+                // Sleep, but wake early if something is enqueued
+                withTimeoutOrNull(wait) { wakeups.receive() }
+                continue
+            }
+
+            deliver(next, apiKey)
+        }
+    }
+
+    private fun deliver(submission: Submission, apiKey: String) {
+        DebugLogger.log(TAG, "Submitting ${submission.key} from ${submission.source} (attempt ${submission.attempts + 1})")
+        val result = IntroDBClient().submit(
+            apiKey, submission.imdbId, submission.season, submission.episode,
+            submission.startSec, submission.endSec
+        )
+
+        if (result.success) {
+            val callback = synchronized(lock) {
+                pending.removeAll { it.id == submission.id }
+                markSubmitted(submission.key)
+                savePending()
+                callbacks.remove(submission.id)
+            }
+            DebugLogger.log(TAG, "✓ Submitted ${submission.key}")
+            callback?.get()?.run()
+            return
+        }
+
+        val code = result.code
+        val retryable = code == IntroDBClient.NETWORK_ERROR || code == 408 || code == 429 || code >= 500
+        if (!retryable || submission.attempts + 1 >= MAX_ATTEMPTS) {
+            DebugLogger.log(TAG, "Dropping ${submission.key}: ${result.message} (HTTP $code)")
+            synchronized(lock) {
+                pending.removeAll { it.id == submission.id }
+                callbacks.remove(submission.id)
+                savePending()
+            }
+            return
+        }
+
+        val delay = if (code == 429) {
+            RATE_LIMIT_BACKOFF_MS
+        } else {
+            val backoff = (BASE_BACKOFF_MS shl submission.attempts.coerceAtMost(10)).coerceAtMost(MAX_BACKOFF_MS)
+            // Full jitter keeps many devices from retrying in lockstep
+            backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1)
+        }
+        DebugLogger.log(TAG, "Retrying ${submission.key} in ${delay / 1000}s (HTTP $code)")
+        synchronized(lock) {
+            val index = pending.indexOfFirst { it.id == submission.id }
+            if (index >= 0) {
+                pending[index] = submission.copy(
+                    attempts = submission.attempts + 1,
+                    notBefore = System.currentTimeMillis() + delay
+                )
+                savePending()
+            }
+        }
+    }
+
+    /**
+     * Must hold [lock]
+     */
+    private fun markSubmitted(key: String) {
+        submitted.remove(key)
+        submitted[key] = System.currentTimeMillis()
+        val iterator = submitted.entries.iterator()
+        while (submitted.size > MAX_SUBMITTED && iterator.hasNext()) {
+            iterator.next()
+            iterator.remove()
+        }
+        scheduleSubmittedFlush()
+    }
+
+    /**
+     * Coalesce the submitted map's writes within the delay window into one
+     */
+    private fun scheduleSubmittedFlush() {
+        if (!submittedFlushPending.compareAndSet(false, true)) return
+        scope.launch {
+            delay(SUBMITTED_FLUSH_DELAY_MS)
+            // Cleared before the snapshot, so later submissions schedule another write
+            submittedFlushPending.set(false)
+            val snapshot = synchronized(lock) { submitted.toMap() }
+            try {
+                prefs.edit().putString(KEY_SUBMITTED, json.encodeToString(snapshot)).apply()
+            } catch (e: Exception) {
+                DebugLogger.e(TAG, "Failed to save submitted segments: ${e.message}", e)
+            }
+        }
+    }
+
+    // ========================================================================
+    // PERSISTENCE
+    // ========================================================================
+
+    /**
+     * Must hold [lock]
+     */
+    private fun savePending() {
+        try {
+            prefs.edit().putString(KEY_PENDING, json.encodeToString(pending.toList())).apply()
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to save outbox: ${e.message}", e)
+        }
+    }
+
+    private fun load() {
+        if (prefs.contains(LEGACY_KEY_API_KEY)) {
+            prefs.edit().remove(LEGACY_KEY_API_KEY).apply()
+        }
+        try {
+            prefs.getString(KEY_SUBMITTED, null)?.let {
+                submitted.putAll(json.decodeFromString<Map<String, Long>>(it).entries.sortedBy { entry -> entry.value }
+                    .associate { entry -> entry.key to entry.value })
+            }
+            prefs.getString(KEY_PENDING, null)?.let {
+                pending.addAll(json.decodeFromString<List<Submission>>(it))
+            }
+            nextId = (pending.maxOfOrNull { it.id } ?: -1) + 1
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to load outbox: ${e.message}", e)
+            pending.clear()
+        }
+    }
+}
@@ -32,6 +32,7 @@ class IntroHaterClient(private val apiKey: String) {
     private val client = OkHttpClient.Builder()
         .connectTimeout(15, TimeUnit.SECONDS)
         .readTimeout(15, TimeUnit.SECONDS)
+        .addInterceptor(RequestScheduler.interceptor)
         .build()
     
     private val json = Json { ignoreUnknownKeys = true }
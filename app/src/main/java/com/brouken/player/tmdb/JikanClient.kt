@@ -5,6 +5,7 @@ import kotlinx.serialization.Serializable
 import kotlinx.serialization.json.Json
 import okhttp3.OkHttpClient
 import okhttp3.Request
+import java.io.IOException
 import java.net.URLEncoder
 import java.util.concurrent.TimeUnit
 
@@ -20,6 +21,7 @@ class JikanClient {
     private val client = OkHttpClient.Builder()
         .connectTimeout(10, TimeUnit.SECONDS)
         .readTimeout(10, TimeUnit.SECONDS)
+        .addInterceptor(RequestScheduler.interceptor)
         .build()
     private val json = Json { ignoreUnknownKeys = true }
     
@@ -48,6 +50,11 @@ class JikanClient {
         val to: String? = null
     )
     
+    /**
+     * Best search match and its score
+     */
+    data class MalMatch(val malId: Int, val score: Int)
+
     /**
      * Search for anime by title and return MAL ID
      * 
@@ -56,91 +63,106 @@ class JikanClient {
      * @return MAL ID of the best matching result, or null if not found
      */
     fun searchMalId(query: String, year: Int? = null): Int? {
-        DebugLogger.log("Jikan", "searchMalId called with query: '$query', year: $year")
         return try {
-            val encodedQuery = URLEncoder.encode(query, "UTF-8")
-            // Search for TV/OVA/Movie/Special. removed &type=tv to support Movies too if needed.
-            // But typical AniSkip use is for TV. Keeping type=tv for now as strict default, or removing it?
-            // User might watch movies: "One Piece Film Red". Let's remove &type=tv to support all.
-            val url = "$BASE_URL/anime?q=$encodedQuery&limit=5" 
-            DebugLogger.log("Jikan", "Requesting Jikan API: $url")
-            
-            val request = Request.Builder()
-                .url(url)
-                .header("User-Agent", "Just-Player/1.0")
-                .build()
+            searchMalMatch(query, year)?.malId
+        } catch (e: Exception) {
+            DebugLogger.log("Jikan", "  Error: ${e.javaClass.simpleName} - ${e.message}")
+            e.printStackTrace()
+            null
+        }
+    }
+
+    /**
+     * Like [searchMalId], but also reports the match score
+     *
+     * @return best match, or null if the search found nothing
+     * @throws IOException if the search itself failed
+     */
+    @Throws(IOException::class)
+    fun searchMalMatch(query: String, year: Int? = null): MalMatch? {
+        DebugLogger.log("Jikan", "searchMalId called with query: '$query', year: $year")
+        val encodedQuery = URLEncoder.encode(query, "UTF-8")
+        // Search for TV/OVA/Movie/Special. removed &type=tv to support Movies too if needed.
+        // But typical AniSkip use is for TV. Keeping type=tv for now as strict default, or removing it?
+        // User might watch movies: "One Piece Film Red". Let's remove &type=tv to support all.
+        val url = "$BASE_URL/anime?q=$encodedQuery&limit=5" 
+        DebugLogger.log("Jikan", "Requesting Jikan API: $url")
+        
+        val request = Request.Builder()
+            .url(url)
+            .header("User-Agent", "Just-Player/1.0")
+            .build()
+        
+        client.newCall(request).execute().use { response ->
+            DebugLogger.log("Jikan", "Response code: ${response.code}")
+            if (!response.isSuccessful) {
+                DebugLogger.log("Jikan", "  Request failed: ${response.code} ${response.message}")
+                throw IOException("Jikan search failed: ${response.code}")
+            }
+            val body = response.body?.string() ?: throw IOException("Jikan search returned no body")
+            // DebugLogger.log("Jikan", "Response body: ${body.take(300)}...")
+            val searchResult = try {
+                json.decodeFromString<AnimeSearchResponse>(body)
+            } catch (e: Exception) {
+                throw IOException("Jikan search returned invalid JSON", e)
+            }
             
-            client.newCall(request).execute().use { response ->
-                DebugLogger.log("Jikan", "Response code: ${response.code}")
-                if (response.isSuccessful) {
-                    val body = response.body?.string() ?: return null
-                    // DebugLogger.log("Jikan", "Response body: ${body.take(300)}...")
-                    val searchResult = json.decodeFromString<AnimeSearchResponse>(body)
+            if (searchResult.data.isNotEmpty()) {
+                DebugLogger.log("Jikan", "Processing ${searchResult.data.size} candidates...")
+                
+                var bestMatch: AnimeData? = null
+                var bestScore = -1
+                
+                for (anime in searchResult.data) {
+                    var score = 0
                     
-                    if (searchResult.data.isNotEmpty()) {
-                        DebugLogger.log("Jikan", "Processing ${searchResult.data.size} candidates...")
-                        
-                        var bestMatch: AnimeData? = null
-                        var bestScore = -1
-                        
-                        for (anime in searchResult.data) {
-                            var score = 0
-                            
-                            // 1. Year Matching (Highest Priority)
-                            if (year != null) {
-                                if (anime.year == year) {
-                                    score += 100
-                                } else {
-                                    val airedYear = parseYear(anime.aired?.from)
-                                    if (airedYear != null && kotlin.math.abs(airedYear - year) <= 1) {
-                                        score += 50
-                                    }
-                                }
+                    // 1. Year Matching (Highest Priority)
+                    if (year != null) {
+                        if (anime.year == year) {
+                            score += 100
+                        } else {
+                            val airedYear = parseYear(anime.aired?.from)
+                            if (airedYear != null && kotlin.math.abs(airedYear - year) <= 1) {
+                                score += 50
                             }
-                            
-                            // 2. Title Matching
-                            val normTitle = anime.title.lowercase()
-                            val normQuery = query.lowercase()
-                            
-                            if (normTitle == normQuery) {
-                                score += 30
-                            } else if (normTitle.contains(normQuery) || normQuery.contains(normTitle)) {
-                                score += 10
-                            }
-                            
-                            // Debug logging for scoring
-                            DebugLogger.log("Jikan", "  Candidate: '${anime.title}' (${anime.year ?: parseYear(anime.aired?.from)}) - Score: $score")
-                            
-                            if (score > bestScore) {
-                                bestScore = score
-                                bestMatch = anime
-                            }
-                        }
-                        
-                        if (bestMatch != null) {
-                            DebugLogger.log("Jikan", "  >>> Best Match: '${bestMatch.title}' (ID: ${bestMatch.mal_id}, Score: $bestScore)")
-                            return bestMatch.mal_id
                         }
-                        
-                        // Fallback: Default to first result if no clear winner (and no year constraint failed strictly?)
-                        // If year was requested but no match found, use first result anyway?
-                        // User said "if it matches... good". But usually better to return *something* than nothing.
-                        val first = searchResult.data[0]
-                        DebugLogger.log("Jikan", "  No high-score match, defaulting to first: '${first.title}'")
-                        return first.mal_id
-                    } else {
-                        DebugLogger.log("Jikan", "  No results found for query: '$query'")
                     }
-                } else {
-                    DebugLogger.log("Jikan", "  Request failed: ${response.code} ${response.message}")
+                    
+                    // 2. Title Matching
+                    val normTitle = anime.title.lowercase()
+                    val normQuery = query.lowercase()
+                    
+                    if (normTitle == normQuery) {
+                        score += 30
+                    } else if (normTitle.contains(normQuery) || normQuery.contains(normTitle)) {
+                        score += 10
+                    }
+                    
+                    // Debug logging for scoring
+                    DebugLogger.log("Jikan", "  Candidate: '${anime.title}' (${anime.year ?: parseYear(anime.aired?.from)}) - Score: $score")
+                    
+                    if (score > bestScore) {
+                        bestScore = score
+                        bestMatch = anime
+                    }
+                }
+                
+                if (bestMatch != null) {
+                    DebugLogger.log("Jikan", "  >>> Best Match: '${bestMatch.title}' (ID: ${bestMatch.mal_id}, Score: $bestScore)")
+                    return MalMatch(bestMatch.mal_id, bestScore)
                 }
+                
+                // Fallback: Default to first result if no clear winner (and no year constraint failed strictly?)
+                // If year was requested but no match found, use first result anyway?
+                // User said "if it matches... good". But usually better to return *something* than nothing.
+                val first = searchResult.data[0]
+                DebugLogger.log("Jikan", "  No high-score match, defaulting to first: '${first.title}'")
+                return MalMatch(first.mal_id, 0)
+            } else {
+                DebugLogger.log("Jikan", "  No results found for query: '$query'")
             }
-            null
-        } catch (e: Exception) {
-            DebugLogger.log("Jikan", "  Error: ${e.javaClass.simpleName} - ${e.message}")
-            e.printStackTrace()
-            null
         }
+        return null
     }
     
     private fun parseYear(dateStr: String?): Int? {
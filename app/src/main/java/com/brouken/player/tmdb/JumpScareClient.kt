@@ -52,6 +52,7 @@ class JumpScareClient {
         .connectTimeout(15, TimeUnit.SECONDS)
         .readTimeout(15, TimeUnit.SECONDS)
         .followRedirects(true)
+        .addInterceptor(RequestScheduler.interceptor)
         .build()
     
     @Serializable
@@ -0,0 +1,202 @@
+package com.brouken.player.tmdb
+
+import android.content.Context
+import android.net.Uri
+import android.os.SystemClock
+import com.brouken.player.stremio.StremioSubtitleFetcher
+import com.brouken.player.utils.DebugLogger
+import com.brouken.player.utils.NameCleaner
+import kotlinx.coroutines.*
+
+/**
+ * Resolves the next episode's IDs and skip data while the current one plays
+ *
+ * Started once playback is far enough in that the user will probably carry
+ * on, it runs the same ID resolution and 5-tier skip lookup as opening the
+ * file would, at [RequestScheduler.Priority.PREFETCH] so it never delays
+ * the episode on screen. Subtitle addons are queried too, which warms the
+ * query cache the next episode's subtitle search reads. Intros that would go
+ * to IntroDB are only collected; they are queued when the episode is opened.
+ * When it is, [take] hands over the result so the skip button is there from
+ * the first frame.
+ */
+class NextEpisodePrefetcher private constructor(private val context: Context) {
+
+    companion object {
+        private const val TAG = "NextEpisodePrefetcher"
+        private const val FRESH_MS = 30 * 60 * 1000L
+        private const val MAX_ENTRIES = 4
+
+        /** Fraction of the runtime after which the next episode is prefetched */
+        const val THRESHOLD = 0.7
+
+        @Volatile
+        private var instance: NextEpisodePrefetcher? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): NextEpisodePrefetcher {
+            return instance ?: synchronized(this) {
+                instance ?: NextEpisodePrefetcher(context.applicationContext).also { instance = it }
+            }
+        }
+
+        /**
+         * Past [THRESHOLD], or inside a skip segment in the second half (end credits)
+         */
+        @JvmStatic
+        fun shouldStart(positionMs: Long, durationMs: Long, segments: List<Pair<Double, Double>>?): Boolean {
+            if (durationMs <= 0) return false
+            if (positionMs >= durationMs * THRESHOLD) return true
+            val positionSec = positionMs / 1000.0
+            val halfSec = durationMs / 2000.0
+            return segments?.any { it.first >= halfSec && positionSec >= it.first && positionSec < it.second } == true
+        }
+    }
+
+    /**
+     * Everything fetchSkipData would have worked out for [uri]
+     */
+    data class Prefetched(
+        val uri: String,
+        val showName: String,
+        val season: Int,
+        val episode: Int,
+        val imdbId: String?,
+        val malId: Int?,
+        val segments: List<Pair<Double, Double>>?,
+        val introDbSubmissions: List<SkipManager.IntroDbSubmission>,
+        val fetchedAt: Long
+    ) {
+        val isFresh: Boolean get() = SystemClock.elapsedRealtime() - fetchedAt < FRESH_MS
+    }
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val skipManager = SkipManager(IntroDBOutbox.getInstance(context))
+    private val lock = Any()
+    private val inFlight = HashMap<String, Job>()
+
+    // Access-ordered for LRU eviction
+    private val entries = object : LinkedHashMap<String, Prefetched>(8, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Prefetched>?): Boolean {
+            return size > MAX_ENTRIES
+        }
+    }
+
+    /**
+     * Start prefetching [uri] unless it is already cached or in flight
+     *
+     * @param title what fetchSkipData will clean for this file, usually its last path segment
+     */
+    fun prefetch(
+        uri: Uri,
+        title: String,
+        cinemataUrl: String?,
+        introHaterApiKey: String?
+    ) {
+        val key = uri.toString()
+        synchronized(lock) {
+            if (entries[key]?.isFresh == true || inFlight.containsKey(key)) return
+            DebugLogger.log(TAG, "Prefetching next episode: $title")
+            inFlight[key] = scope.launch {
+                try {
+                    val result = RequestScheduler.withPriority(RequestScheduler.Priority.PREFETCH) {
+                        resolve(key, title, cinemataUrl, introHaterApiKey)
+                    }
+                    synchronized(lock) {
+                        entries[key] = result
+                    }
+                    val subtitles = warmSubtitles(uri, title, result)
+                    DebugLogger.log(TAG, "Prefetched ${result.showName} S${result.season}E${result.episode}: " +
+                            "imdb=${result.imdbId}, mal=${result.malId}, ${result.segments?.size ?: 0} segments, " +
+                            "$subtitles subtitles")
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    DebugLogger.e(TAG, "Prefetch failed for $title: ${e.message}", e)
+                } finally {
+                    synchronized(lock) { inFlight.remove(key) }
+                }
+            }
+        }
+    }
+
+    /**
+     * The prefetched data for [uri], if any is fresh
+     */
+    fun take(uri: Uri?): Prefetched? {
+        if (uri == null) return null
+        synchronized(lock) {
+            val entry = entries[uri.toString()] ?: return null
+            if (!entry.isFresh) {
+                entries.remove(uri.toString())
+                return null
+            }
+            return entry
+        }
+    }
+
+    // ========================================================================
+    // LOOKUPS
+    // ========================================================================
+
+    private fun resolve(
+        key: String,
+        title: String,
+        cinemataUrl: String?,
+        introHaterApiKey: String?
+    ): Prefetched {
+        val cleanResult = NameCleaner.clean(title)
+        val showName = cleanResult.showName
+        val ids = IdResolutionCache.getInstance(context)
+
+        val imdbId = if (!cinemataUrl.isNullOrEmpty()) {
+            ids.resolveImdbId(cinemataUrl, "series", showName, cleanResult.year)?.takeIf { it.isNotEmpty() }
+        } else null
+        val malId = ids.resolveMalId(showName, cleanResult.year)
+
+        val submissions = ArrayList<SkipManager.IntroDbSubmission>()
+        val segments = skipManager.getSkipTimes(
+            malId,
+            imdbId,
+            cleanResult.season,
+            cleanResult.episode,
+            showName,
+            "Episode ${cleanResult.episode}",
+            introHaterApiKey,
+            null,
+            null,
+            // Nobody has watched the episode yet; PlayerActivity queues these when it is opened
+            submissions
+        )
+
+        return Prefetched(
+            uri = key,
+            showName = showName,
+            season = cleanResult.season,
+            episode = cleanResult.episode,
+            imdbId = imdbId,
+            malId = malId,
+            segments = segments?.takeIf { it.isNotEmpty() },
+            introDbSubmissions = submissions,
+            fetchedAt = SystemClock.elapsedRealtime()
+        )
+    }
+
+    /**
+     * Query the subtitle addons so their answers land in SubtitleQueryCache
+     *
+     * @return how many subtitles were found
+     */
+    private suspend fun warmSubtitles(uri: Uri, title: String, result: Prefetched): Int {
+        return try {
+            StremioSubtitleFetcher(context).fetchSubtitles(
+                uri, title, result.imdbId, result.season, result.episode
+            ).size
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            DebugLogger.log(TAG, "Subtitle prefetch failed: ${e.message}")
+            0
+        }
+    }
+}
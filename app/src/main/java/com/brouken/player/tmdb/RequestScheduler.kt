@@ -0,0 +1,275 @@
+package com.brouken.player.tmdb
+
+import com.brouken.player.utils.DebugLogger
+import okhttp3.Call
+import okhttp3.Interceptor
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.util.PriorityQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.random.Random
+
+/**
+ * Client-side rate limiting for the public metadata APIs
+ *
+ * Every metadata client adds [interceptor] to its OkHttpClient. Requests then
+ * wait for a token from their host's bucket (Jikan: 3/s and 60/min, AnimeSkip's
+ * shared client ID: 1/s, ...) in [Priority] order, so lookups for the episode
+ * being played overtake prefetches. 429s and 503s pause the whole host for
+ * their Retry-After, up to [MAX_RETRY_AFTER_MS], and GETs are retried with
+ * jittered backoff. Other methods get the response as it is; their callers
+ * own the retry, as the outboxes do.
+ */
+object RequestScheduler {
+
+    private const val TAG = "RequestScheduler"
+
+    private const val MAX_RETRIES = 3
+    private const val BACKOFF_BASE_MS = 500L
+    private const val BACKOFF_CAP_MS = 8_000L
+    // A longer Retry-After than this is handed back to the caller instead, and the host paused only this long
+    private const val MAX_RETRY_AFTER_MS = 20_000L
+    // Waiters re-check cancellation at least this often
+    private const val WAIT_SLICE_MS = 250L
+
+    private val RETRY_CODES = setOf(429, 502, 503, 504)
+
+    enum class Priority {
+        /** The episode on screen */
+        CURRENT,
+        /** Data for an episode the user will probably play next */
+        PREFETCH,
+        /** Submissions and other work nobody is waiting for */
+        BACKGROUND
+    }
+
+    private class Limit(val perSecond: Double, val burst: Int, val perMinute: Int = 0)
+
+    private val LIMITS = mapOf(
+        "api.jikan.moe" to Limit(perSecond = 3.0, burst = 3, perMinute = 60),
+        "api.aniskip.com" to Limit(perSecond = 2.0, burst = 4),
+        "api.anime-skip.com" to Limit(perSecond = 1.0, burst = 3),
+        "v3-cinemeta.strem.io" to Limit(perSecond = 5.0, burst = 5),
+        "api.introdb.app" to Limit(perSecond = 2.0, burst = 4)
+    )
+    private val DEFAULT_LIMIT = Limit(perSecond = 4.0, burst = 4)
+
+    private val hosts = ConcurrentHashMap<String, Host>()
+    private val sequence = AtomicLong()
+    private val currentPriority = ThreadLocal<Priority>()
+
+    /**
+     * Add to every OkHttpClient that talks to a metadata API
+     */
+    @JvmField
+    val interceptor = Interceptor { chain -> intercept(chain) }
+
+    /**
+     * Run [block] with requests on this thread queued at [priority]
+     *
+     * A [Priority] tag on the request itself takes precedence.
+     */
+    @JvmStatic
+    fun <T> withPriority(priority: Priority, block: () -> T): T {
+        val previous = currentPriority.get()
+        currentPriority.set(priority)
+        try {
+            return block()
+        } finally {
+            if (previous != null) currentPriority.set(previous) else currentPriority.remove()
+        }
+    }
+
+    /**
+     * Requests waiting for a token, over all hosts
+     */
+    @JvmStatic
+    fun queueDepth(): Int = hosts.values.sumOf { it.queued() }
+
+    data class HostStats(
+        val host: String,
+        val queued: Int,
+        val pausedForMs: Long,
+        val throttled: Long
+    )
+
+    @JvmStatic
+    fun stats(): List<HostStats> = hosts.values.map { it.stats() }.sortedBy { it.host }
+
+    // ========================================================================
+    // INTERCEPTOR
+    // ========================================================================
+
+    private fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val host = hosts.getOrPut(request.url.host) {
+            Host(request.url.host, LIMITS[request.url.host] ?: DEFAULT_LIMIT)
+        }
+        val priority = request.tag(Priority::class.java) ?: currentPriority.get() ?: Priority.CURRENT
+        val call = chain.call()
+
+        var attempt = 0
+        while (true) {
+            host.acquire(priority, call)
+
+            val response = try {
+                chain.proceed(request)
+            } catch (e: IOException) {
+                if (call.isCanceled() || attempt >= MAX_RETRIES || !isIdempotent(request)) throw e
+                val delay = backoff(attempt++)
+                DebugLogger.log(TAG, "${host.name}: ${e.javaClass.simpleName}, retry $attempt in ${delay}ms")
+                sleep(delay)
+                continue
+            }
+
+            if (response.code !in RETRY_CODES) return response
+            // A rejected submission says nothing about reads from the same host
+            if (!isIdempotent(request)) return response
+
+            val retryAfter = retryAfterMs(response)
+            if (response.code == 429 || retryAfter != null) {
+                host.pause(min(retryAfter ?: backoff(attempt), MAX_RETRY_AFTER_MS))
+            }
+            if (attempt >= MAX_RETRIES || (retryAfter != null && retryAfter > MAX_RETRY_AFTER_MS)) {
+                DebugLogger.log(TAG, "${host.name}: ${response.code}, giving up after ${attempt + 1} attempts")
+                return response
+            }
+            response.close()
+
+            val delay = max(retryAfter ?: 0L, backoff(attempt++))
+            DebugLogger.log(TAG, "${host.name}: ${response.code}, retry $attempt in ${delay}ms ($priority)")
+            sleep(delay)
+        }
+    }
+
+    private fun isIdempotent(request: Request): Boolean {
+        return request.method == "GET" || request.method == "HEAD"
+    }
+
+    /**
+     * Exponential backoff with jitter, so callers throttled together don't
+     * come back together
+     */
+    private fun backoff(attempt: Int): Long {
+        val ceiling = min(BACKOFF_CAP_MS, BACKOFF_BASE_MS shl min(attempt, 10))
+        return ceiling / 2 + Random.nextLong(ceiling / 2 + 1)
+    }
+
+    /**
+     * Retry-After as delta-seconds or an HTTP date
+     */
+    private fun retryAfterMs(response: Response): Long? {
+        val value = response.header("Retry-After") ?: return null
+        value.trim().toLongOrNull()?.let { return max(0L, it * 1000) }
+        val date = response.headers.getDate("Retry-After") ?: return null
+        return max(0L, date.time - System.currentTimeMillis())
+    }
+
+    private fun sleep(ms: Long) {
+        try {
+            Thread.sleep(ms)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw InterruptedIOException("Interrupted while backing off")
+        }
+    }
+
+    private fun nowMs(): Long = System.nanoTime() / 1_000_000
+
+    // ========================================================================
+    // PER-HOST STATE
+    // ========================================================================
+
+    private class Bucket(private val perMs: Double, private val capacity: Int) {
+        private var tokens = capacity.toDouble()
+        private var refilledAt = nowMs()
+
+        fun refill(now: Long) {
+            tokens = min(capacity.toDouble(), tokens + (now - refilledAt) * perMs)
+            refilledAt = now
+        }
+
+        fun msUntilToken(): Long = if (tokens >= 1.0) 0L else Math.ceil((1.0 - tokens) / perMs).toLong()
+
+        fun take() {
+            tokens -= 1.0
+        }
+    }
+
+    private class Ticket(val priority: Priority, val seq: Long) : Comparable<Ticket> {
+        override fun compareTo(other: Ticket): Int {
+            val result = priority.compareTo(other.priority)
+            return if (result != 0) result else seq.compareTo(other.seq)
+        }
+    }
+
+    private class Host(val name: String, limit: Limit) {
+        private val lock = ReentrantLock()
+        private val changed = lock.newCondition()
+        private val buckets = listOfNotNull(
+            Bucket(limit.perSecond / 1000.0, limit.burst),
+            if (limit.perMinute > 0) Bucket(limit.perMinute / 60_000.0, limit.perMinute) else null
+        )
+        private val waiting = PriorityQueue<Ticket>()
+        private var pausedUntil = 0L
+        private var throttled = 0L
+
+        /**
+         * Block until this request may go out; the head of the queue is the
+         * only one that takes tokens
+         */
+        fun acquire(priority: Priority, call: Call) {
+            val ticket = Ticket(priority, sequence.incrementAndGet())
+            lock.withLock {
+                waiting.add(ticket)
+                if (waiting.size > 1) {
+                    DebugLogger.log(TAG, "$name: queued $priority request, ${waiting.size} waiting")
+                }
+                try {
+                    while (true) {
+                        if (call.isCanceled()) throw IOException("Canceled")
+                        val now = nowMs()
+                        var waitMs = pausedUntil - now
+                        if (waitMs <= 0 && waiting.peek() === ticket) {
+                            buckets.forEach { it.refill(now) }
+                            waitMs = buckets.maxOf { it.msUntilToken() }
+                            if (waitMs <= 0) {
+                                buckets.forEach { it.take() }
+                                return
+                            }
+                        }
+                        changed.await(if (waitMs > 0) min(waitMs, WAIT_SLICE_MS) else WAIT_SLICE_MS, TimeUnit.MILLISECONDS)
+                    }
+                } catch (e: InterruptedException) {
+                    Thread.currentThread().interrupt()
+                    throw InterruptedIOException("Interrupted while waiting for $name")
+                } finally {
+                    waiting.remove(ticket)
+                    changed.signalAll()
+                }
+            }
+        }
+
+        fun pause(ms: Long) {
+            lock.withLock {
+                pausedUntil = max(pausedUntil, nowMs() + ms)
+                throttled++
+                DebugLogger.log(TAG, "$name: throttled, pausing ${ms}ms with ${waiting.size} waiting")
+            }
+        }
+
+        fun queued(): Int = lock.withLock { waiting.size }
+
+        fun stats(): HostStats = lock.withLock {
+            HostStats(name, waiting.size, max(0L, pausedUntil - nowMs()), throttled)
+        }
+    }
+}
@@ -29,6 +29,7 @@ class SkipDBClient {
     private val client = OkHttpClient.Builder()
         .connectTimeout(15, TimeUnit.SECONDS)
         .readTimeout(30, TimeUnit.SECONDS)
+        .addInterceptor(RequestScheduler.interceptor)
         .build()
 
     private val json = Json { ignoreUnknownKeys = true }
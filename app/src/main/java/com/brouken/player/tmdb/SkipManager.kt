@@ -9,12 +9,17 @@ import kotlinx.serialization.json.doubleOrNull
 import kotlinx.serialization.json.jsonPrimitive
 import okhttp3.OkHttpClient
 import okhttp3.Request
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
-class SkipManager {
+/**
+ * @param outbox where intros found through other providers are queued for IntroDB
+ */
+class SkipManager(private val outbox: IntroDBOutbox) {
     private val client = OkHttpClient.Builder()
         .connectTimeout(15, TimeUnit.SECONDS)
         .readTimeout(15, TimeUnit.SECONDS)
+        .addInterceptor(RequestScheduler.interceptor)
         .build()
     private val json = Json { ignoreUnknownKeys = true }
     
@@ -23,8 +28,9 @@ class SkipManager {
     private val ANISKIP_URL = "https://api.aniskip.com/v2"
     
     // Cache: "malId-S-E" -> List<Pair<Double, Double>> and "imdbId-S-E" -> List<Pair<Double, Double>>
-    private val cacheMal = mutableMapOf<String, List<Pair<Double, Double>>>()
-    private val cacheImdb = mutableMapOf<String, List<Pair<Double, Double>>>()
+    // Concurrent: lookups for an old and a new file may overlap while the old one is cancelled
+    private val cacheMal = ConcurrentHashMap<String, List<Pair<Double, Double>>>()
+    private val cacheImdb = ConcurrentHashMap<String, List<Pair<Double, Double>>>()
     
     // Source tracking
     enum class SkipSource {
@@ -39,9 +45,27 @@ class SkipManager {
         val source: SkipSource
     )
 
+    /**
+     * An intro found elsewhere that IntroDB doesn't have yet, held back until the episode is watched
+     */
+    data class IntroDbSubmission(
+        val imdbId: String,
+        val season: Int,
+        val episode: Int,
+        val startSec: Double,
+        val endSec: Double,
+        val source: String
+    ) {
+        fun enqueue(outbox: IntroDBOutbox, onSubmitted: Runnable?) {
+            outbox.enqueue(imdbId, season, episode, startSec, endSec, source, onSubmitted)
+        }
+    }
+
     /**
      * Get skip times from multiple sources with 5-tier fallback:
      * AnimeSkip → SkipDB → IntroHater → AniSkip → IntroDB
+     *
+     * @param deferredSubmissions if given, intros for IntroDB are added here instead of queued
      */
     fun getSkipTimes(
         malId: Int?, 
@@ -52,8 +76,19 @@ class SkipManager {
         episodeName: String? = null,
         introHaterApiKey: String? = null,
         introDbApiKey: String? = null, 
-        onAutoSubmitCallback: Runnable? = null
+        onAutoSubmitCallback: Runnable? = null,
+        deferredSubmissions: MutableList<IntroDbSubmission>? = null
     ): List<Pair<Double, Double>>? {
+        val submitsToIntroDb = !introDbApiKey.isNullOrEmpty() || deferredSubmissions != null
+        fun submit(id: String, segment: Pair<Double, Double>, source: String) {
+            val submission = IntroDbSubmission(id, season, episode, segment.first, segment.second, source)
+            if (deferredSubmissions != null) {
+                deferredSubmissions.add(submission)
+            } else {
+                submission.enqueue(outbox, onAutoSubmitCallback)
+            }
+        }
+
         DebugLogger.log("SkipManager", "╔═══════════════════════════════════════════════════════════════╗")
         DebugLogger.log("SkipManager", "║  5-TIER SKIP DATA REQUEST                                     ║")
         DebugLogger.log("SkipManager", "║  AnimeSkip → SkipDB → IntroHater → AniSkip → IntroDB         ║")
@@ -71,7 +106,7 @@ class SkipManager {
             DebugLogger.log("SkipManager", "[PRIORITY 1] Trying AnimeSkip...")
             try {
                 val animeSkipClient = AnimeSkipClient()
-                val result = animeSkipClient.getTimestamps(showName, episodeName)
+                val result = animeSkipClient.getTimestamps(showName, episodeName, season.takeIf { it > 0 })
                 
                 if (result != null && result.timestamps.isNotEmpty()) {
                     DebugLogger.log("SkipManager", "  ✓ AnimeSkip SUCCESS: Found ${result.timestamps.size} timestamps")
@@ -85,18 +120,9 @@ class SkipManager {
                         }
                         
                         // Auto-submit to IntroDB
-                        if (!introDbApiKey.isNullOrEmpty() && !imdbId.isNullOrEmpty() && segments.isNotEmpty()) {
-                            DebugLogger.log("SkipManager", "  → Auto-submitting AnimeSkip intro to IntroDB")
-                            Thread {
-                                try {
-                                    val seg = segments.first()
-                                    IntroDBClient().submit(introDbApiKey, imdbId, season, episode, seg.first, seg.second)
-                                    DebugLogger.log("SkipManager", "  ✓ AnimeSkip intro submitted to IntroDB")
-                                    onAutoSubmitCallback?.run()
-                                } catch (e: Exception) {
-                                    DebugLogger.log("SkipManager", "  ✗ IntroDB submit error: ${e.message}")
-                                }
-                            }.start()
+                        if (submitsToIntroDb && !imdbId.isNullOrEmpty() && segments.isNotEmpty()) {
+                            DebugLogger.log("SkipManager", "  → Queueing AnimeSkip intro for IntroDB")
+                            submit(imdbId, segments.first(), "AnimeSkip")
                         }
                         
                         return segments
@@ -121,18 +147,9 @@ class SkipManager {
                     val segments = listOf(segment)
                     
                     // Auto-submit to IntroDB
-                    if (!introDbApiKey.isNullOrEmpty()) {
-                        DebugLogger.log("SkipManager", "  → Auto-submitting SkipDB intro to IntroDB")
-                        Thread {
-                            try {
-                                IntroDBClient().submit(introDbApiKey, imdbId, season, episode,
-                                    segment.first, segment.second)
-                                DebugLogger.log("SkipManager", "  ✓ SkipDB intro submitted to IntroDB")
-                                onAutoSubmitCallback?.run()
-                            } catch (e: Exception) {
-                                DebugLogger.log("SkipManager", "  ✗ IntroDB submit error: ${e.message}")
-                            }
-                        }.start()
+                    if (submitsToIntroDb) {
+                        DebugLogger.log("SkipManager", "  → Queueing SkipDB intro for IntroDB")
+                        submit(imdbId, segment, "SkipDB")
                     }
                     
                     return segments
@@ -155,18 +172,9 @@ class SkipManager {
                     DebugLogger.log("SkipManager", "  ✓ IntroHater SUCCESS: Found ${result.segments.size} segments")
                     
                     // Auto-submit to IntroDB
-                    if (result.introSegment != null && !introDbApiKey.isNullOrEmpty()) {
-                        DebugLogger.log("SkipManager", "  → Auto-submitting IntroHater intro to IntroDB")
-                        Thread {
-                            try {
-                                IntroDBClient().submit(introDbApiKey, imdbId, season, episode,
-                                    result.introSegment.first, result.introSegment.second)
-                                DebugLogger.log("SkipManager", "  ✓ IntroHater intro submitted to IntroDB")
-                                onAutoSubmitCallback?.run()
-                            } catch (e: Exception) {
-                                DebugLogger.log("SkipManager", "  ✗ IntroDB submit error: ${e.message}")
-                            }
-                        }.start()
+                    if (result.introSegment != null && submitsToIntroDb) {
+                        DebugLogger.log("SkipManager", "  → Queueing IntroHater intro for IntroDB")
+                        submit(imdbId, result.introSegment, "IntroHater")
                     }
                     
                     return introHaterClient.toSkipPairs(result)
@@ -193,18 +201,9 @@ class SkipManager {
                 DebugLogger.log("SkipManager", "  ✓ AniSkip SUCCESS: Found ${result.segments.size} segments")
                 
                 // Auto-submit to IntroDB
-                if (!imdbId.isNullOrEmpty() && !introDbApiKey.isNullOrEmpty()) {
-                    DebugLogger.log("SkipManager", "  → Auto-submitting AniSkip intro to IntroDB")
-                    Thread {
-                        try {
-                            val seg = result.segments.first()
-                            IntroDBClient().submit(introDbApiKey, imdbId, season, episode, seg.first, seg.second)
-                            DebugLogger.log("SkipManager", "  ✓ AniSkip intro submitted to IntroDB")
-                            onAutoSubmitCallback?.run()
-                        } catch (e: Exception) {
-                            DebugLogger.log("SkipManager", "  ✗ IntroDB submit error: ${e.message}")
-                        }
-                    }.start()
+                if (!imdbId.isNullOrEmpty() && submitsToIntroDb) {
+                    DebugLogger.log("SkipManager", "  → Queueing AniSkip intro for IntroDB")
+                    submit(imdbId, result.segments.first(), "AniSkip")
                 }
                 
                 return result.segments
@@ -249,28 +248,6 @@ class SkipManager {
         return null
     }
     
-    /**
-     * Auto-submit AniSkip data to IntroDB
-     */
-    private fun autoSubmitToIntroDB(apiKey: String, imdbId: String, season: Int, episode: Int, segments: List<Pair<Double, Double>>, onCallback: Runnable? = null) {
-        try {
-            if (segments.isNotEmpty()) {
-                val (start, end) = segments[0]
-                DebugLogger.log("SkipManager", "=>> Submitting to IntroDB: $imdbId S${season}E${episode} [${start}s - ${end}s]")
-                val client = IntroDBClient()
-                val result = client.submit(apiKey, imdbId, season, episode, start, end)
-                DebugLogger.log("SkipManager", "=>> IntroDB Submit Result: ${result.success} - ${result.message}")
-                
-                if (result.success) {
-                    onCallback?.run()
-                }
-            }
-        } catch (e: Exception) {
-            DebugLogger.log("SkipManager", "=>> IntroDB Submit ERROR: ${e.message}")
-            e.printStackTrace()
-        }
-    }
-
     /**
      * Try AniSkip API
      */
@@ -529,7 +506,7 @@ class SkipManager {
         if (!showName.isNullOrEmpty() && !episodeName.isNullOrEmpty()) {
             try {
                 val animeSkipClient = AnimeSkipClient()
-                val result = animeSkipClient.getTimestamps(showName, episodeName)
+                val result = animeSkipClient.getTimestamps(showName, episodeName, season.takeIf { it > 0 })
                 
                 if (result != null && result.timestamps.isNotEmpty()) {
                     DebugLogger.log("SkipManager", "  ✓ Anime Skip found ${result.timestamps.size} timestamps")
@@ -566,17 +543,8 @@ class SkipManager {
                     
                     // Auto-submit INTRO ONLY to IntroDB
                     if (introSegment != null && !introDbApiKey.isNullOrEmpty() && !imdbId.isNullOrEmpty()) {
-                        DebugLogger.log("SkipManager", "  → Auto-submitting INTRO ONLY to IntroDB")
-                        Thread {
-                            try {
-                                val introDbClient = IntroDBClient()
-                                introDbClient.submit(introDbApiKey, imdbId, season, episode, 
-                                    introSegment.first, introSegment.second)
-                                DebugLogger.log("SkipManager", "  ✓ Intro submitted to IntroDB")
-                            } catch (e: Exception) {
-                                DebugLogger.log("SkipManager", "  ✗ IntroDB submit error: ${e.message}")
-                            }
-                        }.start()
+                        DebugLogger.log("SkipManager", "  → Queueing INTRO ONLY for IntroDB")
+                        outbox.enqueue(imdbId, season, episode, introSegment.first, introSegment.second, "AnimeSkip")
                     }
                     
                     if (segments.isNotEmpty()) {
@@ -601,16 +569,8 @@ class SkipManager {
                     
                     // Auto-submit to IntroDB
                     if (!introDbApiKey.isNullOrEmpty()) {
-                        DebugLogger.log("SkipManager", "  → Auto-submitting SkipDB intro to IntroDB")
-                        Thread {
-                            try {
-                                IntroDBClient().submit(introDbApiKey, imdbId, season, episode,
-                                    segment.first, segment.second)
-                                DebugLogger.log("SkipManager", "  ✓ SkipDB intro submitted to IntroDB")
-                            } catch (e: Exception) {
-                                DebugLogger.log("SkipManager", "  ✗ IntroDB submit error: ${e.message}")
-                            }
-                        }.start()
+                        DebugLogger.log("SkipManager", "  → Queueing SkipDB intro for IntroDB")
+                        outbox.enqueue(imdbId, season, episode, segment.first, segment.second, "SkipDB")
                     }
                     
                     return listOf(segment)
@@ -633,16 +593,8 @@ class SkipManager {
                     
                     // Auto-submit INTRO ONLY to IntroDB
                     if (result.introSegment != null && !introDbApiKey.isNullOrEmpty()) {
-                        DebugLogger.log("SkipManager", "  → Auto-submitting INTRO from IntroHater to IntroDB")
-                        Thread {
-                            try {
-                                IntroDBClient().submit(introDbApiKey, imdbId, season, episode,
-                                    result.introSegment.first, result.introSegment.second)
-                                DebugLogger.log("SkipManager", "  ✓ Intro submitted to IntroDB")
-                            } catch (e: Exception) {
-                                DebugLogger.log("SkipManager", "  ✗ IntroDB submit error: ${e.message}")
-                            }
-                        }.start()
+                        DebugLogger.log("SkipManager", "  → Queueing INTRO from IntroHater for IntroDB")
+                        outbox.enqueue(imdbId, season, episode, result.introSegment.first, result.introSegment.second, "IntroHater")
                     }
                     
                     return introHaterClient.toSkipPairs(result)
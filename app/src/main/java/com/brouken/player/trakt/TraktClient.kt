@@ -4,8 +4,9 @@ import android.util.Log
 import com.brouken.player.utils.DebugLogger
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
-import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.*
 import okhttp3.*
+import okhttp3.HttpUrl.Companion.toHttpUrl
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.RequestBody.Companion.toRequestBody
 import java.io.IOException
@@ -25,6 +26,8 @@ object TraktClient {
     private const val BASE_URL = "https://api.trakt.tv"
     private const val API_VERSION = "2"
     private val JSON_MEDIA_TYPE = "application/json".toMediaType()
+    private const val MAX_BATCH_ITEMS = 100
+    private const val HISTORY_PAGE_SIZE = 100
     
     private val client = OkHttpClient.Builder()
         .connectTimeout(30, java.util.concurrent.TimeUnit.SECONDS)
@@ -35,6 +38,13 @@ object TraktClient {
         ignoreUnknownKeys = true 
         isLenient = true
     }
+    
+    /**
+     * Wall-clock time until which Trakt asked us to back off (429 Retry-After)
+     */
+    @Volatile
+    var rateLimitedUntil: Long = 0
+        private set
 
     // ==================== DEVICE CODE AUTHENTICATION ====================
 
@@ -252,6 +262,28 @@ object TraktClient {
         )
     }
 
+    /**
+     * Send a scrobble and report the outcome in enough detail to retry it
+     * POST /scrobble/{action} where action is start, pause or stop
+     */
+    fun scrobbleWrite(
+        action: String,
+        accessToken: String,
+        clientId: String,
+        mediaType: TraktMediaType,
+        imdbId: String?,
+        tmdbId: Int?,
+        season: Int?,
+        episode: Int?,
+        progress: Float
+    ): TraktWriteResult {
+        val request = scrobbleRequest(
+            "$BASE_URL/scrobble/$action",
+            accessToken, clientId, mediaType, imdbId, tmdbId, season, episode, progress
+        ) ?: return TraktWriteResult.Failed(TraktWriteResult.NO_IDS)
+        return write(request)
+    }
+
     private fun scrobble(
         url: String,
         accessToken: String,
@@ -263,6 +295,32 @@ object TraktClient {
         episode: Int?,
         progress: Float
     ): ScrobbleResponse? {
+        val request = scrobbleRequest(
+            url, accessToken, clientId, mediaType, imdbId, tmdbId, season, episode, progress
+        ) ?: return null
+        
+        return when (val result = write(request)) {
+            is TraktWriteResult.Ok -> try {
+                result.body?.let { json.decodeFromString<ScrobbleResponse>(it) }
+            } catch (e: Exception) {
+                DebugLogger.log(TAG, "  ✗ EXCEPTION: ${e.message}")
+                null
+            }
+            is TraktWriteResult.Failed -> null
+        }
+    }
+
+    private fun scrobbleRequest(
+        url: String,
+        accessToken: String,
+        clientId: String,
+        mediaType: TraktMediaType,
+        imdbId: String?,
+        tmdbId: Int?,
+        season: Int?,
+        episode: Int?,
+        progress: Float
+    ): Request? {
         DebugLogger.log(TAG, "╔══════════════════════════════════════════════════════════════════╗")
         DebugLogger.log(TAG, "║                    TRAKT SCROBBLE REQUEST                        ║")
         DebugLogger.log(TAG, "╚══════════════════════════════════════════════════════════════════╝")
@@ -291,7 +349,7 @@ object TraktClient {
         
         DebugLogger.log(TAG, "  Request Body: $body")
         
-        val request = Request.Builder()
+        return Request.Builder()
             .url(url)
             .post(body.toRequestBody(JSON_MEDIA_TYPE))
             .header("Content-Type", "application/json")
@@ -299,28 +357,33 @@ object TraktClient {
             .header("trakt-api-version", API_VERSION)
             .header("trakt-api-key", clientId)
             .build()
-        
+    }
+
+    /**
+     * Execute an authenticated write, recording Trakt's rate limit on 429
+     */
+    private fun write(request: Request): TraktWriteResult {
         return try {
             DebugLogger.log(TAG, "  Sending request...")
             client.newCall(request).execute().use { response ->
                 DebugLogger.log(TAG, "  Response Code: ${response.code}")
+                val responseBody = response.body?.string()
                 if (response.isSuccessful) {
-                    val responseBody = response.body?.string()
                     DebugLogger.log(TAG, "  ✓ SUCCESS! Response: $responseBody")
-                    responseBody?.let { json.decodeFromString<ScrobbleResponse>(it) }
+                    TraktWriteResult.Ok(responseBody)
                 } else {
-                    val errorBody = response.body?.string()
                     DebugLogger.log(TAG, "  ✗ FAILED! Code: ${response.code}")
-                    DebugLogger.log(TAG, "  Error Body: $errorBody")
-                    null
+                    DebugLogger.log(TAG, "  Error Body: $responseBody")
+                    val retryAfterMs = response.header("Retry-After")?.toLongOrNull()?.times(1000)
+                    if (response.code == 429) {
+                        rateLimitedUntil = System.currentTimeMillis() + (retryAfterMs ?: 1000L)
+                    }
+                    TraktWriteResult.Failed(response.code, retryAfterMs)
                 }
             }
         } catch (e: IOException) {
             DebugLogger.log(TAG, "  ✗ NETWORK ERROR: ${e.message}")
-            null
-        } catch (e: Exception) {
-            DebugLogger.log(TAG, "  ✗ EXCEPTION: ${e.message}")
-            null
+            TraktWriteResult.Failed(TraktWriteResult.NETWORK_ERROR)
         }
     }
 
@@ -377,6 +440,84 @@ object TraktClient {
         }
     }
 
+    /**
+     * Get the timestamps of the latest changes per category
+     * GET /sync/last_activities
+     */
+    fun getLastActivities(accessToken: String, clientId: String): LastActivities? {
+        val request = Request.Builder()
+            .url("$BASE_URL/sync/last_activities")
+            .get()
+            .header("Authorization", "Bearer $accessToken")
+            .header("trakt-api-version", API_VERSION)
+            .header("trakt-api-key", clientId)
+            .build()
+        
+        return try {
+            client.newCall(request).execute().use { response ->
+                if (response.isSuccessful) {
+                    response.body?.string()?.let { json.decodeFromString<LastActivities>(it) }
+                } else {
+                    DebugLogger.log(TAG, "Failed to get last activities: ${response.code}")
+                    null
+                }
+            }
+        } catch (e: IOException) {
+            DebugLogger.log(TAG, "Network error getting last activities: ${e.message}")
+            null
+        }
+    }
+
+    /**
+     * Get watch history entries newer than [startAt], following pagination
+     * GET /sync/history/{movies|episodes}?start_at=...
+     */
+    fun getHistorySince(
+        accessToken: String,
+        clientId: String,
+        type: String,
+        startAt: String?
+    ): List<HistoryItem>? {
+        DebugLogger.log(TAG, "Getting $type history since ${startAt ?: "the beginning"}...")
+        
+        val items = mutableListOf<HistoryItem>()
+        var page = 1
+        var pageCount = 1
+        
+        while (page <= pageCount) {
+            val url = "$BASE_URL/sync/history/$type".toHttpUrl().newBuilder()
+                .addQueryParameter("page", page.toString())
+                .addQueryParameter("limit", HISTORY_PAGE_SIZE.toString())
+                .apply { startAt?.let { addQueryParameter("start_at", it) } }
+                .build()
+            
+            val request = Request.Builder()
+                .url(url)
+                .get()
+                .header("Authorization", "Bearer $accessToken")
+                .header("trakt-api-version", API_VERSION)
+                .header("trakt-api-key", clientId)
+                .build()
+            
+            try {
+                client.newCall(request).execute().use { response ->
+                    if (!response.isSuccessful) {
+                        DebugLogger.log(TAG, "Failed to get history: ${response.code}")
+                        return null
+                    }
+                    pageCount = response.header("X-Pagination-Page-Count")?.toIntOrNull() ?: page
+                    response.body?.string()?.let { items.addAll(json.decodeFromString<List<HistoryItem>>(it)) }
+                }
+            } catch (e: IOException) {
+                DebugLogger.log(TAG, "Network error getting history: ${e.message}")
+                return null
+            }
+            page++
+        }
+        
+        return items
+    }
+
     /**
      * Remove a playback item (clear resume point)
      * DELETE /sync/playback/{id}
@@ -410,8 +551,6 @@ object TraktClient {
      * 
      * This saves the current playback position so it shows up in the user's 
      * progress/continue watching section on Trakt.
-     * 
-     * Format: { "shows": [{ "ids": {...}, "seasons": [{ "number": X, "episodes": [{ "number": Y, "progress": Z }] }] }] }
      */
     suspend fun syncPlaybackProgress(
         accessToken: String,
@@ -422,60 +561,9 @@ object TraktClient {
         season: Int?,
         episode: Int?,
         progress: Float
-    ): Boolean {
-        DebugLogger.log(TAG, "╔══════════════════════════════════════════════════════════════════╗")
-        DebugLogger.log(TAG, "║                    SYNC PLAYBACK PROGRESS                        ║")
-        DebugLogger.log(TAG, "╚══════════════════════════════════════════════════════════════════╝")
-        DebugLogger.log(TAG, "  IMDB ID: ${imdbId ?: "NULL"}")
-        DebugLogger.log(TAG, "  Season: $season, Episode: $episode")
-        DebugLogger.log(TAG, "  Progress: $progress%")
-        
-        if (imdbId == null && tmdbId == null) {
-            DebugLogger.log(TAG, "  ✗ No valid media IDs")
-            return false
-        }
-        
-        // Trakt /sync/playback expects array format
-        val idsJson = if (imdbId != null) "\"imdb\":\"$imdbId\"" else "\"tmdb\":$tmdbId"
-        val body = when (mediaType) {
-            TraktMediaType.EPISODE -> {
-                """{"shows":[{"ids":{$idsJson},"seasons":[{"number":${season ?: 1},"episodes":[{"number":${episode ?: 1},"progress":$progress}]}]}]}"""
-            }
-            TraktMediaType.MOVIE -> {
-                """{"movies":[{"ids":{$idsJson},"progress":$progress}]}"""
-            }
-        }
-        
-        DebugLogger.log(TAG, "  Request Body: $body")
-        
-        val request = Request.Builder()
-            .url("$BASE_URL/sync/playback")
-            .post(body.toRequestBody(JSON_MEDIA_TYPE))
-            .header("Authorization", "Bearer $accessToken")
-            .header("trakt-api-version", API_VERSION)
-            .header("trakt-api-key", clientId)
-            .header("Content-Type", "application/json")
-            .build()
-        
-        return withContext(Dispatchers.IO) {
-            try {
-                client.newCall(request).execute().use { response ->
-                    DebugLogger.log(TAG, "  Response Code: ${response.code}")
-                    if (response.isSuccessful) {
-                        val responseBody = response.body?.string()
-                        DebugLogger.log(TAG, "  ✓ Playback progress saved! Response: $responseBody")
-                        true
-                    } else {
-                        val errorBody = response.body?.string()
-                        DebugLogger.log(TAG, "  ✗ Failed! Error: $errorBody")
-                        false
-                    }
-                }
-            } catch (e: IOException) {
-                DebugLogger.log(TAG, "  ✗ Network error: ${e.message}")
-                false
-            }
-        }
+    ): Boolean = withContext(Dispatchers.IO) {
+        val item = TraktSyncItem(mediaType, imdbId, tmdbId, season, episode, progress = progress)
+        syncPlaybackBatch(accessToken, clientId, listOf(item)).synced.isNotEmpty()
     }
     
     /**
@@ -492,58 +580,225 @@ object TraktClient {
         tmdbId: Int?,
         season: Int?,
         episode: Int?
-    ): Boolean {
+    ): Boolean = withContext(Dispatchers.IO) {
+        val item = TraktSyncItem(mediaType, imdbId, tmdbId, season, episode, watchedAt = System.currentTimeMillis())
+        syncHistoryBatch(accessToken, clientId, listOf(item)).synced.isNotEmpty()
+    }
+
+    // ==================== BATCH SYNC ====================
+
+    /**
+     * Add many movies/episodes to watch history, [MAX_BATCH_ITEMS] per request
+     * POST /sync/history
+     */
+    fun syncHistoryBatch(accessToken: String, clientId: String, items: List<TraktSyncItem>): TraktBatchResult {
+        return syncBatch("$BASE_URL/sync/history", accessToken, clientId, items) { item ->
+            put("watched_at", java.time.Instant.ofEpochMilli(item.watchedAt).toString())
+        }
+    }
+
+    /**
+     * Save playback progress for many movies/episodes, [MAX_BATCH_ITEMS] per request
+     * POST /sync/playback
+     */
+    fun syncPlaybackBatch(accessToken: String, clientId: String, items: List<TraktSyncItem>): TraktBatchResult {
+        return syncBatch("$BASE_URL/sync/playback", accessToken, clientId, items) { item ->
+            put("progress", item.progress)
+        }
+    }
+
+    /**
+     * Send [items] in size-bounded chunks and sort them by outcome
+     *
+     * Items listed under not_found are reported separately so only chunks
+     * that failed as a whole are worth retrying. After a 429 or network
+     * error the remaining chunks aren't attempted.
+     */
+    private fun syncBatch(
+        url: String,
+        accessToken: String,
+        clientId: String,
+        items: List<TraktSyncItem>,
+        itemFields: JsonObjectBuilder.(TraktSyncItem) -> Unit
+    ): TraktBatchResult {
         DebugLogger.log(TAG, "╔══════════════════════════════════════════════════════════════════╗")
-        DebugLogger.log(TAG, "║                    SYNC TO HISTORY                               ║")
+        DebugLogger.log(TAG, "║                    BATCH SYNC                                    ║")
         DebugLogger.log(TAG, "╚══════════════════════════════════════════════════════════════════╝")
-        DebugLogger.log(TAG, "  IMDB ID: ${imdbId ?: "NULL"}")
-        DebugLogger.log(TAG, "  Season: $season, Episode: $episode")
+        DebugLogger.log(TAG, "  URL: $url")
+        DebugLogger.log(TAG, "  Items: ${items.size}")
         
-        if (imdbId == null && tmdbId == null) {
-            DebugLogger.log(TAG, "  ✗ No valid media IDs")
-            return false
+        val synced = mutableListOf<TraktSyncItem>()
+        val notFound = items.filter { !it.hasIds }.toMutableList()
+        val failed = mutableListOf<TraktSyncItem>()
+        var failure: TraktWriteResult.Failed? = null
+        
+        if (notFound.isNotEmpty()) {
+            DebugLogger.log(TAG, "  ✗ ${notFound.size} item(s) without valid media IDs")
+        }
+        
+        for (chunk in items.filter { it.hasIds }.chunked(MAX_BATCH_ITEMS)) {
+            val lastCode = failure?.code
+            if (lastCode == 429 || lastCode == TraktWriteResult.NETWORK_ERROR) {
+                failed.addAll(chunk)
+                continue
+            }
+            
+            val body = buildSyncBody(chunk, itemFields)
+            DebugLogger.log(TAG, "  Request Body: $body")
+            
+            val request = Request.Builder()
+                .url(url)
+                .post(body.toRequestBody(JSON_MEDIA_TYPE))
+                .header("Authorization", "Bearer $accessToken")
+                .header("trakt-api-version", API_VERSION)
+                .header("trakt-api-key", clientId)
+                .header("Content-Type", "application/json")
+                .build()
+            
+            when (val result = write(request)) {
+                is TraktWriteResult.Ok -> {
+                    val missing = notFoundItems(result.body, chunk)
+                    notFound.addAll(missing)
+                    synced.addAll(chunk.filter { it !in missing })
+                }
+                is TraktWriteResult.Failed -> {
+                    failed.addAll(chunk)
+                    failure = result
+                }
+            }
         }
         
-        val idsJson = if (imdbId != null) "\"imdb\":\"$imdbId\"" else "\"tmdb\":$tmdbId"
-        val timestamp = java.time.Instant.now().toString()
+        DebugLogger.log(TAG, "  Synced: ${synced.size}, not found: ${notFound.size}, failed: ${failed.size}")
+        return TraktBatchResult(synced, notFound, failed, failure)
+    }
+
+    /**
+     * {"movies":[{ids, ...}], "shows":[{ids, "seasons":[{number, "episodes":[{number, ...}]}]}]}
+     */
+    private fun buildSyncBody(
+        items: List<TraktSyncItem>,
+        itemFields: JsonObjectBuilder.(TraktSyncItem) -> Unit
+    ): String {
+        val (episodes, movies) = items.partition { it.mediaType == TraktMediaType.EPISODE }
         
-        val body = when (mediaType) {
-            TraktMediaType.EPISODE -> {
-                """{"shows":[{"ids":{$idsJson},"seasons":[{"number":${season ?: 1},"episodes":[{"number":${episode ?: 1},"watched_at":"$timestamp"}]}]}]}"""
+        return buildJsonObject {
+            if (movies.isNotEmpty()) {
+                putJsonArray("movies") {
+                    movies.forEach { movie ->
+                        addJsonObject {
+                            put("ids", idsObject(movie.imdbId, movie.tmdbId))
+                            itemFields(movie)
+                        }
+                    }
+                }
             }
-            TraktMediaType.MOVIE -> {
-                """{"movies":[{"ids":{$idsJson},"watched_at":"$timestamp"}]}"""
+            if (episodes.isNotEmpty()) {
+                putJsonArray("shows") {
+                    episodes.groupBy { it.imdbId to it.tmdbId }.forEach { (ids, showEpisodes) ->
+                        addJsonObject {
+                            put("ids", idsObject(ids.first, ids.second))
+                            putJsonArray("seasons") {
+                                showEpisodes.groupBy { it.season ?: 1 }.forEach { (season, seasonEpisodes) ->
+                                    addJsonObject {
+                                        put("number", season)
+                                        putJsonArray("episodes") {
+                                            seasonEpisodes.forEach { episode ->
+                                                addJsonObject {
+                                                    put("number", episode.episode ?: 1)
+                                                    itemFields(episode)
+                                                }
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
             }
+        }.toString()
+    }
+
+    private fun idsObject(imdbId: String?, tmdbId: Int?): JsonObject = buildJsonObject {
+        // Same test as TraktSyncItem.hasIds, so a blank IMDB ID falls back to TMDB
+        if (!imdbId.isNullOrBlank()) put("imdb", imdbId) else put("tmdb", tmdbId)
+    }
+
+    /**
+     * An entry of not_found; [season] and [episode] are null when the
+     * entry covers the whole show or season
+     */
+    private class NotFoundEntry(
+        val imdbId: String?,
+        val tmdbId: Int?,
+        val season: Int? = null,
+        val episode: Int? = null
+    ) {
+        fun matches(item: TraktSyncItem): Boolean {
+            val sameIds = (!imdbId.isNullOrBlank() && imdbId == item.imdbId) ||
+                    (tmdbId != null && tmdbId == item.tmdbId)
+            return sameIds &&
+                    (season == null || season == (item.season ?: 1)) &&
+                    (episode == null || episode == (item.episode ?: 1))
         }
+    }
+
+    /**
+     * Items of [chunk] that the response lists under not_found
+     *
+     * Movies match on their IDs. Episodes match on the show's IDs, narrowed
+     * to the seasons and episodes listed under the show, and on entries of
+     * not_found.seasons and not_found.episodes that carry the same IDs.
+     */
+    private fun notFoundItems(body: String?, chunk: List<TraktSyncItem>): List<TraktSyncItem> {
+        val notFound = try {
+            body?.let { json.parseToJsonElement(it).jsonObject["not_found"]?.jsonObject }
+        } catch (e: Exception) {
+            null
+        } ?: return emptyList()
         
-        DebugLogger.log(TAG, "  Request Body: $body")
+        fun entries(key: String): List<JsonObject> =
+            (notFound[key] as? JsonArray).orEmpty().mapNotNull { it as? JsonObject }
         
-        val request = Request.Builder()
-            .url("$BASE_URL/sync/history")
-            .post(body.toRequestBody(JSON_MEDIA_TYPE))
-            .header("Authorization", "Bearer $accessToken")
-            .header("trakt-api-version", API_VERSION)
-            .header("trakt-api-key", clientId)
-            .header("Content-Type", "application/json")
-            .build()
+        fun JsonObject.int(key: String): Int? = (get(key) as? JsonPrimitive)?.intOrNull
         
-        return withContext(Dispatchers.IO) {
-            try {
-                client.newCall(request).execute().use { response ->
-                    DebugLogger.log(TAG, "  Response Code: ${response.code}")
-                    if (response.isSuccessful) {
-                        val responseBody = response.body?.string()
-                        DebugLogger.log(TAG, "  ✓ Added to history! Response: $responseBody")
-                        true
-                    } else {
-                        val errorBody = response.body?.string()
-                        DebugLogger.log(TAG, "  ✗ Failed! Error: $errorBody")
-                        false
-                    }
+        fun JsonObject.entry(season: Int? = null, episode: Int? = null): NotFoundEntry? {
+            val ids = get("ids") as? JsonObject ?: return null
+            return NotFoundEntry(
+                (ids["imdb"] as? JsonPrimitive)?.contentOrNull,
+                (ids["tmdb"] as? JsonPrimitive)?.intOrNull,
+                season, episode
+            )
+        }
+        
+        val movies = entries("movies").mapNotNull { it.entry() }
+        
+        val episodes = ArrayList<NotFoundEntry>()
+        for (show in entries("shows")) {
+            val seasons = (show["seasons"] as? JsonArray)?.mapNotNull { it as? JsonObject }
+            if (seasons.isNullOrEmpty()) {
+                show.entry()?.let { episodes.add(it) }
+                continue
+            }
+            for (season in seasons) {
+                val number = season.int("number") ?: continue
+                val seasonEpisodes = (season["episodes"] as? JsonArray)?.mapNotNull { (it as? JsonObject)?.int("number") }
+                if (seasonEpisodes.isNullOrEmpty()) {
+                    show.entry(number)?.let { episodes.add(it) }
+                } else {
+                    seasonEpisodes.forEach { episode -> show.entry(number, episode)?.let { episodes.add(it) } }
                 }
-            } catch (e: IOException) {
-                DebugLogger.log(TAG, "  ✗ Network error: ${e.message}")
-                false
+            }
+        }
+        entries("seasons").forEach { season -> season.entry(season.int("number"))?.let { episodes.add(it) } }
+        entries("episodes").forEach { episode ->
+            episode.entry(episode.int("season"), episode.int("number"))?.let { episodes.add(it) }
+        }
+        
+        return chunk.filter { item ->
+            when (item.mediaType) {
+                TraktMediaType.MOVIE -> movies.any { it.matches(item) }
+                TraktMediaType.EPISODE -> episodes.any { it.matches(item) }
             }
         }
     }
@@ -50,7 +50,60 @@ data class PlaybackItem(
     val progress: Float,
     @SerialName("paused_at") val pausedAt: String,
     val id: Int,
-    val type: String
+    val type: String,
+    val movie: TraktMediaRef? = null,
+    val show: TraktMediaRef? = null,
+    val episode: TraktEpisodeRef? = null
+)
+
+/**
+ * History entry from GET /sync/history/{type}
+ */
+@Serializable
+data class HistoryItem(
+    val id: Long,
+    @SerialName("watched_at") val watchedAt: String,
+    val type: String,
+    val movie: TraktMediaRef? = null,
+    val show: TraktMediaRef? = null,
+    val episode: TraktEpisodeRef? = null
+)
+
+@Serializable
+data class TraktIds(
+    val trakt: Long? = null,
+    val imdb: String? = null,
+    val tmdb: Int? = null
+)
+
+@Serializable
+data class TraktMediaRef(
+    val title: String? = null,
+    val ids: TraktIds = TraktIds()
+)
+
+@Serializable
+data class TraktEpisodeRef(
+    val season: Int = 0,
+    val number: Int = 0,
+    val ids: TraktIds = TraktIds()
+)
+
+/**
+ * Timestamps from GET /sync/last_activities
+ * Each changes whenever the matching data changes on any device
+ */
+@Serializable
+data class LastActivities(
+    val all: String? = null,
+    val movies: ActivityTimes = ActivityTimes(),
+    val episodes: ActivityTimes = ActivityTimes()
+)
+
+@Serializable
+data class ActivityTimes(
+    @SerialName("watched_at") val watchedAt: String? = null,
+    @SerialName("paused_at") val pausedAt: String? = null
 )
 
 /**
@@ -67,6 +120,50 @@ sealed class TokenPollResult {
     object Error : TokenPollResult()             // Network/unknown error
 }
 
+/**
+ * Outcome of a Trakt write, with what a retry decision needs
+ */
+sealed class TraktWriteResult {
+    data class Ok(val body: String?) : TraktWriteResult()
+    data class Failed(val code: Int, val retryAfterMs: Long? = null) : TraktWriteResult()
+
+    companion object {
+        const val NETWORK_ERROR = 0     // No HTTP response at all
+        const val NO_IDS = -1           // Nothing to identify the item by
+    }
+}
+
+/**
+ * One movie or episode in a batched /sync request
+ *
+ * [progress] is used by /sync/playback, [watchedAt] (epoch millis) by /sync/history.
+ */
+data class TraktSyncItem(
+    val mediaType: TraktMediaType,
+    val imdbId: String?,
+    val tmdbId: Int?,
+    val season: Int?,
+    val episode: Int?,
+    val progress: Float = 0f,
+    val watchedAt: Long = 0
+) {
+    val hasIds: Boolean
+        get() = !imdbId.isNullOrBlank() || tmdbId != null
+}
+
+/**
+ * Per-item outcome of a batched sync
+ *
+ * [failed] items were in chunks that got no usable answer and can be
+ * retried; [failure] is the last chunk error.
+ */
+data class TraktBatchResult(
+    val synced: List<TraktSyncItem>,
+    val notFound: List<TraktSyncItem>,
+    val failed: List<TraktSyncItem>,
+    val failure: TraktWriteResult.Failed?
+)
+
 /**
  * Media type for scrobbling
  */
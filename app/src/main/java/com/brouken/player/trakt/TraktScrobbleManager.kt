@@ -6,13 +6,14 @@ import android.os.Looper
 import android.util.Log
 import android.widget.Toast
 import com.brouken.player.utils.DebugLogger
-import kotlinx.coroutines.*
 
 /**
  * Trakt Scrobble Manager
  * 
  * Manages the scrobbling state machine and displays toast notifications.
- * Tracks playback state and sends appropriate scrobble events to Trakt.
+ * Tracks playback state and queues scrobble events in [TraktScrobbleOutbox],
+ * which delivers them (and the follow-up history/progress sync) even if
+ * the network is down or the player is closed.
  */
 class TraktScrobbleManager(
     private val context: Context,
@@ -23,10 +24,13 @@ class TraktScrobbleManager(
     companion object {
         private const val TAG = "TraktScrobble"
         private const val PROGRESS_UPDATE_INTERVAL_MS = 15 * 60 * 1000L  // 15 minutes
+        private const val RESUME_MIN_GAIN_MS = 30_000L
+        private const val RESUME_MAX_PROGRESS = 95f
     }
 
     private val mainHandler = Handler(Looper.getMainLooper())
-    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val outbox = TraktScrobbleOutbox.getInstance(context)
+    private val watchState = TraktWatchStateStore.getInstance(context)
 
     // Current media being tracked
     private var currentImdbId: String? = null
@@ -89,19 +93,11 @@ class TraktScrobbleManager(
         // immediately send scrobble start to Trakt!
         if (isTracking && canScrobble()) {
             DebugLogger.log(TAG, "  ★ Re-sending scrobble START with new IMDB ID...")
-            scope.launch {
-                val response = TraktClient.scrobbleStart(
-                    accessToken, clientId, currentMediaType,
-                    currentImdbId, currentTmdbId, currentSeason, currentEpisode, 0.1f
-                )
+            send(TraktScrobbleOutbox.Op.START, 0.1f) { response ->
                 if (response != null) {
                     lastAction = response.action
                     DebugLogger.log(TAG, "  ★ Re-scrobble response: ${response.action}")
-                    if (showToasts) {
-                        mainHandler.post {
-                            Toast.makeText(context, "✓ Now tracking on Trakt", Toast.LENGTH_SHORT).show()
-                        }
-                    }
+                    showToast("✓ Now tracking on Trakt")
                 } else {
                     DebugLogger.log(TAG, "  ✗ Re-scrobble failed - null response")
                 }
@@ -132,12 +128,7 @@ class TraktScrobbleManager(
             return
         }
         
-        scope.launch {
-            val response = TraktClient.scrobbleStart(
-                accessToken, clientId, currentMediaType,
-                currentImdbId, currentTmdbId, currentSeason, currentEpisode, progress
-            )
-            
+        send(TraktScrobbleOutbox.Op.START, progress) { response ->
             if (response != null) {
                 lastAction = response.action
                 DebugLogger.log(TAG, "Scrobble start response: ${response.action}")
@@ -175,24 +166,18 @@ class TraktScrobbleManager(
         DebugLogger.log(TAG, "Sending pause to Trakt...")
         stopProgressTimer()
         
-        scope.launch {
-            val response = TraktClient.scrobblePause(
-                accessToken, clientId, currentMediaType,
-                currentImdbId, currentTmdbId, currentSeason, currentEpisode, progress
-            )
-            
+        watchState.recordProgress(
+            currentMediaType, currentImdbId, currentTmdbId, currentSeason, currentEpisode, progress
+        )
+        
+        // The outbox also syncs Trakt's playback progress (Continue Watching) afterwards
+        send(TraktScrobbleOutbox.Op.PAUSE, progress) { response ->
             if (response != null) {
                 lastAction = response.action
                 DebugLogger.log(TAG, "Pause response: ${response.action}")
             } else {
                  DebugLogger.log(TAG, "Pause failed - null response")
             }
-            
-            // Also sync to Trakt's playback progress (Continue Watching)
-            TraktClient.syncPlaybackProgress(
-                accessToken, clientId, currentMediaType,
-                currentImdbId, currentTmdbId, currentSeason, currentEpisode, progress
-            )
         }
     }
 
@@ -225,47 +210,28 @@ class TraktScrobbleManager(
         }
         
         DebugLogger.log(TAG, "Sending stop to Trakt...")
-        scope.launch {
-            val response = TraktClient.scrobbleStop(
-                accessToken, clientId, currentMediaType,
-                currentImdbId, currentTmdbId, currentSeason, currentEpisode, progress
+        if (progress >= 80f) {
+            watchState.recordWatched(currentMediaType, currentImdbId, currentTmdbId, currentSeason, currentEpisode)
+        } else {
+            watchState.recordProgress(
+                currentMediaType, currentImdbId, currentTmdbId, currentSeason, currentEpisode, progress
             )
-            
+        }
+        // If marked as watched (scrobbled), the outbox then adds it to history,
+        // otherwise it syncs playback progress
+        send(TraktScrobbleOutbox.Op.STOP, progress) { response ->
             if (response != null) {
                 lastAction = response.action
                 DebugLogger.log(TAG, "Stop response: ${response.action}")
                 
                 // Show specific toast based on action
-                if (showToasts) {
-                    mainHandler.post {
-                       when (response.action) {
-                            "scrobble" -> Toast.makeText(context, "✓ Scrobbled to Trakt", Toast.LENGTH_SHORT).show()
-                            "pause" -> Toast.makeText(context, "Progress saved", Toast.LENGTH_SHORT).show()
-                            else -> DebugLogger.log(TAG, "Stop action: ${response.action}")
-                        }
-                    }
-                }
-                
-                // If marked as watched (scrobbled), also add to history
-                // If paused, sync playback progress
-                if (response.action == "scrobble" || progress >= 80f) {
-                    TraktClient.syncToHistory(
-                        accessToken, clientId, currentMediaType,
-                        currentImdbId, currentTmdbId, currentSeason, currentEpisode
-                    )
-                } else {
-                    TraktClient.syncPlaybackProgress(
-                        accessToken, clientId, currentMediaType,
-                        currentImdbId, currentTmdbId, currentSeason, currentEpisode, progress
-                    )
+                when (response.action) {
+                    "scrobble" -> showToast("✓ Scrobbled to Trakt")
+                    "pause" -> showToast("Progress saved")
+                    else -> DebugLogger.log(TAG, "Stop action: ${response.action}")
                 }
             } else {
                  DebugLogger.log(TAG, "Stop failed - null response")
-                 // Still try to sync progress even if scrobble failed
-                 TraktClient.syncPlaybackProgress(
-                     accessToken, clientId, currentMediaType,
-                     currentImdbId, currentTmdbId, currentSeason, currentEpisode, progress
-                 )
             }
         }
     }
@@ -279,15 +245,42 @@ class TraktScrobbleManager(
         
         DebugLogger.log(TAG, "Progress update: $progress%")
         
-        scope.launch {
-            // Silent update - no toast
-            TraktClient.scrobbleStart(
-                accessToken, clientId, currentMediaType,
-                currentImdbId, currentTmdbId, currentSeason, currentEpisode, progress
-            )
+        // Silent update - no toast
+        send(TraktScrobbleOutbox.Op.START, progress)
+    }
+
+    /**
+     * Refresh the local Trakt mirror in the background
+     *
+     * [callback] runs on a background thread when something changed.
+     */
+    fun syncWatchState(callback: Runnable?) {
+        if (accessToken.isBlank() || clientId.isBlank()) return
+        watchState.syncAsync(accessToken, clientId) { changed ->
+            if (changed) callback?.run()
         }
     }
 
+    /**
+     * Resume position saved on another device, from the local mirror
+     *
+     * Returns a position in ms if Trakt's resume point is meaningfully ahead
+     * of [positionMs], or -1 otherwise.
+     */
+    fun remoteResumePosition(positionMs: Long, durationMs: Long): Long {
+        if (durationMs <= 0 || (currentImdbId.isNullOrBlank() && currentTmdbId == null)) return -1
+        
+        val state = watchState.find(currentMediaType, currentImdbId, currentTmdbId, currentSeason, currentEpisode)
+        val progress = state?.progress ?: return -1
+        if (progress >= RESUME_MAX_PROGRESS) return -1
+        
+        val target = (durationMs * (progress / 100.0)).toLong()
+        if (target < positionMs + RESUME_MIN_GAIN_MS) return -1
+        
+        DebugLogger.log(TAG, "Trakt resume point: $progress% (${target / 1000}s), local at ${positionMs / 1000}s")
+        return target
+    }
+
     private fun startProgressTimer(initialProgress: Float) {
         stopProgressTimer()
         
@@ -306,6 +299,17 @@ class TraktScrobbleManager(
         progressRunnable = null
     }
 
+    private fun send(
+        op: TraktScrobbleOutbox.Op,
+        progress: Float,
+        callback: TraktScrobbleOutbox.DeliveryCallback? = null
+    ) {
+        outbox.enqueue(
+            op, currentMediaType,
+            currentImdbId, currentTmdbId, currentSeason, currentEpisode, progress, callback
+        )
+    }
+
     private fun canScrobble(): Boolean {
         DebugLogger.log(TAG, "Checking canScrobble()...")
         if (accessToken.isBlank()) {
@@ -327,7 +331,8 @@ class TraktScrobbleManager(
     private fun showToast(message: String) {
         if (!showToasts) return  // Check if toasts are enabled
         mainHandler.post {
-            Toast.makeText(context, message, Toast.LENGTH_SHORT).show()
+            // Delivery can complete after the player is gone
+            Toast.makeText(context.applicationContext, message, Toast.LENGTH_SHORT).show()
         }
     }
 
@@ -336,7 +341,6 @@ class TraktScrobbleManager(
      */
     fun release() {
         stopProgressTimer()
-        scope.cancel()
         isTracking = false
     }
 }
@@ -0,0 +1,491 @@
+package com.brouken.player.trakt
+
+import android.content.Context
+import android.content.SharedPreferences
+import com.brouken.player.utils.DebugLogger
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * Persistent queue of Trakt scrobble events
+ *
+ * Events are written to disk before any request is made and delivered by a
+ * single worker, in order per item, so nothing is lost while offline and
+ * pending events replay after a restart. History and playback follow-ups
+ * are held briefly and sent through Trakt's batch sync endpoints. Scrobble states for the same item that are
+ * still waiting collapse into the newest one (start → pause → start within
+ * the coalescing window sends one start). Failures back off exponentially
+ * with jitter, and a 429 holds the whole queue for Trakt's Retry-After.
+ * Credentials are read from the [CredentialStore] when sending; a 401
+ * renews the token, or holds the queue until the user signs in again.
+ */
+class TraktScrobbleOutbox private constructor(context: Context) {
+
+    companion object {
+        private const val TAG = "TraktOutbox"
+        private const val PREFS_NAME = "jasp_trakt_outbox"
+        private const val KEY_EVENTS = "events"
+        // Credentials were once copied here; they are now read from the app settings
+        private const val LEGACY_KEY_ACCESS_TOKEN = "access_token"
+        private const val LEGACY_KEY_CLIENT_ID = "client_id"
+
+        private const val COALESCE_WINDOW_MS = 3000L
+        private const val BASE_BACKOFF_MS = 5000L
+        private const val MAX_BACKOFF_MS = 15 * 60 * 1000L
+        private const val MAX_ATTEMPTS = 10
+        private const val MAX_EVENTS = 200
+        private const val MAX_SYNC_BATCH = 100
+
+        // How long a token Trakt rejected and that couldn't be renewed holds the queue
+        private const val AUTH_RETRY_MS = MAX_BACKOFF_MS
+
+        // Follow-up syncs wait a little so a binge or offline catch-up goes out in one request
+        private const val SYNC_BATCH_WINDOW_MS = 30_000L
+
+        // Past these ages a live scrobble no longer describes what happened
+        private const val STALE_START_MS = 30 * 60 * 1000L
+        private const val LATE_SCROBBLE_MS = 10 * 60 * 1000L
+
+        private const val WATCHED_PROGRESS = 80f
+
+        private val json = Json {
+            ignoreUnknownKeys = true
+        }
+
+        @Volatile
+        private var instance: TraktScrobbleOutbox? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): TraktScrobbleOutbox {
+            return instance ?: synchronized(this) {
+                instance ?: TraktScrobbleOutbox(context.applicationContext).also { instance = it }
+            }
+        }
+    }
+
+    enum class Op {
+        START,
+        PAUSE,
+        STOP,
+        PLAYBACK,   // Follow-up: save resume point
+        HISTORY     // Follow-up: add to watch history
+    }
+
+    @Serializable
+    data class Event(
+        val id: Long,
+        val op: Op,
+        val mediaType: TraktMediaType,
+        val imdbId: String?,
+        val tmdbId: Int?,
+        val season: Int?,
+        val episode: Int?,
+        val progress: Float,
+        val createdAt: Long,
+        val attempts: Int = 0,
+        val notBefore: Long = 0
+    ) {
+        val itemKey: String
+            get() = "$mediaType:${imdbId ?: ""}:${tmdbId ?: ""}:${season ?: ""}:${episode ?: ""}"
+
+        val isScrobble: Boolean
+            get() = op == Op.START || op == Op.PAUSE || op == Op.STOP
+
+        fun toSyncItem() = TraktSyncItem(
+            mediaType, imdbId, tmdbId, season, episode,
+            progress = progress,
+            watchedAt = createdAt
+        )
+
+        /**
+         * A stop that marks the item watched must survive coalescing
+         */
+        val isCompletion: Boolean
+            get() = op == Op.STOP && progress >= WATCHED_PROGRESS
+    }
+
+    /**
+     * Called on the worker thread once Trakt answered a scrobble
+     */
+    fun interface DeliveryCallback {
+        fun onDelivered(response: ScrobbleResponse?)
+    }
+
+    class Credentials(val accessToken: String, val clientId: String)
+
+    /**
+     * Where the Trakt sign-in lives; read on the worker thread at every send
+     */
+    interface CredentialStore {
+        /** Access token and client ID, or null if signed out */
+        fun credentials(): Credentials?
+        fun refreshToken(): String?
+        fun clientSecret(): String?
+        fun saveTokens(accessToken: String, refreshToken: String, expiry: Long)
+    }
+
+    private val prefs: SharedPreferences =
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+
+    // Nothing is sent until the app hands over where the tokens are
+    @Volatile private var credentialStore: CredentialStore? = null
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val lock = Any()
+    private val events = ArrayList<Event>()
+    private val callbacks = HashMap<Long, DeliveryCallback>()
+    private val wakeups = Channel<Unit>(Channel.CONFLATED)
+    private var nextId = 0L
+
+    // Token Trakt answered 401 for, and when to try it again
+    @Volatile private var rejectedToken: String? = null
+    @Volatile private var rejectedUntil = 0L
+
+    init {
+        load()
+        scope.launch {
+            for (signal in wakeups) {
+                drain()
+            }
+        }
+        if (events.isNotEmpty()) {
+            DebugLogger.log(TAG, "Replaying ${events.size} pending events")
+            wakeups.trySend(Unit)
+        }
+    }
+
+    /**
+     * Set where credentials are read and renewed tokens saved, and send what is queued
+     */
+    fun setCredentialStore(store: CredentialStore) {
+        credentialStore = store
+        wakeups.trySend(Unit)
+    }
+
+    /**
+     * Queue a scrobble for delivery
+     */
+    fun enqueue(
+        op: Op,
+        mediaType: TraktMediaType,
+        imdbId: String?,
+        tmdbId: Int?,
+        season: Int?,
+        episode: Int?,
+        progress: Float,
+        callback: DeliveryCallback? = null
+    ) {
+        val now = System.currentTimeMillis()
+        synchronized(lock) {
+            val event = Event(
+                id = nextId++,
+                op = op,
+                mediaType = mediaType,
+                imdbId = imdbId,
+                tmdbId = tmdbId,
+                season = season,
+                episode = episode,
+                progress = progress,
+                createdAt = now,
+                notBefore = now + if (op == Op.PLAYBACK || op == Op.HISTORY) SYNC_BATCH_WINDOW_MS else COALESCE_WINDOW_MS
+            )
+            add(event, callback)
+
+            // New activity is a good moment to retry anything backing off
+            events.replaceAll { if (it.attempts > 0) it.copy(notBefore = minOf(it.notBefore, event.notBefore)) else it }
+            save()
+        }
+        wakeups.trySend(Unit)
+    }
+
+    /**
+     * Number of events waiting for delivery
+     */
+    fun pendingCount(): Int = synchronized(lock) { events.size }
+
+    // ========================================================================
+    // QUEUE
+    // ========================================================================
+
+    /**
+     * Append [event], dropping pending events it supersedes; must hold [lock]
+     */
+    private fun add(event: Event, callback: DeliveryCallback?) {
+        val superseded = events.filter { pending ->
+            pending.itemKey == event.itemKey && when {
+                // Older states already describe a separate stretch of playback
+                event.isScrobble -> pending.isScrobble && !pending.isCompletion &&
+                        event.createdAt - pending.createdAt <= COALESCE_WINDOW_MS
+                event.op == Op.PLAYBACK -> pending.op == Op.PLAYBACK
+                else -> false
+            }
+        }
+        if (superseded.isNotEmpty()) {
+            DebugLogger.log(TAG, "Coalesced ${superseded.joinToString { it.op.name }} into ${event.op}")
+            superseded.forEach { callbacks.remove(it.id) }
+            events.removeAll(superseded.toSet())
+        }
+
+        events.add(event)
+        callback?.let { callbacks[event.id] = it }
+
+        // Bound the queue; the oldest entries are the least useful
+        while (events.size > MAX_EVENTS) {
+            callbacks.remove(events.removeAt(0).id)
+        }
+    }
+
+    private suspend fun drain() {
+        while (true) {
+            val next = synchronized(lock) { deliverable().minByOrNull { it.notBefore } } ?: return
+            // Signed out; what is queued goes out after the next sign-in
+            val credentials = credentialStore?.credentials() ?: return
+
+            val parkedUntil = if (credentials.accessToken == rejectedToken) rejectedUntil else 0L
+            val readyAt = maxOf(next.notBefore, TraktClient.rateLimitedUntil, parkedUntil)
+            val wait = readyAt - System.currentTimeMillis()
+            if (wait > 0) {
+                // Sleep, but wake early if something is enqueued
+                withTimeoutOrNull(wait) { wakeups.receive() }
+                continue
+            }
+
+            if (next.op == Op.PLAYBACK || next.op == Op.HISTORY) {
+                deliverBatch(next.op, credentials)
+            } else {
+                deliver(next, credentials)
+            }
+        }
+    }
+
+    /**
+     * The oldest pending scrobble and the oldest pending follow-up of each
+     * item; later ones wait their turn so each stays in order, while a new
+     * scrobble doesn't wait behind a follow-up held for batching. Must hold [lock].
+     */
+    private fun deliverable(): List<Event> {
+        val seen = HashSet<String>()
+        return events.filter { seen.add("${it.isScrobble}/${it.itemKey}") }
+    }
+
+    private fun deliver(event: Event, credentials: Credentials) {
+        val accessToken = credentials.accessToken
+        val clientId = credentials.clientId
+        val age = System.currentTimeMillis() - event.createdAt
+
+        val result = when (event.op) {
+            Op.START -> {
+                if (age > STALE_START_MS) {
+                    DebugLogger.log(TAG, "Dropping stale start (${age / 1000}s old)")
+                    complete(event, null)
+                    return
+                }
+                scrobble("start", accessToken, clientId, event)
+            }
+            Op.PAUSE, Op.STOP -> {
+                if (age > LATE_SCROBBLE_MS) {
+                    // A live scrobble would be stamped now; record the outcome directly
+                    DebugLogger.log(TAG, "Late ${event.op} (${age / 1000}s old), syncing instead")
+                    complete(event, null, followUpFor(event, null))
+                    return
+                }
+                scrobble(if (event.op == Op.PAUSE) "pause" else "stop", accessToken, clientId, event)
+            }
+            Op.PLAYBACK, Op.HISTORY -> {
+                deliverBatch(event.op, credentials)
+                return
+            }
+        }
+
+        when (result) {
+            is TraktWriteResult.Ok -> {
+                val response = if (event.isScrobble) parseScrobble(result.body) else null
+                complete(event, response, followUpFor(event, response))
+            }
+            is TraktWriteResult.Failed -> {
+                if (result.code == 401) onUnauthorized(credentials) else handleFailure(event, result)
+            }
+        }
+    }
+
+    /**
+     * Send every ready follow-up of this kind in one batched sync
+     */
+    private fun deliverBatch(op: Op, credentials: Credentials) {
+        val accessToken = credentials.accessToken
+        val clientId = credentials.clientId
+        val now = System.currentTimeMillis()
+
+        val batch = synchronized(lock) {
+            deliverable().filter { it.op == op && it.notBefore <= now }.take(MAX_SYNC_BATCH)
+        }
+        if (batch.isEmpty()) return
+
+        val byItem = batch.associateBy { it.toSyncItem() }
+        val result = if (op == Op.HISTORY) {
+            TraktClient.syncHistoryBatch(accessToken, clientId, byItem.keys.toList())
+        } else {
+            TraktClient.syncPlaybackBatch(accessToken, clientId, byItem.keys.toList())
+        }
+
+        result.synced.forEach { item -> byItem[item]?.let { complete(it, null) } }
+        result.notFound.forEach { item ->
+            byItem[item]?.let {
+                DebugLogger.log(TAG, "Dropping $op for unknown item ${it.itemKey}")
+                complete(it, null)
+            }
+        }
+
+        // Only the items whose chunk failed are retried
+        val failure = result.failure ?: TraktWriteResult.Failed(TraktWriteResult.NETWORK_ERROR)
+        if (result.failed.isNotEmpty() && failure.code == 401) {
+            onUnauthorized(credentials)
+            return
+        }
+        result.failed.forEach { item -> byItem[item]?.let { handleFailure(it, failure) } }
+    }
+
+    private fun scrobble(action: String, accessToken: String, clientId: String, event: Event): TraktWriteResult {
+        return TraktClient.scrobbleWrite(
+            action, accessToken, clientId, event.mediaType,
+            event.imdbId, event.tmdbId, event.season, event.episode, event.progress
+        )
+    }
+
+    private fun handleFailure(event: Event, result: TraktWriteResult.Failed) {
+        val code = result.code
+        val retryable = code == TraktWriteResult.NETWORK_ERROR || code == 408 ||
+                code == 429 || code >= 500
+
+        if (code == 409) {
+            // Trakt already has this scrobble
+            complete(event, null)
+            return
+        }
+
+        if (!retryable || event.attempts + 1 >= MAX_ATTEMPTS) {
+            DebugLogger.log(TAG, "Dropping ${event.op} after HTTP $code (attempt ${event.attempts + 1})")
+            // A stop that can't be scrobbled should still leave a resume point
+            val followUp = if (event.op == Op.STOP && code != TraktWriteResult.NO_IDS) {
+                event.copy(op = Op.PLAYBACK, attempts = 0, notBefore = batchTime())
+            } else null
+            complete(event, null, followUp)
+            return
+        }
+
+        val delay = if (code == 429) {
+            result.retryAfterMs ?: BASE_BACKOFF_MS
+        } else {
+            val backoff = (BASE_BACKOFF_MS shl event.attempts.coerceAtMost(10)).coerceAtMost(MAX_BACKOFF_MS)
+            // Full jitter keeps many devices from retrying in lockstep
+            backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1)
+        }
+        // Rate limiting is not the event's fault, so it doesn't use up an attempt
+        val attempts = if (code == 429) event.attempts else event.attempts + 1
+
+        DebugLogger.log(TAG, "Retrying ${event.op} in ${delay / 1000}s (HTTP $code, attempt $attempts)")
+        synchronized(lock) {
+            val index = events.indexOfFirst { it.id == event.id }
+            if (index >= 0) {
+                events[index] = event.copy(attempts = attempts, notBefore = System.currentTimeMillis() + delay)
+                save()
+            }
+        }
+    }
+
+    /**
+     * What to record once a scrobble went through (or was skipped as too late)
+     */
+    private fun followUpFor(event: Event, response: ScrobbleResponse?): Event? {
+        return when (event.op) {
+            Op.PAUSE -> event.copy(op = Op.PLAYBACK, attempts = 0, notBefore = batchTime())
+            Op.STOP -> if (response?.action == "scrobble" || event.progress >= WATCHED_PROGRESS) {
+                event.copy(op = Op.HISTORY, attempts = 0, notBefore = batchTime())
+            } else {
+                event.copy(op = Op.PLAYBACK, attempts = 0, notBefore = batchTime())
+            }
+            else -> null
+        }
+    }
+
+    /**
+     * Trakt rejected the token: renew it, or hold the queue until it changes
+     *
+     * Events stay queued as they are; a rejected token is not their fault,
+     * so no attempt is used up.
+     */
+    private fun onUnauthorized(rejected: Credentials) {
+        val store = credentialStore ?: return
+        // Renewed or replaced since the request went out
+        if (store.credentials()?.accessToken != rejected.accessToken) return
+
+        val refreshToken = store.refreshToken().orEmpty()
+        val clientSecret = store.clientSecret().orEmpty()
+        val tokens = if (refreshToken.isNotEmpty() && clientSecret.isNotEmpty()) {
+            TraktClient.refreshToken(refreshToken, rejected.clientId, clientSecret)
+        } else null
+
+        if (tokens != null) {
+            DebugLogger.log(TAG, "Access token renewed after HTTP 401")
+            store.saveTokens(tokens.accessToken, tokens.refreshToken, tokens.createdAt + tokens.expiresIn)
+            return
+        }
+
+        DebugLogger.log(TAG, "Token rejected and not renewed; holding ${pendingCount()} events until sign-in")
+        rejectedUntil = System.currentTimeMillis() + AUTH_RETRY_MS
+        rejectedToken = rejected.accessToken
+    }
+
+    private fun batchTime() = System.currentTimeMillis() + SYNC_BATCH_WINDOW_MS
+
+    private fun complete(event: Event, response: ScrobbleResponse?, followUp: Event? = null) {
+        val callback = synchronized(lock) {
+            events.removeAll { it.id == event.id }
+            followUp?.let { add(it.copy(id = nextId++), null) }
+            save()
+            callbacks.remove(event.id)
+        }
+        callback?.onDelivered(response)
+    }
+
+    private fun parseScrobble(body: String?): ScrobbleResponse? {
+        return try {
+            body?.let { json.decodeFromString<ScrobbleResponse>(it) }
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    // ========================================================================
+    // PERSISTENCE
+    // ========================================================================
+
+    /**
+     * Must hold [lock]
+     */
+    private fun save() {
+        try {
+            prefs.edit().putString(KEY_EVENTS, json.encodeToString(events.toList())).apply()
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to save outbox: ${e.message}", e)
+        }
+    }
+
+    private fun load() {
+        if (prefs.contains(LEGACY_KEY_ACCESS_TOKEN) || prefs.contains(LEGACY_KEY_CLIENT_ID)) {
+            prefs.edit().remove(LEGACY_KEY_ACCESS_TOKEN).remove(LEGACY_KEY_CLIENT_ID).apply()
+        }
+        try {
+            val stored = prefs.getString(KEY_EVENTS, null) ?: return
+            events.addAll(json.decodeFromString<List<Event>>(stored))
+            nextId = (events.maxOfOrNull { it.id } ?: -1) + 1
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to load outbox: ${e.message}", e)
+            events.clear()
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.brouken.player.trakt
+
+import android.content.Context
+import com.brouken.player.utils.DebugLogger
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import java.io.File
+import java.time.Instant
+
+/**
+ * Local mirror of the user's Trakt playback progress and watch history
+ *
+ * Lookups never touch the network. [sync] asks /sync/last_activities what
+ * changed since the previous sync and only then refetches the playback list
+ * or the history entries newer than the last one seen. Our own scrobbles are
+ * recorded locally as they happen, so the mirror doesn't wait for a round trip.
+ */
+class TraktWatchStateStore private constructor(context: Context) {
+
+    companion object {
+        private const val TAG = "TraktWatchState"
+        private const val STATE_FILE = "trakt_watch_state.json"
+        private const val MIN_SYNC_INTERVAL_MS = 30_000L
+
+        private val json = Json {
+            ignoreUnknownKeys = true
+        }
+
+        @Volatile
+        private var instance: TraktWatchStateStore? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): TraktWatchStateStore {
+            return instance ?: synchronized(this) {
+                instance ?: TraktWatchStateStore(context.applicationContext).also { instance = it }
+            }
+        }
+
+        /**
+         * Lookup keys for an item, one per available ID
+         */
+        internal fun keysFor(
+            mediaType: TraktMediaType,
+            imdbId: String?,
+            tmdbId: Int?,
+            season: Int?,
+            episode: Int?
+        ): List<String> {
+            val suffix = if (mediaType == TraktMediaType.EPISODE) ":${season ?: 1}:${episode ?: 1}" else ""
+            val keys = ArrayList<String>(2)
+            if (!imdbId.isNullOrBlank()) keys.add("$mediaType:imdb:$imdbId$suffix")
+            if (tmdbId != null) keys.add("$mediaType:tmdb:$tmdbId$suffix")
+            return keys
+        }
+    }
+
+    /**
+     * What Trakt knows about one item
+     */
+    @Serializable
+    data class WatchState(
+        val progress: Float? = null,     // Resume point in percent, null if none
+        val pausedAt: Long = 0,
+        val watchedAt: Long = 0          // Latest play in history, 0 if never
+    )
+
+    /**
+     * Callback for Java callers - invoked on a background thread
+     */
+    fun interface SyncCallback {
+        fun onSynced(changed: Boolean)
+    }
+
+    @Serializable
+    private data class StoredState(
+        val activities: LastActivities? = null,
+        val items: Map<String, WatchState> = emptyMap()
+    )
+
+    private val file = File(context.filesDir, STATE_FILE)
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val syncLock = Mutex()
+
+    @Volatile
+    private var state: StoredState = StoredState()
+
+    @Volatile
+    private var loaded = false
+    private var lastSyncAt = 0L
+
+    init {
+        // Warm up off the main thread so the first lookup is just a map read
+        scope.launch { ensureLoaded() }
+    }
+
+    /**
+     * Local lookup; null if Trakt has nothing for this item
+     */
+    fun find(
+        mediaType: TraktMediaType,
+        imdbId: String?,
+        tmdbId: Int?,
+        season: Int?,
+        episode: Int?
+    ): WatchState? {
+        ensureLoaded()
+        val items = state.items
+        return keysFor(mediaType, imdbId, tmdbId, season, episode).firstNotNullOfOrNull { items[it] }
+    }
+
+    /**
+     * Record a resume point we just sent to Trakt
+     */
+    fun recordProgress(
+        mediaType: TraktMediaType,
+        imdbId: String?,
+        tmdbId: Int?,
+        season: Int?,
+        episode: Int?,
+        progress: Float
+    ) {
+        val now = System.currentTimeMillis()
+        update(keysFor(mediaType, imdbId, tmdbId, season, episode)) {
+            it.copy(progress = progress, pausedAt = now)
+        }
+    }
+
+    /**
+     * Record that an item was watched to the end
+     */
+    fun recordWatched(
+        mediaType: TraktMediaType,
+        imdbId: String?,
+        tmdbId: Int?,
+        season: Int?,
+        episode: Int?
+    ) {
+        val now = System.currentTimeMillis()
+        update(keysFor(mediaType, imdbId, tmdbId, season, episode)) {
+            it.copy(progress = null, watchedAt = maxOf(it.watchedAt, now))
+        }
+    }
+
+    /**
+     * Bring the mirror up to date in the background
+     *
+     * Does nothing if a sync ran in the last 30 seconds.
+     */
+    @JvmOverloads
+    fun syncAsync(accessToken: String, clientId: String, callback: SyncCallback? = null) {
+        scope.launch {
+            val changed = try {
+                sync(accessToken, clientId)
+            } catch (e: Exception) {
+                DebugLogger.e(TAG, "Sync failed: ${e.message}", e)
+                false
+            }
+            callback?.onSynced(changed)
+        }
+    }
+
+    /**
+     * Fetch whatever changed since the last sync; returns true if anything did
+     */
+    suspend fun sync(accessToken: String, clientId: String): Boolean = syncLock.withLock {
+        withContext(Dispatchers.IO) {
+            ensureLoaded()
+            val now = System.currentTimeMillis()
+            if (now - lastSyncAt < MIN_SYNC_INTERVAL_MS) return@withContext false
+
+            val remote = TraktClient.getLastActivities(accessToken, clientId)
+                ?: return@withContext false
+            lastSyncAt = now
+
+            val previous = state.activities
+            val pausedChanged = previous == null ||
+                    remote.movies.pausedAt != previous.movies.pausedAt ||
+                    remote.episodes.pausedAt != previous.episodes.pausedAt
+            val moviesWatchedChanged = previous == null || remote.movies.watchedAt != previous.movies.watchedAt
+            val episodesWatchedChanged = previous == null || remote.episodes.watchedAt != previous.episodes.watchedAt
+
+            if (!pausedChanged && !moviesWatchedChanged && !episodesWatchedChanged) {
+                DebugLogger.log(TAG, "No changes since last sync")
+                return@withContext false
+            }
+
+            // Fetch first, then merge into the state as it is by then, so
+            // progress recorded while the requests ran isn't lost
+            val playback = if (pausedChanged) {
+                // The playback list is small and has no delta query; it replaces older resume points
+                val entries = TraktClient.getPlaybackProgress(accessToken, clientId)
+                    ?: return@withContext false
+                entries.map { entry ->
+                    val keys = keysForRemote(entry.type, entry.movie, entry.show, entry.episode)
+                    RemoteState(keys, parseTime(entry.pausedAt), entry.progress)
+                }
+            } else null
+
+            // History only grows between syncs, so fetch entries newer than what we saw
+            val history = ArrayList<RemoteState>()
+            if (moviesWatchedChanged) {
+                history += fetchHistory(accessToken, clientId, "movies", previous?.movies?.watchedAt)
+                    ?: return@withContext false
+            }
+            if (episodesWatchedChanged) {
+                history += fetchHistory(accessToken, clientId, "episodes", previous?.episodes?.watchedAt)
+                    ?: return@withContext false
+            }
+
+            val size = synchronized(this@TraktWatchStateStore) {
+                val items = HashMap(state.items)
+                playback?.let { mergePlayback(it, remote, items) }
+                mergeHistory(history, items)
+                items.values.removeAll { it.progress == null && it.watchedAt == 0L }
+                state = StoredState(remote, items)
+                items.size
+            }
+            persist()
+            DebugLogger.log(TAG, "Synced: $size items (playback=$pausedChanged, " +
+                    "movies=$moviesWatchedChanged, episodes=$episodesWatchedChanged)")
+            true
+        }
+    }
+
+    /**
+     * A playback or history entry from Trakt, under its lookup keys
+     */
+    private class RemoteState(val keys: List<String>, val time: Long, val progress: Float? = null)
+
+    /**
+     * Apply the playback list; must hold the store's lock
+     *
+     * A resume point missing from the list was finished or removed on
+     * Trakt, unless it was saved after Trakt's last playback change.
+     */
+    private fun mergePlayback(
+        playback: List<RemoteState>,
+        remote: LastActivities,
+        items: MutableMap<String, WatchState>
+    ) {
+        val listed = playback.flatMapTo(HashSet()) { it.keys }
+        val moviesPausedAt = parseTime(remote.movies.pausedAt)
+        val episodesPausedAt = parseTime(remote.episodes.pausedAt)
+        items.replaceAll { key, item ->
+            val cutoff = if (key.startsWith("${TraktMediaType.MOVIE}:")) moviesPausedAt else episodesPausedAt
+            if (item.progress != null && key !in listed && item.pausedAt <= cutoff) item.copy(progress = null) else item
+        }
+        for (entry in playback) {
+            entry.keys.forEach { key ->
+                val current = items[key] ?: WatchState()
+                if (entry.time >= current.pausedAt) {
+                    items[key] = current.copy(progress = entry.progress, pausedAt = entry.time)
+                }
+            }
+        }
+    }
+
+    private fun fetchHistory(
+        accessToken: String,
+        clientId: String,
+        type: String,
+        since: String?
+    ): List<RemoteState>? {
+        return TraktClient.getHistorySince(accessToken, clientId, type, since)?.map { entry ->
+            RemoteState(keysForRemote(entry.type, entry.movie, entry.show, entry.episode), parseTime(entry.watchedAt))
+        }
+    }
+
+    /**
+     * Apply history entries; must hold the store's lock
+     */
+    private fun mergeHistory(history: List<RemoteState>, items: MutableMap<String, WatchState>) {
+        for (entry in history) {
+            entry.keys.forEach { key ->
+                val current = items[key] ?: WatchState()
+                // Watching again after the resume point was saved supersedes it
+                val progress = if (entry.time >= current.pausedAt) null else current.progress
+                items[key] = current.copy(progress = progress, watchedAt = maxOf(current.watchedAt, entry.time))
+            }
+        }
+    }
+
+    private fun keysForRemote(
+        type: String,
+        movie: TraktMediaRef?,
+        show: TraktMediaRef?,
+        episode: TraktEpisodeRef?
+    ): List<String> {
+        return when (type) {
+            "movie" -> movie?.let { keysFor(TraktMediaType.MOVIE, it.ids.imdb, it.ids.tmdb, null, null) }
+            "episode" -> if (show != null && episode != null) {
+                keysFor(TraktMediaType.EPISODE, show.ids.imdb, show.ids.tmdb, episode.season, episode.number)
+            } else null
+            else -> null
+        } ?: emptyList()
+    }
+
+    private fun update(keys: List<String>, transform: (WatchState) -> WatchState) {
+        if (keys.isEmpty()) return
+        ensureLoaded()
+        synchronized(this) {
+            val items = HashMap(state.items)
+            keys.forEach { key -> items[key] = transform(items[key] ?: WatchState()) }
+            state = state.copy(items = items)
+        }
+        scope.launch { persist() }
+    }
+
+    private fun parseTime(value: String?): Long {
+        return try {
+            value?.let { Instant.parse(it).toEpochMilli() } ?: 0L
+        } catch (e: Exception) {
+            0L
+        }
+    }
+
+    // ========================================================================
+    // PERSISTENCE
+    // ========================================================================
+
+    private fun ensureLoaded() {
+        if (loaded) return
+        synchronized(this) {
+            if (loaded) return
+            if (file.isFile) {
+                try {
+                    state = json.decodeFromString(file.readText())
+                } catch (e: Exception) {
+                    DebugLogger.e(TAG, "Discarding unreadable watch state: ${e.message}", e)
+                }
+            }
+            loaded = true
+        }
+    }
+
+    @Synchronized
+    private fun persist() {
+        val tmp = File(file.path + ".tmp")
+        try {
+            tmp.writeText(json.encodeToString(state))
+            if (!tmp.renameTo(file)) tmp.delete()
+        } catch (e: Exception) {
+            DebugLogger.e(TAG, "Failed to save watch state: ${e.message}", e)
+            tmp.delete()
+        }
+    }
+}
@@ -3,8 +3,6 @@ package com.brouken.player.ui.subtitle
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
-import android.widget.Filter
-import android.widget.Filterable
 import android.widget.ImageView
 import android.widget.TextView
 import androidx.core.content.ContextCompat
@@ -14,6 +12,9 @@ import androidx.recyclerview.widget.RecyclerView
 import com.brouken.player.R
 import com.brouken.player.stremio.SubtitleSource
 import com.brouken.player.stremio.SubtitleTrack
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 
 /**
  * RecyclerView adapter for displaying subtitle tracks
@@ -22,17 +23,35 @@ import com.brouken.player.stremio.SubtitleTrack
 class SubtitleAdapter(
     private val onSubtitleSelected: (SubtitleTrack) -> Unit,
     private val onSubtitleLongPressed: (SubtitleTrack) -> Boolean = { false }
-) : ListAdapter<SubtitleListItem, RecyclerView.ViewHolder>(SubtitleDiffCallback()), Filterable {
+) : ListAdapter<SubtitleListItem, RecyclerView.ViewHolder>(SubtitleDiffCallback()) {
     
     companion object {
         private const val VIEW_TYPE_HEADER = 0
         private const val VIEW_TYPE_SUBTITLE = 1
         private const val VIEW_TYPE_OFF = 2
+        private const val SEARCH_DEBOUNCE_MS = 150L
+        private const val OFF_ITEM_ID = Long.MIN_VALUE
+    }
+    
+    init {
+        setHasStableIds(true)
     }
     
     // Full list of items (headers + subtitles + off option)
     private var allItems: List<SubtitleListItem> = emptyList()
     
+    // Search index over allItems, rebuilt only when the items change
+    private var searchIndex = SubtitleSearchIndex(emptyList())
+    
+    // Filtering runs off the main thread; a newer query cancels the older one
+    private val scope = CoroutineScope(Dispatchers.Main + SupervisorJob())
+    private val searchLock = Mutex()
+    private var searchJob: Job? = null
+    
+    // Stable item IDs by item key so focus survives re-filtering; tracks count up, headers down
+    private var stableIds = HashMap<String, Long>()
+    private var nextStableId = 1L
+    
     // Currently selected subtitle ID
     private var selectedId: String? = null
     
@@ -88,7 +107,9 @@ class SubtitleAdapter(
         items.add(SubtitleListItem.Off)
         
         allItems = items
-        applyFilters()
+        searchIndex = SubtitleSearchIndex(items)
+        assignStableIds(items)
+        applyFilters(debounce = false)
     }
     
     /**
@@ -115,7 +136,23 @@ class SubtitleAdapter(
      */
     fun filterByLanguage(languageCode: String?) {
         currentLanguageFilter = languageCode
-        applyFilters()
+        applyFilters(debounce = false)
+    }
+    
+    /**
+     * Filter by search query (debounced)
+     */
+    fun setSearchQuery(query: String) {
+        if (query == currentSearchQuery) return
+        currentSearchQuery = query
+        applyFilters(debounce = true)
+    }
+    
+    /**
+     * Cancel pending filtering (call when the hub is dismissed)
+     */
+    fun release() {
+        scope.coroutineContext.cancelChildren()
     }
     
     /**
@@ -133,6 +170,32 @@ class SubtitleAdapter(
     // ADAPTER IMPLEMENTATION
     // ========================================================================
     
+    override fun getItemId(position: Int): Long {
+        return when (val item = getItem(position)) {
+            is SubtitleListItem.Header -> stableIds[item.key] ?: RecyclerView.NO_ID
+            is SubtitleListItem.Track -> stableIds[item.key] ?: RecyclerView.NO_ID
+            is SubtitleListItem.Off -> OFF_ITEM_ID
+        }
+    }
+
+    /**
+     * Keep the IDs of items still listed, give new ones fresh IDs and forget the rest
+     */
+    private fun assignStableIds(items: List<SubtitleListItem>) {
+        val ids = HashMap<String, Long>()
+        for (item in items) {
+            val key = when (item) {
+                is SubtitleListItem.Header -> item.key
+                is SubtitleListItem.Track -> item.key
+                is SubtitleListItem.Off -> continue
+            }
+            if (ids.containsKey(key)) continue
+            val id = stableIds[key] ?: nextStableId++.let { if (item is SubtitleListItem.Header) -it else it }
+            ids[key] = id
+        }
+        stableIds = ids
+    }
+    
     override fun getItemViewType(position: Int): Int {
         return when (getItem(position)) {
             is SubtitleListItem.Header -> VIEW_TYPE_HEADER
@@ -284,77 +347,27 @@ class SubtitleAdapter(
     // FILTERING
     // ========================================================================
     
-    override fun getFilter(): Filter {
-        return object : Filter() {
-            override fun performFiltering(constraint: CharSequence?): FilterResults {
-                currentSearchQuery = constraint?.toString()?.lowercase() ?: ""
-                
-                val filtered = allItems.filter { item ->
-                    when (item) {
-                        is SubtitleListItem.Header -> true // Always show headers
-                        is SubtitleListItem.Off -> true   // Always show off option
-                        is SubtitleListItem.Track -> {
-                            val track = item.track
-                            
-                            // Language filter
-                            val passesLanguage = currentLanguageFilter == null ||
-                                    track.languageCode == currentLanguageFilter
-                            
-                            // Search query filter
-                            val passesSearch = currentSearchQuery.isEmpty() ||
-                                    track.language.lowercase().contains(currentSearchQuery) ||
-                                    track.addonName?.lowercase()?.contains(currentSearchQuery) == true ||
-                                    track.label?.lowercase()?.contains(currentSearchQuery) == true
-                            
-                            passesLanguage && passesSearch
-                        }
-                    }
-                }
-                
-                // Remove headers with no items after them
-                val cleaned = mutableListOf<SubtitleListItem>()
-                var lastHeader: SubtitleListItem.Header? = null
-                var headerHasItems = false
-                
-                for (item in filtered) {
-                    when (item) {
-                        is SubtitleListItem.Header -> {
-                            if (lastHeader != null && headerHasItems) {
-                                cleaned.add(lastHeader)
-                            }
-                            lastHeader = item
-                            headerHasItems = false
-                        }
-                        is SubtitleListItem.Track -> {
-                            if (lastHeader != null && !headerHasItems) {
-                                cleaned.add(lastHeader)
-                                headerHasItems = true
-                            }
-                            cleaned.add(item)
-                        }
-                        is SubtitleListItem.Off -> {
-                            if (lastHeader != null && headerHasItems) {
-                                // Don't need to re-add, already handled
-                            }
-                            cleaned.add(item)
-                        }
-                    }
+    private fun applyFilters(debounce: Boolean) {
+        searchJob?.cancel()
+        
+        val index = searchIndex
+        val query = currentSearchQuery
+        val language = currentLanguageFilter
+        
+        searchJob = scope.launch {
+            if (debounce) delay(SEARCH_DEBOUNCE_MS)
+            
+            // One query at a time keeps the index's narrowing state consistent
+            val filtered = searchLock.withLock {
+                withContext(Dispatchers.Default) {
+                    index.query(query, language) { isActive }
                 }
-                
-                return FilterResults().apply { values = cleaned }
-            }
+            } ?: return@launch
             
-            @Suppress("UNCHECKED_CAST")
-            override fun publishResults(constraint: CharSequence?, results: FilterResults?) {
-                submitList(results?.values as? List<SubtitleListItem> ?: emptyList())
-            }
+            submitList(filtered)
         }
     }
     
-    private fun applyFilters() {
-        filter.filter(currentSearchQuery)
-    }
-    
     // ========================================================================
     // HELPERS
     // ========================================================================
@@ -403,11 +416,16 @@ sealed class SubtitleListItem {
         val title: String,
         val count: Int,
         val icon: String
-    ) : SubtitleListItem()
+    ) : SubtitleListItem() {
+        val key: String get() = "header:$title"
+    }
     
     data class Track(
         val track: SubtitleTrack
-    ) : SubtitleListItem()
+    ) : SubtitleListItem() {
+        /** Addons reuse track IDs, and results are merged by URL, so the URL tells tracks apart */
+        val key: String get() = track.url?.let { "url:$it" } ?: "${track.source}:${track.addonId}:${track.id}"
+    }
     
     object Off : SubtitleListItem()
 }
@@ -422,7 +440,7 @@ class SubtitleDiffCallback : DiffUtil.ItemCallback<SubtitleListItem>() {
             oldItem is SubtitleListItem.Header && newItem is SubtitleListItem.Header ->
                 oldItem.title == newItem.title
             oldItem is SubtitleListItem.Track && newItem is SubtitleListItem.Track ->
-                oldItem.track.id == newItem.track.id
+                oldItem.key == newItem.key
             oldItem is SubtitleListItem.Off && newItem is SubtitleListItem.Off ->
                 true
             else -> false
@@ -55,7 +55,7 @@ class SubtitleAddonsActivity : AppCompatActivity() {
         setContentView(R.layout.activity_subtitle_addons)
         
         addonManager = SubtitleAddonManager(this)
-        catalogClient = StremioAddonsCatalogClient()
+        catalogClient = StremioAddonsCatalogClient(this)
         
         // Bind views
         addonList = findViewById(R.id.addon_list)
@@ -116,8 +116,15 @@ class SubtitleAddonsActivity : AppCompatActivity() {
         // Load configured addons
         refreshAddons()
         
-        // Initial load of all subtitle addons
+        // Initial load of all subtitle addons, from disk when available
         performSearch("")
+        
+        // Bring the stored catalog up to date without blocking the list
+        lifecycleScope.launch {
+            if (catalogClient.refreshCatalog().getOrNull() == true) {
+                performSearch(searchInput.text.toString())
+            }
+        }
     }
     
     private fun setupSearch() {
@@ -129,7 +136,7 @@ class SubtitleAddonsActivity : AppCompatActivity() {
                 // Debounce search
                 searchJob?.cancel()
                 searchJob = lifecycleScope.launch {
-                    delay(300) // 300ms debounce
+                    delay(150) // 150ms debounce
                     performSearch(query)
                 }
             }
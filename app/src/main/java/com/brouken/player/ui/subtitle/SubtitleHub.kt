@@ -15,6 +15,8 @@ import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import com.brouken.player.R
 import com.brouken.player.stremio.StremioSubtitleFetcher
+import com.brouken.player.stremio.SubtitleAddonManager
+import com.brouken.player.stremio.SubtitleDownloadCache
 import com.brouken.player.stremio.SubtitleSource
 import com.brouken.player.stremio.SubtitleTrack
 import com.brouken.player.utils.DebugLogger
@@ -55,6 +57,8 @@ class SubtitleHub(
     )
     
     private val fetcher = StremioSubtitleFetcher(context)
+    private val downloadCache = SubtitleDownloadCache.getInstance(context)
+    private val addonManager = SubtitleAddonManager(context)
     private var fetchJob: Job? = null
     
     // Callbacks
@@ -138,6 +142,7 @@ class SubtitleHub(
         if (!isShowing) return
         
         fetchJob?.cancel()
+        adapter.release()
         
         bottomSheetBehavior?.state = BottomSheetBehavior.STATE_HIDDEN
         
@@ -191,6 +196,7 @@ class SubtitleHub(
         episodeNumber: Int? = null
     ) {
         fetchJob?.cancel()
+        onlineTracks = emptyList()
         
         showLoading("Searching for subtitles...")
         
@@ -204,17 +210,25 @@ class SubtitleHub(
                     showError(error)
                 }
                 
-                val results = fetcher.fetchSubtitles(
+                fetcher.fetchSubtitlesFlow(
                     videoUri = videoUri,
                     title = title,
                     imdbId = imdbId,
                     seasonNumber = seasonNumber,
                     episodeNumber = episodeNumber
-                )
-                
-                onlineTracks = results
+                ).collect { batch ->
+                    if (batch.added.isEmpty()) return@collect
+                    
+                    onlineTracks = batch.tracks
+                    
+                    // Warm the local store so picking a top result is instant
+                    downloadCache.prefetch(batch.tracks)
+                    
+                    // Adapter diffs against the previous batch, so new rows slot in without a full rebind
+                    showList()
+                }
                 
-                if (results.isEmpty() && embeddedTracks.isEmpty() && localTracks.isEmpty()) {
+                if (onlineTracks.isEmpty() && embeddedTracks.isEmpty() && localTracks.isEmpty()) {
                     showEmpty("No subtitles found")
                 } else {
                     showList()
@@ -272,7 +286,7 @@ class SubtitleHub(
             override fun beforeTextChanged(s: CharSequence?, start: Int, count: Int, after: Int) {}
             override fun onTextChanged(s: CharSequence?, start: Int, before: Int, count: Int) {}
             override fun afterTextChanged(s: Editable?) {
-                adapter.filter.filter(s?.toString() ?: "")
+                adapter.setSearchQuery(s?.toString() ?: "")
             }
         })
     }
@@ -415,6 +429,8 @@ class SubtitleHub(
         } else {
             selectedTrackId = track.id
             adapter.setSelectedSubtitle(track.id)
+            // Feeds the per-addon hit rate used to schedule future searches
+            track.addonId?.let { addonManager.recordSelection(it) }
             onSubtitleChosen?.invoke(track)
         }
         
@@ -0,0 +1,118 @@
+package com.brouken.player.ui.subtitle
+
+import com.brouken.player.stremio.SubtitleTrack
+import java.text.Normalizer
+
+/**
+ * Search index over a fixed list of subtitle items
+ *
+ * Each track's searchable text (language, language code, addon name,
+ * label and flags) is normalized and accent-folded once when the index is
+ * built, so a query is just substring checks over precomputed strings.
+ * A query that extends the previous one only rescans the previous matches.
+ */
+class SubtitleSearchIndex(val items: List<SubtitleListItem>) {
+
+    companion object {
+        private val COMBINING_MARKS = Regex("\\p{Mn}+")
+
+        /**
+         * Lowercase and strip accents ("Français" -> "francais")
+         */
+        fun normalize(text: String): String {
+            val lower = text.lowercase()
+            // Fast path: plain ASCII needs no decomposition
+            if (lower.all { it.code < 0x80 }) return lower
+            return COMBINING_MARKS.replace(Normalizer.normalize(lower, Normalizer.Form.NFD), "")
+        }
+    }
+
+    // Parallel to items; null for headers and the off entry
+    private val haystacks: Array<String?> = Array(items.size) { i ->
+        (items[i] as? SubtitleListItem.Track)?.let { buildHaystack(it.track) }
+    }
+
+    private val languageCodes: Array<String?> = Array(items.size) { i ->
+        (items[i] as? SubtitleListItem.Track)?.track?.languageCode
+    }
+
+    // Last query and the track positions it matched, for narrowing
+    private var lastTerms: List<String> = emptyList()
+    private var lastLanguage: String? = null
+    private var lastMatches: IntArray? = null
+
+    /**
+     * Filter items, keeping headers only when their section has matches
+     *
+     * Not thread-safe: callers must serialize queries on one index.
+     */
+    fun query(rawQuery: String, languageCode: String?, isActive: () -> Boolean = { true }): List<SubtitleListItem>? {
+        val terms = normalize(rawQuery).split(' ').filter { it.isNotEmpty() }
+
+        // Narrow the previous result set when the new query is strictly more specific
+        val previous = lastMatches
+        val candidates: IntArray = if (previous != null && languageCode == lastLanguage && narrows(terms)) {
+            previous
+        } else {
+            IntArray(items.size) { it }
+        }
+
+        val matches = IntArray(candidates.size)
+        var count = 0
+        for ((n, i) in candidates.withIndex()) {
+            // Check for cancellation periodically on big lists
+            if (n and 0xFF == 0 && !isActive()) return null
+            val haystack = haystacks[i] ?: continue
+            if (languageCode != null && languageCodes[i] != languageCode) continue
+            if (terms.all { haystack.contains(it) }) {
+                matches[count++] = i
+            }
+        }
+
+        lastTerms = terms
+        lastLanguage = languageCode
+        lastMatches = matches.copyOf(count)
+
+        return assemble(lastMatches!!)
+    }
+
+    private fun narrows(terms: List<String>): Boolean {
+        if (lastTerms.isEmpty()) return true
+        // Every old term must still be implied by some new term
+        return lastTerms.all { old -> terms.any { it.contains(old) } }
+    }
+
+    private fun assemble(matches: IntArray): List<SubtitleListItem> {
+        val result = ArrayList<SubtitleListItem>(matches.size + 8)
+        var m = 0
+        var pendingHeader: SubtitleListItem? = null
+
+        for ((i, item) in items.withIndex()) {
+            when (item) {
+                is SubtitleListItem.Header -> pendingHeader = item
+                is SubtitleListItem.Off -> result.add(item)
+                is SubtitleListItem.Track -> {
+                    if (m < matches.size && matches[m] == i) {
+                        pendingHeader?.let { result.add(it) }
+                        pendingHeader = null
+                        result.add(item)
+                        m++
+                    }
+                }
+            }
+        }
+        return result
+    }
+
+    private fun buildHaystack(track: SubtitleTrack): String {
+        val parts = StringBuilder()
+        parts.append(track.language).append(' ').append(track.languageCode)
+        track.countryCode?.let { parts.append(' ').append(it) }
+        track.addonName?.let { parts.append(' ').append(it) }
+        track.label?.let { parts.append(' ').append(it) }
+        if (track.isSDH) parts.append(" sdh")
+        if (track.isHI) parts.append(" hi")
+        if (track.isForced) parts.append(" forced")
+        return normalize(parts.toString())
+    }
+}
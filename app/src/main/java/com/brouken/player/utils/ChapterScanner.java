@@ -2,43 +2,63 @@ package com.brouken.player.utils;
 
 import kotlin.Pair;
 import androidx.media3.common.Metadata;
+import androidx.media3.extractor.metadata.id3.Id3Frame;
 import androidx.media3.extractor.metadata.id3.TextInformationFrame;
-import androidx.media3.extractor.metadata.id3.ChapterTocFrame;
 import androidx.media3.extractor.metadata.id3.ChapterFrame;
+import com.brouken.player.chapters.Chapter;
+import com.brouken.player.chapters.ChapterClassifier;
+import com.brouken.player.chapters.ChapterSegment;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Skip segments from ID3 chapters, which the player reports as metadata.
+ * Matroska and MP4 chapters are read by {@link com.brouken.player.chapters.ChapterIndex}.
+ */
 public class ChapterScanner {
 
     public static List<Pair<Double, Double>> scanForIntro(Metadata metadata) {
-        List<Pair<Double, Double>> introSegments = new ArrayList<>();
-        if (metadata == null) return introSegments;
+        return ChapterSegment.toSkipSegments(scan(metadata));
+    }
+
+    public static List<ChapterSegment> scan(Metadata metadata) {
+        List<Chapter> chapters = new ArrayList<>();
+        if (metadata == null) return new ArrayList<>();
 
         for (int i = 0; i < metadata.length(); i++) {
             Metadata.Entry entry = metadata.get(i);
-            
+
             if (entry instanceof ChapterFrame) {
                 ChapterFrame chapter = (ChapterFrame) entry;
-                if (isIntroChapter(chapter.chapterId)) {
-                    // startTime and endTime are in milliseconds
-                    double start = chapter.startTimeMs / 1000.0;
-                    double end = chapter.endTimeMs / 1000.0;
-                    DebugLogger.INSTANCE.log("ChapterScanner", "Found Intro Chapter: " + chapter.chapterId + " (" + start + "-" + end + ")");
-                    introSegments.add(new Pair<>(start, end));
-                }
+                // startTime and endTime are in milliseconds
+                double start = chapter.startTimeMs / 1000.0;
+                double end = chapter.endTimeMs / 1000.0;
+                chapters.add(new Chapter(titlesOf(chapter), start, end > start ? end : null));
             }
         }
-        return introSegments;
+
+        List<ChapterSegment> segments = ChapterClassifier.segments(chapters, 0);
+        for (ChapterSegment segment : segments) {
+            DebugLogger.INSTANCE.log("ChapterScanner", "Found " + segment.getType().getLabel() + " Chapter: "
+                    + segment.getTitle() + " (" + segment.getStart() + "-" + segment.getEnd() + ")");
+        }
+        return segments;
     }
 
-    private static boolean isIntroChapter(String title) {
-        if (title == null) return false;
-        String lower = title.toLowerCase();
-        return lower.contains("intro") || 
-               lower.contains("opening") || 
-               lower.equals("op") ||
-               lower.contains("prologue") ||
-               lower.contains("theme") ||
-               lower.contains("credit");
+    /**
+     * The chapter's title frames, then its element ID, which some taggers name after the content
+     */
+    private static List<String> titlesOf(ChapterFrame chapter) {
+        List<String> titles = new ArrayList<>();
+        for (int i = 0; i < chapter.getSubFrameCount(); i++) {
+            Id3Frame frame = chapter.getSubFrame(i);
+            if (frame instanceof TextInformationFrame && "TIT2".equals(frame.id)) {
+                titles.addAll(((TextInformationFrame) frame).values);
+            }
+        }
+        if (chapter.chapterId != null) {
+            titles.add(chapter.chapterId);
+        }
+        return titles;
     }
-}
\ No newline at end of file
+}
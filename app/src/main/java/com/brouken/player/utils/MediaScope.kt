@@ -0,0 +1,159 @@
+package com.brouken.player.utils
+
+import android.os.Handler
+import android.os.Looper
+import com.brouken.player.tmdb.RequestScheduler
+import com.brouken.player.tmdb.RequestScheduler.Priority
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import java.util.concurrent.PriorityBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Owns the background work done for the file being played
+ *
+ * Lookups run in parallel on a small pool, in [Priority] order, with the same
+ * priority applied to their metadata requests. [begin] starts a new session
+ * when the media changes: everything queued or running for the old one is
+ * cancelled, and anything it still hands to [Session.post] is dropped, so a
+ * slow lookup can never write its results into the next file.
+ */
+class MediaScope @JvmOverloads constructor(threads: Int = DEFAULT_THREADS) {
+
+    companion object {
+        private const val TAG = "MediaScope"
+        private const val DEFAULT_THREADS = 4
+        private const val KEEP_ALIVE_SECONDS = 30L
+    }
+
+    fun interface Work {
+        @Throws(Exception::class)
+        fun run(session: Session)
+    }
+
+    /**
+     * One media item; results are only applied while it is still playing
+     */
+    inner class Session internal constructor(val id: Long) {
+
+        val isActive: Boolean
+            get() = id == currentId.get()
+
+        /**
+         * Run [action] on the main thread, unless the media has changed by then
+         */
+        fun post(action: Runnable) {
+            mainHandler.post {
+                if (isActive) {
+                    action.run()
+                } else {
+                    DebugLogger.log(TAG, "Dropped result of session $id (now ${currentId.get()})")
+                }
+            }
+        }
+    }
+
+    private inner class Task<T>(
+        val session: Session,
+        val priority: Priority,
+        val label: String,
+        callable: Callable<T>
+    ) : FutureTask<T>(Callable { RequestScheduler.withPriority(priority) { callable.call() } }), Comparable<Task<*>> {
+
+        val seq = sequence.incrementAndGet()
+
+        override fun compareTo(other: Task<*>): Int {
+            val result = priority.compareTo(other.priority)
+            return if (result != 0) result else seq.compareTo(other.seq)
+        }
+
+        override fun done() {
+            tasks.remove(this)
+            if (isCancelled) return
+            try {
+                get()
+            } catch (e: ExecutionException) {
+                if (session.isActive) {
+                    DebugLogger.e(TAG, "$label failed: ${e.cause?.message}", e.cause)
+                }
+            }
+        }
+    }
+
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val currentId = AtomicLong()
+    private val sequence = AtomicLong()
+    private val tasks = ConcurrentHashMap.newKeySet<Task<*>>()
+
+    @Volatile
+    private var session = Session(0)
+
+    // Tasks are Comparable, so the queue hands out the highest priority first
+    private val executor = ThreadPoolExecutor(
+        threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, PriorityBlockingQueue<Runnable>()
+    ).apply { allowCoreThreadTimeOut(true) }
+
+    /**
+     * Start a session for new media, cancelling all work for the previous one
+     */
+    fun begin(): Session {
+        val next = Session(currentId.incrementAndGet())
+        session = next
+        cancelTasks()
+        DebugLogger.log(TAG, "Session ${next.id} started")
+        return next
+    }
+
+    /**
+     * Cancel all work without starting new media, e.g. when playback stops
+     */
+    fun cancel() {
+        session = Session(currentId.incrementAndGet())
+        cancelTasks()
+    }
+
+    fun current(): Session = session
+
+    /**
+     * Run [work] for the current media
+     */
+    fun launch(priority: Priority, label: String, work: Work) {
+        val target = session
+        enqueue(Task(target, priority, label) { work.run(target) })
+    }
+
+    /**
+     * Compute a value for the current media, e.g. one of several lookups to run side by side
+     */
+    fun <T> submit(priority: Priority, label: String, callable: Callable<T>): Future<T> {
+        return enqueue(Task(session, priority, label, callable))
+    }
+
+    private fun <T> enqueue(task: Task<T>): Future<T> {
+        tasks.add(task)
+        if (!task.session.isActive) {
+            task.cancel(true)
+            return task
+        }
+        executor.execute(task)
+        return task
+    }
+
+    private fun cancelTasks() {
+        var cancelled = 0
+        for (task in tasks) {
+            if (!task.session.isActive && task.cancel(true)) {
+                cancelled++
+            }
+        }
+        executor.purge()
+        if (cancelled > 0) {
+            DebugLogger.log(TAG, "Cancelled $cancelled tasks of previous media")
+        }
+    }
+}
@@ -1,65 +1,18 @@
 package com.brouken.player.utils
 
-import java.util.regex.Pattern
-
+/**
+ * Parses release file names ("Show.Name.S01E02.1080p.WEB-DL-GRP.mkv") into
+ * show name, season, episode and year.
+ *
+ * Each string is classified once into runs (separators, whitespace, digits)
+ * and every marker below is then checked in constant time against those runs,
+ * so a name costs a few linear scans instead of a cascade of regexes. The
+ * markers keep the exact semantics of the regexes this replaced (noted on
+ * each check), which the regression corpus in the unit tests pins down.
+ */
 object NameCleaner {
 
-    // 1. Season/Episode patterns (capture title group 1, S/E group 2, 3)
-    // S01E01, S01 E01, s1e1
-    private val PATTERN_S_E = Pattern.compile("(.+?)[\\s._-]+[Ss](\\d+)[\\s._-]*[Ee](\\d+)", Pattern.CASE_INSENSITIVE)
-    // 1x01, 1x1
-    private val PATTERN_X = Pattern.compile("(.+?)[\\s._-]+(\\d+)[xX](\\d+)")
-    // Episode 1, Ep 1, E1
-    private val PATTERN_EP = Pattern.compile("(.+?)[\\s._-]+(?:Episode|Ep|E)[\\s._-]*(\\d+)", Pattern.CASE_INSENSITIVE)
-    
-    // Anime Absolute: "Show - 01" or "Show - 01 - Title"
-    // Capture group 1: Title, group 2: Episode
-    private val PATTERN_ANIME_ABS = Pattern.compile("^(.+?)\\s*-\\s*(\\d{1,4})(?:\\s*-|\\s*\\[|\\s*\\(|$)", Pattern.CASE_INSENSITIVE)
-
-    // Loose Absolute: "Show.1080.1999" (Show, Ep, Year) or "Show 100"
-    // Finds a separated number that is followed by Year or specific tags, or end of string
-    // Negative lookahead (?![pPi]) prevents matching "1080p" as episode 1080
-    // Group 1: Title, Group 2: Episode
-    private val PATTERN_LOOSE_ABSOLUTE = Pattern.compile("^(.+?)[\\s._-]+(\\d{1,4})(?![pPi\\d])(?:[\\s._-]+|$)", Pattern.CASE_INSENSITIVE)
-
-    // Year pattern: "Movie Title (2023)" or "Movie.Title.2023."
-    private val PATTERN_YEAR = Pattern.compile("(.+?)[\\s._\\-(]+(\\d{4})[)\\s._-]")
-
-    // Junk Tags to strip (Case Insensitive)
-    // CRITICAL: All patterns must be word-boundary or separator-based to prevent matching inside words!
-    private val JUNK_REGEX = listOf(
-        // Resolutions - must be followed by space or separator or end
-        "\\b(2160|1080|720|480|576)[pP]\\b",
-        "\\b(4|8)[kK]\\b", "\\b(UHD|HD|SD)\\b",
-        
-        // Sources - must be whole words with boundaries
-        "\\b(BluRay|BDRip|BRRip|BD|DVD|DVDRip|DVDScr|R5)\\b",
-        "\\b(WEB-DL|WEBRip|WEB|HDTV|PDTV|CAM|TS|TC|REMUX)\\b",
-        
-        // Codecs - must be whole words with boundaries
-        "\\b((x|h)\\.?264|(x|h)\\.?265|HEVC|AVC|DivX|XviD|MPEG)\\b",
-        
-        // Audio - must be whole words with boundaries
-        "\\b(TrueHD|DTS-HD|DTS|Atmos|DD(\\+|P)?\\s*5\\.1|DD|AAC|AC3|EAC3|FLAC|MP3)\\b",
-        "\\b(5\\.1|7\\.1|2\\.0)\\b",
-        
-        // HDR / Video specs - must be whole words with boundaries
-        "\\b(HDR(10)?(\\+)?|Dolby\\s*Vision|DV|10bit|12bit|Hi10P|SDR)\\b",
-        "\\b(AI\\s*Upscale|Upscaled)\\b",
-        
-        // Release Types / Misc - must be whole words with boundaries
-        "\\b(REPACK|PROPER|REAL|INTERNAL|FESTIVAL|STV|LIMITED|UNRATED|DC|EXTENDED|REMASTERED|COMPLETE|RESTORED|UNCUT|DIRECTOR'?S\\s*CUT)\\b",
-        
-        // Languages - must be whole words with boundaries
-        "\\b(MULTI|DUAL|LATINO|FRENCH|GERMAN|SPANISH|ITA|RUS|JAP|ENG|SUB|DUB)\\b",
-        
-        // Groups / Hash - must be in brackets at boundaries
-        "[\\s._-]\\[[^\\]]+\\]",  // [HorribleSubs] with separator before
-        "[\\s._-]\\([^\\)]+\\)",   // (Source) with separator before
-        "-[\\w\\d]+$"        // -Group at end (alphanumeric only)
-    ).joinToString("|") // Combine with OR
-
-    private val JUNK_PATTERN = Pattern.compile(JUNK_REGEX, Pattern.CASE_INSENSITIVE)
+    private const val TAG = "NameCleaner"
 
     data class CleanResult(
         val showName: String,
@@ -75,125 +28,554 @@ object NameCleaner {
         var episode = 1
         var year: Int? = null
         var isAnime = false
+        var marker = "none"
 
-        DebugLogger.log("NameCleaner", "========================================")
-        DebugLogger.log("NameCleaner", "CLEANING FILENAME: '$filename'")
-        DebugLogger.log("NameCleaner", "========================================")
-
-        // 1. Try S/E Patterns first (Strongest signal for TV)
-        var matcher = PATTERN_S_E.matcher(name)
-        if (matcher.find()) {
-            name = matcher.group(1).trim()
-            season = matcher.group(2).toInt()
-            episode = matcher.group(3).toInt()
-            DebugLogger.log("NameCleaner", " Matched S/E pattern: '$name' S$season E$episode")
-        } else {
-            matcher = PATTERN_X.matcher(name)
-            if (matcher.find()) {
-                name = matcher.group(1).trim()
-                season = matcher.group(2).toInt()
-                episode = matcher.group(3).toInt()
-                DebugLogger.log("NameCleaner", " Matched X pattern: '$name' S$season E$episode")
-            } else {
-                // Try Anime format (Show - 01)
-                matcher = PATTERN_ANIME_ABS.matcher(name)
-                if (matcher.find()) {
-                    name = matcher.group(1).trim()
-                    episode = matcher.group(2).toInt()
-                    season = 1 // Anime typically uses absolute episode numbers
-                    isAnime = true
-                    DebugLogger.log("NameCleaner", " Matched Anime pattern: '$name' E$episode")
-                } else {
-                    // Try simple Episode pattern
-                    matcher = PATTERN_EP.matcher(name)
-                    if (matcher.find()) {
-                        name = matcher.group(1).trim()
-                        episode = matcher.group(2).toInt()
-                        DebugLogger.log("NameCleaner", " Matched Ep pattern: '$name' E$episode")
-                    } else {
-                        // Fallback: Loose Absolute Number (Show 1080)
-                        // Useful for "One.Piece.1080.WEBRip"
-                        matcher = PATTERN_LOOSE_ABSOLUTE.matcher(name)
-                        if (matcher.find()) {
-                            // Only accept if it looks safe
-                            val potentialName = matcher.group(1).trim()
-                            val potentialEp = matcher.group(2).toInt()
-                            
-                            // Safety Check: Don't treat "Movie 2024" as Ep 2024 if it looks like a Year
-                            // Heuristic: If we find a Year elsewhere, OR if number is NOT 19xx/20xx, accept it.
-                            val yearMatcher = PATTERN_YEAR.matcher(filename)
-                            val hasYear = yearMatcher.find()
-                            val isLikelyYear = (potentialEp in 1900..2100)
-                            
-                            if (hasYear && yearMatcher.group(2).toInt() == potentialEp) {
-                                // The number matched is actually the year (duplicated or primary)
-                                // e.g. "Movie.2000.mkv" -> 2000 is the year, not Ep.
-                                DebugLogger.log("NameCleaner", " Loose match $potentialEp skipped (appears to be Year)")
-                            } else if (!isLikelyYear || hasYear) {
-                                // Accept as Episode if it's NOT a year-like number, OR if valid year covers it
-                                // "One.Piece.1080" (1080 is fine as Ep if 1999 is Year)
-                                
-                                name = potentialName
-                                episode = potentialEp
-                                season = 1
-                                isAnime = true
-                                DebugLogger.log("NameCleaner", " Matched Loose Absolute pattern: '$name' E$episode")
-                            }
-                        }
-                    }
-                }
+        // 1. Episode markers, strongest signal first
+        val scan = Runs(filename)
+        val markers = scan.findMarkers()
+        val se = markers.seasonEpisode
+        val x = markers.crossEpisode
+        val anime = markers.animeAbsolute
+        val ep = markers.episodeWord
+        val loose = markers.looseAbsolute
+        if (se != null) {
+            name = se.title(filename).trim()
+            season = se.season(filename)
+            episode = se.episode(filename)
+            marker = "SxxEyy"
+        } else if (x != null) {
+            name = x.title(filename).trim()
+            season = x.season(filename)
+            episode = x.episode(filename)
+            marker = "NxM"
+        } else if (anime != null) {
+            name = anime.title(filename).trim()
+            episode = anime.episode(filename)
+            season = 1 // Anime typically uses absolute episode numbers
+            isAnime = true
+            marker = "anime"
+        } else if (ep != null) {
+            name = ep.title(filename).trim()
+            episode = ep.episode(filename)
+            marker = "episode"
+        } else if (loose != null) {
+            // "One.Piece.1080.WEBRip" - but don't treat "Movie 2024" as episode 2024
+            val potentialEp = loose.episode(filename)
+            val fileYear = markers.year?.episode(filename)
+            val isLikelyYear = potentialEp in 1900..2100
+            if (fileYear == potentialEp) {
+                marker = "loose (skipped, is year)"
+            } else if (!isLikelyYear || fileYear != null) {
+                name = loose.title(filename).trim()
+                episode = potentialEp
+                season = 1
+                isAnime = true
+                marker = "loose"
             }
         }
 
-        // 2. Extract Year if present (and not already part of title)
-        DebugLogger.log("NameCleaner", "Step 2: Checking for year pattern...")
-        matcher = PATTERN_YEAR.matcher(name)
-        if (matcher.find()) {
-            val potentialTitle = matcher.group(1).trim()
-            // Only accept if title isn't empty (e.g. "2024.mkv" -> empty)
+        // 2. Year, unless the title would be left empty ("2024.mkv")
+        val yearMatch = if (name === filename) markers.year else Runs(name).findYear()
+        if (yearMatch != null) {
+            val potentialTitle = yearMatch.title(name).trim()
             if (potentialTitle.length > 1) {
+                year = yearMatch.episode(name)
                 name = potentialTitle
-                year = matcher.group(2).toInt()
-                DebugLogger.log("NameCleaner", " Extracted Year: '$name' ($year)")
-            }
-        }
-
-        // 3. Bruteforce sanitize "Scene Tags"
-        DebugLogger.log("NameCleaner", "Step 3: Applying junk regex patterns...")
-        DebugLogger.log("NameCleaner", "  Before junk removal: '$name'")
-        val beforeJunk = name
-        // remove anything matching junk regex
-        name = JUNK_PATTERN.matcher(name).replaceAll(" ")
-        DebugLogger.log("NameCleaner", "  After junk removal: '$name' (changed: ${beforeJunk != name})")
-        
-        // 4. Final Cleanup
-        DebugLogger.log("NameCleaner", "Step 4: Final cleanup steps...")
-        
-        // Remove file extensions
-        val beforeExt = name
-        name = name.replace(Regex("\\.(mkv|mp4|avi|webm|mov)$", RegexOption.IGNORE_CASE), "")
-        DebugLogger.log("NameCleaner", "  4a. Removed extension: '$beforeExt'  '$name'")
-        
-        // Replace dots/underscores with spaces
-        val beforeDots = name
-        name = name.replace(".", " ").replace("_", " ")
-        DebugLogger.log("NameCleaner", "  4b. Dots/underscores  spaces: '$beforeDots'  '$name'")
-        
-        // Collapse multiple spaces
-        val beforeSpaces = name
-        name = name.replace(Regex("\\s+"), " ").trim()
-        DebugLogger.log("NameCleaner", "  4c. Collapsed spaces: '$beforeSpaces'  '$name'")
-        
-        // Remove trailing hyphens
-        val beforeHyphens = name
-        name = name.replace(Regex("[-]+$"), "").trim()
-        DebugLogger.log("NameCleaner", "  4d. Removed trailing hyphens: '$beforeHyphens'  '$name'")
-        
-        DebugLogger.log("NameCleaner", "========================================")
-        DebugLogger.log("NameCleaner", "FINAL RESULT: '$name' S$season E$episode")
-        DebugLogger.log("NameCleaner", "  Year: $year, IsAnime: $isAnime")
-        DebugLogger.log("NameCleaner", "========================================")
-        
+            }
+        }
+
+        // 3. Scene tags
+        name = removeJunk(name)
+
+        // 4. Extension, separators, whitespace, trailing hyphens
+        name = removeExtension(name)
+        name = collapseWhitespace(name.replace('.', ' ').replace('_', ' ')).trim()
+        name = removeTrailingHyphens(name).trim()
+
+        DebugLogger.log(TAG, "'$filename' -> '$name' S${season}E$episode year=$year anime=$isAnime ($marker)")
         return CleanResult(name, season, episode, year, isAnime)
     }
-}
\ No newline at end of file
+
+    // ========================================================================
+    // CHARACTER CLASSES
+    // ========================================================================
+
+    // \s in java.util.regex: [ \t\n\x0B\f\r]
+    private fun isSpace(c: Char) = c == ' ' || c in '\t'..'\r'
+
+    // [\s._-]
+    private fun isSeparator(c: Char) = isSpace(c) || c == '.' || c == '_' || c == '-'
+
+    // [\s._\-(] - what may precede a year
+    private fun isYearOpener(c: Char) = isSeparator(c) || c == '('
+
+    // [)\s._-] - what must follow a year
+    private fun isYearCloser(c: Char) = isSeparator(c) || c == ')'
+
+    private fun isDigit(c: Char) = c in '0'..'9'
+
+    // Characters '.' refuses to match
+    private fun isLineTerminator(c: Char) =
+        c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029'
+
+    private fun lowerAscii(c: Char) = if (c in 'A'..'Z') c + 32 else c
+
+    /**
+     * '$' without MULTILINE: end of input, or just before a final line terminator
+     */
+    private fun isEnd(s: CharSequence, i: Int): Boolean {
+        val n = s.length
+        if (i == n) return true
+        if (i == n - 2) return s[i] == '\r' && s[i + 1] == '\n'
+        if (i == n - 1) {
+            val c = s[i]
+            if (c == '\n') return i == 0 || s[i - 1] != '\r'
+            return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029'
+        }
+        return false
+    }
+
+    // ========================================================================
+    // EPISODE AND YEAR MARKERS
+    // ========================================================================
+
+    /**
+     * A marker found in a name: the title runs from [titleStart] to [titleEnd],
+     * the numbers from [aStart] to [aEnd] (season or episode) and [bStart] to [bEnd]
+     */
+    private class Marker(
+        val titleStart: Int,
+        val titleEnd: Int,
+        val aStart: Int,
+        val aEnd: Int,
+        val bStart: Int = -1,
+        val bEnd: Int = -1
+    ) {
+        fun title(s: String) = s.substring(titleStart, titleEnd)
+        fun season(s: String) = s.substring(aStart, aEnd).toInt()
+        fun episode(s: String) =
+            if (bStart >= 0) s.substring(bStart, bEnd).toInt() else s.substring(aStart, aEnd).toInt()
+    }
+
+    private class Markers {
+        var seasonEpisode: Marker? = null
+        var crossEpisode: Marker? = null
+        var animeAbsolute: Marker? = null
+        var episodeWord: Marker? = null
+        var looseAbsolute: Marker? = null
+        var year: Marker? = null
+    }
+
+    /**
+     * Run lengths of one string, from a single backward pass: for every index,
+     * where the run of separators / whitespace / digits / year openers starting
+     * there ends
+     */
+    private class Runs(val s: String) {
+        private val n = s.length
+        private val separatorEnd = IntArray(n + 1)
+        private val spaceEnd = IntArray(n + 1)
+        private val digitEnd = IntArray(n + 1)
+        private val yearOpenerEnd = IntArray(n + 1)
+
+        init {
+            separatorEnd[n] = n
+            spaceEnd[n] = n
+            digitEnd[n] = n
+            yearOpenerEnd[n] = n
+            for (i in n - 1 downTo 0) {
+                val c = s[i]
+                separatorEnd[i] = if (isSeparator(c)) separatorEnd[i + 1] else i
+                spaceEnd[i] = if (isSpace(c)) spaceEnd[i + 1] else i
+                digitEnd[i] = if (isDigit(c)) digitEnd[i + 1] else i
+                yearOpenerEnd[i] = if (isYearOpener(c)) yearOpenerEnd[i + 1] else i
+            }
+        }
+
+        private fun charIs(i: Int, lower: Char) = i < n && lowerAscii(s[i]) == lower
+
+        /**
+         * First match of every marker. The title of each is the shortest
+         * non-empty prefix (of the current line, for unanchored markers)
+         * followed by the marker - the semantics of a leading lazy "(.+?)".
+         */
+        fun findMarkers(): Markers {
+            val found = Markers()
+            var lineStart = 0
+            var firstLine = true
+            for (p in 1 until n) {
+                if (isLineTerminator(s[p - 1])) {
+                    // The title can't span lines; anchored markers are done
+                    lineStart = p
+                    firstLine = false
+                    continue
+                }
+                if (found.seasonEpisode == null) found.seasonEpisode = seasonEpisodeAt(lineStart, p)
+                if (found.crossEpisode == null) found.crossEpisode = crossEpisodeAt(lineStart, p)
+                if (found.episodeWord == null) found.episodeWord = episodeWordAt(lineStart, p)
+                if (found.year == null) found.year = yearAt(lineStart, p)
+                if (firstLine) {
+                    if (found.animeAbsolute == null) found.animeAbsolute = animeAbsoluteAt(p)
+                    if (found.looseAbsolute == null) found.looseAbsolute = looseAbsoluteAt(p)
+                }
+                // Nothing else is consulted once the strongest marker is found
+                if (found.seasonEpisode != null) break
+            }
+            return found
+        }
+
+        fun findYear(): Marker? {
+            var lineStart = 0
+            for (p in 1 until n) {
+                if (isLineTerminator(s[p - 1])) {
+                    lineStart = p
+                    continue
+                }
+                yearAt(lineStart, p)?.let { return it }
+            }
+            return null
+        }
+
+        // (.+?)[\s._-]+[Ss](\d+)[\s._-]*[Ee](\d+)
+        private fun seasonEpisodeAt(start: Int, p: Int): Marker? {
+            val s0 = separatorEnd[p]
+            if (s0 == p || !charIs(s0, 's')) return null
+            val seasonEnd = digitEnd[s0 + 1]
+            if (seasonEnd == s0 + 1) return null
+            val e0 = separatorEnd[seasonEnd]
+            if (!charIs(e0, 'e')) return null
+            val episodeEnd = digitEnd[e0 + 1]
+            if (episodeEnd == e0 + 1) return null
+            return Marker(start, p, s0 + 1, seasonEnd, e0 + 1, episodeEnd)
+        }
+
+        // (.+?)[\s._-]+(\d+)[xX](\d+)
+        private fun crossEpisodeAt(start: Int, p: Int): Marker? {
+            val d0 = separatorEnd[p]
+            if (d0 == p) return null
+            val seasonEnd = digitEnd[d0]
+            if (seasonEnd == d0 || !charIs(seasonEnd, 'x')) return null
+            val episodeEnd = digitEnd[seasonEnd + 1]
+            if (episodeEnd == seasonEnd + 1) return null
+            return Marker(start, p, d0, seasonEnd, seasonEnd + 1, episodeEnd)
+        }
+
+        // (.+?)[\s._-]+(?:Episode|Ep|E)[\s._-]*(\d+), case-insensitive
+        private fun episodeWordAt(start: Int, p: Int): Marker? {
+            val w = separatorEnd[p]
+            if (w == p) return null
+            for (word in EPISODE_WORDS) {
+                if (!startsWithIgnoreCase(s, w, word)) continue
+                val d0 = separatorEnd[w + word.length]
+                if (d0 < n && isDigit(s[d0])) return Marker(start, p, d0, digitEnd[d0])
+            }
+            return null
+        }
+
+        // ^(.+?)\s*-\s*(\d{1,4})(?:\s*-|\s*\[|\s*\(|$)
+        private fun animeAbsoluteAt(p: Int): Marker? {
+            val dash = spaceEnd[p]
+            if (dash >= n || s[dash] != '-') return null
+            val d0 = spaceEnd[dash + 1]
+            val d1 = digitEnd[d0]
+            if (d1 == d0 || d1 - d0 > 4) return null
+            val next = spaceEnd[d1]
+            val closed = next < n && (s[next] == '-' || s[next] == '[' || s[next] == '(')
+            if (!closed && !isEnd(s, d1)) return null
+            return Marker(0, p, d0, d1)
+        }
+
+        // ^(.+?)[\s._-]+(\d{1,4})(?![pPi\d])(?:[\s._-]+|$)
+        private fun looseAbsoluteAt(p: Int): Marker? {
+            val d0 = separatorEnd[p]
+            if (d0 == p) return null
+            val d1 = digitEnd[d0]
+            if (d1 == d0 || d1 - d0 > 4) return null
+            // A separator or the end after the number also rules out "1080p"
+            if (!(d1 < n && isSeparator(s[d1])) && !isEnd(s, d1)) return null
+            return Marker(0, p, d0, d1)
+        }
+
+        // (.+?)[\s._\-(]+(\d{4})[)\s._-]
+        private fun yearAt(start: Int, p: Int): Marker? {
+            val d0 = yearOpenerEnd[p]
+            if (d0 == p || digitEnd[d0] - d0 != 4) return null
+            val d1 = d0 + 4
+            if (d1 >= n || !isYearCloser(s[d1])) return null
+            return Marker(start, p, d0, d1)
+        }
+    }
+
+    private val EPISODE_WORDS = arrayOf("episode", "ep", "e")
+
+    // ========================================================================
+    // SCENE TAGS
+    // ========================================================================
+
+    /**
+     * One tag pattern at a position; returns where the match ends, or -1
+     */
+    private fun interface Tag {
+        fun match(s: String, i: Int): Int
+    }
+
+    // Release tags, each matched case-insensitively as a whole word
+    // (\b on both sides). Order matters: the first tag matching wins.
+    private val WORD_TAGS: List<Tag> = buildList {
+        // Resolutions
+        for (res in listOf("2160", "1080", "720", "480", "576")) {
+            add(Tag { s, i -> matchWord(s, i, res, "p") })
+        }
+        add(Tag { s, i -> if (i < s.length && (s[i] == '4' || s[i] == '8')) matchWord(s, i + 1, "k") else -1 })
+        words("uhd", "hd", "sd")
+        // Sources
+        words("bluray", "bdrip", "brrip", "bd", "dvd", "dvdrip", "dvdscr", "r5")
+        words("web-dl", "webrip", "web", "hdtv", "pdtv", "cam", "ts", "tc", "remux")
+        // Codecs: x264, h.265, ...
+        for (version in listOf("264", "265")) {
+            add(Tag { s, i ->
+                if (i >= s.length || lowerAscii(s[i]) != 'x' && lowerAscii(s[i]) != 'h') return@Tag -1
+                val dotted = if (i + 1 < s.length && s[i + 1] == '.') matchWord(s, i + 2, version) else -1
+                if (dotted >= 0) dotted else matchWord(s, i + 1, version)
+            })
+        }
+        words("hevc", "avc", "divx", "xvid", "mpeg")
+        // Audio
+        words("truehd", "dts-hd", "dts", "atmos")
+        add(Tag { s, i ->
+            // DD(\+|P)?\s*5\.1
+            if (!startsWithIgnoreCase(s, i, "dd")) return@Tag -1
+            val variants = if (i + 2 < s.length && (s[i + 2] == '+' || lowerAscii(s[i + 2]) == 'p')) {
+                intArrayOf(i + 3, i + 2)
+            } else {
+                intArrayOf(i + 2)
+            }
+            for (j in variants) {
+                val end = matchWord(s, skipSpaces(s, j), "5.1")
+                if (end >= 0) return@Tag end
+            }
+            -1
+        })
+        words("dd", "aac", "ac3", "eac3", "flac", "mp3")
+        words("5.1", "7.1", "2.0")
+        // HDR / video specs
+        add(Tag { s, i ->
+            // HDR(10)?(\+)?
+            if (!startsWithIgnoreCase(s, i, "hdr")) return@Tag -1
+            val j = i + 3
+            val ten = startsWithIgnoreCase(s, j, "10")
+            val candidates = if (ten) intArrayOf(j + 2, j) else intArrayOf(j)
+            for (k in candidates) {
+                if (k < s.length && s[k] == '+') {
+                    val end = matchWord(s, k + 1, "")
+                    if (end >= 0) return@Tag end
+                }
+                val end = matchWord(s, k, "")
+                if (end >= 0) return@Tag end
+            }
+            -1
+        })
+        add(Tag { s, i -> if (startsWithIgnoreCase(s, i, "dolby")) matchWord(s, skipSpaces(s, i + 5), "vision") else -1 })
+        words("dv", "10bit", "12bit", "hi10p", "sdr")
+        add(Tag { s, i -> if (startsWithIgnoreCase(s, i, "ai")) matchWord(s, skipSpaces(s, i + 2), "upscale") else -1 })
+        words("upscaled")
+        // Release types
+        words("repack", "proper", "real", "internal", "festival", "stv", "limited", "unrated", "dc",
+            "extended", "remastered", "complete", "restored", "uncut")
+        add(Tag { s, i ->
+            // DIRECTOR'?S\s*CUT
+            if (!startsWithIgnoreCase(s, i, "director")) return@Tag -1
+            val j = i + 8
+            val candidates = if (j < s.length && s[j] == '\'') intArrayOf(j + 1, j) else intArrayOf(j)
+            for (k in candidates) {
+                if (k < s.length && lowerAscii(s[k]) == 's') {
+                    val end = matchWord(s, skipSpaces(s, k + 1), "cut")
+                    if (end >= 0) return@Tag end
+                }
+            }
+            -1
+        })
+        // Languages
+        words("multi", "dual", "latino", "french", "german", "spanish", "ita", "rus", "jap", "eng", "sub", "dub")
+    }
+
+    private fun MutableList<Tag>.words(vararg words: String) {
+        for (word in words) add(Tag { s, i -> matchWord(s, i, word) })
+    }
+
+    /**
+     * [word] then [suffix] (one of its characters, if not empty) at [i],
+     * followed by a word boundary; returns the end or -1
+     */
+    private fun matchWord(s: String, i: Int, word: String, suffix: String = ""): Int {
+        if (!startsWithIgnoreCase(s, i, word)) return -1
+        var end = i + word.length
+        if (suffix.isNotEmpty()) {
+            if (end >= s.length || suffix.indexOf(lowerAscii(s[end])) < 0) return -1
+            end++
+        }
+        return if (isBoundary(s, end)) end else -1
+    }
+
+    private fun startsWithIgnoreCase(s: String, i: Int, lower: String): Boolean {
+        if (i + lower.length > s.length) return false
+        for (k in lower.indices) {
+            if (lowerAscii(s[i + k]) != lower[k]) return false
+        }
+        return true
+    }
+
+    private fun skipSpaces(s: String, i: Int): Int {
+        var j = i
+        while (j < s.length && isSpace(s[j])) j++
+        return j
+    }
+
+    /**
+     * Replace every scene tag, bracket group and trailing "-GROUP" with a space
+     */
+    private fun removeJunk(s: String): String {
+        val n = s.length
+        var out: StringBuilder? = null
+        var i = 0
+        while (i < n) {
+            val end = junkAt(s, i)
+            if (end < 0) {
+                out?.append(s[i])
+                i++
+                continue
+            }
+            if (out == null) out = StringBuilder(n).append(s, 0, i)
+            out.append(' ')
+            i = end
+        }
+        return out?.toString() ?: s
+    }
+
+    private fun junkAt(s: String, i: Int): Int {
+        // Word tags can only start where a word starts
+        if (isBoundary(s, i)) {
+            for (tag in WORD_TAGS) {
+                val end = tag.match(s, i)
+                if (end >= 0) return end
+            }
+        }
+        val c = s[i]
+        if (isSeparator(c) && i + 1 < s.length) {
+            // [\s._-]\[[^\]]+\] and [\s._-]\([^\)]+\)
+            val open = s[i + 1]
+            val close = when (open) {
+                '[' -> ']'
+                '(' -> ')'
+                else -> null
+            }
+            if (close != null) {
+                val closeAt = s.indexOf(close, i + 2)
+                if (closeAt > i + 2) return closeAt + 1
+            }
+        }
+        if (c == '-') {
+            // -[\w\d]+$
+            var j = i + 1
+            while (j < s.length && isAsciiWord(s[j])) j++
+            if (j > i + 1 && isEnd(s, j)) return j
+        }
+        return -1
+    }
+
+    private fun isAsciiWord(c: Char) = c in 'a'..'z' || c in 'A'..'Z' || c in '0'..'9' || c == '_'
+
+    /**
+     * \b: a word character on exactly one side of [i]
+     */
+    private fun isBoundary(s: String, i: Int): Boolean {
+        val left = i > 0 && isWordBefore(s, i)
+        val right = i < s.length && isWordAt(s, i)
+        return left != right
+    }
+
+    private fun isWordCodePoint(cp: Int) = cp == '_'.code || Character.isLetterOrDigit(cp)
+
+    private fun isWordAt(s: String, i: Int): Boolean {
+        val cp = Character.codePointAt(s, i)
+        return isWordCodePoint(cp) || Character.getType(cp) == Character.NON_SPACING_MARK.toInt() && hasBase(s, i)
+    }
+
+    private fun isWordBefore(s: String, i: Int): Boolean {
+        val cp = Character.codePointBefore(s, i)
+        return isWordCodePoint(cp) || Character.getType(cp) == Character.NON_SPACING_MARK.toInt() && hasBase(s, i - 1)
+    }
+
+    // A combining mark counts as part of the letter or digit it follows
+    private fun hasBase(s: String, i: Int): Boolean {
+        var x = i
+        while (x >= 0) {
+            val cp = Character.codePointAt(s, x)
+            if (Character.isLetterOrDigit(cp)) return true
+            if (Character.getType(cp) != Character.NON_SPACING_MARK.toInt()) return false
+            x--
+        }
+        return false
+    }
+
+    // ========================================================================
+    // FINAL CLEANUP
+    // ========================================================================
+
+    private val EXTENSIONS = arrayOf("webm", "mkv", "mp4", "avi", "mov")
+
+    /**
+     * \.(mkv|mp4|avi|webm|mov)$, with Unicode case folding
+     */
+    private fun removeExtension(s: String): String {
+        for (end in intArrayOf(s.length - 2, s.length - 1, s.length)) {
+            if (end < 0 || !isEnd(s, end)) continue
+            for (ext in EXTENSIONS) {
+                val dot = end - ext.length - 1
+                if (dot < 0 || s[dot] != '.') continue
+                var matches = true
+                for (k in ext.indices) {
+                    val c = s[dot + 1 + k]
+                    if (Character.toLowerCase(Character.toUpperCase(c)) != ext[k]) {
+                        matches = false
+                        break
+                    }
+                }
+                if (matches) return s.substring(0, dot) + s.substring(end)
+            }
+        }
+        return s
+    }
+
+    /**
+     * \s+ -> " "
+     */
+    private fun collapseWhitespace(s: String): String {
+        val out = StringBuilder(s.length)
+        var i = 0
+        while (i < s.length) {
+            val c = s[i]
+            if (isSpace(c)) {
+                out.append(' ')
+                while (i < s.length && isSpace(s[i])) i++
+            } else {
+                out.append(c)
+                i++
+            }
+        }
+        return out.toString()
+    }
+
+    /**
+     * [-]+$ -> ""
+     */
+    private fun removeTrailingHyphens(s: String): String {
+        for (end in intArrayOf(s.length - 2, s.length - 1, s.length)) {
+            if (end <= 0 || !isEnd(s, end) || s[end - 1] != '-') continue
+            var start = end - 1
+            while (start > 0 && s[start - 1] == '-') start--
+            return s.substring(0, start) + s.substring(end)
+        }
+        return s
+    }
+}
@@ -2,6 +2,7 @@ package com.brouken.player.utils
 
 import android.os.Handler
 import android.os.Looper
+import com.brouken.player.tmdb.RequestScheduler
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
@@ -21,6 +22,7 @@ class RemoteServer(private val controller: PlayerController) {
         fun getStartMarker(): Long
         fun getEndMarker(): Long
         fun hasApiKey(): Boolean
+        fun getPendingSubmissions(): Int
         fun markStart()
         fun markEnd()
         fun submit()
@@ -129,10 +131,17 @@ class RemoteServer(private val controller: PlayerController) {
     }
 
     private fun sendStatus(output: PrintWriter) {
-        val json = """{"time":${controller.getCurrentPosition()},"duration":${controller.getDuration()},"playing":${controller.isPlaying()},"title":"${controller.getMediaTitle().replace("\"", "\\\"")}","startMarker":${controller.getStartMarker()},"endMarker":${controller.getEndMarker()},"hasApiKey":${controller.hasApiKey()}}"""
+        val json = """{"time":${controller.getCurrentPosition()},"duration":${controller.getDuration()},"playing":${controller.isPlaying()},"title":"${controller.getMediaTitle().replace("\"", "\\\"")}","startMarker":${controller.getStartMarker()},"endMarker":${controller.getEndMarker()},"hasApiKey":${controller.hasApiKey()},"pendingSubmissions":${controller.getPendingSubmissions()},"requestQueue":${requestQueueJson()}}"""
         sendJson(output, json)
     }
 
+    private fun requestQueueJson(): String {
+        val hosts = RequestScheduler.stats().joinToString(",") {
+            """{"host":"${it.host}","queued":${it.queued},"pausedForMs":${it.pausedForMs},"throttled":${it.throttled}}"""
+        }
+        return """{"depth":${RequestScheduler.queueDepth()},"hosts":[$hosts]}"""
+    }
+
     private fun sendJson(output: PrintWriter, json: String) {
         output.println("HTTP/1.1 200 OK")
         output.println("Content-Type: application/json")
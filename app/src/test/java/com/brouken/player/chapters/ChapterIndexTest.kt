@@ -0,0 +1,236 @@
+package com.brouken.player.chapters
+
+import com.brouken.player.chapters.ChapterSegment.Type
+import org.junit.Assert.*
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+
+/**
+ * Reads chapters out of minimal Matroska and MP4 files built in memory, and
+ * classifies titles the way release groups and broadcasters write them
+ */
+class ChapterIndexTest {
+
+    private class ArraySource(private val data: ByteArray) : ByteSource {
+        override val size: Long = data.size.toLong()
+        override fun read(position: Long, length: Int): ByteArray {
+            if (position >= size) return ByteArray(0)
+            return data.copyOfRange(position.toInt(), minOf(data.size, position.toInt() + length))
+        }
+    }
+
+    // ========================================================================
+    // MATROSKA
+    // ========================================================================
+
+    private fun element(id: Long, vararg children: ByteArray): ByteArray {
+        val payload = children.fold(ByteArray(0)) { all, child -> all + child }
+        val idLength = (64 - java.lang.Long.numberOfLeadingZeros(id) + 7) / 8
+        val idBytes = ByteArray(idLength) { (id shr (8 * (idLength - 1 - it))).toByte() }
+        // Eight byte sizes, as some muxers write them
+        val size = ByteArray(8) { (payload.size.toLong() shr (8 * (7 - it))).toByte() }
+        size[0] = 0x01
+        return idBytes + size + payload
+    }
+
+    private fun uint(id: Long, value: Long) = element(id, ByteArray(8) { (value shr (8 * (7 - it))).toByte() })
+
+    private fun string(id: Long, value: String) = element(id, value.toByteArray())
+
+    private fun atom(start: Double, end: Double?, vararg titles: String, hidden: Boolean = false): ByteArray {
+        val parts = mutableListOf(uint(0x91, (start * 1e9).toLong()))
+        if (end != null) parts.add(uint(0x92, (end * 1e9).toLong()))
+        if (hidden) parts.add(uint(0x98, 1))
+        titles.forEach { parts.add(element(0x80, string(0x85, it), string(0x437C, "und"))) }
+        return element(0xB6, *parts.toTypedArray())
+    }
+
+    private fun matroska(chapters: ByteArray, chaptersLast: Boolean = false): ByteArray {
+        val ebml = element(0x1A45DFA3, string(0x4282, "matroska"))
+        val info = element(0x1549A966, uint(0x2AD7B1, 1_000_000))
+        val cluster = element(0x1F43B675, uint(0xE7, 0), element(0xA3, ByteArray(64)))
+        if (!chaptersLast) return ebml + element(0x18538067, info, chapters, cluster)
+
+        // Chapters after the clusters, found through the SeekHead
+        val placeholder = element(0x114D9B74, element(0x4DBB, uint(0x53AB, 0x1043A770), uint(0x53AC, 0)))
+        val position = (placeholder.size + info.size + cluster.size).toLong()
+        val seekHead = element(0x114D9B74, element(0x4DBB, uint(0x53AB, 0x1043A770), uint(0x53AC, position)))
+        return ebml + element(0x18538067, seekHead, info, cluster, chapters)
+    }
+
+    @Test
+    fun readsDefaultMatroskaEdition() {
+        val chapters = element(0x1043A770,
+            element(0x45B9, uint(0x45BD, 1), atom(0.0, 10.0, "Hidden edition")),
+            element(0x45B9,
+                atom(0.0, 95.0, "Avant"),
+                atom(95.0, 185.0, "Opening", "オープニング"),
+                atom(185.0, 1300.0, "Part A"),
+                atom(1300.0, null, "Signs", hidden = true),
+                atom(1300.0, 1390.0, "Ending"),
+                atom(1390.0, 1420.0, "Preview")
+            )
+        )
+
+        val read = MatroskaChapters.read(ArraySource(matroska(chapters)))!!
+        assertEquals(5, read.size)
+        assertEquals(listOf("Opening", "オープニング"), read[1].titles)
+        assertEquals(95.0, read[1].start, 0.001)
+        assertEquals(185.0, read[1].end!!, 0.001)
+
+        val segments = ChapterClassifier.segments(read, 1420.0)
+        assertEquals(listOf(Type.AVANT, Type.OPENING, Type.ENDING, Type.PREVIEW), segments.map { it.type })
+        // The avant stays; ending and preview are skipped together
+        assertEquals(listOf(95.0 to 185.0, 1300.0 to 1420.0), ChapterSegment.toSkipSegments(segments))
+    }
+
+    @Test
+    fun findsMatroskaChaptersThroughSeekHead() {
+        val chapters = element(0x1043A770, element(0x45B9, atom(0.0, 60.0, "Recap"), atom(60.0, 120.0, "Chapter 2")))
+        val read = MatroskaChapters.read(ArraySource(matroska(chapters, chaptersLast = true)))!!
+        assertEquals(2, read.size)
+        assertEquals(Type.RECAP, ChapterClassifier.classify(read[0].titles))
+    }
+
+    @Test
+    fun otherFormatsAreNotMatroska() {
+        assertNull(MatroskaChapters.read(ArraySource(mp4(moov(udta(chpl()))))))
+        assertNull(Mp4Chapters.read(ArraySource(matroska(element(0x1043A770)))))
+    }
+
+    // ========================================================================
+    // MP4
+    // ========================================================================
+
+    private fun box(type: String, vararg children: ByteArray): ByteArray {
+        val payload = children.fold(ByteArray(0)) { all, child -> all + child }
+        val out = ByteArrayOutputStream()
+        DataOutputStream(out).apply {
+            writeInt(8 + payload.size)
+            writeBytes(type)
+            write(payload)
+        }
+        return out.toByteArray()
+    }
+
+    private fun ints(vararg values: Long): ByteArray {
+        val out = ByteArrayOutputStream()
+        DataOutputStream(out).apply { values.forEach { writeInt(it.toInt()) } }
+        return out.toByteArray()
+    }
+
+    private fun mp4(moov: ByteArray, mdat: ByteArray = ByteArray(0)): ByteArray {
+        return box("ftyp", "isom".toByteArray(), ints(0)) + moov + box("mdat", mdat)
+    }
+
+    private fun moov(vararg children: ByteArray) = box("moov", *children)
+
+    private fun udta(vararg children: ByteArray) = box("udta", *children)
+
+    private fun chpl(vararg chapters: Pair<Double, String>): ByteArray {
+        val out = ByteArrayOutputStream()
+        DataOutputStream(out).apply {
+            writeInt(0x01000000)
+            writeInt(0)
+            writeByte(chapters.size)
+            for ((start, title) in chapters) {
+                writeLong((start * 10_000_000).toLong())
+                val bytes = title.toByteArray()
+                writeByte(bytes.size)
+                write(bytes)
+            }
+        }
+        return box("chpl", out.toByteArray())
+    }
+
+    @Test
+    fun readsNeroChapters() {
+        val file = mp4(moov(udta(chpl(0.0 to "Prólogo", 62.5 to "Apertura", 152.5 to "Parte A", 1290.0 to "Créditos"))))
+        val read = Mp4Chapters.read(ArraySource(file))!!
+        assertEquals(4, read.size)
+        assertEquals(62.5, read[1].start, 0.001)
+
+        val segments = ChapterClassifier.segments(read, 1380.0)
+        assertEquals(listOf(Type.AVANT, Type.OPENING, Type.ENDING), segments.map { it.type })
+        assertEquals(152.5, segments[1].end, 0.001)
+        assertEquals(1380.0, segments[2].end, 0.001)
+    }
+
+    @Test
+    fun readsQuickTimeChapterTrack() {
+        // Titles stored in the mdat, the way muxers put them
+        val titles = listOf("Intro", "Chapter 2", "Credits").map { title ->
+            val bytes = title.toByteArray()
+            byteArrayOf(0, bytes.size.toByte()) + bytes
+        }
+        fun file(mdatOffset: Long): ByteArray {
+            val video = box("trak",
+                box("tkhd", ints(0, 0, 0, 1, 0, 0)),
+                box("tref", box("chap", ints(2)))
+            )
+            val text = box("trak",
+                box("tkhd", ints(0, 0, 0, 2, 0, 0)),
+                box("mdia",
+                    box("mdhd", ints(0, 0, 0, 1000, 1_400_000, 0)),
+                    box("minf", box("stbl",
+                        box("stts", ints(0, 2, 2, 90_000, 1, 1_220_000)),
+                        box("stsz", ints(0, 0, 3, titles[0].size.toLong(), titles[1].size.toLong(), titles[2].size.toLong())),
+                        box("stsc", ints(0, 1, 1, 3, 1)),
+                        box("stco", ints(0, 1, mdatOffset))
+                    ))
+                )
+            )
+            return mp4(moov(video, text), titles.fold(ByteArray(0)) { all, t -> all + t })
+        }
+        // The titles end the file, and the moov size doesn't depend on their offset
+        val offset = file(0).size - titles.sumOf { it.size }.toLong()
+
+        val read = Mp4Chapters.read(ArraySource(file(offset)))!!
+        assertEquals(listOf("Intro", "Chapter 2", "Credits"), read.map { it.titles[0] })
+        assertEquals(90.0, read[1].start, 0.001)
+        assertEquals(180.0, read[2].start, 0.001)
+        assertEquals(1400.0, read[2].end!!, 0.001)
+    }
+
+    // ========================================================================
+    // CLASSIFIER
+    // ========================================================================
+
+    @Test
+    fun classifiesTitlesAcrossLanguages() {
+        val expected = mapOf(
+            "OP" to Type.OPENING,
+            "OP2" to Type.OPENING,
+            "NCOP - Opening Song" to Type.OPENING,
+            "Opening Credits" to Type.OPENING,
+            "Générique de début" to Type.OPENING,
+            "Vorspann" to Type.OPENING,
+            "オープニング" to Type.OPENING,
+            "片头" to Type.OPENING,
+            "Опенинг" to Type.OPENING,
+            "ED" to Type.ENDING,
+            "Ending Theme" to Type.ENDING,
+            "Générique de fin" to Type.ENDING,
+            "Abspann" to Type.ENDING,
+            "Titoli di coda" to Type.ENDING,
+            "エンディング" to Type.ENDING,
+            "Previously on..." to Type.RECAP,
+            "Was bisher geschah" to Type.RECAP,
+            "前回のあらすじ" to Type.RECAP,
+            "Avant" to Type.AVANT,
+            "アバン" to Type.AVANT,
+            "Next Episode Preview" to Type.PREVIEW,
+            "次回予告" to Type.PREVIEW,
+            "Vorschau" to Type.PREVIEW,
+            "Part A" to null,
+            "Chapter 03" to null,
+            "Eduardo's Story" to null,
+            "Pending" to null,
+            "Operation" to null
+        )
+        for ((title, type) in expected) {
+            assertEquals(title, type, ChapterClassifier.classify(title))
+        }
+    }
+}
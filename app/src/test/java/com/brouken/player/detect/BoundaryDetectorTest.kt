@@ -0,0 +1,90 @@
+package com.brouken.player.detect
+
+import com.brouken.player.detect.PcmFixtures.body
+import com.brouken.player.detect.PcmFixtures.render
+import com.brouken.player.detect.PcmFixtures.silence
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Runs boundary detection over synthetic frame sizes: live action at a
+ * steady bitrate, fades to black as tiny frames, credits as small ones
+ */
+class BoundaryDetectorTest {
+
+    private val fps = 24.0
+
+    /**
+     * Frames from [from] to [to] seconds; [sizeAt] gives the size of a non-sync frame
+     */
+    private fun frames(from: Double, to: Double, sizeAt: (Double) -> Int): BoundaryDetector.FrameSizes {
+        val frames = BoundaryDetector.FrameSizes()
+        var n = (from * fps).toLong()
+        while (n / fps < to) {
+            val t = n / fps
+            val sync = n % 48 == 0L
+            val size = sizeAt(t)
+            frames.add((t * 1_000_000).toLong(), if (sync) size * 5 else size, sync)
+            n++
+        }
+        return frames
+    }
+
+    private fun black(vararg runs: Pair<Double, Double>): (Double) -> Int = { t ->
+        if (runs.any { t >= it.first && t < it.second }) 300 else 20_000
+    }
+
+    @Test
+    fun silenceIsFoundAtAnyFormat() {
+        for ((rate, channels) in listOf(44100 to 2, 48000 to 6, 22050 to 1)) {
+            val detector = SilenceDetector(rate, channels, offsetSeconds = 100.0)
+            val parts = listOf(body(1, 10.0), silence(1.5), body(2, 10.0), silence(0.1), body(3, 5.0))
+            render(parts, rate, channels, hiss = 5) { samples, length -> detector.feed(samples, 0, length) }
+
+            val gaps = detector.gaps()
+            assertEquals("$rate Hz x $channels: $gaps", 1, gaps.size)
+            assertEquals(110.0, gaps[0].start, 0.1)
+            assertEquals(111.5, gaps[0].end, 0.1)
+        }
+    }
+
+    @Test
+    fun findsRecapEndAndCreditsStart() {
+        // A logo fade too early to end a recap, then the recap's fade at 45 s
+        val opening = BoundaryDetector.Window(
+            listOf(BoundaryDetector.Run(4.9, 6.0), BoundaryDetector.Run(44.8, 46.2)),
+            frames(0.0, 300.0, black(5.0 to 6.0, 45.0 to 46.0))
+        )
+        // A scene fade, then the fade into credits, then a preview
+        val credits = BoundaryDetector.Window(
+            listOf(BoundaryDetector.Run(1300.0, 1301.0), BoundaryDetector.Run(1379.8, 1381.0)),
+            frames(1200.0, 1500.0) { t ->
+                when {
+                    t >= 1300.0 && t < 1301.0 || t >= 1380.0 && t < 1381.0 -> 300
+                    t >= 1381.0 && t < 1470.0 -> 4_000
+                    else -> 20_000
+                }
+            }
+        )
+
+        val boundaries = BoundaryDetector.detect(opening, credits, 1500.0)
+        assertEquals(46.2, boundaries.recapEnd!!, 0.1)
+        assertEquals(1379.8, boundaries.creditsStart!!, 0.1)
+    }
+
+    @Test
+    fun blackWithoutSilenceOrSilenceWithoutBlackIsNoBoundary() {
+        val opening = BoundaryDetector.Window(
+            listOf(BoundaryDetector.Run(80.0, 81.0)),
+            frames(0.0, 300.0, black(45.0 to 46.0))
+        )
+        val credits = BoundaryDetector.Window(
+            listOf(BoundaryDetector.Run(1380.0, 1381.0)),
+            frames(1200.0, 1500.0) { 20_000 }
+        )
+
+        val boundaries = BoundaryDetector.detect(opening, credits, 1500.0)
+        assertNull(boundaries.recapEnd)
+        assertNull(boundaries.creditsStart)
+    }
+}
@@ -0,0 +1,113 @@
+package com.brouken.player.detect
+
+import kotlin.math.PI
+import kotlin.math.exp
+import kotlin.math.sin
+
+/**
+ * Synthetic episode soundtracks, streamed as interleaved 16-bit PCM
+ *
+ * Every source is a function of time, so the same theme rendered at another
+ * sample rate, channel count or gain is the same music in a different encode,
+ * the way an opening is across a season. Everything is deterministic.
+ */
+object PcmFixtures {
+
+    /** A stretch of audio; [at] gets seconds since the part started */
+    class Part(val seconds: Double, private val source: (Double) -> Double) {
+        fun at(t: Double): Double = source(t)
+    }
+
+    /**
+     * Opening or credits music: a melody over a chord, with a drum on every beat
+     */
+    fun theme(seed: Int, seconds: Double): Part {
+        val beat = 0.4
+        return Part(seconds) { t ->
+            val index = (t / beat).toInt()
+            val inBeat = t - index * beat
+            val note = 220.0 * semitone(hash(seed, index) % 19)
+            val root = 110.0 * semitone(hash(seed, index / 8) % 12)
+            val melody = 0.35 * tone(note, t) + 0.12 * tone(note * 2, t)
+            val chord = 0.15 * (tone(root, t) + tone(root * semitone(4), t) + tone(root * semitone(7), t))
+            val drum = 0.4 * exp(-inBeat * 30) * noise(seed + 1, (t * 8000).toInt())
+            (melody * (0.6 + 0.4 * exp(-inBeat * 4)) + chord + drum) * 0.5
+        }
+    }
+
+    /**
+     * Episode content that never repeats: speech-like pitched bursts over room noise
+     */
+    fun body(seed: Int, seconds: Double): Part {
+        val syllable = 0.18
+        return Part(seconds) { t ->
+            val index = (t / syllable).toInt()
+            val inSyllable = t - index * syllable
+            val pitch = 90.0 + hash(seed, index) % 160
+            val voiced = hash(seed + 7, index / 6) % 4 != 0
+            val envelope = sin(PI * inSyllable / syllable)
+            val voice = if (voiced) envelope * (0.3 * tone(pitch, t) + 0.15 * tone(pitch * 3, t) + 0.08 * tone(pitch * 5, t)) else 0.0
+            voice * 0.6 + 0.04 * noise(seed, (t * 8000).toInt())
+        }
+    }
+
+    fun silence(seconds: Double): Part = Part(seconds) { 0.0 }
+
+    /**
+     * Render [parts] back to back, [chunk] frames at a time, to [sink]
+     *
+     * @param hiss seed of low-level noise added like a different encode would; 0 for none
+     */
+    fun render(
+        parts: List<Part>,
+        rate: Int,
+        channels: Int,
+        gain: Double = 1.0,
+        hiss: Int = 0,
+        chunk: Int = 4096,
+        sink: (ShortArray, Int) -> Unit
+    ) {
+        val buffer = ShortArray(chunk * channels)
+        var used = 0
+        for (part in parts) {
+            val frames = (part.seconds * rate).toLong()
+            for (n in 0 until frames) {
+                val t = n.toDouble() / rate
+                var value = part.at(t) * gain
+                if (hiss != 0) value += 0.01 * noise(hiss, n.toInt())
+                val sample = (value * 32767).coerceIn(-32768.0, 32767.0).toInt().toShort()
+                for (c in 0 until channels) buffer[used++] = sample
+                if (used == buffer.size) {
+                    sink(buffer, used)
+                    used = 0
+                }
+            }
+        }
+        if (used > 0) sink(buffer, used)
+    }
+
+    /**
+     * Codes of [parts] as an [AudioFingerprinter] at [rate] would compute them
+     */
+    fun fingerprint(parts: List<Part>, rate: Int, channels: Int, gain: Double = 1.0, hiss: Int = 0): IntArray {
+        val fingerprinter = AudioFingerprinter(rate, channels)
+        render(parts, rate, channels, gain, hiss) { samples, length -> fingerprinter.feed(samples, 0, length) }
+        return fingerprinter.fingerprint()
+    }
+
+    private fun tone(hz: Double, t: Double): Double = sin(2 * PI * hz * t)
+
+    private fun semitone(n: Int): Double = Math.pow(2.0, n / 12.0)
+
+    private fun hash(seed: Int, index: Int): Int {
+        var x = seed * 0x9E3779B1.toInt() + index * 0x85EBCA6B.toInt()
+        x = x xor (x ushr 16)
+        x *= 0x7FEB352D
+        x = x xor (x ushr 15)
+        x *= 0x846CA68B.toInt()
+        x = x xor (x ushr 16)
+        return x and 0x7FFFFFFF
+    }
+
+    private fun noise(seed: Int, index: Int): Double = hash(seed, index) / 1073741823.5 - 1.0
+}
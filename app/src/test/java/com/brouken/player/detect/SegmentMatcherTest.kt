@@ -0,0 +1,109 @@
+package com.brouken.player.detect
+
+import com.brouken.player.detect.PcmFixtures.body
+import com.brouken.player.detect.PcmFixtures.fingerprint
+import com.brouken.player.detect.PcmFixtures.silence
+import com.brouken.player.detect.PcmFixtures.theme
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.math.abs
+
+/**
+ * Runs the fingerprint and matching core over synthetic episodes: a shared
+ * opening after cold opens of different lengths, rendered at different
+ * sample rates, channel counts and gains
+ */
+class SegmentMatcherTest {
+
+    private val opening = theme(seed = 11, seconds = 60.0)
+    private val credits = theme(seed = 23, seconds = 45.0)
+
+    // Rendered once; each is a few million samples
+    private val season: List<IntArray> by lazy {
+        listOf(
+            fingerprint(listOf(body(1, 40.0), opening, body(101, 120.0)), rate = 44100, channels = 2),
+            fingerprint(listOf(body(2, 75.0), opening, body(102, 120.0)), rate = 48000, channels = 2, gain = 0.6, hiss = 5),
+            fingerprint(listOf(silence(5.0), opening, body(103, 150.0)), rate = 22050, channels = 1, gain = 0.8, hiss = 9)
+        )
+    }
+
+    private val introStarts = listOf(40.0, 75.0, 5.0)
+
+    @Test
+    fun codeRateIsIndependentOfInputFormat() {
+        val parts = listOf(body(4, 30.0))
+        val expected = (30.0 / AudioFingerprinter.FRAME_SECONDS).toInt()
+        for ((rate, channels) in listOf(8000 to 1, 22050 to 1, 44100 to 2, 48000 to 6)) {
+            val codes = fingerprint(parts, rate, channels)
+            assertTrue("$rate Hz x $channels: ${codes.size} codes", abs(codes.size - expected) <= 2)
+        }
+    }
+
+    @Test
+    fun sameAudioGivesNearIdenticalCodes() {
+        val parts = listOf(opening)
+        val reference = fingerprint(parts, rate = 44100, channels = 2)
+        val reencoded = fingerprint(parts, rate = 48000, channels = 1, gain = 0.5, hiss = 3)
+        val frames = minOf(reference.size, reencoded.size)
+        val bitErrors = (0 until frames).sumOf { Integer.bitCount(reference[it] xor reencoded[it]) }
+        val rate = bitErrors.toDouble() / (frames * 32)
+        assertTrue("Bit error rate $rate", rate < 0.15)
+    }
+
+    @Test
+    fun silenceIsNeverFingerprinted() {
+        val codes = fingerprint(listOf(silence(10.0)), rate = 44100, channels = 2)
+        assertTrue(codes.isNotEmpty())
+        assertTrue(codes.all { it == AudioFingerprinter.SILENT })
+    }
+
+    @Test
+    fun findsOpeningAfterColdOpensOfDifferentLength() {
+        for (target in season.indices) {
+            val others = season.filterIndexed { index, _ -> index != target }
+            val segment = SegmentMatcher.findShared(season[target], others)
+            assertNotNull("Episode $target: no opening found", segment)
+            segment!!
+            assertEquals("Episode $target start", introStarts[target], segment.start, 1.5)
+            assertEquals("Episode $target end", introStarts[target] + 60.0, segment.end, 1.5)
+        }
+    }
+
+    @Test
+    fun findsOpeningWithOnlyOneOtherEpisode() {
+        val segment = SegmentMatcher.findShared(season[0], listOf(season[1]))
+        assertNotNull(segment)
+        assertEquals(40.0, segment!!.start, 1.5)
+        assertEquals(100.0, segment.end, 1.5)
+    }
+
+    @Test
+    fun findsCreditsBeforeDifferentPreviews() {
+        val first = fingerprint(listOf(body(31, 90.0), credits, body(41, 20.0)), rate = 48000, channels = 2)
+        val second = fingerprint(listOf(body(32, 50.0), credits, silence(10.0)), rate = 44100, channels = 2, gain = 0.7, hiss = 2)
+
+        val segment = SegmentMatcher.findShared(first, listOf(second))
+        assertNotNull(segment)
+        assertEquals(90.0, segment!!.start, 1.5)
+        assertEquals(135.0, segment.end, 1.5)
+    }
+
+    @Test
+    fun unrelatedEpisodesShareNothing() {
+        val first = fingerprint(listOf(body(51, 150.0)), rate = 44100, channels = 2)
+        val second = fingerprint(listOf(body(52, 150.0)), rate = 48000, channels = 2)
+        val third = fingerprint(listOf(theme(61, 60.0), body(53, 60.0)), rate = 44100, channels = 1)
+
+        assertNull(SegmentMatcher.findShared(first, listOf(second, third)))
+    }
+
+    @Test
+    fun shortSharedStingIsNotAnOpening() {
+        // A 5 second logo sting is shorter than any opening
+        val sting = theme(71, 5.0)
+        val first = fingerprint(listOf(body(72, 30.0), sting, body(73, 60.0)), rate = 44100, channels = 2)
+        val second = fingerprint(listOf(body(74, 50.0), sting, body(75, 60.0)), rate = 44100, channels = 2)
+
+        assertNull(SegmentMatcher.findShared(first, listOf(second)))
+    }
+}
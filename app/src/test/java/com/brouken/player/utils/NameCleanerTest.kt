@@ -0,0 +1,68 @@
+package com.brouken.player.utils
+
+import org.junit.Assert.*
+import org.junit.Test
+import kotlin.random.Random
+
+/**
+ * Checks NameCleaner against a corpus of release names recorded from the
+ * regex implementation
+ */
+class NameCleanerTest {
+
+    private data class Case(val filename: String, val expected: NameCleaner.CleanResult)
+
+    private val corpus: List<Case> by lazy {
+        val stream = javaClass.getResourceAsStream("namecleaner_corpus.tsv")
+            ?: error("namecleaner_corpus.tsv missing from test resources")
+        stream.bufferedReader().useLines { lines ->
+            lines.filter { it.isNotBlank() && !it.startsWith("#") }
+                .map { line ->
+                    val columns = line.split('\t')
+                    assertEquals("Malformed corpus line: $line", 6, columns.size)
+                    Case(
+                        columns[0],
+                        NameCleaner.CleanResult(
+                            showName = columns[1],
+                            season = columns[2].toInt(),
+                            episode = columns[3].toInt(),
+                            year = columns[4].takeIf { it != "-" }?.toInt(),
+                            isAnime = columns[5].toBooleanStrict()
+                        )
+                    )
+                }
+                .toList()
+        }
+    }
+
+    @Test
+    fun corpusMatchesRecordedResults() {
+        assertTrue(corpus.size > 100)
+        for (case in corpus) {
+            assertEquals(case.filename, case.expected, NameCleaner.clean(case.filename))
+        }
+    }
+
+    @Test
+    fun corpusStillMatchesRegexImplementation() {
+        for (case in corpus) {
+            assertEquals(case.filename, RegexNameCleaner.clean(case.filename), NameCleaner.clean(case.filename))
+        }
+    }
+
+    @Test
+    fun mutatedNamesMatchRegexImplementation() {
+        // Cut, splice and re-separate corpus names to reach the odd corners
+        val random = Random(7)
+        val separators = listOf(" ", ".", "_", "-", " - ", "(", ")", "[", "]", "\n", "")
+        val names = corpus.map { it.filename }
+        repeat(20_000) {
+            val a = names[random.nextInt(names.size)]
+            val b = names[random.nextInt(names.size)]
+            val name = a.substring(0, random.nextInt(a.length + 1)) +
+                    separators[random.nextInt(separators.size)] +
+                    b.substring(random.nextInt(b.length + 1))
+            assertEquals(name, RegexNameCleaner.clean(name), NameCleaner.clean(name))
+        }
+    }
+}